@@ -50,8 +50,10 @@ class AndroidLanTcpPlugin extends LanTcpPlugin implements EventListener {
 	AndroidLanTcpPlugin(Executor ioExecutor, Context appContext,
 			Backoff backoff, PluginCallback callback, int maxLatency,
 			int maxIdleTime, int connectionTimeout) {
+		// Don't use the selector, as outgoing connections must be made with
+		// the wifi network's socket factory
 		super(ioExecutor, backoff, callback, maxLatency, maxIdleTime,
-				connectionTimeout);
+				connectionTimeout, false);
 		// Don't execute more than one connection status check at a time
 		connectionStatusExecutor =
 				new PoliteExecutor("AndroidLanTcpPlugin", ioExecutor, 1);
@@ -6,4 +6,18 @@ package org.briarproject.bramble.api;
 public interface FeatureFlags {
 
 	boolean shouldEnableImageAttachments();
+
+	boolean shouldEnableGroupCommit();
+
+	boolean shouldEnableConcurrentReads();
+
+	boolean shouldEnableParallelDatabaseExecutor();
+
+	boolean shouldEnableDatabaseCache();
+
+	boolean shouldEnablePipelinedSync();
+
+	boolean shouldEnableTcpSelector();
+
+	boolean shouldEnableVirtualThreads();
 }
@@ -49,7 +49,7 @@ public abstract class BdfMessageValidator implements MessageValidator {
 					"Timestamp is too far in the future");
 		}
 		try {
-			BdfList bodyList = clientHelper.toList(m.getBody());
+			BdfList bodyList = clientHelper.toList(m);
 			BdfMessageContext result = validateMessage(m, g, bodyList);
 			Metadata meta = metadataEncoder.encode(result.getDictionary());
 			return new MessageContext(meta, result.getDependencies());
@@ -16,6 +16,7 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.Map;
 
 @NotNullByDefault
@@ -63,6 +64,10 @@ public interface ClientHelper {
 	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
 			Transaction txn, GroupId g) throws DbException, FormatException;
 
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException;
+
 	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(GroupId g,
 			BdfDictionary query) throws DbException, FormatException;
 
@@ -2,8 +2,10 @@ package org.briarproject.bramble.api.crypto;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -94,6 +96,17 @@ public interface CryptoComponent {
 	boolean verifySignature(byte[] signature, String label, byte[] signed,
 			PublicKey publicKey) throws GeneralSecurityException;
 
+	/**
+	 * Verifies a batch of signatures, which is cheaper than verifying them
+	 * one at a time when several of them use the same public key.
+	 *
+	 * @return An array containing true for each signature that was valid and
+	 * false for each signature that was invalid or malformed, or whose public
+	 * key was malformed or not a signature key, in the same order as the
+	 * given list.
+	 */
+	boolean[] verifySignatures(List<SignedData> signatures);
+
 	/**
 	 * Returns the hash of the given inputs. The inputs are unambiguously
 	 * combined by prefixing each input with its length.
@@ -104,6 +117,19 @@ public interface CryptoComponent {
 	 */
 	byte[] hash(String label, byte[]... inputs);
 
+	/**
+	 * Returns the hash of the given inputs, which is the same as the hash
+	 * returned by {@link #hash(String, byte[]...)} for the same bytes. Each
+	 * input is the remaining content of a buffer, so part of a larger array
+	 * can be hashed without copying it. The buffers' positions are not
+	 * changed.
+	 *
+	 * @param label A namespaced label indicating the purpose of this hash, to
+	 * prevent it from being repurposed or colliding with a hash created for
+	 * another purpose
+	 */
+	byte[] hash(String label, ByteBuffer... inputs);
+
 	/**
 	 * Returns a message authentication code with the given key over the
 	 * given inputs. The inputs are unambiguously combined by prefixing each
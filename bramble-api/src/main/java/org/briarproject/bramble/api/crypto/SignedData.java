@@ -0,0 +1,43 @@
+package org.briarproject.bramble.api.crypto;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A signature, the data it signs and the public key that should verify it,
+ * for verifying in a batch with
+ * {@link CryptoComponent#verifySignatures(java.util.List)}.
+ */
+@Immutable
+@NotNullByDefault
+public class SignedData {
+
+	private final byte[] signature, signed;
+	private final String label;
+	private final PublicKey publicKey;
+
+	public SignedData(byte[] signature, String label, byte[] signed,
+			PublicKey publicKey) {
+		this.signature = signature;
+		this.label = label;
+		this.signed = signed;
+		this.publicKey = publicKey;
+	}
+
+	public byte[] getSignature() {
+		return signature;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public byte[] getSigned() {
+		return signed;
+	}
+
+	public PublicKey getPublicKey() {
+		return publicKey;
+	}
+}
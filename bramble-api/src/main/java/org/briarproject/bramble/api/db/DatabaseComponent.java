@@ -80,6 +80,20 @@ public interface DatabaseComponent extends TransactionManager {
 	void addLocalMessage(Transaction txn, Message m, Metadata meta,
 			boolean shared, boolean temporary) throws DbException;
 
+	/**
+	 * Adds the given message to the threads of its group, as a reply to the
+	 * given parent, or as the first message of a new thread if the parent is
+	 * null. Threads, and replies to the same parent, are sorted by sort key,
+	 * so a client can list the messages in a group in depth-first order, a
+	 * page at a time.
+	 * <p/>
+	 * Returns false, without adding the message, if the parent hasn't been
+	 * added. Returns true without changing anything if the message has
+	 * already been added.
+	 */
+	boolean addMessageToThread(Transaction txn, MessageId m,
+			@Nullable MessageId parent, String sortKey) throws DbException;
+
 	/**
 	 * Stores a pending contact.
 	 */
@@ -280,6 +294,15 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Message getMessage(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the message counts of the given groups. Groups without message
+	 * counts are not included.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, MessageCounts> getMessageCounts(Transaction txn,
+			Collection<GroupId> g) throws DbException;
+
 	/**
 	 * Returns the IDs of all delivered messages in the given group.
 	 * <p/>
@@ -322,6 +345,15 @@ public interface DatabaseComponent extends TransactionManager {
 	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered
+	 * and have metadata. Messages that don't exist are not included.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the metadata for any delivered messages in the given group with
 	 * metadata that matches all entries in the given query. If the query is
@@ -358,6 +390,22 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<MessageStatus> getMessageStatus(Transaction txn, ContactId c,
 			GroupId g) throws DbException;
 
+	/**
+	 * Returns the status of delivered messages in the given group with
+	 * respect to the given contact, newest first, starting with the newest
+	 * message with a timestamp earlier than the given timestamp. Deleted
+	 * messages are not included.
+	 * <p/>
+	 * Up to the given number of statuses are returned, followed by the
+	 * statuses of any other messages with the same timestamp as the last
+	 * status returned, so the next page can be requested by passing that
+	 * timestamp.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageStatus> getMessageStatus(Transaction txn, ContactId c,
+			GroupId g, long before, int limit) throws DbException;
+
 	/**
 	 * Returns the IDs and states of all dependencies of the given message.
 	 * For missing dependencies and dependencies in other groups, the state
@@ -435,6 +483,18 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	List<Byte> getSyncVersions(Transaction txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the IDs and depths of up to the given number of messages in
+	 * the given group that have been added to threads, in depth-first order,
+	 * starting after the given message, or with the first message if the
+	 * given message is null. If the given message hasn't been added to a
+	 * thread, an empty map is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Integer> getThreadedMessages(Transaction txn, GroupId g,
+			@Nullable MessageId after, int maxMessages) throws DbException;
+
 	/**
 	 * Returns all transport keys for the given transport.
 	 * <p/>
@@ -443,6 +503,15 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<TransportKeySet> getTransportKeys(Transaction txn, TransportId t)
 			throws DbException;
 
+	/**
+	 * Adds the given numbers to the message counts of the given group, and
+	 * updates the timestamp of the latest message if the given timestamp is
+	 * later. Returns false without changing the counts if the group has no
+	 * message counts, or if the unread count would become negative.
+	 */
+	boolean incrementMessageCounts(Transaction txn, GroupId g, int msgCount,
+			int unreadCount, long latestMsgTime) throws DbException;
+
 	/**
 	 * Increments the outgoing stream counter for the given transport keys.
 	 */
@@ -481,6 +550,14 @@ public interface DatabaseComponent extends TransactionManager {
 	void receiveMessage(Transaction txn, ContactId c, Message m)
 			throws DbException;
 
+	/**
+	 * Processes messages from the given contact. This is equivalent to
+	 * calling {@link #receiveMessage(Transaction, ContactId, Message)} for
+	 * each message, but uses fewer queries.
+	 */
+	void receiveMessages(Transaction txn, ContactId c,
+			Collection<Message> messages) throws DbException;
+
 	/**
 	 * Processes an offer from the given contact.
 	 */
@@ -552,6 +629,12 @@ public interface DatabaseComponent extends TransactionManager {
 	void setGroupVisibility(Transaction txn, ContactId c, GroupId g,
 			Visibility v) throws DbException;
 
+	/**
+	 * Sets the message counts of the given group.
+	 */
+	void setMessageCounts(Transaction txn, GroupId g, MessageCounts counts)
+			throws DbException;
+
 	/**
 	 * Marks the given message as permanent, i.e. not temporary.
 	 */
@@ -0,0 +1,35 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The number of messages and unread messages in a group, and the timestamp
+ * of the latest message, as maintained by the group's client.
+ */
+@Immutable
+@NotNullByDefault
+public class MessageCounts {
+
+	private final int msgCount, unreadCount;
+	private final long latestMsgTime;
+
+	public MessageCounts(int msgCount, int unreadCount, long latestMsgTime) {
+		this.msgCount = msgCount;
+		this.unreadCount = unreadCount;
+		this.latestMsgTime = latestMsgTime;
+	}
+
+	public int getMsgCount() {
+		return msgCount;
+	}
+
+	public int getUnreadCount() {
+		return unreadCount;
+	}
+
+	public long getLatestMsgTime() {
+		return latestMsgTime;
+	}
+}
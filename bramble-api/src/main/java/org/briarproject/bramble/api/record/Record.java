@@ -2,9 +2,19 @@ package org.briarproject.bramble.api.record;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
-import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
 
-@Immutable
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A record consisting of a protocol version, a record type and a payload.
+ * <p>
+ * A record may be a view of part of a buffer that is owned by someone else,
+ * such as a {@link RecordReader} that reuses its buffer for each record it
+ * reads. Such a record is only valid until the buffer is reused, and its
+ * {@link #getPayload() payload} is copied when it's requested.
+ */
+@NotThreadSafe
 @NotNullByDefault
 public class Record {
 
@@ -12,14 +22,35 @@ public class Record {
 	public static final int MAX_RECORD_PAYLOAD_BYTES = 48 * 1024; // 48 KiB
 
 	private final byte protocolVersion, recordType;
-	private final byte[] payload;
+	private final byte[] buffer;
+	private final int offset, length;
+	private final boolean view;
 
 	public Record(byte protocolVersion, byte recordType, byte[] payload) {
-		if (payload.length > MAX_RECORD_PAYLOAD_BYTES)
+		this(protocolVersion, recordType, payload, 0, payload.length, false);
+	}
+
+	/**
+	 * Creates a record that is a view of part of the given buffer. The caller
+	 * may reuse the buffer once the record is no longer needed.
+	 */
+	public Record(byte protocolVersion, byte recordType, byte[] buffer,
+			int offset, int length) {
+		this(protocolVersion, recordType, buffer, offset, length, true);
+	}
+
+	private Record(byte protocolVersion, byte recordType, byte[] buffer,
+			int offset, int length, boolean view) {
+		if (length > MAX_RECORD_PAYLOAD_BYTES)
+			throw new IllegalArgumentException();
+		if (offset < 0 || length < 0 || offset + length > buffer.length)
 			throw new IllegalArgumentException();
 		this.protocolVersion = protocolVersion;
 		this.recordType = recordType;
-		this.payload = payload;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		this.view = view;
 	}
 
 	public byte getProtocolVersion() {
@@ -30,7 +61,30 @@ public class Record {
 		return recordType;
 	}
 
+	/**
+	 * Returns the payload. If the record is a view of a buffer, the payload
+	 * is copied out of the buffer and remains valid after the buffer is
+	 * reused.
+	 */
 	public byte[] getPayload() {
-		return payload;
+		if (view) return Arrays.copyOfRange(buffer, offset, offset + length);
+		return buffer;
+	}
+
+	/**
+	 * Returns the array that holds the payload, starting at
+	 * {@link #getPayloadOffset()}. The array must not be modified, and may be
+	 * reused once the record is no longer needed if the record is a view.
+	 */
+	public byte[] getPayloadBuffer() {
+		return buffer;
+	}
+
+	public int getPayloadOffset() {
+		return offset;
+	}
+
+	public int getPayloadLength() {
+		return length;
 	}
 }
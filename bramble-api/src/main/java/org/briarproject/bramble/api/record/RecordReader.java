@@ -13,7 +13,9 @@ import javax.annotation.Nullable;
 public interface RecordReader {
 
 	/**
-	 * Reads and returns the next record.
+	 * Reads and returns the next record. The record may be a view of a buffer
+	 * that is reused by the reader, in which case it's only valid until the
+	 * next record is read.
 	 *
 	 * @throws EOFException if the end of the stream is reached without reading
 	 * a complete record
@@ -24,7 +26,8 @@ public interface RecordReader {
 	 * Reads and returns the next record matching the 'accept' predicate,
 	 * skipping any records that match the 'ignore' predicate. Returns null if
 	 * no record matching the 'accept' predicate is found before the end of the
-	 * stream.
+	 * stream. The record may be a view of a buffer that is reused by the
+	 * reader, in which case it's only valid until the next record is read.
 	 *
 	 * @throws EOFException If the end of the stream is reached without
 	 * reading a complete record
@@ -1,12 +1,26 @@
 package org.briarproject.bramble.api.sync;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.util.ByteUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Arrays.copyOfRange;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 
+/**
+ * A message, which may be backed by its body or by its raw representation
+ * (the group ID, timestamp and body). The other representation is created
+ * when it's first needed, so a message that's received, stored, loaded and
+ * sent in its raw representation is never copied.
+ */
 @Immutable
 @NotNullByDefault
 public class Message {
@@ -19,7 +33,10 @@ public class Message {
 	private final MessageId id;
 	private final GroupId groupId;
 	private final long timestamp;
-	private final byte[] body;
+
+	// Created lazily from the other representation
+	@Nullable
+	private volatile byte[] body, raw;
 
 	public Message(MessageId id, GroupId groupId, long timestamp, byte[] body) {
 		if (body.length == 0) throw new IllegalArgumentException();
@@ -29,6 +46,23 @@ public class Message {
 		this.groupId = groupId;
 		this.timestamp = timestamp;
 		this.body = body;
+		raw = null;
+	}
+
+	/**
+	 * Creates a message backed by its raw representation. The raw message is
+	 * not copied, so it must not be modified after calling this constructor.
+	 */
+	public Message(MessageId id, byte[] raw) {
+		if (raw.length <= MESSAGE_HEADER_LENGTH)
+			throw new IllegalArgumentException();
+		if (raw.length > MAX_MESSAGE_LENGTH)
+			throw new IllegalArgumentException();
+		this.id = id;
+		groupId = new GroupId(copyOfRange(raw, 0, UniqueId.LENGTH));
+		timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
+		this.raw = raw;
+		body = null;
 	}
 
 	/**
@@ -56,14 +90,62 @@ public class Message {
 	 * Returns the length of the raw message in bytes.
 	 */
 	public int getRawLength() {
-		return MESSAGE_HEADER_LENGTH + body.length;
+		byte[] r = raw;
+		if (r != null) return r.length;
+		byte[] b = body;
+		if (b == null) throw new AssertionError();
+		return MESSAGE_HEADER_LENGTH + b.length;
 	}
 
 	/**
-	 * Returns the message body.
+	 * Returns the raw message. The body starts at offset
+	 * {@link SyncConstants#MESSAGE_HEADER_LENGTH}. The returned array must
+	 * not be modified.
+	 */
+	public byte[] getRaw() {
+		byte[] r = raw;
+		if (r == null) {
+			byte[] b = body;
+			if (b == null) throw new AssertionError();
+			r = new byte[MESSAGE_HEADER_LENGTH + b.length];
+			System.arraycopy(groupId.getBytes(), 0, r, 0, UniqueId.LENGTH);
+			ByteUtils.writeUint64(timestamp, r, UniqueId.LENGTH);
+			System.arraycopy(b, 0, r, MESSAGE_HEADER_LENGTH, b.length);
+			raw = r;
+		}
+		return r;
+	}
+
+	/**
+	 * Returns the message body. If the message is backed by its raw
+	 * representation, the body is copied the first time this method is
+	 * called, so callers that only need to read the body should use
+	 * {@link #getBodyInputStream()} instead. The returned array must not be
+	 * modified.
 	 */
 	public byte[] getBody() {
-		return body;
+		byte[] b = body;
+		if (b == null) {
+			byte[] r = raw;
+			if (r == null) throw new AssertionError();
+			b = copyOfRange(r, MESSAGE_HEADER_LENGTH, r.length);
+			body = b;
+		}
+		return b;
+	}
+
+	/**
+	 * Returns a stream for reading the message body from whichever
+	 * representation backs the message, without creating the other
+	 * representation.
+	 */
+	public InputStream getBodyInputStream() {
+		byte[] b = body;
+		if (b != null) return new ByteArrayInputStream(b);
+		byte[] r = raw;
+		if (r == null) throw new AssertionError();
+		return new ByteArrayInputStream(r, MESSAGE_HEADER_LENGTH,
+				r.length - MESSAGE_HEADER_LENGTH);
 	}
 
 	@Override
@@ -75,4 +157,4 @@ public class Message {
 	public boolean equals(Object o) {
 		return o instanceof Message && id.equals(((Message) o).getId());
 	}
-}
\ No newline at end of file
+}
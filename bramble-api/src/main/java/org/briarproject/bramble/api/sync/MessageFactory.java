@@ -7,7 +7,15 @@ public interface MessageFactory {
 
 	Message createMessage(GroupId g, long timestamp, byte[] body);
 
+	/**
+	 * Creates a message from its raw representation. The raw message is not
+	 * copied, so it must not be modified after calling this method.
+	 */
 	Message createMessage(byte[] raw);
 
+	/**
+	 * Returns the raw representation of the given message. The returned
+	 * array must not be modified.
+	 */
 	byte[] getRawMessage(Message m);
 }
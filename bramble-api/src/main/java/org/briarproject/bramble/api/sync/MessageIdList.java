@@ -0,0 +1,64 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import javax.annotation.concurrent.Immutable;
+
+import static org.briarproject.bramble.api.UniqueId.LENGTH;
+
+/**
+ * An immutable list of {@link MessageId MessageIds} that are stored one after
+ * another in a single byte array, rather than as separate objects. Each
+ * identifier is wrapped in a MessageId when it's accessed.
+ */
+@Immutable
+@NotNullByDefault
+public class MessageIdList extends AbstractList<MessageId>
+		implements RandomAccess {
+
+	private final byte[] ids;
+
+	/**
+	 * Creates a list from the given array, which holds zero or more
+	 * identifiers one after another. The array must not be modified
+	 * afterwards.
+	 */
+	public MessageIdList(byte[] ids) {
+		if (ids.length % LENGTH != 0) throw new IllegalArgumentException();
+		this.ids = ids;
+	}
+
+	/**
+	 * Creates a list by copying the given range of the given array, which
+	 * holds zero or more identifiers one after another.
+	 */
+	public MessageIdList(byte[] buffer, int offset, int length) {
+		this(Arrays.copyOfRange(buffer, offset, offset + length));
+	}
+
+	@Override
+	public MessageId get(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException();
+		int offset = index * LENGTH;
+		return new MessageId(Arrays.copyOfRange(ids, offset,
+				offset + LENGTH));
+	}
+
+	@Override
+	public int size() {
+		return ids.length / LENGTH;
+	}
+
+	/**
+	 * Returns the identifiers one after another. The returned array must not
+	 * be modified.
+	 */
+	public byte[] getBytes() {
+		return ids;
+	}
+}
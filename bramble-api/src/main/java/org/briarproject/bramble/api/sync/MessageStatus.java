@@ -6,12 +6,14 @@ public class MessageStatus {
 
 	private final MessageId messageId;
 	private final ContactId contactId;
+	private final long timestamp;
 	private final boolean sent, seen;
 
 	public MessageStatus(MessageId messageId, ContactId contactId,
-			boolean sent, boolean seen) {
+			long timestamp, boolean sent, boolean seen) {
 		this.messageId = messageId;
 		this.contactId = contactId;
+		this.timestamp = timestamp;
 		this.sent = sent;
 		this.seen = seen;
 	}
@@ -30,6 +32,13 @@ public class MessageStatus {
 		return contactId;
 	}
 
+	/**
+	 * Returns the timestamp of the message.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
 	/**
 	 * Returns true if the message has been sent to the contact.
 	 */
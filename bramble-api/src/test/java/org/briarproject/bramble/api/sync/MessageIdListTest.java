@@ -0,0 +1,68 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MessageIdListTest extends BrambleTestCase {
+
+	private final MessageId id1 = new MessageId(getRandomId());
+	private final MessageId id2 = new MessageId(getRandomId());
+
+	@Test
+	public void testListContainsIdsFromArray() {
+		byte[] ids = concat(id1, id2);
+		List<MessageId> list = new MessageIdList(ids);
+		assertEquals(2, list.size());
+		assertEquals(asList(id1, id2), list);
+		assertEquals(asList(id1, id2).hashCode(), list.hashCode());
+	}
+
+	@Test
+	public void testListCopiesRangeOfBuffer() {
+		byte[] ids = concat(id2, id1, id2);
+		MessageIdList list = new MessageIdList(ids, UniqueId.LENGTH,
+				UniqueId.LENGTH * 2);
+		assertEquals(asList(id1, id2), list);
+		assertArrayEquals(concat(id1, id2), list.getBytes());
+	}
+
+	@Test
+	public void testEmptyList() {
+		assertEquals(emptyList(), new MessageIdList(new byte[0]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsPartialId() {
+		new MessageIdList(new byte[UniqueId.LENGTH + 1]);
+	}
+
+	@Test
+	public void testRejectsIndexOutOfRange() {
+		List<MessageId> list = new MessageIdList(concat(id1));
+		try {
+			list.get(1);
+			fail();
+		} catch (IndexOutOfBoundsException expected) {
+			// Expected
+		}
+	}
+
+	private byte[] concat(MessageId... ids) {
+		byte[] b = new byte[ids.length * UniqueId.LENGTH];
+		for (int i = 0; i < ids.length; i++) {
+			System.arraycopy(ids[i].getBytes(), 0, b, i * UniqueId.LENGTH,
+					UniqueId.LENGTH);
+		}
+		return b;
+	}
+}
@@ -0,0 +1,70 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MessageTest extends BrambleTestCase {
+
+	private final GroupId groupId = new GroupId(getRandomId());
+
+	@Test
+	public void testRawMessageIsCreatedFromBody() {
+		Message m = getMessage(groupId, 123);
+		byte[] raw = m.getRaw();
+		assertEquals(MESSAGE_HEADER_LENGTH + 123, raw.length);
+		assertEquals(raw.length, m.getRawLength());
+		// Parsing the raw message should produce an identical message
+		Message parsed = new Message(m.getId(), raw);
+		assertEquals(groupId, parsed.getGroupId());
+		assertEquals(m.getTimestamp(), parsed.getTimestamp());
+		assertArrayEquals(m.getBody(), parsed.getBody());
+		// The raw message should only be created once
+		assertSame(raw, m.getRaw());
+	}
+
+	@Test
+	public void testRawMessageIsNotCopied() {
+		byte[] raw = getMessage(groupId, 123).getRaw();
+		Message m = new Message(new MessageId(getRandomId()), raw);
+		assertSame(raw, m.getRaw());
+		assertEquals(raw.length, m.getRawLength());
+		// The body should only be copied once
+		byte[] body = m.getBody();
+		assertEquals(123, body.length);
+		assertSame(body, m.getBody());
+	}
+
+	@Test
+	public void testBodyCanBeReadFromEitherRepresentation()
+			throws Exception {
+		Message fromBody = getMessage(groupId, 123);
+		byte[] body = fromBody.getBody();
+		assertArrayEquals(body, read(fromBody.getBodyInputStream()));
+		Message fromRaw = new Message(fromBody.getId(), fromBody.getRaw());
+		assertArrayEquals(body, read(fromRaw.getBodyInputStream()));
+	}
+
+	private byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != -1) out.write(b);
+		return out.toByteArray();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRawMessageWithoutBodyIsRejected() {
+		new Message(new MessageId(getRandomId()),
+				new byte[MESSAGE_HEADER_LENGTH]);
+	}
+}
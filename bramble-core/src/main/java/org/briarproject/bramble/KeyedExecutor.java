@@ -0,0 +1,97 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.logging.Level.FINE;
+import static org.briarproject.bramble.util.LogUtils.now;
+
+/**
+ * An {@link Executor} that delegates its tasks to another {@link Executor}
+ * while preserving the order of tasks submitted with the same key. Tasks
+ * with the same key run in the order they are submitted and do not run
+ * concurrently. Tasks with different keys may run concurrently if the
+ * delegate has more than one thread.
+ * <p/>
+ * Tasks submitted without a key share a default key, so they run in the
+ * order they are submitted, as they would on a single-threaded executor.
+ */
+@ThreadSafe
+@NotNullByDefault
+public class KeyedExecutor implements Executor {
+
+	private static final Object DEFAULT_KEY = new Object();
+
+	private final Object lock = new Object();
+	@GuardedBy("lock")
+	private final Map<Object, Queue<Runnable>> queues = new HashMap<>();
+	private final Executor delegate;
+	private final boolean parallel;
+	private final Logger log;
+
+	/**
+	 * @param tag the tag to be used for logging
+	 * @param delegate the executor to which tasks will be delegated
+	 * @param parallel if false, keys are ignored and all tasks submitted to
+	 * this executor run in the order they are submitted and do not run
+	 * concurrently
+	 */
+	public KeyedExecutor(String tag, Executor delegate, boolean parallel) {
+		this.delegate = delegate;
+		this.parallel = parallel;
+		log = Logger.getLogger(tag);
+	}
+
+	@Override
+	public void execute(Runnable r) {
+		execute(DEFAULT_KEY, r);
+	}
+
+	/**
+	 * Submits a task that will run after any tasks previously submitted with
+	 * an equal key.
+	 */
+	public void execute(Object key, Runnable r) {
+		Object k = parallel ? key : DEFAULT_KEY;
+		long submitted = now();
+		Runnable wrapped = () -> {
+			if (log.isLoggable(FINE)) {
+				long queued = now() - submitted;
+				log.fine("Queue time " + queued + " ms");
+			}
+			try {
+				r.run();
+			} finally {
+				scheduleNext(k);
+			}
+		};
+		synchronized (lock) {
+			Queue<Runnable> queue = queues.get(k);
+			if (queue == null) {
+				// No task with this key is running, so delegate the task now
+				queues.put(k, new LinkedList<>());
+				delegate.execute(wrapped);
+			} else {
+				queue.add(wrapped);
+			}
+		}
+	}
+
+	private void scheduleNext(Object key) {
+		synchronized (lock) {
+			Queue<Runnable> queue = queues.get(key);
+			Runnable next = queue.poll();
+			if (next == null) queues.remove(key);
+			else delegate.execute(next);
+		}
+	}
+}
@@ -1,11 +1,13 @@
 package org.briarproject.bramble.client;
 
+import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.crypto.KeyParser;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.BdfReader;
@@ -27,16 +29,20 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.crypto.SignatureBatcher;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.identity.Author.FORMAT_VERSION;
@@ -47,7 +53,7 @@ import static org.briarproject.bramble.api.properties.TransportPropertyConstants
 import static org.briarproject.bramble.util.ValidationUtils.checkLength;
 import static org.briarproject.bramble.util.ValidationUtils.checkSize;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class ClientHelperImpl implements ClientHelper {
 
@@ -57,6 +63,12 @@ class ClientHelperImpl implements ClientHelper {
 	 */
 	private static final int SALT_LENGTH = 32;
 
+	/**
+	 * The maximum number of parsed authors to cache. If the cache is full
+	 * it's cleared before adding another author.
+	 */
+	static final int MAX_CACHED_AUTHORS = 1000;
+
 	private final DatabaseComponent db;
 	private final MessageFactory messageFactory;
 	private final BdfReaderFactory bdfReaderFactory;
@@ -65,13 +77,21 @@ class ClientHelperImpl implements ClientHelper {
 	private final MetadataEncoder metadataEncoder;
 	private final CryptoComponent crypto;
 	private final AuthorFactory authorFactory;
+	private final SignatureBatcher signatureBatcher;
+
+	/**
+	 * Recently parsed authors, keyed by their public keys. Parsing a public
+	 * key and hashing an author are expensive, and the same authors are
+	 * parsed again and again when listing posts.
+	 */
+	private final Map<Bytes, Author> authors = new ConcurrentHashMap<>();
 
 	@Inject
 	ClientHelperImpl(DatabaseComponent db, MessageFactory messageFactory,
 			BdfReaderFactory bdfReaderFactory,
 			BdfWriterFactory bdfWriterFactory, MetadataParser metadataParser,
 			MetadataEncoder metadataEncoder, CryptoComponent crypto,
-			AuthorFactory authorFactory) {
+			AuthorFactory authorFactory, SignatureBatcher signatureBatcher) {
 		this.db = db;
 		this.messageFactory = messageFactory;
 		this.bdfReaderFactory = bdfReaderFactory;
@@ -80,6 +100,7 @@ class ClientHelperImpl implements ClientHelper {
 		this.metadataEncoder = metadataEncoder;
 		this.crypto = crypto;
 		this.authorFactory = authorFactory;
+		this.signatureBatcher = signatureBatcher;
 	}
 
 	@Override
@@ -134,7 +155,7 @@ class ClientHelperImpl implements ClientHelper {
 	@Override
 	public BdfList getMessageAsList(Transaction txn, MessageId m)
 			throws DbException, FormatException {
-		return toList(db.getMessage(txn, m).getBody());
+		return toList(db.getMessage(txn, m));
 	}
 
 	@Override
@@ -182,6 +203,17 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, Collection<MessageId> ids) throws DbException,
+			FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, ids);
+		Map<MessageId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
 	@Override
 	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
 			GroupId g, BdfDictionary query) throws DbException,
@@ -286,7 +318,10 @@ class ClientHelperImpl implements ClientHelper {
 
 	@Override
 	public BdfList toList(byte[] b, int off, int len) throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
+		return toList(new ByteArrayInputStream(b, off, len));
+	}
+
+	private BdfList toList(InputStream in) throws FormatException {
 		BdfReader reader = bdfReaderFactory.createReader(in);
 		try {
 			BdfList list = reader.readList();
@@ -306,7 +341,8 @@ class ClientHelperImpl implements ClientHelper {
 
 	@Override
 	public BdfList toList(Message m) throws FormatException {
-		return toList(m.getBody());
+		// Parse the body in place to avoid copying either representation
+		return toList(m.getBodyInputStream());
 	}
 
 	@Override
@@ -324,7 +360,14 @@ class ClientHelperImpl implements ClientHelper {
 	public void verifySignature(byte[] signature, String label, BdfList signed,
 			PublicKey publicKey)
 			throws FormatException, GeneralSecurityException {
-		if (!crypto.verifySignature(signature, label, toByteArray(signed),
+		byte[] signedBytes = toByteArray(signed);
+		// If the validation manager is verifying a batch of messages, it will
+		// invalidate the message if the signature turns out to be invalid
+		if (signatureBatcher.defer(new SignedData(signature, label,
+				signedBytes, publicKey))) {
+			return;
+		}
+		if (!crypto.verifySignature(signature, label, signedBytes,
 				publicKey)) {
 			throw new GeneralSecurityException("Invalid signature");
 		}
@@ -340,6 +383,9 @@ class ClientHelperImpl implements ClientHelper {
 		checkLength(name, 1, MAX_AUTHOR_NAME_LENGTH);
 		byte[] publicKeyBytes = author.getRaw(2);
 		checkLength(publicKeyBytes, 1, MAX_PUBLIC_KEY_LENGTH);
+		Bytes key = new Bytes(publicKeyBytes);
+		Author cached = authors.get(key);
+		if (cached != null && cached.getName().equals(name)) return cached;
 		KeyParser parser = crypto.getSignatureKeyParser();
 		PublicKey publicKey;
 		try {
@@ -347,7 +393,10 @@ class ClientHelperImpl implements ClientHelper {
 		} catch (GeneralSecurityException e) {
 			throw new FormatException();
 		}
-		return authorFactory.createAuthor(formatVersion, name, publicKey);
+		Author a = authorFactory.createAuthor(formatVersion, name, publicKey);
+		if (authors.size() >= MAX_CACHED_AUTHORS) authors.clear();
+		authors.put(key, a);
+		return a;
 	}
 
 	@Override
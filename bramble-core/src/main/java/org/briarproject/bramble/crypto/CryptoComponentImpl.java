@@ -4,6 +4,7 @@ import net.i2p.crypto.eddsa.EdDSAPrivateKey;
 import net.i2p.crypto.eddsa.EdDSAPublicKey;
 import net.i2p.crypto.eddsa.KeyPairGenerator;
 
+import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.crypto.AgreementPrivateKey;
 import org.briarproject.bramble.api.crypto.AgreementPublicKey;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
@@ -16,6 +17,7 @@ import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.SignaturePrivateKey;
 import org.briarproject.bramble.api.crypto.SignaturePublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.system.SecureRandomProvider;
 import org.briarproject.bramble.util.ByteUtils;
@@ -26,11 +28,16 @@ import org.spongycastle.crypto.digests.Blake2bDigest;
 import org.whispersystems.curve25519.Curve25519;
 import org.whispersystems.curve25519.Curve25519KeyPair;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -43,6 +50,7 @@ import static org.briarproject.bramble.api.crypto.CryptoConstants.KEY_TYPE_SIGNA
 import static org.briarproject.bramble.api.crypto.DecryptionResult.INVALID_CIPHERTEXT;
 import static org.briarproject.bramble.api.crypto.DecryptionResult.INVALID_PASSWORD;
 import static org.briarproject.bramble.api.crypto.DecryptionResult.KEY_STRENGTHENER_ERROR;
+import static org.briarproject.bramble.crypto.EdSignature.decodePublicKey;
 import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
 import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.now;
@@ -58,6 +66,9 @@ class CryptoComponentImpl implements CryptoComponent {
 	private static final int PBKDF_SALT_BYTES = 32; // 256 bits
 	private static final byte PBKDF_FORMAT_SCRYPT = 0;
 	private static final byte PBKDF_FORMAT_SCRYPT_STRENGTHENED = 1;
+	private static final int HASH_BITS = 256;
+	private static final int HASH_SCRATCH_BYTES = 4096;
+	private static final int MAX_CACHED_LABELS = 1024;
 
 	private final SecureRandom secureRandom;
 	private final PasswordBasedKdf passwordBasedKdf;
@@ -66,6 +77,37 @@ class CryptoComponentImpl implements CryptoComponent {
 	private final KeyParser agreementKeyParser, signatureKeyParser;
 	private final MessageEncrypter messageEncrypter;
 
+	/**
+	 * Signature verifiers are reused by each thread, as creating them is
+	 * relatively expensive.
+	 */
+	private final ThreadLocal<EdSignature> verifiers =
+			new ThreadLocal<EdSignature>() {
+				@Override
+				protected EdSignature initialValue() {
+					return new EdSignature();
+				}
+			};
+
+	/**
+	 * Digests are reused by each thread, as hashing is frequent and the
+	 * same few labels are used over and over again.
+	 */
+	private final ThreadLocal<HashState> hashStates =
+			new ThreadLocal<HashState>() {
+				@Override
+				protected HashState initialValue() {
+					return new HashState();
+				}
+			};
+
+	/**
+	 * Length-prefixed UTF-8 encodings of the labels passed to
+	 * {@link #hash(String, byte[]...)} and friends.
+	 */
+	private final Map<String, byte[]> encodedLabels =
+			new ConcurrentHashMap<>();
+
 	@Inject
 	CryptoComponentImpl(SecureRandomProvider secureRandomProvider,
 			PasswordBasedKdf passwordBasedKdf) {
@@ -251,19 +293,48 @@ class CryptoComponentImpl implements CryptoComponent {
 			throws GeneralSecurityException {
 		if (!publicKey.getKeyType().equals(KEY_TYPE_SIGNATURE))
 			throw new IllegalArgumentException();
-		Signature sig = new EdSignature();
+		Signature sig = verifiers.get();
 		sig.initVerify(publicKey);
 		updateSignature(sig, label, signed);
 		return sig.verify(signature);
 	}
 
+	@Override
+	public boolean[] verifySignatures(List<SignedData> signatures) {
+		// Decode each distinct public key once
+		Map<Bytes, EdDSAPublicKey> keys = new HashMap<>();
+		EdSignature sig = verifiers.get();
+		boolean[] valid = new boolean[signatures.size()];
+		for (int i = 0; i < valid.length; i++) {
+			SignedData s = signatures.get(i);
+			PublicKey publicKey = s.getPublicKey();
+			// Keys are cached by their encoding, so check the type first
+			if (!publicKey.getKeyType().equals(KEY_TYPE_SIGNATURE)) {
+				valid[i] = false;
+				continue;
+			}
+			try {
+				Bytes encoded = new Bytes(publicKey.getEncoded());
+				EdDSAPublicKey key = keys.get(encoded);
+				if (key == null) {
+					key = decodePublicKey(publicKey);
+					keys.put(encoded, key);
+				}
+				sig.initVerify(key);
+				updateSignature(sig, s.getLabel(), s.getSigned());
+				valid[i] = sig.verify(s.getSignature());
+			} catch (GeneralSecurityException | IllegalArgumentException e) {
+				// The key isn't a valid point, or the signature is malformed
+				valid[i] = false;
+			}
+		}
+		return valid;
+	}
+
 	private void updateSignature(Signature signature, String label,
 			byte[] toSign) throws GeneralSecurityException {
-		byte[] labelBytes = StringUtils.toUtf8(label);
+		signature.update(encodeLabel(label));
 		byte[] length = new byte[INT_32_BYTES];
-		ByteUtils.writeUint32(labelBytes.length, length, 0);
-		signature.update(length);
-		signature.update(labelBytes);
 		ByteUtils.writeUint32(toSign.length, length, 0);
 		signature.update(length);
 		signature.update(toSign);
@@ -271,12 +342,12 @@ class CryptoComponentImpl implements CryptoComponent {
 
 	@Override
 	public byte[] hash(String label, byte[]... inputs) {
-		byte[] labelBytes = StringUtils.toUtf8(label);
-		Digest digest = new Blake2bDigest(256);
-		byte[] length = new byte[INT_32_BYTES];
-		ByteUtils.writeUint32(labelBytes.length, length, 0);
-		digest.update(length, 0, length.length);
-		digest.update(labelBytes, 0, labelBytes.length);
+		HashState state = hashStates.get();
+		Digest digest = state.digest;
+		byte[] length = state.length;
+		digest.reset();
+		byte[] encodedLabel = encodeLabel(label);
+		digest.update(encodedLabel, 0, encodedLabel.length);
 		for (byte[] input : inputs) {
 			ByteUtils.writeUint32(input.length, length, 0);
 			digest.update(length, 0, length.length);
@@ -288,13 +359,61 @@ class CryptoComponentImpl implements CryptoComponent {
 	}
 
 	@Override
-	public byte[] mac(String label, SecretKey macKey, byte[]... inputs) {
+	public byte[] hash(String label, ByteBuffer... inputs) {
+		HashState state = hashStates.get();
+		Digest digest = state.digest;
+		byte[] length = state.length;
+		digest.reset();
+		byte[] encodedLabel = encodeLabel(label);
+		digest.update(encodedLabel, 0, encodedLabel.length);
+		for (ByteBuffer input : inputs) {
+			int remaining = input.remaining();
+			ByteUtils.writeUint32(remaining, length, 0);
+			digest.update(length, 0, length.length);
+			if (input.hasArray()) {
+				digest.update(input.array(),
+						input.arrayOffset() + input.position(), remaining);
+			} else {
+				// Copy the input through the scratch buffer in chunks
+				ByteBuffer duplicate = input.duplicate();
+				byte[] scratch = state.scratch;
+				while (remaining > 0) {
+					int chunk = Math.min(remaining, scratch.length);
+					duplicate.get(scratch, 0, chunk);
+					digest.update(scratch, 0, chunk);
+					remaining -= chunk;
+				}
+			}
+		}
+		byte[] output = new byte[digest.getDigestSize()];
+		digest.doFinal(output, 0);
+		return output;
+	}
+
+	/**
+	 * Returns the UTF-8 encoding of the given label, preceded by its length
+	 * as a 32-bit integer, in the form used for hashing, MACs and signatures.
+	 * The returned array must not be modified.
+	 */
+	private byte[] encodeLabel(String label) {
+		byte[] encoded = encodedLabels.get(label);
+		if (encoded != null) return encoded;
 		byte[] labelBytes = StringUtils.toUtf8(label);
+		encoded = new byte[INT_32_BYTES + labelBytes.length];
+		ByteUtils.writeUint32(labelBytes.length, encoded, 0);
+		arraycopy(labelBytes, 0, encoded, INT_32_BYTES, labelBytes.length);
+		// Labels are constants, but don't let the cache grow without bound
+		if (encodedLabels.size() < MAX_CACHED_LABELS)
+			encodedLabels.put(label, encoded);
+		return encoded;
+	}
+
+	@Override
+	public byte[] mac(String label, SecretKey macKey, byte[]... inputs) {
 		Digest mac = new Blake2bDigest(macKey.getBytes(), 32, null, null);
 		byte[] length = new byte[INT_32_BYTES];
-		ByteUtils.writeUint32(labelBytes.length, length, 0);
-		mac.update(length, 0, length.length);
-		mac.update(labelBytes, 0, labelBytes.length);
+		byte[] encodedLabel = encodeLabel(label);
+		mac.update(encodedLabel, 0, encodedLabel.length);
 		for (byte[] input : inputs) {
 			ByteUtils.writeUint32(input.length, length, 0);
 			mac.update(length, 0, length.length);
@@ -442,4 +561,14 @@ class CryptoComponentImpl implements CryptoComponent {
 	public String asciiArmour(byte[] b, int lineLength) {
 		return AsciiArmour.wrap(b, lineLength);
 	}
+
+	/**
+	 * A reusable digest and the buffers used to feed it, owned by one thread.
+	 */
+	private static class HashState {
+
+		private final Digest digest = new Blake2bDigest(HASH_BITS);
+		private final byte[] length = new byte[INT_32_BYTES];
+		private final byte[] scratch = new byte[HASH_SCRATCH_BYTES];
+	}
 }
@@ -32,6 +32,12 @@ public class CryptoModule {
 		return new CryptoComponentImpl(secureRandomProvider, passwordBasedKdf);
 	}
 
+	@Provides
+	@Singleton
+	SignatureBatcher provideSignatureBatcher() {
+		return new SignatureBatcher();
+	}
+
 	@Provides
 	PasswordStrengthEstimator providePasswordStrengthEstimator() {
 		return new PasswordStrengthEstimatorImpl();
@@ -49,11 +49,23 @@ class EdSignature implements Signature {
 
 	@Override
 	public void initVerify(PublicKey k) throws GeneralSecurityException {
+		initVerify(decodePublicKey(k));
+	}
+
+	/**
+	 * Initialises the signature for verifying with a public key that has
+	 * already been decoded by {@link #decodePublicKey(PublicKey)}, so the
+	 * cost of decoding can be shared between signatures that use the key.
+	 */
+	void initVerify(EdDSAPublicKey k) throws GeneralSecurityException {
+		signature.initVerify(k);
+	}
+
+	static EdDSAPublicKey decodePublicKey(PublicKey k) {
 		if (!k.getKeyType().equals(KEY_TYPE_SIGNATURE))
 			throw new IllegalArgumentException();
-		EdDSAPublicKey publicKey = new EdDSAPublicKey(
+		return new EdDSAPublicKey(
 				new EdDSAPublicKeySpec(k.getEncoded(), CURVE_SPEC));
-		signature.initVerify(publicKey);
 	}
 
 	@Override
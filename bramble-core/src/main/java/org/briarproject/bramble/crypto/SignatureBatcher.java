@@ -0,0 +1,59 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignedData;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Allows signature checks to be deferred so they can be verified in a batch
+ * with {@link CryptoComponent#verifySignatures(List)}.
+ * <p/>
+ * While a batch is open on a thread, signature checks made on that thread
+ * through {@link #defer(SignedData)} are collected rather than verified, and
+ * the caller that opened the batch becomes responsible for verifying them.
+ */
+@ThreadSafe
+@NotNullByDefault
+public class SignatureBatcher {
+
+	private final ThreadLocal<List<SignedData>> batches = new ThreadLocal<>();
+
+	/**
+	 * Opens a batch on the calling thread.
+	 */
+	public void startBatch() {
+		if (batches.get() != null) throw new IllegalStateException();
+		batches.set(new ArrayList<>());
+	}
+
+	/**
+	 * Closes the batch that's open on the calling thread and returns the
+	 * signature checks that were deferred while it was open.
+	 */
+	public List<SignedData> endBatch() {
+		List<SignedData> batch = batches.get();
+		if (batch == null) throw new IllegalStateException();
+		batches.remove();
+		return batch.isEmpty() ? Collections.emptyList() : batch;
+	}
+
+	/**
+	 * Adds the given signature check to the batch that's open on the calling
+	 * thread, if any.
+	 *
+	 * @return True if the check was deferred, or false if no batch is open,
+	 * in which case the caller should verify the signature immediately.
+	 */
+	public boolean defer(SignedData s) {
+		List<SignedData> batch = batches.get();
+		if (batch == null) return false;
+		batch.add(s);
+		return true;
+	}
+}
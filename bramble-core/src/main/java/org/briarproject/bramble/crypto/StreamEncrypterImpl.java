@@ -8,6 +8,7 @@ import org.briarproject.bramble.util.ByteUtils;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -22,13 +23,26 @@ import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_PLAINTEXT_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
 import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
 
+/**
+ * A {@link StreamEncrypter} that encrypts frames straight into an output
+ * buffer, which is written to the underlying stream when it can't hold
+ * another frame, when the final frame has been encrypted, or when the
+ * stream is flushed. This avoids copying each frame and writing it to the
+ * transport separately.
+ */
 @NotThreadSafe
 @NotNullByDefault
 class StreamEncrypterImpl implements StreamEncrypter {
 
+	/**
+	 * The number of full-size frames that fit in the output buffer.
+	 */
+	static final int FRAMES_PER_WRITE = 16;
+
 	private final OutputStream out;
 	private final AuthenticatedCipher cipher;
 	private final SecretKey streamHeaderKey, frameKey;
@@ -36,11 +50,12 @@ class StreamEncrypterImpl implements StreamEncrypter {
 	@Nullable
 	private final byte[] tag;
 	private final byte[] streamHeaderNonce;
-	private final byte[] frameNonce, frameHeader;
-	private final byte[] framePlaintext, frameCiphertext;
+	private final byte[] frameNonce, frameHeader, framePlaintext;
+	private final byte[] outputBuffer;
 
 	private long frameNumber;
 	private boolean writeTag, writeStreamHeader;
+	private int outputLength = 0;
 
 	StreamEncrypterImpl(OutputStream out, AuthenticatedCipher cipher,
 			long streamNumber, @Nullable byte[] tag, byte[] streamHeaderNonce,
@@ -55,7 +70,9 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		frameNonce = new byte[FRAME_NONCE_LENGTH];
 		frameHeader = new byte[FRAME_HEADER_PLAINTEXT_LENGTH];
 		framePlaintext = new byte[MAX_PAYLOAD_LENGTH];
-		frameCiphertext = new byte[MAX_FRAME_LENGTH];
+		// The first write also includes the tag and the stream header
+		outputBuffer = new byte[TAG_LENGTH + STREAM_HEADER_LENGTH
+				+ FRAMES_PER_WRITE * MAX_FRAME_LENGTH];
 		frameNumber = 0;
 		writeTag = (tag != null);
 		writeStreamHeader = true;
@@ -74,6 +91,10 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		if (writeTag) writeTag();
 		// Write the stream header if required
 		if (writeStreamHeader) writeStreamHeader();
+		// Make room for the frame in the output buffer
+		int frameLength = FRAME_HEADER_LENGTH + payloadLength + paddingLength
+				+ MAC_LENGTH;
+		if (outputLength + frameLength > outputBuffer.length) writeOutput();
 		// Encode the frame header
 		FrameEncoder.encodeHeader(frameHeader, finalFrame, payloadLength,
 				paddingLength);
@@ -82,40 +103,53 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		try {
 			cipher.init(true, frameKey, frameNonce);
 			int encrypted = cipher.process(frameHeader, 0,
-					FRAME_HEADER_PLAINTEXT_LENGTH, frameCiphertext, 0);
+					FRAME_HEADER_PLAINTEXT_LENGTH, outputBuffer, outputLength);
 			if (encrypted != FRAME_HEADER_LENGTH) throw new RuntimeException();
 		} catch (GeneralSecurityException badCipher) {
 			throw new RuntimeException(badCipher);
 		}
-		// Combine the payload and padding
-		System.arraycopy(payload, 0, framePlaintext, 0, payloadLength);
-		for (int i = 0; i < paddingLength; i++)
-			framePlaintext[payloadLength + i] = 0;
+		// If there's padding, combine the payload and padding. Otherwise
+		// encrypt the payload where it is
+		byte[] plaintext = payload;
+		if (paddingLength > 0) {
+			System.arraycopy(payload, 0, framePlaintext, 0, payloadLength);
+			Arrays.fill(framePlaintext, payloadLength,
+					payloadLength + paddingLength, (byte) 0);
+			plaintext = framePlaintext;
+		}
 		// Encrypt and authenticate the payload and padding
 		FrameEncoder.encodeNonce(frameNonce, frameNumber, false);
 		try {
 			cipher.init(true, frameKey, frameNonce);
-			int encrypted = cipher.process(framePlaintext, 0,
-					payloadLength + paddingLength, frameCiphertext,
-					FRAME_HEADER_LENGTH);
+			int encrypted = cipher.process(plaintext, 0,
+					payloadLength + paddingLength, outputBuffer,
+					outputLength + FRAME_HEADER_LENGTH);
 			if (encrypted != payloadLength + paddingLength + MAC_LENGTH)
 				throw new RuntimeException();
 		} catch (GeneralSecurityException badCipher) {
 			throw new RuntimeException(badCipher);
 		}
-		// Write the frame
-		out.write(frameCiphertext, 0, FRAME_HEADER_LENGTH + payloadLength
-				+ paddingLength + MAC_LENGTH);
+		outputLength += frameLength;
 		frameNumber++;
+		// Nothing else will be written, so write the frame now
+		if (finalFrame) writeOutput();
+	}
+
+	private void writeOutput() throws IOException {
+		if (outputLength > 0) {
+			out.write(outputBuffer, 0, outputLength);
+			outputLength = 0;
+		}
 	}
 
-	private void writeTag() throws IOException {
+	private void writeTag() {
 		if (tag == null) throw new IllegalStateException();
-		out.write(tag, 0, tag.length);
+		System.arraycopy(tag, 0, outputBuffer, outputLength, tag.length);
+		outputLength += tag.length;
 		writeTag = false;
 	}
 
-	private void writeStreamHeader() throws IOException {
+	private void writeStreamHeader() {
 		// The header contains the protocol version, stream number and frame key
 		byte[] streamHeaderPlaintext = new byte[STREAM_HEADER_PLAINTEXT_LENGTH];
 		ByteUtils.writeUint16(PROTOCOL_VERSION, streamHeaderPlaintext, 0);
@@ -123,21 +157,20 @@ class StreamEncrypterImpl implements StreamEncrypter {
 				INT_16_BYTES);
 		System.arraycopy(frameKey.getBytes(), 0, streamHeaderPlaintext,
 				INT_16_BYTES + INT_64_BYTES, SecretKey.LENGTH);
-		byte[] streamHeaderCiphertext = new byte[STREAM_HEADER_LENGTH];
-		System.arraycopy(streamHeaderNonce, 0, streamHeaderCiphertext, 0,
+		System.arraycopy(streamHeaderNonce, 0, outputBuffer, outputLength,
 				STREAM_HEADER_NONCE_LENGTH);
 		// Encrypt and authenticate the stream header key
 		try {
 			cipher.init(true, streamHeaderKey, streamHeaderNonce);
 			int encrypted = cipher.process(streamHeaderPlaintext, 0,
-					STREAM_HEADER_PLAINTEXT_LENGTH, streamHeaderCiphertext,
-					STREAM_HEADER_NONCE_LENGTH);
+					STREAM_HEADER_PLAINTEXT_LENGTH, outputBuffer,
+					outputLength + STREAM_HEADER_NONCE_LENGTH);
 			if (encrypted != STREAM_HEADER_PLAINTEXT_LENGTH + MAC_LENGTH)
 				throw new RuntimeException();
 		} catch (GeneralSecurityException badCipher) {
 			throw new RuntimeException(badCipher);
 		}
-		out.write(streamHeaderCiphertext);
+		outputLength += STREAM_HEADER_LENGTH;
 		writeStreamHeader = false;
 	}
 
@@ -147,6 +180,7 @@ class StreamEncrypterImpl implements StreamEncrypter {
 		if (writeTag) writeTag();
 		// Write the stream header if required
 		if (writeStreamHeader) writeStreamHeader();
+		writeOutput();
 		out.flush();
 	}
 }
\ No newline at end of file
@@ -2,18 +2,17 @@ package org.briarproject.bramble.crypto;
 
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
-import org.spongycastle.crypto.DataLengthException;
-import org.spongycastle.crypto.engines.XSalsa20Engine;
 import org.spongycastle.crypto.generators.Poly1305KeyGenerator;
 import org.spongycastle.crypto.macs.Poly1305;
 import org.spongycastle.crypto.params.KeyParameter;
-import org.spongycastle.crypto.params.ParametersWithIV;
 
 import java.security.GeneralSecurityException;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.spongycastle.crypto.engines.Salsa20Engine.salsaCore;
 
 /**
  * An authenticated cipher that uses XSalsa20 for encryption and Poly1305 for
@@ -26,6 +25,10 @@ import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENG
  * <li>http://nacl.cr.yp.to/secretbox.html</li>
  * <li>http://cr.yp.to/highspeed/naclcrypto-20090310.pdf</li>
  * </ul>
+ * <p/>
+ * The cipher doesn't allocate any memory after construction: the XSalsa20
+ * state, key stream and Poly1305 subkey are stored in buffers that are
+ * reused for every frame of a stream.
  */
 @NotThreadSafe
 @NotNullByDefault
@@ -36,80 +39,181 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 	 */
 	private static final int SUBKEY_LENGTH = 32;
 
-	private final XSalsa20Engine xSalsa20Engine;
-	private final Poly1305 poly1305;
+	private static final int KEY_LENGTH = 32, IV_LENGTH = 24;
+	private static final int ROUNDS = 20, BLOCK_LENGTH = 64;
 
-	private boolean encrypting;
+	/**
+	 * The constant words of the Salsa20 state: "expand 32-byte k".
+	 */
+	private static final int SIGMA_0 = 0x61707865, SIGMA_1 = 0x3320646e,
+			SIGMA_2 = 0x79622d32, SIGMA_3 = 0x6b206574;
 
-	XSalsa20Poly1305AuthenticatedCipher() {
-		xSalsa20Engine = new XSalsa20Engine();
-		poly1305 = new Poly1305();
-	}
+	private final Poly1305 poly1305 = new Poly1305();
+	/**
+	 * Poly1305 is initialised with this parameter, whose key array is
+	 * overwritten with the subkey for each frame.
+	 */
+	private final KeyParameter subKey =
+			new KeyParameter(new byte[SUBKEY_LENGTH]);
+	private final int[] keyWords = new int[8];
+	private final int[] state = new int[16], block = new int[16];
+	private final byte[] keyStream = new byte[BLOCK_LENGTH];
+	private final byte[] mac = new byte[MAC_LENGTH];
+
+	private boolean encrypting;
+	@Nullable
+	private byte[] key = null;
+	private int keyStreamOffset = BLOCK_LENGTH;
 
 	@Override
 	public void init(boolean encrypt, SecretKey key, byte[] iv)
 			throws GeneralSecurityException {
+		byte[] k = key.getBytes();
+		if (k.length != KEY_LENGTH)
+			throw new GeneralSecurityException("Invalid key length");
+		if (iv.length != IV_LENGTH)
+			throw new GeneralSecurityException("Invalid IV length");
 		encrypting = encrypt;
-		KeyParameter k = new KeyParameter(key.getBytes());
-		ParametersWithIV params = new ParametersWithIV(k, iv);
-		try {
-			xSalsa20Engine.init(encrypt, params);
-		} catch (IllegalArgumentException e) {
-			throw new GeneralSecurityException(e.getMessage());
+		// Unpack the key unless it's the same as last time
+		if (k != this.key) {
+			for (int i = 0; i < 8; i++) keyWords[i] = readInt(k, i * 4);
+			this.key = k;
 		}
+		// Derive the XSalsa20 subkey from the key and the first 16 bytes of
+		// the IV with HSalsa20
+		setState(keyWords, readInt(iv, 0), readInt(iv, 4), readInt(iv, 8),
+				readInt(iv, 12));
+		salsaCore(ROUNDS, state, block);
+		// Remove the final addition of the input from the output words
+		int k0 = block[0] - state[0], k1 = block[5] - state[5];
+		int k2 = block[10] - state[10], k3 = block[15] - state[15];
+		int k4 = block[6] - state[6], k5 = block[7] - state[7];
+		int k6 = block[8] - state[8], k7 = block[9] - state[9];
+		// Set up Salsa20 with the subkey, the last 8 bytes of the IV and a
+		// zero block counter
+		state[1] = k0;
+		state[2] = k1;
+		state[3] = k2;
+		state[4] = k3;
+		state[11] = k4;
+		state[12] = k5;
+		state[13] = k6;
+		state[14] = k7;
+		state[6] = readInt(iv, 16);
+		state[7] = readInt(iv, 20);
+		state[8] = 0;
+		state[9] = 0;
+		keyStreamOffset = BLOCK_LENGTH;
 	}
 
 	@Override
 	public int process(byte[] input, int inputOff, int len, byte[] output,
 			int outputOff) throws GeneralSecurityException {
+		if (key == null) throw new IllegalStateException();
 		if (!encrypting && len < MAC_LENGTH)
 			throw new GeneralSecurityException("Invalid MAC");
-		try {
-			// Generate the Poly1305 subkey from an empty array
-			byte[] zero = new byte[SUBKEY_LENGTH];
-			byte[] subKey = new byte[SUBKEY_LENGTH];
-			xSalsa20Engine.processBytes(zero, 0, SUBKEY_LENGTH, subKey, 0);
-
-			// Clamp the subkey
-			Poly1305KeyGenerator.clamp(subKey);
-
-			// Initialize Poly1305 with the subkey
-			KeyParameter k = new KeyParameter(subKey);
-			poly1305.init(k);
-
-			// If we are decrypting, verify the MAC
-			if (!encrypting) {
-				byte[] mac = new byte[MAC_LENGTH];
-				poly1305.update(input, inputOff + MAC_LENGTH, len - MAC_LENGTH);
-				poly1305.doFinal(mac, 0);
-				// Constant-time comparison
-				int cmp = 0;
-				for (int i = 0; i < MAC_LENGTH; i++)
-					cmp |= mac[i] ^ input[inputOff + i];
-				if (cmp != 0)
-					throw new GeneralSecurityException("Invalid MAC");
-			}
+		int dataLen = encrypting ? len : len - MAC_LENGTH;
+		int outputLen = encrypting ? len + MAC_LENGTH : len - MAC_LENGTH;
+		if (inputOff < 0 || inputOff + len > input.length ||
+				outputOff < 0 || outputOff + outputLen > output.length) {
+			throw new GeneralSecurityException("Invalid buffer");
+		}
 
-			// Apply or invert the stream encryption
-			int processed = xSalsa20Engine.processBytes(
-					input, encrypting ? inputOff : inputOff + MAC_LENGTH,
-					encrypting ? len : len - MAC_LENGTH,
-					output, encrypting ? outputOff + MAC_LENGTH : outputOff);
+		// Generate the Poly1305 subkey from the first 32 bytes of the key
+		// stream
+		byte[] sk = subKey.getKey();
+		for (int i = 0; i < SUBKEY_LENGTH; i++) sk[i] = 0;
+		applyKeyStream(sk, 0, sk, 0, SUBKEY_LENGTH);
+
+		// Clamp the subkey
+		Poly1305KeyGenerator.clamp(sk);
+
+		// Initialize Poly1305 with the subkey
+		poly1305.init(subKey);
+
+		// If we are decrypting, verify the MAC
+		if (!encrypting) {
+			poly1305.update(input, inputOff + MAC_LENGTH, dataLen);
+			poly1305.doFinal(mac, 0);
+			// Constant-time comparison
+			int cmp = 0;
+			for (int i = 0; i < MAC_LENGTH; i++)
+				cmp |= mac[i] ^ input[inputOff + i];
+			if (cmp != 0)
+				throw new GeneralSecurityException("Invalid MAC");
+		}
 
-			// If we are encrypting, generate the MAC
-			if (encrypting) {
-				poly1305.update(output, outputOff + MAC_LENGTH, len);
-				poly1305.doFinal(output, outputOff);
-			}
+		// Apply or invert the stream encryption
+		applyKeyStream(input, encrypting ? inputOff : inputOff + MAC_LENGTH,
+				output, encrypting ? outputOff + MAC_LENGTH : outputOff,
+				dataLen);
 
-			return encrypting ? processed + MAC_LENGTH : processed;
-		} catch (DataLengthException e) {
-			throw new GeneralSecurityException(e.getMessage());
+		// If we are encrypting, generate the MAC
+		if (encrypting) {
+			poly1305.update(output, outputOff + MAC_LENGTH, len);
+			poly1305.doFinal(output, outputOff);
 		}
+
+		return outputLen;
 	}
 
 	@Override
 	public int getMacBytes() {
 		return MAC_LENGTH;
 	}
+
+	private void setState(int[] k, int n0, int n1, int n2, int n3) {
+		state[0] = SIGMA_0;
+		state[1] = k[0];
+		state[2] = k[1];
+		state[3] = k[2];
+		state[4] = k[3];
+		state[5] = SIGMA_1;
+		state[6] = n0;
+		state[7] = n1;
+		state[8] = n2;
+		state[9] = n3;
+		state[10] = SIGMA_2;
+		state[11] = k[4];
+		state[12] = k[5];
+		state[13] = k[6];
+		state[14] = k[7];
+		state[15] = SIGMA_3;
+	}
+
+	private void applyKeyStream(byte[] input, int inputOff, byte[] output,
+			int outputOff, int len) {
+		while (len > 0) {
+			if (keyStreamOffset == BLOCK_LENGTH) {
+				// Generate the next block of the key stream
+				salsaCore(ROUNDS, state, block);
+				for (int i = 0; i < 16; i++)
+					writeInt(block[i], keyStream, i * 4);
+				// Increment the 64-bit block counter
+				if (++state[8] == 0) state[9]++;
+				keyStreamOffset = 0;
+			}
+			int n = Math.min(len, BLOCK_LENGTH - keyStreamOffset);
+			for (int i = 0; i < n; i++) {
+				output[outputOff + i] = (byte) (input[inputOff + i]
+						^ keyStream[keyStreamOffset + i]);
+			}
+			keyStreamOffset += n;
+			inputOff += n;
+			outputOff += n;
+			len -= n;
+		}
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8
+				| (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+	}
+
+	private static void writeInt(int i, byte[] b, int off) {
+		b[off] = (byte) i;
+		b[off + 1] = (byte) (i >>> 8);
+		b[off + 2] = (byte) (i >>> 16);
+		b[off + 3] = (byte) (i >>> 24);
+	}
 }
@@ -11,6 +11,7 @@ import org.briarproject.bramble.api.db.DataTooNewException;
 import org.briarproject.bramble.api.db.DataTooOldException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
@@ -118,6 +119,18 @@ interface Database<T> {
 	void addMessage(T txn, Message m, MessageState state, boolean shared,
 			boolean temporary, @Nullable ContactId sender) throws DbException;
 
+	/**
+	 * Stores the given messages, which must not already be stored. This is
+	 * equivalent to calling {@link #addMessage(Object, Message, MessageState,
+	 * boolean, boolean, ContactId)} for each message, but uses fewer queries.
+	 *
+	 * @param sender the contact from whom the messages were received, or null
+	 * if the messages were created locally.
+	 */
+	void addMessages(T txn, Collection<Message> messages, MessageState state,
+			boolean shared, boolean temporary, @Nullable ContactId sender)
+			throws DbException;
+
 	/**
 	 * Adds a dependency between two messages, where the dependent message is
 	 * in the given state.
@@ -125,6 +138,17 @@ interface Database<T> {
 	void addMessageDependency(T txn, Message dependent, MessageId dependency,
 			MessageState dependentState) throws DbException;
 
+	/**
+	 * Adds the given message to the threads of its group, as a reply to the
+	 * given parent, or as the first message of a new thread if the parent is
+	 * null. Threads, and replies to the same parent, are sorted by sort key.
+	 * Returns false, without adding the message, if the parent hasn't been
+	 * added. Returns true without changing anything if the message has
+	 * already been added.
+	 */
+	boolean addMessageToThread(T txn, MessageId m, @Nullable MessageId parent,
+			String sortKey) throws DbException;
+
 	/**
 	 * Records that a message has been offered by the given contact.
 	 */
@@ -277,6 +301,15 @@ interface Database<T> {
 	Contact getContact(T txn, PublicKey handshakePublicKey, AuthorId local)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of any of the given messages that the database
+	 * contains.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getContainedMessageIds(T txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the group with the given ID.
 	 * <p/>
@@ -360,6 +393,15 @@ interface Database<T> {
 	Map<MessageId, MessageState> getMessageDependents(T txn, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the message counts of the given groups. Groups without message
+	 * counts are not included.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, MessageCounts> getMessageCounts(T txn,
+			Collection<GroupId> g) throws DbException;
+
 	/**
 	 * Returns the IDs of all delivered messages in the given group.
 	 * <p/>
@@ -385,6 +427,15 @@ interface Database<T> {
 	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the metadata for any of the given messages that are delivered
+	 * and have metadata.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn,
+			Collection<MessageId> ids) throws DbException;
+
 	/**
 	 * Returns the metadata for any delivered messages in the given group with
 	 * metadata that matches all entries in the given query. If the query is
@@ -427,6 +478,21 @@ interface Database<T> {
 	Collection<MessageStatus> getMessageStatus(T txn, ContactId c, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the status of delivered messages in the given group with
+	 * respect to the given contact, newest first, starting with the newest
+	 * message with a timestamp earlier than the given timestamp. Deleted
+	 * messages are not included.
+	 * <p/>
+	 * Up to the given number of statuses are returned, followed by the
+	 * statuses of any other messages with the same timestamp as the last
+	 * status returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	List<MessageStatus> getMessageStatus(T txn, ContactId c, GroupId g,
+			long before, int limit) throws DbException;
+
 	/**
 	 * Returns the status of the given delivered message with respect to the
 	 * given contact, or null if the message's group is invisible to the
@@ -438,6 +504,34 @@ interface Database<T> {
 	MessageStatus getMessageStatus(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the timestamp of the given message.
+	 * <p/>
+	 * Read-only.
+	 */
+	long getMessageTimestamp(T txn, MessageId m) throws DbException;
+
+	/**
+	 * Returns the timestamps of all delivered messages in the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageTimestamps(T txn, GroupId g)
+			throws DbException;
+
+	/**
+	 * Returns the timestamps of delivered messages in the given group, newest
+	 * first, starting with the newest message with a timestamp earlier than
+	 * the given timestamp. Deleted messages are not included.
+	 * <p/>
+	 * Up to the given number of messages are returned, followed by any other
+	 * messages with the same timestamp as the last message returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Long> getMessageTimestamps(T txn, GroupId g, long before,
+			int limit) throws DbException;
+
 	/**
 	 * Returns the IDs of some messages received from the given contact that
 	 * need to be acknowledged, up to the given number of messages.
@@ -546,6 +640,18 @@ interface Database<T> {
 	 */
 	List<Byte> getSyncVersions(T txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the IDs and depths of up to the given number of messages in
+	 * the given group that have been added to threads, in depth-first order,
+	 * starting after the given message, or with the first message if the
+	 * given message is null. If the given message hasn't been added to a
+	 * thread, an empty map is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Integer> getThreadedMessages(T txn, GroupId g,
+			@Nullable MessageId after, int maxMessages) throws DbException;
+
 	/**
 	 * Returns all transport keys for the given transport.
 	 * <p/>
@@ -554,6 +660,15 @@ interface Database<T> {
 	Collection<TransportKeySet> getTransportKeys(T txn, TransportId t)
 			throws DbException;
 
+	/**
+	 * Adds the given numbers to the message counts of the given group, and
+	 * updates the timestamp of the latest message if the given timestamp is
+	 * later. Returns false without changing the counts if the group has no
+	 * message counts, or if the unread count would become negative.
+	 */
+	boolean incrementMessageCounts(T txn, GroupId g, int msgCount,
+			int unreadCount, long latestMsgTime) throws DbException;
+
 	/**
 	 * Increments the outgoing stream counter for the given transport keys.
 	 */
@@ -695,6 +810,12 @@ interface Database<T> {
 	void setHandshakeKeyPair(T txn, AuthorId local, PublicKey publicKey,
 			PrivateKey privateKey) throws DbException;
 
+	/**
+	 * Sets the message counts of the given group.
+	 */
+	void setMessageCounts(T txn, GroupId g, MessageCounts counts)
+			throws DbException;
+
 	/**
 	 * Marks the given message as permanent, i.e. not temporary.
 	 */
@@ -0,0 +1,304 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.contact.event.ContactAliasChangedEvent;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.identity.event.IdentityRemovedEvent;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.Group.Visibility;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
+import org.briarproject.bramble.api.sync.event.GroupVisibilityUpdatedEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Caches the existence of contacts and groups and the visibility of groups
+ * to contacts, which are checked by most {@link DatabaseComponentImpl}
+ * methods, and the contacts for each author, which are loaded for every
+ * author whose posts are shown.
+ * <p/>
+ * The cache only holds committed data. A write transaction calls
+ * {@link #startUpdate()} before changing any of the cached data. Until the
+ * transaction calls {@link #endUpdate(boolean)}, the cache is bypassed by
+ * all transactions, and values loaded by transactions that started loading
+ * before the update are not cached. When the transaction commits, the
+ * entries affected by its events are invalidated.
+ */
+@ThreadSafe
+@NotNullByDefault
+class DatabaseCache {
+
+	/**
+	 * The maximum number of entries in each map. If a map is full it's
+	 * cleared before adding another entry.
+	 */
+	static final int MAX_ENTRIES = 10_000;
+
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Map<ContactId, Boolean> contacts = new HashMap<>();
+	@GuardedBy("lock")
+	private final Map<GroupId, Boolean> groups = new HashMap<>();
+	@GuardedBy("lock")
+	private final Map<VisibilityKey, Visibility> visibility = new HashMap<>();
+	@GuardedBy("lock")
+	private final Map<AuthorId, Collection<Contact>> contactsByAuthor =
+			new HashMap<>();
+	@GuardedBy("lock")
+	private long version = 0, hits = 0, misses = 0;
+	@GuardedBy("lock")
+	private boolean updating = false;
+
+	/**
+	 * Returns a version number that must be passed to the methods that add
+	 * entries to the cache. This method must be called before loading the
+	 * value from the database.
+	 */
+	long getVersion() {
+		synchronized (lock) {
+			return version;
+		}
+	}
+
+	/**
+	 * Returns true if the contact exists, false if it doesn't exist, or null
+	 * if the contact is not cached.
+	 */
+	@Nullable
+	Boolean containsContact(ContactId c) {
+		synchronized (lock) {
+			return count(updating ? null : contacts.get(c));
+		}
+	}
+
+	void putContact(long version, ContactId c, boolean contains) {
+		synchronized (lock) {
+			if (canPut(version)) put(contacts, c, contains);
+		}
+	}
+
+	/**
+	 * Returns true if the group exists, false if it doesn't exist, or null
+	 * if the group is not cached.
+	 */
+	@Nullable
+	Boolean containsGroup(GroupId g) {
+		synchronized (lock) {
+			return count(updating ? null : groups.get(g));
+		}
+	}
+
+	void putGroup(long version, GroupId g, boolean contains) {
+		synchronized (lock) {
+			if (canPut(version)) put(groups, g, contains);
+		}
+	}
+
+	/**
+	 * Returns the visibility of the group to the contact, or null if the
+	 * visibility is not cached.
+	 */
+	@Nullable
+	Visibility getGroupVisibility(ContactId c, GroupId g) {
+		synchronized (lock) {
+			if (updating) return count(null);
+			return count(visibility.get(new VisibilityKey(c, g)));
+		}
+	}
+
+	void putGroupVisibility(long version, ContactId c, GroupId g,
+			Visibility v) {
+		synchronized (lock) {
+			if (canPut(version)) put(visibility, new VisibilityKey(c, g), v);
+		}
+	}
+
+	/**
+	 * Returns the contacts with the given author ID, or null if the contacts
+	 * are not cached.
+	 */
+	@Nullable
+	Collection<Contact> getContactsByAuthorId(AuthorId a) {
+		synchronized (lock) {
+			return count(updating ? null : contactsByAuthor.get(a));
+		}
+	}
+
+	void putContactsByAuthorId(long version, AuthorId a,
+			Collection<Contact> contacts) {
+		synchronized (lock) {
+			if (canPut(version)) {
+				put(contactsByAuthor, a,
+						unmodifiableList(new ArrayList<>(contacts)));
+			}
+		}
+	}
+
+	/**
+	 * Called by a write transaction before it changes any cached data.
+	 */
+	void startUpdate() {
+		synchronized (lock) {
+			if (!updating) {
+				updating = true;
+				version++;
+			}
+		}
+	}
+
+	/**
+	 * Invalidates any entries affected by the given event, which has been
+	 * attached to a committed transaction.
+	 */
+	void invalidate(Event e) {
+		synchronized (lock) {
+			if (e instanceof ContactAddedEvent) {
+				removeContact(((ContactAddedEvent) e).getContactId());
+			} else if (e instanceof ContactRemovedEvent) {
+				removeContact(((ContactRemovedEvent) e).getContactId());
+			} else if (e instanceof ContactVerifiedEvent ||
+					e instanceof ContactAliasChangedEvent) {
+				// The events don't say which author the contact belongs to
+				contactsByAuthor.clear();
+			} else if (e instanceof IdentityRemovedEvent) {
+				// The identity's contacts have been removed
+				contacts.clear();
+				visibility.clear();
+				contactsByAuthor.clear();
+			} else if (e instanceof GroupAddedEvent) {
+				removeGroup(((GroupAddedEvent) e).getGroup().getId());
+			} else if (e instanceof GroupRemovedEvent) {
+				removeGroup(((GroupRemovedEvent) e).getGroup().getId());
+			} else if (e instanceof GroupVisibilityUpdatedEvent) {
+				GroupVisibilityUpdatedEvent g = (GroupVisibilityUpdatedEvent) e;
+				for (ContactId c : g.getAffectedContacts())
+					removeGroupVisibility(c);
+			}
+		}
+	}
+
+	/**
+	 * Called by a write transaction when it ends. If the transaction
+	 * started an update and was not committed, the cache is cleared.
+	 */
+	void endUpdate(boolean committed) {
+		synchronized (lock) {
+			if (!updating) return;
+			if (!committed) {
+				// We don't know which entries were affected
+				contacts.clear();
+				groups.clear();
+				visibility.clear();
+				contactsByAuthor.clear();
+			}
+			updating = false;
+			version++;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that have found an entry.
+	 */
+	long getHits() {
+		synchronized (lock) {
+			return hits;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that have not found an entry, including
+	 * lookups that bypassed the cache because of an update.
+	 */
+	long getMisses() {
+		synchronized (lock) {
+			return misses;
+		}
+	}
+
+	@GuardedBy("lock")
+	@Nullable
+	private <V> V count(@Nullable V value) {
+		if (value == null) misses++;
+		else hits++;
+		return value;
+	}
+
+	@GuardedBy("lock")
+	private boolean canPut(long version) {
+		return !updating && version == this.version;
+	}
+
+	@GuardedBy("lock")
+	private <K, V> void put(Map<K, V> map, K key, V value) {
+		if (map.size() >= MAX_ENTRIES) map.clear();
+		map.put(key, value);
+	}
+
+	@GuardedBy("lock")
+	private void removeContact(ContactId c) {
+		contacts.remove(c);
+		removeGroupVisibility(c);
+		// The events don't say which author the contact belongs to
+		contactsByAuthor.clear();
+	}
+
+	@GuardedBy("lock")
+	private void removeGroup(GroupId g) {
+		groups.remove(g);
+		Iterator<VisibilityKey> it = visibility.keySet().iterator();
+		while (it.hasNext()) if (it.next().groupId.equals(g)) it.remove();
+	}
+
+	@GuardedBy("lock")
+	private void removeGroupVisibility(ContactId c) {
+		Iterator<VisibilityKey> it = visibility.keySet().iterator();
+		while (it.hasNext()) if (it.next().contactId.equals(c)) it.remove();
+	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class VisibilityKey {
+
+		private final ContactId contactId;
+		private final GroupId groupId;
+
+		private VisibilityKey(ContactId contactId, GroupId groupId) {
+			this.contactId = contactId;
+			this.groupId = groupId;
+		}
+
+		@Override
+		public int hashCode() {
+			return contactId.hashCode() * 31 + groupId.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof VisibilityKey) {
+				VisibilityKey k = (VisibilityKey) o;
+				return contactId.equals(k.contactId)
+						&& groupId.equals(k.groupId);
+			}
+			return false;
+		}
+	}
+}
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContact;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.contact.event.ContactAliasChangedEvent;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
 import org.briarproject.bramble.api.contact.event.PendingContactAddedEvent;
@@ -20,6 +21,7 @@ import org.briarproject.bramble.api.db.DbCallable;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.DbRunnable;
 import org.briarproject.bramble.api.db.EventAction;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.db.NoSuchContactException;
@@ -74,8 +76,11 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -83,8 +88,8 @@ import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
-import javax.inject.Inject;
 
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
@@ -108,20 +113,40 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	private final EventBus eventBus;
 	private final Executor eventExecutor;
 	private final ShutdownManager shutdownManager;
+	private final boolean concurrentReads;
+	@Nullable
+	private final DatabaseCache cache;
 	private final AtomicBoolean closed = new AtomicBoolean(false);
 	private final ReentrantReadWriteLock lock =
 			new ReentrantReadWriteLock(true);
+	// Used for detecting reentrant read-only transactions that don't hold
+	// the lock
+	private final ThreadLocal<Boolean> inLockFreeTransaction =
+			new ThreadLocal<>();
 	private final Visitor visitor = new CommitActionVisitor();
 
-	@Inject
+	/**
+	 * @param concurrentReads true if read-only transactions should not take
+	 * the lock. This relies on the database using multi-version concurrency
+	 * control, so that read-only transactions see committed data without
+	 * waiting for write transactions to finish. Each statement sees a
+	 * consistent view of the data, but a read-only transaction may see
+	 * changes committed by other transactions between its statements.
+	 * @param cacheEnabled true if the existence of contacts and groups, the
+	 * visibility of groups and the contacts for each author should be cached
+	 * in memory
+	 */
 	DatabaseComponentImpl(Database<T> db, Class<T> txnClass, EventBus eventBus,
 			@EventExecutor Executor eventExecutor,
-			ShutdownManager shutdownManager) {
+			ShutdownManager shutdownManager, boolean concurrentReads,
+			boolean cacheEnabled) {
 		this.db = db;
 		this.txnClass = txnClass;
 		this.eventBus = eventBus;
 		this.eventExecutor = eventExecutor;
 		this.shutdownManager = shutdownManager;
+		this.concurrentReads = concurrentReads;
+		cache = cacheEnabled ? new DatabaseCache() : null;
 	}
 
 	@Override
@@ -142,6 +167,26 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public void close() throws DbException {
 		if (closed.getAndSet(true)) return;
 		db.close();
+		if (cache != null && LOG.isLoggable(INFO)) {
+			LOG.info("Database cache: " + cache.getHits() + " hits, "
+					+ cache.getMisses() + " misses");
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that have been answered by the cache, or
+	 * zero if the cache is disabled.
+	 */
+	long getCacheHits() {
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	/**
+	 * Returns the number of lookups that have not been answered by the cache,
+	 * or zero if the cache is disabled.
+	 */
+	long getCacheMisses() {
+		return cache == null ? 0 : cache.getMisses();
 	}
 
 	@Override
@@ -149,8 +194,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		// Don't allow reentrant locking
 		if (lock.getReadHoldCount() > 0) throw new IllegalStateException();
 		if (lock.getWriteHoldCount() > 0) throw new IllegalStateException();
+		if (inLockFreeTransaction.get() != null)
+			throw new IllegalStateException();
 		long start = now();
 		if (readOnly) {
+			if (concurrentReads) {
+				// Don't wait for writers
+				Transaction txn = new Transaction(db.startTransaction(), true);
+				inLockFreeTransaction.set(true);
+				return txn;
+			}
 			lock.readLock().lock();
 			logDuration(LOG, "Waiting for read lock", start);
 		} else {
@@ -160,12 +213,17 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		try {
 			return new Transaction(db.startTransaction(), readOnly);
 		} catch (DbException | RuntimeException e) {
-			if (readOnly) lock.readLock().unlock();
-			else lock.writeLock().unlock();
+			unlock(readOnly);
 			throw e;
 		}
 	}
 
+	private void unlock(boolean readOnly) {
+		if (!readOnly) lock.writeLock().unlock();
+		else if (concurrentReads) inLockFreeTransaction.remove();
+		else lock.readLock().unlock();
+	}
+
 	@Override
 	public void commitTransaction(Transaction transaction) throws DbException {
 		T txn = txnClass.cast(transaction.unbox());
@@ -179,14 +237,22 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		try {
 			T txn = txnClass.cast(transaction.unbox());
 			if (transaction.isCommitted()) {
+				if (cache != null && !transaction.isReadOnly()) {
+					for (CommitAction a : transaction.getActions()) {
+						if (a instanceof EventAction)
+							cache.invalidate(((EventAction) a).getEvent());
+					}
+					cache.endUpdate(true);
+				}
 				for (CommitAction a : transaction.getActions())
 					a.accept(visitor);
 			} else {
 				db.abortTransaction(txn);
+				if (cache != null && !transaction.isReadOnly())
+					cache.endUpdate(false);
 			}
 		} finally {
-			if (transaction.isReadOnly()) lock.readLock().unlock();
-			else lock.writeLock().unlock();
+			unlock(transaction.isReadOnly());
 		}
 	}
 
@@ -246,6 +312,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throw new ContactExistsException(local, remote);
 		if (db.containsContact(txn, remote.getId(), local))
 			throw new ContactExistsException(local, remote);
+		startCacheUpdate();
 		ContactId c = db.addContact(txn, remote, local, handshake, verified);
 		transaction.attach(new ContactAddedEvent(c, verified));
 		return c;
@@ -255,7 +322,8 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public void addGroup(Transaction transaction, Group g) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, g.getId())) {
+		if (!groupExists(txn, g.getId())) {
+			startCacheUpdate();
 			db.addGroup(txn, g);
 			transaction.attach(new GroupAddedEvent(g));
 		}
@@ -278,7 +346,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, m.getGroupId()))
+		if (!groupExists(txn, m.getGroupId()))
 			throw new NoSuchGroupException();
 		if (!db.containsMessage(txn, m.getId())) {
 			db.addMessage(txn, m, DELIVERED, shared, temporary, null);
@@ -290,6 +358,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		db.mergeMessageMetadata(txn, m.getId(), meta);
 	}
 
+	@Override
+	public boolean addMessageToThread(Transaction transaction, MessageId m,
+			@Nullable MessageId parent, String sortKey) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsMessage(txn, m))
+			throw new NoSuchMessageException();
+		return db.addMessageToThread(txn, m, parent, sortKey);
+	}
+
 	@Override
 	public void addPendingContact(Transaction transaction, PendingContact p,
 			AuthorId local) throws DbException {
@@ -320,7 +398,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			TransportKeys k) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		if (!db.containsTransport(txn, k.getTransportId()))
 			throw new NoSuchTransportException();
@@ -352,7 +430,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public boolean containsGroup(Transaction transaction, GroupId g)
 			throws DbException {
 		T txn = unbox(transaction);
-		return db.containsGroup(txn, g);
+		return groupExists(txn, g);
 	}
 
 	@Override
@@ -395,7 +473,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			int maxMessages) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		Collection<MessageId> ids = db.getMessagesToAck(txn, c, maxMessages);
 		if (ids.isEmpty()) return null;
@@ -409,7 +487,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			ContactId c, int maxLength, int maxLatency) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		Collection<MessageId> ids =
 				db.getMessagesToSend(txn, c, maxLength, maxLatency);
@@ -430,7 +508,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			int maxMessages, int maxLatency) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		Collection<MessageId> ids =
 				db.getMessagesToOffer(txn, c, maxMessages, maxLatency);
@@ -446,7 +524,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			int maxMessages) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		Collection<MessageId> ids = db.getMessagesToRequest(txn, c,
 				maxMessages);
@@ -461,7 +539,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			ContactId c, int maxLength, int maxLatency) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		Collection<MessageId> ids =
 				db.getRequestedMessagesToSend(txn, c, maxLength, maxLatency);
@@ -480,7 +558,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Contact getContact(Transaction transaction, ContactId c)
 			throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		return db.getContact(txn, c);
 	}
@@ -496,7 +574,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Collection<Contact> getContactsByAuthorId(Transaction transaction,
 			AuthorId remote) throws DbException {
 		T txn = unbox(transaction);
-		return db.getContactsByAuthorId(txn, remote);
+		if (cache == null) return db.getContactsByAuthorId(txn, remote);
+		Collection<Contact> cached = cache.getContactsByAuthorId(remote);
+		if (cached != null) return cached;
+		long version = cache.getVersion();
+		Collection<Contact> contacts = db.getContactsByAuthorId(txn, remote);
+		cache.putContactsByAuthorId(version, remote, contacts);
+		return contacts;
 	}
 
 	@Override
@@ -512,7 +596,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Group getGroup(Transaction transaction, GroupId g)
 			throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
 		return db.getGroup(txn, g);
 	}
@@ -521,7 +605,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Metadata getGroupMetadata(Transaction transaction, GroupId g)
 			throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
 		return db.getGroupMetadata(txn, g);
 	}
@@ -537,9 +621,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Visibility getGroupVisibility(Transaction transaction, ContactId c,
 			GroupId g) throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
-		return db.getGroupVisibility(txn, c, g);
+		return getVisibility(txn, c, g);
 	}
 
 	@Override
@@ -567,11 +651,19 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessage(txn, m);
 	}
 
+	@Override
+	public Map<GroupId, MessageCounts> getMessageCounts(
+			Transaction transaction, Collection<GroupId> g)
+			throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageCounts(txn, g);
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Transaction transaction,
 			GroupId g) throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
 		return db.getMessageIds(txn, g);
 	}
@@ -601,7 +693,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
 			GroupId g) throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
 		return db.getMessageMetadata(txn, g);
 	}
@@ -610,11 +702,18 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
 			GroupId g, Metadata query) throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
 		return db.getMessageMetadata(txn, g, query);
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			Collection<MessageId> ids) throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageMetadata(txn, ids);
+	}
+
 	@Override
 	public Metadata getMessageMetadata(Transaction transaction, MessageId m)
 			throws DbException {
@@ -647,30 +746,59 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public Collection<MessageStatus> getMessageStatus(Transaction transaction,
 			ContactId c, GroupId g) throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
-		if (db.getGroupVisibility(txn, c, g) == INVISIBLE) {
+		if (getVisibility(txn, c, g) == INVISIBLE) {
 			// No status rows exist - return default statuses
 			Collection<MessageStatus> statuses = new ArrayList<>();
-			for (MessageId m : db.getMessageIds(txn, g))
-				statuses.add(new MessageStatus(m, c, false, false));
+			for (Entry<MessageId, Long> e :
+					db.getMessageTimestamps(txn, g).entrySet()) {
+				statuses.add(new MessageStatus(e.getKey(), c, e.getValue(),
+						false, false));
+			}
 			return statuses;
 		}
 		return db.getMessageStatus(txn, c, g);
 	}
 
+	@Override
+	public List<MessageStatus> getMessageStatus(Transaction transaction,
+			ContactId c, GroupId g, long before, int limit)
+			throws DbException {
+		if (limit <= 0) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!contactExists(txn, c))
+			throw new NoSuchContactException();
+		if (!groupExists(txn, g))
+			throw new NoSuchGroupException();
+		if (getVisibility(txn, c, g) == INVISIBLE) {
+			// No status rows exist - return default statuses
+			List<MessageStatus> statuses = new ArrayList<>();
+			for (Entry<MessageId, Long> e : db.getMessageTimestamps(txn, g,
+					before, limit).entrySet()) {
+				statuses.add(new MessageStatus(e.getKey(), c, e.getValue(),
+						false, false));
+			}
+			return statuses;
+		}
+		return db.getMessageStatus(txn, c, g, before, limit);
+	}
+
 	@Override
 	public MessageStatus getMessageStatus(Transaction transaction, ContactId c,
 			MessageId m) throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		if (!db.containsMessage(txn, m))
 			throw new NoSuchMessageException();
 		MessageStatus status = db.getMessageStatus(txn, c, m);
-		if (status == null) return new MessageStatus(m, c, false, false);
+		if (status == null) {
+			long timestamp = db.getMessageTimestamp(txn, m);
+			return new MessageStatus(m, c, timestamp, false, false);
+		}
 		return status;
 	}
 
@@ -726,11 +854,23 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	public List<Byte> getSyncVersions(Transaction transaction, ContactId c)
 			throws DbException {
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		return db.getSyncVersions(txn, c);
 	}
 
+	@Override
+	public Map<MessageId, Integer> getThreadedMessages(Transaction transaction,
+			GroupId g, @Nullable MessageId after, int maxMessages)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!groupExists(txn, g))
+			throw new NoSuchGroupException();
+		if (after != null && !db.containsMessage(txn, after))
+			throw new NoSuchMessageException();
+		return db.getThreadedMessages(txn, g, after, maxMessages);
+	}
+
 	@Override
 	public Collection<TransportKeySet> getTransportKeys(Transaction transaction,
 			TransportId t) throws DbException {
@@ -740,6 +880,18 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getTransportKeys(txn, t);
 	}
 
+	@Override
+	public boolean incrementMessageCounts(Transaction transaction, GroupId g,
+			int msgCount, int unreadCount, long latestMsgTime)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!groupExists(txn, g))
+			throw new NoSuchGroupException();
+		return db.incrementMessageCounts(txn, g, msgCount, unreadCount,
+				latestMsgTime);
+	}
+
 	@Override
 	public void incrementStreamCounter(Transaction transaction, TransportId t,
 			KeySetId k) throws DbException {
@@ -755,7 +907,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			Metadata meta) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
 		db.mergeGroupMetadata(txn, g, meta);
 	}
@@ -790,7 +942,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		Collection<MessageId> acked = new ArrayList<>();
 		for (MessageId m : a.getMessageIds()) {
@@ -809,9 +961,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
-		if (db.getGroupVisibility(txn, c, m.getGroupId()) != INVISIBLE) {
+		if (getVisibility(txn, c, m.getGroupId()) != INVISIBLE) {
 			if (db.containsMessage(txn, m.getId())) {
 				db.raiseSeenFlag(txn, c, m.getId());
 				db.raiseAckFlag(txn, c, m.getId());
@@ -823,12 +975,46 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public void receiveMessages(Transaction transaction, ContactId c,
+			Collection<Message> messages) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!contactExists(txn, c))
+			throw new NoSuchContactException();
+		// Look up the visibility of each group once
+		Map<GroupId, Visibility> visibility = new HashMap<>();
+		Map<MessageId, Message> visible = new LinkedHashMap<>();
+		for (Message m : messages) {
+			GroupId g = m.getGroupId();
+			Visibility v = visibility.get(g);
+			if (v == null) {
+				v = getVisibility(txn, c, g);
+				visibility.put(g, v);
+			}
+			if (v != INVISIBLE) visible.put(m.getId(), m);
+		}
+		if (visible.isEmpty()) return;
+		// Acknowledge any messages we already have, and store the rest
+		for (MessageId m : db.getContainedMessageIds(txn, visible.keySet())) {
+			db.raiseSeenFlag(txn, c, m);
+			db.raiseAckFlag(txn, c, m);
+			visible.remove(m);
+		}
+		if (!visible.isEmpty()) {
+			db.addMessages(txn, visible.values(), UNKNOWN, false, false, c);
+			for (Message m : visible.values())
+				transaction.attach(new MessageAddedEvent(m, c));
+		}
+		transaction.attach(new MessageToAckEvent(c));
+	}
+
 	@Override
 	public void receiveOffer(Transaction transaction, ContactId c, Offer o)
 			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		boolean ack = false, request = false;
 		int count = db.countOfferedMessages(txn, c);
@@ -852,7 +1038,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		boolean requested = false;
 		for (MessageId m : r.getMessageIds()) {
@@ -870,8 +1056,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
+		startCacheUpdate();
 		db.removeContact(txn, c);
 		transaction.attach(new ContactRemovedEvent(c));
 	}
@@ -882,10 +1069,11 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		GroupId id = g.getId();
-		if (!db.containsGroup(txn, id))
+		if (!groupExists(txn, id))
 			throw new NoSuchGroupException();
 		Collection<ContactId> affected =
 				db.getGroupVisibility(txn, id).keySet();
+		startCacheUpdate();
 		db.removeGroup(txn, id);
 		transaction.attach(new GroupRemovedEvent(g));
 		transaction.attach(new GroupVisibilityUpdatedEvent(affected));
@@ -898,6 +1086,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		T txn = unbox(transaction);
 		if (!db.containsIdentity(txn, a))
 			throw new NoSuchIdentityException();
+		startCacheUpdate();
 		db.removeIdentity(txn, a);
 		transaction.attach(new IdentityRemovedEvent(a));
 	}
@@ -957,8 +1146,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
+		startCacheUpdate();
 		db.setContactVerified(txn, c);
 		transaction.attach(new ContactVerifiedEvent(c));
 	}
@@ -968,9 +1158,11 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			@Nullable String alias) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
+		startCacheUpdate();
 		db.setContactAlias(txn, c, alias);
+		transaction.attach(new ContactAliasChangedEvent(c, alias));
 	}
 
 	@Override
@@ -978,12 +1170,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			GroupId g, Visibility v) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
-		if (!db.containsGroup(txn, g))
+		if (!groupExists(txn, g))
 			throw new NoSuchGroupException();
-		Visibility old = db.getGroupVisibility(txn, c, g);
+		Visibility old = getVisibility(txn, c, g);
 		if (old == v) return;
+		startCacheUpdate();
 		if (old == INVISIBLE) db.addGroupVisibility(txn, c, g, v == SHARED);
 		else if (v == INVISIBLE) db.removeGroupVisibility(txn, c, g);
 		else db.setGroupVisibility(txn, c, g, v == SHARED);
@@ -991,6 +1184,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new GroupVisibilityUpdatedEvent(affected));
 	}
 
+	@Override
+	public void setMessageCounts(Transaction transaction, GroupId g,
+			MessageCounts counts) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!groupExists(txn, g))
+			throw new NoSuchGroupException();
+		db.setMessageCounts(txn, g, counts);
+	}
+
 	@Override
 	public void setMessagePermanent(Transaction transaction, MessageId m)
 			throws DbException {
@@ -1066,7 +1269,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			List<Byte> supported) throws DbException {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
-		if (!db.containsContact(txn, c))
+		if (!contactExists(txn, c))
 			throw new NoSuchContactException();
 		db.setSyncVersions(txn, c, supported);
 		transaction.attach(new SyncVersionsUpdatedEvent(c, supported));
@@ -1094,6 +1297,46 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	private boolean contactExists(T txn, ContactId c) throws DbException {
+		if (cache == null) return db.containsContact(txn, c);
+		Boolean cached = cache.containsContact(c);
+		if (cached != null) return cached;
+		long version = cache.getVersion();
+		boolean contains = db.containsContact(txn, c);
+		cache.putContact(version, c, contains);
+		return contains;
+	}
+
+	private boolean groupExists(T txn, GroupId g) throws DbException {
+		if (cache == null) return db.containsGroup(txn, g);
+		Boolean cached = cache.containsGroup(g);
+		if (cached != null) return cached;
+		long version = cache.getVersion();
+		boolean contains = db.containsGroup(txn, g);
+		cache.putGroup(version, g, contains);
+		return contains;
+	}
+
+	private Visibility getVisibility(T txn, ContactId c, GroupId g)
+			throws DbException {
+		if (cache == null) return db.getGroupVisibility(txn, c, g);
+		Visibility cached = cache.getGroupVisibility(c, g);
+		if (cached != null) return cached;
+		long version = cache.getVersion();
+		Visibility v = db.getGroupVisibility(txn, c, g);
+		cache.putGroupVisibility(version, c, g, v);
+		return v;
+	}
+
+	/**
+	 * Must be called by a write transaction before it changes the existence
+	 * of any contacts or groups, the visibility of any groups, or the
+	 * verification status or alias of any contacts.
+	 */
+	private void startCacheUpdate() {
+		if (cache != null) cache.startUpdate();
+	}
+
 	private class CommitActionVisitor implements Visitor {
 
 		@Override
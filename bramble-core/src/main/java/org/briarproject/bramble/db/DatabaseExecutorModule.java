@@ -1,6 +1,8 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.KeyedExecutor;
 import org.briarproject.bramble.TimeLoggingExecutor;
+import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 
@@ -17,6 +19,8 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 @Module
@@ -28,33 +32,53 @@ public class DatabaseExecutorModule {
 		ExecutorService executorService;
 	}
 
-	private final ExecutorService databaseExecutor;
+	/**
+	 * The maximum number of threads used by the parallel database executor.
+	 */
+	private static final int MAX_PARALLEL_THREADS = 4;
 
-	public DatabaseExecutorModule() {
+	@Provides
+	@Singleton
+	@DatabaseExecutor
+	ExecutorService provideDatabaseExecutorService(
+			LifecycleManager lifecycleManager, FeatureFlags featureFlags) {
+		int threads = 1;
+		if (featureFlags.shouldEnableParallelDatabaseExecutor()) {
+			int processors = Runtime.getRuntime().availableProcessors();
+			threads = max(2, min(processors, MAX_PARALLEL_THREADS));
+		}
 		// Use an unbounded queue
 		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
 		// Discard tasks that are submitted during shutdown
 		RejectedExecutionHandler policy =
 				new ThreadPoolExecutor.DiscardPolicy();
-		// Use a single thread and keep it in the pool for 60 secs
-		databaseExecutor = new TimeLoggingExecutor("DatabaseExecutor", 0, 1,
-				60, SECONDS, queue, policy);
+		// Use a fixed number of threads and keep them in the pool for 60 secs
+		ThreadPoolExecutor databaseExecutor = new TimeLoggingExecutor(
+				"DatabaseExecutor", threads, threads, 60, SECONDS, queue,
+				policy);
+		databaseExecutor.allowCoreThreadTimeOut(true);
+		lifecycleManager.registerForShutdown(databaseExecutor);
+		return databaseExecutor;
 	}
 
 	@Provides
 	@Singleton
 	@DatabaseExecutor
-	ExecutorService provideDatabaseExecutorService(
-			LifecycleManager lifecycleManager) {
-		lifecycleManager.registerForShutdown(databaseExecutor);
-		return databaseExecutor;
+	KeyedExecutor provideKeyedDatabaseExecutor(
+			@DatabaseExecutor ExecutorService dbExecutor,
+			FeatureFlags featureFlags) {
+		// Tasks with the same key run in order. Tasks submitted without a key
+		// run in order with respect to each other, as they would on a single
+		// thread
+		return new KeyedExecutor("DatabaseExecutor", dbExecutor,
+				featureFlags.shouldEnableParallelDatabaseExecutor());
 	}
 
 	@Provides
 	@Singleton
 	@DatabaseExecutor
 	Executor provideDatabaseExecutor(
-			@DatabaseExecutor ExecutorService dbExecutor) {
+			@DatabaseExecutor KeyedExecutor dbExecutor) {
 		return dbExecutor;
 	}
 }
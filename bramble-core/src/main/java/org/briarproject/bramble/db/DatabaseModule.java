@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.TransactionManager;
@@ -31,9 +32,13 @@ public class DatabaseModule {
 	@Singleton
 	DatabaseComponent provideDatabaseComponent(Database<Connection> db,
 			EventBus eventBus, @EventExecutor Executor eventExecutor,
-			ShutdownManager shutdownManager) {
+			ShutdownManager shutdownManager, FeatureFlags featureFlags) {
+		// H2 uses multi-version concurrency control, so read-only
+		// transactions can run concurrently with write transactions
 		return new DatabaseComponentImpl<>(db, Connection.class, eventBus,
-				eventExecutor, shutdownManager);
+				eventExecutor, shutdownManager,
+				featureFlags.shouldEnableConcurrentReads(),
+				featureFlags.shouldEnableDatabaseCache());
 	}
 
 	@Provides
@@ -0,0 +1,573 @@
+package org.briarproject.bramble.db;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * A {@link PreparedStatement} that passes all calls to another statement.
+ * Subclasses can override methods to change the behaviour of the wrapped
+ * statement.
+ */
+class DelegatingPreparedStatement implements PreparedStatement {
+
+	private final PreparedStatement statement;
+
+	DelegatingPreparedStatement(PreparedStatement statement) {
+		this.statement = statement;
+	}
+
+	/**
+	 * Returns the statement that calls are passed to. Subclasses can override
+	 * this method to check that the statement can still be used.
+	 */
+	PreparedStatement getDelegate() throws SQLException {
+		return statement;
+	}
+
+	@Override
+	public void addBatch() throws SQLException {
+		getDelegate().addBatch();
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		getDelegate().addBatch(sql);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		getDelegate().cancel();
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		getDelegate().clearBatch();
+	}
+
+	@Override
+	public void clearParameters() throws SQLException {
+		getDelegate().clearParameters();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		getDelegate().clearWarnings();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		getDelegate().closeOnCompletion();
+	}
+
+	@Override
+	public void close() throws SQLException {
+		getDelegate().close();
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		return getDelegate().executeBatch();
+	}
+
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		return getDelegate().executeQuery();
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		return getDelegate().executeQuery(sql);
+	}
+
+	@Override
+	public int executeUpdate() throws SQLException {
+		return getDelegate().executeUpdate();
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes)
+			throws SQLException {
+		return getDelegate().executeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames)
+			throws SQLException {
+		return getDelegate().executeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		return getDelegate().executeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		return getDelegate().executeUpdate(sql);
+	}
+
+	@Override
+	public boolean execute() throws SQLException {
+		return getDelegate().execute();
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes)
+			throws SQLException {
+		return getDelegate().execute(sql, columnIndexes);
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames)
+			throws SQLException {
+		return getDelegate().execute(sql, columnNames);
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		return getDelegate().execute(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		return getDelegate().execute(sql);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getDelegate().getConnection();
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return getDelegate().getFetchDirection();
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return getDelegate().getFetchSize();
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return getDelegate().getGeneratedKeys();
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return getDelegate().getMaxFieldSize();
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		return getDelegate().getMaxRows();
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return getDelegate().getMetaData();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return getDelegate().getMoreResults();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return getDelegate().getMoreResults(current);
+	}
+
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		return getDelegate().getParameterMetaData();
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return getDelegate().getQueryTimeout();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return getDelegate().getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return getDelegate().getResultSetHoldability();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return getDelegate().getResultSetType();
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return getDelegate().getResultSet();
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return getDelegate().getUpdateCount();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return getDelegate().getWarnings();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return getDelegate().isCloseOnCompletion();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return getDelegate().isClosed();
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return getDelegate().isPoolable();
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return getDelegate().isWrapperFor(iface);
+	}
+
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		getDelegate().setArray(parameterIndex, x);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		getDelegate().setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		getDelegate().setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x)
+			throws SQLException {
+		getDelegate().setAsciiStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x)
+			throws SQLException {
+		getDelegate().setBigDecimal(parameterIndex, x);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		getDelegate().setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		getDelegate().setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x)
+			throws SQLException {
+		getDelegate().setBinaryStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		getDelegate().setBlob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+		getDelegate().setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		getDelegate().setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		getDelegate().setBoolean(parameterIndex, x);
+	}
+
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		getDelegate().setByte(parameterIndex, x);
+	}
+
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		getDelegate().setBytes(parameterIndex, x);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, int length)
+			throws SQLException {
+		getDelegate().setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, long length)
+			throws SQLException {
+		getDelegate().setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x)
+			throws SQLException {
+		getDelegate().setCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x, long length)
+			throws SQLException {
+		getDelegate().setClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x) throws SQLException {
+		getDelegate().setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		getDelegate().setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		getDelegate().setCursorName(name);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal)
+			throws SQLException {
+		getDelegate().setDate(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		getDelegate().setDate(parameterIndex, x);
+	}
+
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		getDelegate().setDouble(parameterIndex, x);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean escapeProcessing)
+			throws SQLException {
+		getDelegate().setEscapeProcessing(escapeProcessing);
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		getDelegate().setFetchDirection(direction);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		getDelegate().setFetchSize(rows);
+	}
+
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		getDelegate().setFloat(parameterIndex, x);
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		getDelegate().setInt(parameterIndex, x);
+	}
+
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		getDelegate().setLong(parameterIndex, x);
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		getDelegate().setMaxFieldSize(max);
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		getDelegate().setMaxRows(max);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x, long length)
+			throws SQLException {
+		getDelegate().setNCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x)
+			throws SQLException {
+		getDelegate().setNCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x, long length)
+			throws SQLException {
+		getDelegate().setNClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x) throws SQLException {
+		getDelegate().setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, NClob x) throws SQLException {
+		getDelegate().setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setNString(int parameterIndex, String x) throws SQLException {
+		getDelegate().setNString(parameterIndex, x);
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName)
+			throws SQLException {
+		getDelegate().setNull(parameterIndex, sqlType, typeName);
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		getDelegate().setNull(parameterIndex, sqlType);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType,
+			int scaleOrLength) throws SQLException {
+		getDelegate().setObject(parameterIndex, x, targetSqlType,
+				scaleOrLength);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType)
+			throws SQLException {
+		getDelegate().setObject(parameterIndex, x, targetSqlType);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		getDelegate().setObject(parameterIndex, x);
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		getDelegate().setPoolable(poolable);
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		getDelegate().setQueryTimeout(seconds);
+	}
+
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		getDelegate().setRef(parameterIndex, x);
+	}
+
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		getDelegate().setRowId(parameterIndex, x);
+	}
+
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+		getDelegate().setSQLXML(parameterIndex, x);
+	}
+
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		getDelegate().setShort(parameterIndex, x);
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		getDelegate().setString(parameterIndex, x);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal)
+			throws SQLException {
+		getDelegate().setTime(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		getDelegate().setTime(parameterIndex, x);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal)
+			throws SQLException {
+		getDelegate().setTimestamp(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x)
+			throws SQLException {
+		getDelegate().setTimestamp(parameterIndex, x);
+	}
+
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		getDelegate().setURL(parameterIndex, x);
+	}
+
+	@Deprecated
+	@Override
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		getDelegate().setUnicodeStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return getDelegate().unwrap(iface);
+	}
+}
@@ -15,6 +15,7 @@ import org.briarproject.bramble.api.db.DataTooNewException;
 import org.briarproject.bramble.api.db.DataTooOldException;
 import org.briarproject.bramble.api.db.DbClosedException;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
@@ -51,11 +52,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -69,6 +72,7 @@ import static java.sql.Types.BOOLEAN;
 import static java.sql.Types.INTEGER;
 import static java.sql.Types.VARCHAR;
 import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
@@ -98,13 +102,16 @@ import static org.briarproject.bramble.util.LogUtils.now;
 abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
-	static final int CODE_SCHEMA_VERSION = 47;
+	static final int CODE_SCHEMA_VERSION = 49;
 
 	// Time period offsets for incoming transport keys
 	private static final int OFFSET_PREV = -1;
 	private static final int OFFSET_CURR = 0;
 	private static final int OFFSET_NEXT = 1;
 
+	// The number of IDs to look up per query when looking up many IDs
+	private static final int MAX_IDS_PER_QUERY = 64;
+
 	private static final String CREATE_SETTINGS =
 			"CREATE TABLE settings"
 					+ " (namespace _STRING NOT NULL,"
@@ -172,6 +179,17 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES groups (groupId)"
 					+ " ON DELETE CASCADE)";
 
+	private static final String CREATE_MESSAGE_COUNTS =
+			"CREATE TABLE messageCounts"
+					+ " (groupId _HASH NOT NULL,"
+					+ " msgCount INT NOT NULL,"
+					+ " unreadCount INT NOT NULL,"
+					+ " latestMsgTime BIGINT NOT NULL,"
+					+ " PRIMARY KEY (groupId),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
 	private static final String CREATE_MESSAGES =
 			"CREATE TABLE messages"
 					+ " (messageId _HASH NOT NULL,"
@@ -202,6 +220,24 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES groups (groupId)"
 					+ " ON DELETE CASCADE)";
 
+	private static final String CREATE_THREADED_MESSAGES =
+			"CREATE TABLE threadedMessages"
+					+ " (messageId _HASH NOT NULL,"
+					+ " groupId _HASH NOT NULL," // Denormalised
+					// The sort key of the first message in the thread
+					+ " threadKey _STRING NOT NULL,"
+					// The position in the thread in depth-first order
+					+ " threadPosition INT NOT NULL,"
+					+ " threadDepth INT NOT NULL,"
+					+ " sortKey _STRING NOT NULL,"
+					+ " PRIMARY KEY (messageId),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE,"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
 	private static final String CREATE_MESSAGE_DEPENDENCIES =
 			"CREATE TABLE messageDependencies"
 					+ " (groupId _HASH NOT NULL,"
@@ -324,6 +360,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS messageMetadataByGroupIdState"
 					+ " ON messageMetadata (groupId, state)";
 
+	// Used for listing the messages in a group in order, a page at a time
+	private static final String
+			INDEX_THREADED_MESSAGES_BY_GROUP_ID_THREAD_KEY_THREAD_POSITION =
+			"CREATE INDEX IF NOT EXISTS"
+					+ " threadedMessagesByGroupIdThreadKeyThreadPosition"
+					+ " ON threadedMessages"
+					+ " (groupId, threadKey, threadPosition)";
+
 	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID =
 			"CREATE INDEX IF NOT EXISTS messageDependenciesByDependencyId"
 					+ " ON messageDependencies (dependencyId)";
@@ -332,10 +376,26 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS statusesByContactIdGroupId"
 					+ " ON statuses (contactId, groupId)";
 
+	// Used for listing the messages in a conversation, newest first, a page
+	// at a time
+	private static final String INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS statusesByContactIdGroupIdTimestamp"
+					+ " ON statuses (contactId, groupId, state, deleted,"
+					+ " timestamp)";
+
 	private static final String INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP =
 			"CREATE INDEX IF NOT EXISTS statusesByContactIdTimestamp"
 					+ " ON statuses (contactId, timestamp)";
 
+	// Used for finding messages to send, offer or retransmit to a contact
+	// without scanning all the contact's statuses. The columns tested for
+	// equality come first, so the messages that can be sent are adjacent in
+	// the index and ordered by timestamp
+	private static final String INDEX_STATUSES_BY_CONTACT_ID_SENDABLE =
+			"CREATE INDEX IF NOT EXISTS statusesByContactIdSendable"
+					+ " ON statuses (contactId, state, groupShared,"
+					+ " messageShared, deleted, seen, timestamp)";
+
 	private static final Logger LOG =
 			getLogger(JdbcDatabase.class.getName());
 
@@ -343,6 +403,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 	private final Clock clock;
 	private final DatabaseTypes dbTypes;
 
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+
 	private final Lock connectionsLock = new ReentrantLock();
 	private final Condition connectionsChanged = connectionsLock.newCondition();
 
@@ -463,7 +526,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 				new Migration43_44(dbTypes),
 				new Migration44_45(),
 				new Migration45_46(),
-				new Migration46_47(dbTypes)
+				new Migration46_47(dbTypes),
+				new Migration47_48(dbTypes),
+				new Migration48_49(dbTypes)
 		);
 	}
 
@@ -507,6 +572,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_GROUP_VISIBILITIES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_METADATA));
+			s.executeUpdate(dbTypes.replaceTypes(CREATE_THREADED_MESSAGES));
+			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_COUNTS));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_MESSAGE_DEPENDENCIES));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_OFFERS));
 			s.executeUpdate(dbTypes.replaceTypes(CREATE_STATUSES));
@@ -528,9 +595,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(INDEX_CONTACTS_BY_AUTHOR_ID);
 			s.executeUpdate(INDEX_GROUPS_BY_CLIENT_ID_MAJOR_VERSION);
 			s.executeUpdate(INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE);
+			s.executeUpdate(
+					INDEX_THREADED_MESSAGES_BY_GROUP_ID_THREAD_KEY_THREAD_POSITION);
 			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID);
+			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID_TIMESTAMP);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP);
+			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_SENDABLE);
 			s.close();
 		} catch (SQLException e) {
 			tryToClose(s, LOG, WARNING);
@@ -550,8 +621,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 		try {
 			if (txn == null) {
-				// Open a new connection
-				txn = createConnection();
+				// Open a new connection and cache its prepared statements
+				txn = new PreparedStatementCache(createConnection(),
+						statementCacheHits, statementCacheMisses)
+						.getConnection();
 				txn.setAutoCommit(false);
 				connectionsLock.lock();
 				try {
@@ -630,10 +703,30 @@ abstract class JdbcDatabase implements Database<Connection> {
 		} finally {
 			connectionsLock.unlock();
 		}
-
+		if (LOG.isLoggable(INFO)) {
+			LOG.info("Prepared statement cache: "
+					+ statementCacheHits.get() + " hits, "
+					+ statementCacheMisses.get() + " misses");
+		}
 		if (interrupted) Thread.currentThread().interrupt();
 	}
 
+	/**
+	 * Returns the number of times a prepared statement has been found in
+	 * the cache of a pooled connection.
+	 */
+	long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+
+	/**
+	 * Returns the number of times a prepared statement has not been found in
+	 * the cache of a pooled connection and had to be prepared.
+	 */
+	long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+
 	@Override
 	public ContactId addContact(Connection txn, Author remote, AuthorId local,
 			@Nullable PublicKey handshake, boolean verified)
@@ -785,44 +878,119 @@ abstract class JdbcDatabase implements Database<Connection> {
 	public void addMessage(Connection txn, Message m, MessageState state,
 			boolean shared, boolean temporary, @Nullable ContactId sender)
 			throws DbException {
+		addMessages(txn, singletonList(m), state, shared, temporary, sender);
+	}
+
+	@Override
+	public void addMessages(Connection txn, Collection<Message> messages,
+			MessageState state, boolean shared, boolean temporary,
+			@Nullable ContactId sender) throws DbException {
+		if (messages.isEmpty()) return;
 		PreparedStatement ps = null;
 		try {
 			String sql = "INSERT INTO messages (messageId, groupId, timestamp,"
 					+ " state, shared, temporary, length, raw)"
 					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 			ps = txn.prepareStatement(sql);
-			ps.setBytes(1, m.getId().getBytes());
-			ps.setBytes(2, m.getGroupId().getBytes());
-			ps.setLong(3, m.getTimestamp());
-			ps.setInt(4, state.getValue());
-			ps.setBoolean(5, shared);
-			ps.setBoolean(6, temporary);
-			byte[] raw = messageFactory.getRawMessage(m);
-			ps.setInt(7, raw.length);
-			ps.setBytes(8, raw);
-			int affected = ps.executeUpdate();
-			if (affected != 1) throw new DbStateException();
+			Map<GroupId, List<Message>> byGroup = new HashMap<>();
+			for (Message m : messages) {
+				ps.setBytes(1, m.getId().getBytes());
+				ps.setBytes(2, m.getGroupId().getBytes());
+				ps.setLong(3, m.getTimestamp());
+				ps.setInt(4, state.getValue());
+				ps.setBoolean(5, shared);
+				ps.setBoolean(6, temporary);
+				byte[] raw = messageFactory.getRawMessage(m);
+				ps.setInt(7, raw.length);
+				ps.setBytes(8, raw);
+				ps.addBatch();
+				List<Message> inGroup = byGroup.get(m.getGroupId());
+				if (inGroup == null) {
+					inGroup = new ArrayList<>();
+					byGroup.put(m.getGroupId(), inGroup);
+				}
+				inGroup.add(m);
+			}
+			int[] batchAffected = ps.executeBatch();
+			if (batchAffected.length != messages.size())
+				throw new DbStateException();
+			for (int rows : batchAffected)
+				if (rows != 1) throw new DbStateException();
 			ps.close();
-			// Create a status row for each contact that can see the group
-			Map<ContactId, Boolean> visibility =
-					getGroupVisibility(txn, m.getGroupId());
-			for (Entry<ContactId, Boolean> e : visibility.entrySet()) {
-				ContactId c = e.getKey();
-				boolean offered = removeOfferedMessage(txn, c, m.getId());
-				boolean seen = offered || c.equals(sender);
-				addStatus(txn, m.getId(), c, m.getGroupId(), m.getTimestamp(),
-						raw.length, state, e.getValue(), shared, false, seen);
+			// Find out which contacts can see each group, and remove any
+			// offers of the messages from those contacts
+			List<StatusRow> statuses = new ArrayList<>();
+			sql = "DELETE FROM offers WHERE contactId = ? AND messageId = ?";
+			ps = txn.prepareStatement(sql);
+			for (Entry<GroupId, List<Message>> e : byGroup.entrySet()) {
+				Map<ContactId, Boolean> visibility =
+						getGroupVisibility(txn, e.getKey());
+				for (Message m : e.getValue()) {
+					for (Entry<ContactId, Boolean> v : visibility.entrySet()) {
+						ps.setInt(1, v.getKey().getInt());
+						ps.setBytes(2, m.getId().getBytes());
+						ps.addBatch();
+						statuses.add(new StatusRow(m, v.getKey(),
+								v.getValue()));
+					}
+				}
+			}
+			if (statuses.isEmpty()) {
+				ps.close();
+			} else {
+				batchAffected = ps.executeBatch();
+				if (batchAffected.length != statuses.size())
+					throw new DbStateException();
+				ps.close();
+				// Create a status row for each contact that can see the group
+				sql = "INSERT INTO statuses (messageId, contactId, groupId,"
+						+ " timestamp, length, state, groupShared,"
+						+ " messageShared, deleted, ack, seen, requested,"
+						+ " expiry, txCount, eta)"
+						+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, FALSE, ?, ?, FALSE,"
+						+ " 0, 0, 0)";
+				ps = txn.prepareStatement(sql);
+				for (int i = 0; i < batchAffected.length; i++) {
+					int rows = batchAffected[i];
+					if (rows < 0 || rows > 1) throw new DbStateException();
+					StatusRow row = statuses.get(i);
+					Message m = row.message;
+					boolean seen = rows == 1 || row.contactId.equals(sender);
+					ps.setBytes(1, m.getId().getBytes());
+					ps.setInt(2, row.contactId.getInt());
+					ps.setBytes(3, m.getGroupId().getBytes());
+					ps.setLong(4, m.getTimestamp());
+					ps.setInt(5, m.getRawLength());
+					ps.setInt(6, state.getValue());
+					ps.setBoolean(7, row.groupShared);
+					ps.setBoolean(8, shared);
+					ps.setBoolean(9, seen);
+					ps.setBoolean(10, seen);
+					ps.addBatch();
+				}
+				batchAffected = ps.executeBatch();
+				if (batchAffected.length != statuses.size())
+					throw new DbStateException();
+				for (int rows : batchAffected)
+					if (rows != 1) throw new DbStateException();
+				ps.close();
 			}
 			// Update denormalised column in messageDependencies if dependency
 			// is in same group as dependent
 			sql = "UPDATE messageDependencies SET dependencyState = ?"
 					+ " WHERE groupId = ? AND dependencyId = ?";
 			ps = txn.prepareStatement(sql);
-			ps.setInt(1, state.getValue());
-			ps.setBytes(2, m.getGroupId().getBytes());
-			ps.setBytes(3, m.getId().getBytes());
-			affected = ps.executeUpdate();
-			if (affected < 0) throw new DbStateException();
+			for (Message m : messages) {
+				ps.setInt(1, state.getValue());
+				ps.setBytes(2, m.getGroupId().getBytes());
+				ps.setBytes(3, m.getId().getBytes());
+				ps.addBatch();
+			}
+			batchAffected = ps.executeBatch();
+			if (batchAffected.length != messages.size())
+				throw new DbStateException();
+			for (int rows : batchAffected)
+				if (rows < 0) throw new DbStateException();
 			ps.close();
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
@@ -936,6 +1104,128 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean addMessageToThread(Connection txn, MessageId m,
+			@Nullable MessageId parent, String sortKey) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Return if the message has already been added
+			String sql = "SELECT NULL FROM threadedMessages"
+					+ " WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			rs = ps.executeQuery();
+			boolean found = rs.next();
+			rs.close();
+			ps.close();
+			if (found) return true;
+			// Get the group ID
+			sql = "SELECT groupId FROM messages WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			byte[] groupId = rs.getBytes(1);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			String threadKey;
+			int position, depth;
+			if (parent == null) {
+				// Start a new thread
+				threadKey = sortKey;
+				position = 0;
+				depth = 0;
+			} else {
+				// Get the parent's position, if it's in the same group
+				sql = "SELECT threadKey, threadPosition, threadDepth"
+						+ " FROM threadedMessages"
+						+ " WHERE messageId = ? AND groupId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, parent.getBytes());
+				ps.setBytes(2, groupId);
+				rs = ps.executeQuery();
+				if (!rs.next()) {
+					rs.close();
+					ps.close();
+					return false;
+				}
+				threadKey = rs.getString(1);
+				int parentPosition = rs.getInt(2);
+				int parentDepth = rs.getInt(3);
+				if (rs.next()) throw new DbStateException();
+				rs.close();
+				ps.close();
+				depth = parentDepth + 1;
+				// The message goes before the first later sibling, or at the
+				// end of the parent's subtree if there are no later siblings
+				sql = "SELECT MIN(threadPosition) FROM threadedMessages"
+						+ " WHERE groupId = ? AND threadKey = ?"
+						+ " AND threadPosition > ?"
+						+ " AND (threadDepth < ?"
+						+ " OR (threadDepth = ? AND sortKey > ?))";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, groupId);
+				ps.setString(2, threadKey);
+				ps.setInt(3, parentPosition);
+				ps.setInt(4, depth);
+				ps.setInt(5, depth);
+				ps.setString(6, sortKey);
+				rs = ps.executeQuery();
+				if (!rs.next()) throw new DbStateException();
+				position = rs.getInt(1);
+				boolean append = rs.wasNull();
+				rs.close();
+				ps.close();
+				if (append) {
+					// The parent's subtree is at the end of the thread
+					sql = "SELECT MAX(threadPosition) FROM threadedMessages"
+							+ " WHERE groupId = ? AND threadKey = ?";
+					ps = txn.prepareStatement(sql);
+					ps.setBytes(1, groupId);
+					ps.setString(2, threadKey);
+					rs = ps.executeQuery();
+					if (!rs.next()) throw new DbStateException();
+					position = rs.getInt(1) + 1;
+					rs.close();
+					ps.close();
+				} else {
+					// Make room by moving the rest of the thread along
+					sql = "UPDATE threadedMessages"
+							+ " SET threadPosition = threadPosition + 1"
+							+ " WHERE groupId = ? AND threadKey = ?"
+							+ " AND threadPosition >= ?";
+					ps = txn.prepareStatement(sql);
+					ps.setBytes(1, groupId);
+					ps.setString(2, threadKey);
+					ps.setInt(3, position);
+					int affected = ps.executeUpdate();
+					if (affected < 1) throw new DbStateException();
+					ps.close();
+				}
+			}
+			sql = "INSERT INTO threadedMessages (messageId, groupId,"
+					+ " threadKey, threadPosition, threadDepth, sortKey)"
+					+ " VALUES (?, ?, ?, ?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			ps.setBytes(2, groupId);
+			ps.setString(3, threadKey);
+			ps.setInt(4, position);
+			ps.setInt(5, depth);
+			ps.setString(6, sortKey);
+			int affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+			return true;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void addPendingContact(Connection txn, PendingContact p)
 			throws DbException {
@@ -1506,6 +1796,42 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<MessageId> getContainedMessageIds(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		if (ids.isEmpty()) return Collections.emptyList();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Use the same number of parameters for every query, so the
+			// statement can be reused, by repeating the last ID if necessary
+			StringBuilder sb = new StringBuilder(
+					"SELECT messageId FROM messages WHERE messageId IN (?");
+			for (int i = 1; i < MAX_IDS_PER_QUERY; i++) sb.append(", ?");
+			String sql = sb.append(")").toString();
+			ps = txn.prepareStatement(sql);
+			List<MessageId> contained = new ArrayList<>();
+			List<MessageId> list = new ArrayList<>(ids);
+			for (int from = 0; from < list.size();
+					from += MAX_IDS_PER_QUERY) {
+				int to = Math.min(from + MAX_IDS_PER_QUERY, list.size());
+				for (int i = 0; i < MAX_IDS_PER_QUERY; i++) {
+					MessageId m = list.get(Math.min(from + i, to - 1));
+					ps.setBytes(i + 1, m.getBytes());
+				}
+				rs = ps.executeQuery();
+				while (rs.next()) contained.add(new MessageId(rs.getBytes(1)));
+				rs.close();
+			}
+			ps.close();
+			return contained;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Group getGroup(Connection txn, GroupId g) throws DbException {
 		PreparedStatement ps = null;
@@ -1692,23 +2018,60 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT groupId, timestamp, raw FROM messages"
-					+ " WHERE messageId = ?";
+			String sql = "SELECT raw FROM messages WHERE messageId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
 			rs = ps.executeQuery();
 			if (!rs.next()) throw new DbStateException();
-			GroupId g = new GroupId(rs.getBytes(1));
-			long timestamp = rs.getLong(2);
-			byte[] raw = rs.getBytes(3);
+			byte[] raw = rs.getBytes(1);
 			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
 			if (raw == null) throw new MessageDeletedException();
 			if (raw.length <= MESSAGE_HEADER_LENGTH) throw new AssertionError();
-			byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
-			System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
-			return new Message(m, g, timestamp, body);
+			// The message is backed by the raw message, which isn't copied
+			return new Message(m, raw);
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<GroupId, MessageCounts> getMessageCounts(Connection txn,
+			Collection<GroupId> groupIds) throws DbException {
+		if (groupIds.isEmpty()) return Collections.emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Use the same number of parameters for every query, so the
+			// statement can be reused, by repeating the last ID if necessary
+			StringBuilder sb = new StringBuilder("SELECT groupId, msgCount,"
+					+ " unreadCount, latestMsgTime FROM messageCounts"
+					+ " WHERE groupId IN (?");
+			for (int i = 1; i < MAX_IDS_PER_QUERY; i++) sb.append(", ?");
+			String sql = sb.append(")").toString();
+			ps = txn.prepareStatement(sql);
+			Map<GroupId, MessageCounts> counts = new HashMap<>();
+			List<GroupId> list = new ArrayList<>(groupIds);
+			for (int from = 0; from < list.size();
+					from += MAX_IDS_PER_QUERY) {
+				int to = Math.min(from + MAX_IDS_PER_QUERY, list.size());
+				for (int i = 0; i < MAX_IDS_PER_QUERY; i++) {
+					GroupId g = list.get(Math.min(from + i, to - 1));
+					ps.setBytes(i + 1, g.getBytes());
+				}
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					GroupId g = new GroupId(rs.getBytes(1));
+					counts.put(g, new MessageCounts(rs.getInt(2),
+							rs.getInt(3), rs.getLong(4)));
+				}
+				rs.close();
+			}
+			ps.close();
+			return counts;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1748,29 +2111,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			// Retrieve the message IDs for each query term and intersect
-			Set<MessageId> intersection = null;
-			String sql = "SELECT messageId FROM messageMetadata"
-					+ " WHERE groupId = ? AND state = ?"
-					+ " AND metaKey = ? AND value = ?";
-			for (Entry<String, byte[]> e : query.entrySet()) {
-				ps = txn.prepareStatement(sql);
-				ps.setBytes(1, g.getBytes());
-				ps.setInt(2, DELIVERED.getValue());
-				ps.setString(3, e.getKey());
-				ps.setBytes(4, e.getValue());
-				rs = ps.executeQuery();
-				Set<MessageId> ids = new HashSet<>();
-				while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
-				rs.close();
-				ps.close();
-				if (intersection == null) intersection = ids;
-				else intersection.retainAll(ids);
-				// Return early if there are no matches
-				if (intersection.isEmpty()) return Collections.emptySet();
-			}
-			if (intersection == null) throw new AssertionError();
-			return intersection;
+			// Retrieve the IDs of the messages that match every query term
+			ps = txn.prepareStatement(getMetadataQuery(query.size()));
+			setMetadataQueryParameters(ps, 1, g, query);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1778,6 +2127,40 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Returns a query that selects the IDs of the delivered messages in a
+	 * group that match all of the given number of query terms. Each message
+	 * has at most one row per key, so a message matches if the number of
+	 * matching rows equals the number of terms.
+	 */
+	private String getMetadataQuery(int terms) {
+		StringBuilder sb = new StringBuilder("SELECT messageId"
+				+ " FROM messageMetadata"
+				+ " WHERE groupId = ? AND state = ? AND (");
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) sb.append(" OR ");
+			sb.append("(metaKey = ? AND value = ?)");
+		}
+		sb.append(") GROUP BY messageId HAVING COUNT (*) = ").append(terms);
+		return sb.toString();
+	}
+
+	/**
+	 * Sets the parameters of a query returned by
+	 * {@link #getMetadataQuery(int)}, starting at the given index, and
+	 * returns the index of the next parameter.
+	 */
+	private int setMetadataQueryParameters(PreparedStatement ps, int index,
+			GroupId g, Metadata query) throws SQLException {
+		ps.setBytes(index++, g.getBytes());
+		ps.setInt(index++, DELIVERED.getValue());
+		for (Entry<String, byte[]> e : query.entrySet()) {
+			ps.setString(index++, e.getKey());
+			ps.setBytes(index++, e.getValue());
+		}
+		return index;
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
 			GroupId g) throws DbException {
@@ -1811,16 +2194,94 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			Collection<MessageId> ids) throws DbException {
+		if (ids.isEmpty()) return Collections.emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Use the same number of parameters for every query, so the
+			// statement can be reused, by repeating the last ID if necessary
+			StringBuilder sb = new StringBuilder("SELECT messageId, metaKey,"
+					+ " value FROM messageMetadata"
+					+ " WHERE state = ? AND messageId IN (?");
+			for (int i = 1; i < MAX_IDS_PER_QUERY; i++) sb.append(", ?");
+			String sql = sb.append(")").toString();
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, DELIVERED.getValue());
+			Map<MessageId, Metadata> all = new HashMap<>();
+			List<MessageId> list = new ArrayList<>(ids);
+			for (int from = 0; from < list.size();
+					from += MAX_IDS_PER_QUERY) {
+				int to = Math.min(from + MAX_IDS_PER_QUERY, list.size());
+				for (int i = 0; i < MAX_IDS_PER_QUERY; i++) {
+					MessageId m = list.get(Math.min(from + i, to - 1));
+					ps.setBytes(i + 2, m.getBytes());
+				}
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					MessageId messageId = new MessageId(rs.getBytes(1));
+					Metadata metadata = all.get(messageId);
+					if (metadata == null) {
+						metadata = new Metadata();
+						all.put(messageId, metadata);
+					}
+					metadata.put(rs.getString(2), rs.getBytes(3));
+				}
+				rs.close();
+			}
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
 			GroupId g, Metadata query) throws DbException {
-		// Retrieve the matching message IDs
-		Collection<MessageId> matches = getMessageIds(txn, g, query);
-		if (matches.isEmpty()) return Collections.emptyMap();
-		// Retrieve the metadata for each match
-		Map<MessageId, Metadata> all = new HashMap<>(matches.size());
-		for (MessageId m : matches) all.put(m, getMessageMetadata(txn, m));
-		return all;
+		// If there are no query terms, return all delivered messages,
+		// including any that have no metadata
+		if (query.isEmpty()) {
+			Map<MessageId, Metadata> all = getMessageMetadata(txn, g);
+			for (MessageId m : getMessageIds(txn, g)) {
+				if (!all.containsKey(m)) all.put(m, new Metadata());
+			}
+			return all;
+		}
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Retrieve the metadata of the matching messages
+			String sql = "SELECT messageId, metaKey, value"
+					+ " FROM messageMetadata"
+					+ " WHERE state = ? AND messageId IN ("
+					+ getMetadataQuery(query.size()) + ")";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, DELIVERED.getValue());
+			setMetadataQueryParameters(ps, 2, g, query);
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = new HashMap<>();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				Metadata metadata = all.get(messageId);
+				if (metadata == null) {
+					metadata = new Metadata();
+					all.put(messageId, metadata);
+				}
+				metadata.put(rs.getString(2), rs.getBytes(3));
+			}
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -1902,7 +2363,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId, txCount > 0, seen FROM statuses"
+			String sql = "SELECT messageId, timestamp, txCount > 0, seen"
+					+ " FROM statuses"
 					+ " WHERE groupId = ? AND contactId = ? AND state = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, g.getBytes());
@@ -1912,9 +2374,73 @@ abstract class JdbcDatabase implements Database<Connection> {
 			List<MessageStatus> statuses = new ArrayList<>();
 			while (rs.next()) {
 				MessageId messageId = new MessageId(rs.getBytes(1));
+				long timestamp = rs.getLong(2);
+				boolean sent = rs.getBoolean(3);
+				boolean seen = rs.getBoolean(4);
+				statuses.add(new MessageStatus(messageId, c, timestamp, sent,
+						seen));
+			}
+			rs.close();
+			ps.close();
+			return statuses;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<MessageStatus> getMessageStatus(Connection txn, ContactId c,
+			GroupId g, long before, int limit) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, timestamp, txCount > 0, seen"
+					+ " FROM statuses"
+					+ " WHERE contactId = ? AND groupId = ? AND state = ?"
+					+ " AND deleted = FALSE AND timestamp < ?"
+					+ " ORDER BY timestamp DESC LIMIT ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setBytes(2, g.getBytes());
+			ps.setInt(3, DELIVERED.getValue());
+			ps.setLong(4, before);
+			ps.setInt(5, limit);
+			rs = ps.executeQuery();
+			List<MessageStatus> statuses = new ArrayList<>();
+			long last = 0;
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				last = rs.getLong(2);
+				boolean sent = rs.getBoolean(3);
+				boolean seen = rs.getBoolean(4);
+				statuses.add(new MessageStatus(messageId, c, last, sent,
+						seen));
+			}
+			rs.close();
+			ps.close();
+			if (statuses.size() < limit) return statuses;
+			// Add any other messages with the same timestamp as the last
+			// message, so the next page can start before that timestamp
+			Set<MessageId> included = new HashSet<>();
+			for (MessageStatus s : statuses) included.add(s.getMessageId());
+			sql = "SELECT messageId, txCount > 0, seen FROM statuses"
+					+ " WHERE contactId = ? AND groupId = ? AND state = ?"
+					+ " AND deleted = FALSE AND timestamp = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setBytes(2, g.getBytes());
+			ps.setInt(3, DELIVERED.getValue());
+			ps.setLong(4, last);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				if (included.contains(messageId)) continue;
 				boolean sent = rs.getBoolean(2);
 				boolean seen = rs.getBoolean(3);
-				statuses.add(new MessageStatus(messageId, c, sent, seen));
+				statuses.add(new MessageStatus(messageId, c, last, sent,
+						seen));
 			}
 			rs.close();
 			ps.close();
@@ -1933,7 +2459,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT txCount > 0, seen FROM statuses"
+			String sql = "SELECT timestamp, txCount > 0, seen FROM statuses"
 					+ " WHERE messageId = ? AND contactId = ? AND state = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
@@ -1942,9 +2468,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 			rs = ps.executeQuery();
 			MessageStatus status = null;
 			if (rs.next()) {
-				boolean sent = rs.getBoolean(1);
-				boolean seen = rs.getBoolean(2);
-				status = new MessageStatus(m, c, sent, seen);
+				long timestamp = rs.getLong(1);
+				boolean sent = rs.getBoolean(2);
+				boolean seen = rs.getBoolean(3);
+				status = new MessageStatus(m, c, timestamp, sent, seen);
 			}
 			if (rs.next()) throw new DbStateException();
 			rs.close();
@@ -1957,6 +2484,103 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public long getMessageTimestamp(Connection txn, MessageId m)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT timestamp FROM messages WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbStateException();
+			long timestamp = rs.getLong(1);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return timestamp;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Long> getMessageTimestamps(Connection txn,
+			GroupId g) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, timestamp FROM messages"
+					+ " WHERE groupId = ? AND state = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			Map<MessageId, Long> timestamps = new HashMap<>();
+			while (rs.next())
+				timestamps.put(new MessageId(rs.getBytes(1)), rs.getLong(2));
+			rs.close();
+			ps.close();
+			return timestamps;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Long> getMessageTimestamps(Connection txn,
+			GroupId g, long before, int limit) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId, timestamp FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND raw IS NOT NULL"
+					+ " AND timestamp < ?"
+					+ " ORDER BY timestamp DESC LIMIT ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, before);
+			ps.setInt(4, limit);
+			rs = ps.executeQuery();
+			Map<MessageId, Long> timestamps = new LinkedHashMap<>();
+			long last = 0;
+			while (rs.next()) {
+				last = rs.getLong(2);
+				timestamps.put(new MessageId(rs.getBytes(1)), last);
+			}
+			rs.close();
+			ps.close();
+			if (timestamps.size() < limit) return timestamps;
+			// Add any other messages with the same timestamp as the last
+			// message, so the next page can start before that timestamp
+			sql = "SELECT messageId FROM messages"
+					+ " WHERE groupId = ? AND state = ? AND raw IS NOT NULL"
+					+ " AND timestamp = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, last);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				MessageId id = new MessageId(rs.getBytes(1));
+				if (!timestamps.containsKey(id)) timestamps.put(id, last);
+			}
+			rs.close();
+			ps.close();
+			return timestamps;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, MessageState> getMessageDependencies(Connection txn,
 			MessageId m) throws DbException {
@@ -2397,6 +3021,62 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, Integer> getThreadedMessages(Connection txn,
+			GroupId g, @Nullable MessageId after, int maxMessages)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String threadKey = null;
+			int position = 0;
+			if (after != null) {
+				String sql = "SELECT threadKey, threadPosition"
+						+ " FROM threadedMessages"
+						+ " WHERE messageId = ? AND groupId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, after.getBytes());
+				ps.setBytes(2, g.getBytes());
+				rs = ps.executeQuery();
+				if (!rs.next()) {
+					rs.close();
+					ps.close();
+					return Collections.emptyMap();
+				}
+				threadKey = rs.getString(1);
+				position = rs.getInt(2);
+				if (rs.next()) throw new DbStateException();
+				rs.close();
+				ps.close();
+			}
+			String sql = "SELECT messageId, threadDepth FROM threadedMessages"
+					+ " WHERE groupId = ?"
+					+ (threadKey == null ? "" : " AND (threadKey > ?"
+					+ " OR (threadKey = ? AND threadPosition > ?))")
+					+ " ORDER BY threadKey, threadPosition LIMIT ?";
+			ps = txn.prepareStatement(sql);
+			int index = 1;
+			ps.setBytes(index++, g.getBytes());
+			if (threadKey != null) {
+				ps.setString(index++, threadKey);
+				ps.setString(index++, threadKey);
+				ps.setInt(index++, position);
+			}
+			ps.setInt(index, maxMessages);
+			rs = ps.executeQuery();
+			Map<MessageId, Integer> depths = new LinkedHashMap<>();
+			while (rs.next())
+				depths.put(new MessageId(rs.getBytes(1)), rs.getInt(2));
+			rs.close();
+			ps.close();
+			return depths;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Collection<TransportKeySet> getTransportKeys(Connection txn,
 			TransportId t) throws DbException {
@@ -2475,6 +3155,35 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean incrementMessageCounts(Connection txn, GroupId g,
+			int msgCount, int unreadCount, long latestMsgTime)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "UPDATE messageCounts"
+					+ " SET msgCount = msgCount + ?,"
+					+ " unreadCount = unreadCount + ?,"
+					+ " latestMsgTime = CASE WHEN latestMsgTime < ?"
+					+ " THEN ? ELSE latestMsgTime END"
+					+ " WHERE groupId = ? AND unreadCount + ? >= 0";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, msgCount);
+			ps.setInt(2, unreadCount);
+			ps.setLong(3, latestMsgTime);
+			ps.setLong(4, latestMsgTime);
+			ps.setBytes(5, g.getBytes());
+			ps.setInt(6, unreadCount);
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+			return affected == 1;
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void incrementStreamCounter(Connection txn, TransportId t,
 			KeySetId k) throws DbException {
@@ -3109,6 +3818,42 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void setMessageCounts(Connection txn, GroupId g,
+			MessageCounts counts) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			// Update the counts if the group already has counts
+			String sql = "UPDATE messageCounts SET msgCount = ?,"
+					+ " unreadCount = ?, latestMsgTime = ?"
+					+ " WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, counts.getMsgCount());
+			ps.setInt(2, counts.getUnreadCount());
+			ps.setLong(3, counts.getLatestMsgTime());
+			ps.setBytes(4, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+			if (affected == 1) return;
+			// Otherwise insert new counts
+			sql = "INSERT INTO messageCounts"
+					+ " (groupId, msgCount, unreadCount, latestMsgTime)"
+					+ " VALUES (?, ?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, counts.getMsgCount());
+			ps.setInt(3, counts.getUnreadCount());
+			ps.setLong(4, counts.getLatestMsgTime());
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void setMessagePermanent(Connection txn, MessageId m)
 			throws DbException {
@@ -3375,4 +4120,18 @@ abstract class JdbcDatabase implements Database<Connection> {
 			throw new DbException(e);
 		}
 	}
+
+	private static class StatusRow {
+
+		private final Message message;
+		private final ContactId contactId;
+		private final boolean groupShared;
+
+		private StatusRow(Message message, ContactId contactId,
+				boolean groupShared) {
+			this.message = message;
+			this.contactId = contactId;
+			this.groupShared = groupShared;
+		}
+	}
 }
@@ -0,0 +1,58 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+class Migration47_48 implements Migration<Connection> {
+
+	private static final Logger LOG = getLogger(Migration47_48.class.getName());
+
+	private final DatabaseTypes dbTypes;
+
+	Migration47_48(DatabaseTypes dbTypes) {
+		this.dbTypes = dbTypes;
+	}
+
+	@Override
+	public int getStartVersion() {
+		return 47;
+	}
+
+	@Override
+	public int getEndVersion() {
+		return 48;
+	}
+
+	@Override
+	public void migrate(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			s.execute(dbTypes.replaceTypes("CREATE TABLE threadedMessages"
+					+ " (messageId _HASH NOT NULL,"
+					+ " groupId _HASH NOT NULL,"
+					+ " threadKey _STRING NOT NULL,"
+					+ " threadPosition INT NOT NULL,"
+					+ " threadDepth INT NOT NULL,"
+					+ " sortKey _STRING NOT NULL,"
+					+ " PRIMARY KEY (messageId),"
+					+ " FOREIGN KEY (messageId)"
+					+ " REFERENCES messages (messageId)"
+					+ " ON DELETE CASCADE,"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)"));
+		} catch (SQLException e) {
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+}
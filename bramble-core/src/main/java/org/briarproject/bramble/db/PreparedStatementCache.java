@@ -0,0 +1,181 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+
+/**
+ * Wraps a pooled {@link Connection} so that prepared statements are reused
+ * instead of being parsed again every time the same SQL is prepared.
+ * <p/>
+ * Closing a prepared statement returned by the wrapped connection returns it
+ * to the cache. The cache holds at most {@link #MAX_CACHED_STATEMENTS}
+ * statements; the least recently used statement is closed when the cache is
+ * full. Closing the wrapped connection closes all cached statements.
+ * <p/>
+ * Like the connection itself, the cache must only be used by one transaction
+ * at a time.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class PreparedStatementCache {
+
+	private static final Logger LOG =
+			getLogger(PreparedStatementCache.class.getName());
+
+	/**
+	 * The maximum number of prepared statements to cache per connection.
+	 */
+	static final int MAX_CACHED_STATEMENTS = 256;
+
+	private final Connection connection;
+	private final Connection wrapped;
+	private final AtomicLong hits, misses;
+	// Least recently used statements come first
+	private final LinkedHashMap<String, CachedStatement> statements =
+			new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param hits incremented when a prepared statement is found in the cache
+	 * @param misses incremented when a prepared statement is not found in
+	 * the cache
+	 */
+	PreparedStatementCache(Connection connection, AtomicLong hits,
+			AtomicLong misses) {
+		this.connection = connection;
+		this.hits = hits;
+		this.misses = misses;
+		wrapped = new CachingConnection(connection);
+	}
+
+	/**
+	 * Returns the wrapped connection.
+	 */
+	Connection getConnection() {
+		return wrapped;
+	}
+
+	private PreparedStatement prepareStatement(String sql)
+			throws SQLException {
+		CachedStatement cached = statements.get(sql);
+		if (cached == null) {
+			misses.incrementAndGet();
+			cached = new CachedStatement(sql, connection.prepareStatement(sql));
+			statements.put(sql, cached);
+			evictIfFull();
+		} else if (cached.inUse) {
+			// The same SQL is already in use by this transaction, so use an
+			// uncached statement
+			misses.incrementAndGet();
+			return connection.prepareStatement(sql);
+		} else {
+			hits.incrementAndGet();
+		}
+		cached.inUse = true;
+		return cached;
+	}
+
+	private void evictIfFull() {
+		Iterator<Entry<String, CachedStatement>> it =
+				statements.entrySet().iterator();
+		while (statements.size() > MAX_CACHED_STATEMENTS && it.hasNext()) {
+			CachedStatement eldest = it.next().getValue();
+			// A statement that's in use will be closed when it's released
+			if (!eldest.inUse) tryToClose(eldest.statement, LOG, WARNING);
+			eldest.evicted = true;
+			it.remove();
+		}
+	}
+
+	private void closeAll() {
+		for (CachedStatement cached : statements.values()) {
+			tryToClose(cached.statement, LOG, WARNING);
+			cached.evicted = true;
+		}
+		statements.clear();
+	}
+
+	@NotNullByDefault
+	private class CachingConnection extends DelegatingConnection {
+
+		private CachingConnection(Connection connection) {
+			super(connection);
+		}
+
+		@Override
+		public PreparedStatement prepareStatement(String sql)
+				throws SQLException {
+			return PreparedStatementCache.this.prepareStatement(sql);
+		}
+
+		@Override
+		public void close() throws SQLException {
+			closeAll();
+			super.close();
+		}
+	}
+
+	@NotThreadSafe
+	@NotNullByDefault
+	private class CachedStatement extends DelegatingPreparedStatement {
+
+		private final String sql;
+		private final PreparedStatement statement;
+
+		private boolean inUse = false, evicted = false;
+
+		private CachedStatement(String sql, PreparedStatement statement) {
+			super(statement);
+			this.sql = sql;
+			this.statement = statement;
+		}
+
+		@Override
+		PreparedStatement getDelegate() throws SQLException {
+			if (!inUse) throw new SQLException("Statement is closed");
+			return statement;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			release();
+		}
+
+		@Override
+		public boolean isClosed() throws SQLException {
+			return !inUse || statement.isClosed();
+		}
+
+		private void release() throws SQLException {
+			if (!inUse) return;
+			inUse = false;
+			if (evicted) {
+				statement.close();
+				return;
+			}
+			try {
+				statement.clearBatch();
+				statement.clearParameters();
+			} catch (SQLException e) {
+				// Don't reuse a statement that can't be reset
+				evicted = true;
+				statements.remove(sql);
+				statement.close();
+				throw e;
+			}
+		}
+	}
+}
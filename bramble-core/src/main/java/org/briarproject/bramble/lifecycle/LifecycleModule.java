@@ -1,16 +1,21 @@
 package org.briarproject.bramble.lifecycle;
 
+import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.lifecycle.ShutdownManager;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -18,6 +23,7 @@ import dagger.Module;
 import dagger.Provides;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Logger.getLogger;
 
 @Module
 public class LifecycleModule {
@@ -28,18 +34,8 @@ public class LifecycleModule {
 		Executor executor;
 	}
 
-	private final ExecutorService ioExecutor;
-
-	public LifecycleModule() {
-		// The thread pool is unbounded, so use direct handoff
-		BlockingQueue<Runnable> queue = new SynchronousQueue<>();
-		// Discard tasks that are submitted during shutdown
-		RejectedExecutionHandler policy =
-				new ThreadPoolExecutor.DiscardPolicy();
-		// Create threads as required and keep them in the pool for 60 seconds
-		ioExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-				60, SECONDS, queue, policy);
-	}
+	private static final Logger LOG =
+			getLogger(LifecycleModule.class.getName());
 
 	@Provides
 	@Singleton
@@ -57,8 +53,61 @@ public class LifecycleModule {
 	@Provides
 	@Singleton
 	@IoExecutor
-	Executor provideIoExecutor(LifecycleManager lifecycleManager) {
+	Executor provideIoExecutor(LifecycleManager lifecycleManager,
+			FeatureFlags featureFlags) {
+		ExecutorService ioExecutor =
+				createIoExecutor(featureFlags.shouldEnableVirtualThreads());
 		lifecycleManager.registerForShutdown(ioExecutor);
 		return ioExecutor;
 	}
+
+	/**
+	 * Creates an unbounded executor for tasks that block on IO. If virtual
+	 * threads are requested and the JVM supports them (Java 21 or later),
+	 * each task runs on its own virtual thread, so tasks that are blocked
+	 * don't each hold a platform thread. Otherwise the tasks run on a pool of
+	 * platform threads.
+	 * <p/>
+	 * A virtual thread that blocks while holding a monitor also blocks the
+	 * platform thread that's carrying it, so the benefit depends on IO not
+	 * being performed inside synchronized blocks.
+	 */
+	static ExecutorService createIoExecutor(boolean useVirtualThreads) {
+		// The thread pool is unbounded, so use direct handoff
+		BlockingQueue<Runnable> queue = new SynchronousQueue<>();
+		// Discard tasks that are submitted during shutdown
+		RejectedExecutionHandler policy =
+				new ThreadPoolExecutor.DiscardPolicy();
+		ThreadFactory virtualThreadFactory =
+				useVirtualThreads ? getVirtualThreadFactory() : null;
+		if (virtualThreadFactory == null) {
+			// Create threads as required and keep them in the pool for 60 secs
+			return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, SECONDS,
+					queue, policy);
+		}
+		// Virtual threads are cheap to create, so don't keep them in the pool
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, SECONDS, queue,
+				virtualThreadFactory, policy);
+	}
+
+	/**
+	 * Returns a factory for virtual threads, or null if the JVM doesn't
+	 * support them. The factory is found by reflection, as the code must
+	 * also run on older JVMs and Android.
+	 */
+	@Nullable
+	private static ThreadFactory getVirtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object factory = builderClass.getMethod("factory").invoke(builder);
+			LOG.info("Using virtual threads for IO");
+			return (ThreadFactory) factory;
+		} catch (NoSuchMethodException | ClassNotFoundException |
+				IllegalAccessException | InvocationTargetException e) {
+			// Virtual threads are missing, or are a disabled preview feature
+			LOG.info("Virtual threads are not supported");
+			return null;
+		}
+	}
 }
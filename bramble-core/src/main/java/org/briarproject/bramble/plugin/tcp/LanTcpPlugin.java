@@ -77,9 +77,10 @@ class LanTcpPlugin extends TcpPlugin {
 	}
 
 	LanTcpPlugin(Executor ioExecutor, Backoff backoff, PluginCallback callback,
-			int maxLatency, int maxIdleTime, int connectionTimeout) {
+			int maxLatency, int maxIdleTime, int connectionTimeout,
+			boolean useSelector) {
 		super(ioExecutor, backoff, callback, maxLatency, maxIdleTime,
-				connectionTimeout);
+				connectionTimeout, useSelector);
 	}
 
 	@Override
@@ -27,11 +27,13 @@ public class LanTcpPluginFactory implements DuplexPluginFactory {
 
 	private final Executor ioExecutor;
 	private final BackoffFactory backoffFactory;
+	private final boolean useSelector;
 
 	public LanTcpPluginFactory(Executor ioExecutor,
-			BackoffFactory backoffFactory) {
+			BackoffFactory backoffFactory, boolean useSelector) {
 		this.ioExecutor = ioExecutor;
 		this.backoffFactory = backoffFactory;
+		this.useSelector = useSelector;
 	}
 
 	@Override
@@ -49,6 +51,6 @@ public class LanTcpPluginFactory implements DuplexPluginFactory {
 		Backoff backoff = backoffFactory.createBackoff(MIN_POLLING_INTERVAL,
 				MAX_POLLING_INTERVAL, BACKOFF_BASE);
 		return new LanTcpPlugin(ioExecutor, backoff, callback, MAX_LATENCY,
-				MAX_IDLE_TIME, CONNECTION_TIMEOUT);
+				MAX_IDLE_TIME, CONNECTION_TIMEOUT, useSelector);
 	}
 }
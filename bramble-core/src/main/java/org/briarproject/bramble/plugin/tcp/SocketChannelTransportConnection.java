@@ -0,0 +1,162 @@
+package org.briarproject.bramble.plugin.tcp;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.plugin.Plugin;
+import org.briarproject.bramble.api.plugin.duplex.AbstractDuplexTransportConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A TCP connection that reads and writes a socket channel in blocking mode.
+ * <p/>
+ * Before Java 13, the streams returned by a socket channel's socket hold the
+ * channel's blocking lock while reading or writing, so a read that's waiting
+ * for data stops the other direction from being written. The channel's own
+ * read and write methods use separate locks, so this class calls them
+ * directly.
+ * <p/>
+ * Blocking channels don't support read timeouts, so the connection must be
+ * watched by a {@link TcpSelector}, which closes it if a read waits for too
+ * long.
+ */
+@ThreadSafe
+@NotNullByDefault
+class SocketChannelTransportConnection
+		extends AbstractDuplexTransportConnection {
+
+	/**
+	 * The value of {@link #getReadStartTime()} when no read is in progress.
+	 */
+	static final long NOT_READING = Long.MAX_VALUE;
+
+	private final SocketChannel channel;
+	private final int readTimeout;
+	private final ChannelInputStream in = new ChannelInputStream();
+	private final ChannelOutputStream out = new ChannelOutputStream();
+
+	private volatile long readStartTime = NOT_READING;
+	private volatile boolean timedOut = false;
+
+	/**
+	 * @param channel A connected channel in blocking mode.
+	 * @param readTimeout How long a read may wait for data in milliseconds
+	 * before the connection is closed, or zero to wait indefinitely.
+	 */
+	SocketChannelTransportConnection(Plugin plugin, SocketChannel channel,
+			int readTimeout) {
+		super(plugin);
+		this.channel = channel;
+		this.readTimeout = readTimeout;
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Returns the time in milliseconds when the current read started
+	 * waiting for data, or {@link #NOT_READING} if no read is in progress.
+	 */
+	long getReadStartTime() {
+		return readStartTime;
+	}
+
+	/**
+	 * Closes the connection because a read has waited for longer than the
+	 * read timeout. The read throws a {@link SocketTimeoutException}.
+	 */
+	void timeOut() throws IOException {
+		timedOut = true;
+		channel.close();
+	}
+
+	@Override
+	protected InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	protected OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	protected void closeConnection(boolean exception) throws IOException {
+		channel.close();
+	}
+
+	static long now() {
+		return NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	@NotThreadSafe
+	@NotNullByDefault
+	private class ChannelInputStream extends InputStream {
+
+		private final byte[] one = new byte[1];
+
+		@Override
+		public int read() throws IOException {
+			int read = read(one, 0, 1);
+			return read == -1 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			readStartTime = now();
+			try {
+				return channel.read(ByteBuffer.wrap(b, off, len));
+			} catch (ClosedChannelException e) {
+				if (timedOut) throw new SocketTimeoutException();
+				throw e;
+			} finally {
+				readStartTime = NOT_READING;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeConnection(false);
+		}
+	}
+
+	@NotThreadSafe
+	@NotNullByDefault
+	private class ChannelOutputStream extends OutputStream {
+
+		private final byte[] one = new byte[1];
+
+		@Override
+		public void write(int b) throws IOException {
+			one[0] = (byte) b;
+			write(one, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+			while (buf.hasRemaining()) channel.write(buf);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeConnection(false);
+		}
+	}
+}
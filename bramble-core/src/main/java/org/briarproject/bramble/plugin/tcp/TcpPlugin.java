@@ -23,11 +23,15 @@ import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +45,7 @@ import static java.util.Collections.list;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.nullsafety.NullSafety.requireNonNull;
 import static org.briarproject.bramble.util.LogUtils.logException;
 import static org.briarproject.bramble.util.PrivacyUtils.scrubSocketAddress;
 import static org.briarproject.bramble.util.StringUtils.isNullOrEmpty;
@@ -61,6 +66,14 @@ abstract class TcpPlugin implements DuplexPlugin {
 	protected final int connectionTimeout, socketTimeout;
 	protected final AtomicBoolean used = new AtomicBoolean(false);
 
+	/**
+	 * If not null, the listening socket and outgoing connection attempts are
+	 * multiplexed over the selector's thread, which also enforces the read
+	 * timeouts of the resulting connections.
+	 */
+	@Nullable
+	private final TcpSelector selector;
+
 	protected volatile boolean running = false;
 	protected volatile ServerSocket socket = null;
 
@@ -91,7 +104,8 @@ abstract class TcpPlugin implements DuplexPlugin {
 			InetSocketAddress remote);
 
 	TcpPlugin(Executor ioExecutor, Backoff backoff, PluginCallback callback,
-			int maxLatency, int maxIdleTime, int connectionTimeout) {
+			int maxLatency, int maxIdleTime, int connectionTimeout,
+			boolean useSelector) {
 		this.ioExecutor = ioExecutor;
 		this.backoff = backoff;
 		this.callback = callback;
@@ -103,6 +117,7 @@ abstract class TcpPlugin implements DuplexPlugin {
 		else socketTimeout = maxIdleTime * 2;
 		// Don't execute more than one bind operation at a time
 		bindExecutor = new PoliteExecutor("TcpPlugin", ioExecutor, 1);
+		selector = useSelector ? new TcpSelector(ioExecutor) : null;
 	}
 
 	@Override
@@ -126,10 +141,18 @@ abstract class TcpPlugin implements DuplexPlugin {
 		bindExecutor.execute(() -> {
 			if (!running) return;
 			if (socket != null && !socket.isClosed()) return;
+			if (selector != null) {
+				try {
+					selector.start();
+				} catch (IOException e) {
+					logException(LOG, WARNING, e);
+					return;
+				}
+			}
 			ServerSocket ss = null;
 			for (InetSocketAddress addr : getLocalSocketAddresses()) {
 				try {
-					ss = new ServerSocket();
+					ss = createServerSocket();
 					ss.bind(addr);
 					break;
 				} catch (IOException e) {
@@ -154,10 +177,17 @@ abstract class TcpPlugin implements DuplexPlugin {
 			if (LOG.isLoggable(INFO))
 				LOG.info("Listening on " + scrubSocketAddress(local));
 			callback.transportEnabled();
-			acceptContactConnections();
+			if (selector == null) acceptContactConnections();
+			else acceptContactConnections(selector, ss);
 		});
 	}
 
+	private ServerSocket createServerSocket() throws IOException {
+		// A socket created from a channel can be used with the selector
+		if (selector == null) return new ServerSocket();
+		return ServerSocketChannel.open().socket();
+	}
+
 	protected void tryToClose(@Nullable ServerSocket ss) {
 		IoUtils.tryToClose(ss, LOG, WARNING);
 		callback.transportDisabled();
@@ -181,17 +211,56 @@ abstract class TcpPlugin implements DuplexPlugin {
 				if (LOG.isLoggable(INFO)) LOG.info(e.toString());
 				return;
 			}
-			if (LOG.isLoggable(INFO))
-				LOG.info("Connection from " +
-						scrubSocketAddress(s.getRemoteSocketAddress()));
-			backoff.reset();
-			callback.handleConnection(new TcpTransportConnection(this, s));
+			handleIncomingConnection(s.getRemoteSocketAddress(),
+					new TcpTransportConnection(this, s));
 		}
 	}
 
+	private void acceptContactConnections(TcpSelector selector,
+			ServerSocket ss) {
+		// Incoming connections don't occupy a thread until they send data
+		ServerSocketChannel server = requireNonNull(ss.getChannel());
+		selector.listen(server, socketTimeout, new TcpSelector.Callback() {
+
+			@Override
+			public void connected(SocketChannel channel) {
+				handleIncomingConnection(
+						channel.socket().getRemoteSocketAddress(),
+						createConnection(selector, channel));
+			}
+
+			@Override
+			public void failed() {
+				LOG.info("No data received from incoming connection");
+			}
+		});
+	}
+
+	private void handleIncomingConnection(SocketAddress remote,
+			DuplexTransportConnection d) {
+		if (LOG.isLoggable(INFO))
+			LOG.info("Connection from " + scrubSocketAddress(remote));
+		backoff.reset();
+		callback.handleConnection(d);
+	}
+
+	/**
+	 * Creates a connection from a channel that has been passed on by the
+	 * selector. The selector enforces the connection's read timeout.
+	 */
+	private DuplexTransportConnection createConnection(TcpSelector selector,
+			SocketChannel channel) {
+		SocketChannelTransportConnection d =
+				new SocketChannelTransportConnection(this, channel,
+						socketTimeout);
+		selector.watch(d);
+		return d;
+	}
+
 	@Override
 	public void stop() {
 		running = false;
+		if (selector != null) selector.stop();
 		tryToClose(socket);
 	}
 
@@ -221,6 +290,14 @@ abstract class TcpPlugin implements DuplexPlugin {
 	}
 
 	private void connect(TransportProperties p, ConnectionHandler h) {
+		if (selector != null) {
+			ServerSocket ss = socket;
+			if (ss == null) return;
+			Iterator<InetSocketAddress> remotes =
+					getConnectableAddresses(ss, p).iterator();
+			connect(selector, ss.getInetAddress(), remotes, h);
+			return;
+		}
 		ioExecutor.execute(() -> {
 			DuplexTransportConnection d = createConnection(p);
 			if (d != null) {
@@ -230,15 +307,86 @@ abstract class TcpPlugin implements DuplexPlugin {
 		});
 	}
 
+	/**
+	 * Tries to connect to each of the given addresses in turn, without
+	 * occupying a thread while each connection attempt is in progress.
+	 */
+	private void connect(TcpSelector selector, InetAddress local,
+			Iterator<InetSocketAddress> remotes, ConnectionHandler h) {
+		if (!isRunning() || !remotes.hasNext()) return;
+		InetSocketAddress remote = remotes.next();
+		if (LOG.isLoggable(INFO))
+			LOG.info("Connecting to " + scrubSocketAddress(remote));
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.socket().bind(new InetSocketAddress(local, 0));
+		} catch (IOException e) {
+			if (LOG.isLoggable(INFO))
+				LOG.info("Could not connect to " + scrubSocketAddress(remote));
+			IoUtils.tryToClose(channel, LOG, WARNING);
+			connect(selector, local, remotes, h);
+			return;
+		}
+		selector.connect(channel, remote, connectionTimeout,
+				new TcpSelector.Callback() {
+
+			@Override
+			public void connected(SocketChannel channel) {
+				DuplexTransportConnection d =
+						createConnection(selector, channel);
+				if (LOG.isLoggable(INFO))
+					LOG.info("Connected to " + scrubSocketAddress(remote));
+				backoff.reset();
+				h.handleConnection(d);
+			}
+
+			@Override
+			public void failed() {
+				if (LOG.isLoggable(INFO))
+					LOG.info("Could not connect to " +
+							scrubSocketAddress(remote));
+				connect(selector, local, remotes, h);
+			}
+		});
+	}
+
 	@Override
 	public DuplexTransportConnection createConnection(TransportProperties p) {
 		if (!isRunning()) return null;
 		ServerSocket ss = socket;
+		for (InetSocketAddress remote : getConnectableAddresses(ss, p)) {
+			try {
+				if (LOG.isLoggable(INFO))
+					LOG.info("Connecting to " + scrubSocketAddress(remote));
+				Socket s = createSocket();
+				s.bind(new InetSocketAddress(ss.getInetAddress(), 0));
+				s.connect(remote, connectionTimeout);
+				s.setSoTimeout(socketTimeout);
+				if (LOG.isLoggable(INFO))
+					LOG.info("Connected to " + scrubSocketAddress(remote));
+				return new TcpTransportConnection(this, s);
+			} catch (IOException e) {
+				if (LOG.isLoggable(INFO))
+					LOG.info("Could not connect to " +
+							scrubSocketAddress(remote));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the remote addresses from the given transport properties that
+	 * can be reached from the interface the given socket is bound to.
+	 */
+	private List<InetSocketAddress> getConnectableAddresses(ServerSocket ss,
+			TransportProperties p) {
 		InterfaceAddress local = getLocalInterfaceAddress(ss.getInetAddress());
 		if (local == null) {
 			LOG.warning("No interface for server socket");
-			return null;
+			return emptyList();
 		}
+		List<InetSocketAddress> remotes = new ArrayList<>();
 		for (InetSocketAddress remote : getRemoteSocketAddresses(p)) {
 			// Don't try to connect to our own address
 			if (!canConnectToOwnAddress() &&
@@ -253,23 +401,9 @@ abstract class TcpPlugin implements DuplexPlugin {
 				}
 				continue;
 			}
-			try {
-				if (LOG.isLoggable(INFO))
-					LOG.info("Connecting to " + scrubSocketAddress(remote));
-				Socket s = createSocket();
-				s.bind(new InetSocketAddress(ss.getInetAddress(), 0));
-				s.connect(remote, connectionTimeout);
-				s.setSoTimeout(socketTimeout);
-				if (LOG.isLoggable(INFO))
-					LOG.info("Connected to " + scrubSocketAddress(remote));
-				return new TcpTransportConnection(this, s);
-			} catch (IOException e) {
-				if (LOG.isLoggable(INFO))
-					LOG.info("Could not connect to " +
-							scrubSocketAddress(remote));
-			}
+			remotes.add(remote);
 		}
-		return null;
+		return remotes;
 	}
 
 	@Nullable
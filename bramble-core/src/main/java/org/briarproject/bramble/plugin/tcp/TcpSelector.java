@@ -0,0 +1,501 @@
+package org.briarproject.bramble.plugin.tcp;
+
+import org.briarproject.bramble.api.lifecycle.IoExecutor;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.nio.channels.SelectionKey.OP_ACCEPT;
+import static java.nio.channels.SelectionKey.OP_CONNECT;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.plugin.tcp.SocketChannelTransportConnection.NOT_READING;
+import static org.briarproject.bramble.util.IoUtils.tryToClose;
+import static org.briarproject.bramble.util.LogUtils.logException;
+
+/**
+ * Multiplexes a TCP plugin's listening socket, its outgoing connection
+ * attempts, and incoming connections that haven't sent any data yet over a
+ * single thread, so that none of them occupies a thread while it waits.
+ * <p/>
+ * When a connection is ready to use, it's passed to a {@link Callback} on
+ * the IO executor. The same thread enforces the read timeouts of established
+ * connections, which use blocking channels that don't support timeouts.
+ */
+@ThreadSafe
+@NotNullByDefault
+class TcpSelector {
+
+	private static final Logger LOG = getLogger(TcpSelector.class.getName());
+
+	private final Executor ioExecutor;
+	private final Queue<Registration> registrations =
+			new ConcurrentLinkedQueue<>();
+	private final Queue<IdleCheck> idleChecks = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Registrations and idle checks with timeouts, ordered by deadline. Only
+	 * accessed by the selector thread.
+	 */
+	private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>();
+
+	/**
+	 * Connections that are ready to be passed to their callbacks once their
+	 * keys have been deregistered. Only accessed by the selector thread.
+	 */
+	private final List<Registration> handOffs = new ArrayList<>();
+
+	/**
+	 * The selector used by the selector thread, or null if the thread isn't
+	 * running. The field is cleared by the thread when it finishes, so the
+	 * thread can be started again if it stops unexpectedly.
+	 */
+	@GuardedBy("this")
+	@Nullable
+	private Selector selector = null;
+
+	@GuardedBy("this")
+	private boolean stopped = false;
+
+	TcpSelector(Executor ioExecutor) {
+		this.ioExecutor = ioExecutor;
+	}
+
+	/**
+	 * Starts the selector thread if it isn't running and the selector hasn't
+	 * been stopped.
+	 */
+	synchronized void start() throws IOException {
+		if (stopped || selector != null) return;
+		Selector s = Selector.open();
+		selector = s;
+		ioExecutor.execute(() -> run(s));
+	}
+
+	/**
+	 * Stops the selector thread and closes any channels that haven't been
+	 * passed to their callbacks. Connections that are being watched are also
+	 * closed, as their read timeouts can no longer be enforced. The selector
+	 * can't be started again.
+	 */
+	synchronized void stop() {
+		stopped = true;
+		if (selector != null) selector.wakeup();
+	}
+
+	/**
+	 * Accepts connections on the given channel until the channel is closed.
+	 * Each connection is passed to the callback when it has data to read. If
+	 * no data arrives within the given timeout in milliseconds, or zero for no
+	 * timeout, the connection is closed.
+	 */
+	void listen(ServerSocketChannel server, int readTimeout,
+			Callback callback) {
+		add(new Listener(server, readTimeout, callback));
+	}
+
+	/**
+	 * Connects the given channel to the given address and passes it to the
+	 * callback. If the connection can't be made within the given timeout in
+	 * milliseconds, the channel is closed.
+	 */
+	void connect(SocketChannel channel, InetSocketAddress remote,
+			int connectionTimeout, Callback callback) {
+		add(new PendingConnect(channel, remote, getDeadline(connectionTimeout),
+				callback));
+	}
+
+	/**
+	 * Closes the given connection if a read waits for data for longer than
+	 * the connection's read timeout.
+	 */
+	void watch(SocketChannelTransportConnection c) {
+		int timeout = c.getReadTimeout();
+		if (timeout == 0) return;
+		IdleCheck check = new IdleCheck(c, getDeadline(timeout));
+		idleChecks.add(check);
+		// If the selector thread has already stopped, clean up
+		if (!wakeup() && idleChecks.remove(check)) check.close();
+	}
+
+	private void add(Registration r) {
+		registrations.add(r);
+		// If the selector thread has already stopped, clean up
+		if (!wakeup() && registrations.remove(r)) r.fail();
+	}
+
+	/**
+	 * Wakes the selector thread, or returns false if it isn't running.
+	 */
+	private boolean wakeup() {
+		Selector s;
+		synchronized (this) {
+			s = selector;
+		}
+		if (s == null) return false;
+		s.wakeup();
+		return true;
+	}
+
+	@IoExecutor
+	private void run(Selector selector) {
+		try {
+			while (!isStopped()) {
+				// Keys may already have been selected while handing off
+				if (selector.selectedKeys().isEmpty())
+					selector.select(getSelectTimeout());
+				Registration r;
+				while ((r = registrations.poll()) != null) r.register(selector);
+				IdleCheck i;
+				while ((i = idleChecks.poll()) != null) deadlines.add(i);
+				handleSelectedKeys(selector);
+				expireDeadlines();
+				finishHandOffs(selector);
+			}
+		} catch (IOException e) {
+			logException(LOG, WARNING, e);
+		} finally {
+			for (SelectionKey k : selector.keys()) {
+				Registration r = (Registration) k.attachment();
+				if (!r.done) r.fail();
+			}
+			for (Registration r : handOffs) r.fail();
+			handOffs.clear();
+			for (Deadline d : deadlines) {
+				if (d instanceof IdleCheck) ((IdleCheck) d).close();
+			}
+			deadlines.clear();
+			tryToClose(selector, LOG, WARNING);
+			// Clear the field before failing any remaining registrations, so
+			// registrations added from now on are failed by add()
+			synchronized (this) {
+				this.selector = null;
+			}
+			Registration r;
+			while ((r = registrations.poll()) != null) r.fail();
+			IdleCheck i;
+			while ((i = idleChecks.poll()) != null) i.close();
+		}
+	}
+
+	private synchronized boolean isStopped() {
+		return stopped;
+	}
+
+	private long getSelectTimeout() {
+		Deadline next;
+		while ((next = deadlines.peek()) != null && next.isDone())
+			deadlines.poll();
+		if (next == null) return 0; // Wait indefinitely
+		return Math.max(1, next.deadline - now());
+	}
+
+	private void handleSelectedKeys(Selector selector) {
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		while (it.hasNext()) {
+			SelectionKey k = it.next();
+			it.remove();
+			Registration r = (Registration) k.attachment();
+			if (r.done) continue;
+			try {
+				if (k.isValid()) r.ready(selector);
+				else r.fail();
+			} catch (IOException | CancelledKeyException e) {
+				if (LOG.isLoggable(INFO)) LOG.info(e.toString());
+				r.fail();
+			}
+		}
+	}
+
+	private void expireDeadlines() {
+		long now = now();
+		Deadline d;
+		while ((d = deadlines.peek()) != null && d.deadline <= now) {
+			deadlines.poll();
+			if (!d.isDone()) d.expire(now);
+		}
+	}
+
+	private void finishHandOffs(Selector selector) throws IOException {
+		if (handOffs.isEmpty()) return;
+		// Deregister the cancelled keys, so the channels can be put into
+		// blocking mode and aren't kept open by this selector after they've
+		// been closed by their new owners
+		selector.selectNow();
+		for (Registration r : handOffs) {
+			SocketChannel channel = (SocketChannel) r.channel;
+			try {
+				channel.configureBlocking(true);
+			} catch (IOException e) {
+				if (LOG.isLoggable(INFO)) LOG.info(e.toString());
+				r.fail();
+				continue;
+			}
+			Callback callback = r.callback;
+			ioExecutor.execute(() -> callback.connected(channel));
+		}
+		handOffs.clear();
+	}
+
+	private long getDeadline(int timeout) {
+		return timeout == 0 ? Long.MAX_VALUE : now() + timeout;
+	}
+
+	private long now() {
+		return SocketChannelTransportConnection.now();
+	}
+
+	interface Callback {
+
+		/**
+		 * Called on the IO executor when a connection is ready to use. The
+		 * channel is in blocking mode and isn't registered with the selector.
+		 */
+		void connected(SocketChannel channel);
+
+		/**
+		 * Called on the IO executor when a connection can't be made or
+		 * doesn't receive any data in time. The channel has been closed.
+		 */
+		void failed();
+	}
+
+	private abstract static class Deadline implements Comparable<Deadline> {
+
+		final long deadline;
+
+		private Deadline(long deadline) {
+			this.deadline = deadline;
+		}
+
+		abstract boolean isDone();
+
+		/**
+		 * Called on the selector thread when the deadline has passed.
+		 */
+		abstract void expire(long now);
+
+		@Override
+		public int compareTo(Deadline d) {
+			// Long.compare() isn't available before API level 19
+			if (deadline < d.deadline) return -1;
+			if (deadline > d.deadline) return 1;
+			return 0;
+		}
+	}
+
+	private abstract class Registration extends Deadline {
+
+		final SelectableChannel channel;
+		final Callback callback;
+
+		@Nullable
+		SelectionKey key = null;
+
+		/**
+		 * True if the registration has been handed off, has failed or has
+		 * been closed.
+		 */
+		boolean done = false;
+
+		private Registration(SelectableChannel channel, long deadline,
+				Callback callback) {
+			super(deadline);
+			this.channel = channel;
+			this.callback = callback;
+		}
+
+		@Override
+		boolean isDone() {
+			return done;
+		}
+
+		@Override
+		void expire(long now) {
+			fail();
+		}
+
+		/**
+		 * Called on the selector thread to register the channel.
+		 */
+		abstract void register(Selector selector);
+
+		/**
+		 * Called on the selector thread when the channel's key is selected.
+		 */
+		abstract void ready(Selector selector) throws IOException;
+
+		void register(Selector selector, int ops) {
+			try {
+				channel.configureBlocking(false);
+				key = channel.register(selector, ops, this);
+			} catch (IOException e) {
+				if (LOG.isLoggable(INFO)) LOG.info(e.toString());
+				fail();
+				return;
+			}
+			if (deadline != Long.MAX_VALUE) deadlines.add(this);
+		}
+
+		void handOff() {
+			if (key != null) key.cancel();
+			done = true;
+			handOffs.add(this);
+		}
+
+		void fail() {
+			close();
+			ioExecutor.execute(callback::failed);
+		}
+
+		void close() {
+			done = true;
+			tryToClose(channel, LOG, WARNING);
+		}
+	}
+
+	/**
+	 * Checks whether a connection's current read has waited for longer than
+	 * the read timeout. If not, the connection is checked again when the
+	 * current read, or a read starting now, could next time out.
+	 */
+	private class IdleCheck extends Deadline {
+
+		private final SocketChannelTransportConnection connection;
+
+		private IdleCheck(SocketChannelTransportConnection connection,
+				long deadline) {
+			super(deadline);
+			this.connection = connection;
+		}
+
+		@Override
+		boolean isDone() {
+			return !connection.getChannel().isOpen();
+		}
+
+		@Override
+		void expire(long now) {
+			long timeout = connection.getReadTimeout();
+			long started = connection.getReadStartTime();
+			if (started == NOT_READING) started = now;
+			if (now - started >= timeout) {
+				LOG.info("Read timed out");
+				try {
+					connection.timeOut();
+				} catch (IOException e) {
+					logException(LOG, WARNING, e);
+				}
+			} else {
+				deadlines.add(new IdleCheck(connection, started + timeout));
+			}
+		}
+
+		void close() {
+			tryToClose(connection.getChannel(), LOG, WARNING);
+		}
+	}
+
+	private class Listener extends Registration {
+
+		private final ServerSocketChannel server;
+		private final int readTimeout;
+
+		private Listener(ServerSocketChannel server, int readTimeout,
+				Callback callback) {
+			super(server, Long.MAX_VALUE, callback);
+			this.server = server;
+			this.readTimeout = readTimeout;
+		}
+
+		@Override
+		void register(Selector selector) {
+			register(selector, OP_ACCEPT);
+		}
+
+		@Override
+		void ready(Selector selector) throws IOException {
+			SocketChannel channel;
+			while ((channel = server.accept()) != null) {
+				new PendingRead(channel, getDeadline(readTimeout),
+						callback).register(selector);
+			}
+		}
+
+		@Override
+		void fail() {
+			// This is expected when the channel is closed
+			close();
+		}
+	}
+
+	private class PendingRead extends Registration {
+
+		private PendingRead(SocketChannel channel, long deadline,
+				Callback callback) {
+			super(channel, deadline, callback);
+		}
+
+		@Override
+		void register(Selector selector) {
+			register(selector, OP_READ);
+		}
+
+		@Override
+		void ready(Selector selector) {
+			handOff();
+		}
+	}
+
+	private class PendingConnect extends Registration {
+
+		private final SocketChannel channel;
+		private final InetSocketAddress remote;
+
+		private PendingConnect(SocketChannel channel, InetSocketAddress remote,
+				long deadline, Callback callback) {
+			super(channel, deadline, callback);
+			this.channel = channel;
+			this.remote = remote;
+		}
+
+		@Override
+		void register(Selector selector) {
+			register(selector, OP_CONNECT);
+			if (done) return;
+			try {
+				// The connection may complete immediately
+				if (channel.connect(remote)) handOff();
+			} catch (IOException e) {
+				if (LOG.isLoggable(INFO)) LOG.info(e.toString());
+				fail();
+			}
+		}
+
+		@Override
+		void ready(Selector selector) throws IOException {
+			if (channel.finishConnect()) handOff();
+		}
+	}
+}
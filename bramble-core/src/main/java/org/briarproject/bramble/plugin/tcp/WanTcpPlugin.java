@@ -31,9 +31,9 @@ class WanTcpPlugin extends TcpPlugin {
 
 	WanTcpPlugin(Executor ioExecutor, Backoff backoff, PortMapper portMapper,
 			PluginCallback callback, int maxLatency, int maxIdleTime,
-			int connectionTimeout) {
+			int connectionTimeout, boolean useSelector) {
 		super(ioExecutor, backoff, callback, maxLatency, maxIdleTime,
-				connectionTimeout);
+				connectionTimeout, useSelector);
 		this.portMapper = portMapper;
 	}
 
@@ -29,12 +29,15 @@ public class WanTcpPluginFactory implements DuplexPluginFactory {
 	private final Executor ioExecutor;
 	private final BackoffFactory backoffFactory;
 	private final ShutdownManager shutdownManager;
+	private final boolean useSelector;
 
 	public WanTcpPluginFactory(Executor ioExecutor,
-			BackoffFactory backoffFactory, ShutdownManager shutdownManager) {
+			BackoffFactory backoffFactory, ShutdownManager shutdownManager,
+			boolean useSelector) {
 		this.ioExecutor = ioExecutor;
 		this.backoffFactory = backoffFactory;
 		this.shutdownManager = shutdownManager;
+		this.useSelector = useSelector;
 	}
 
 	@Override
@@ -53,6 +56,6 @@ public class WanTcpPluginFactory implements DuplexPluginFactory {
 				MAX_POLLING_INTERVAL, BACKOFF_BASE);
 		return new WanTcpPlugin(ioExecutor, backoff,
 				new PortMapperImpl(shutdownManager), callback, MAX_LATENCY,
-				MAX_IDLE_TIME, CONNECTION_TIMEOUT);
+				MAX_IDLE_TIME, CONNECTION_TIMEOUT, useSelector);
 	}
 }
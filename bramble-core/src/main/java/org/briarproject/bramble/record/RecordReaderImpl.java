@@ -7,8 +7,7 @@ import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.util.ByteUtils;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -18,29 +17,45 @@ import javax.annotation.concurrent.NotThreadSafe;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
 
+/**
+ * A {@link RecordReader} that reads every payload into the same buffer.
+ * The records it returns are views of the buffer, which are valid until the
+ * next record is read.
+ */
 @NotThreadSafe
 @NotNullByDefault
 class RecordReaderImpl implements RecordReader {
 
-	private final DataInputStream in;
+	private final InputStream in;
 	private final byte[] header = new byte[RECORD_HEADER_BYTES];
+	private final byte[] payload = new byte[MAX_RECORD_PAYLOAD_BYTES];
+
+	/**
+	 * True if the first byte of the next record's header was read by
+	 * {@link #eof()} and is waiting in the header buffer.
+	 */
+	private boolean firstHeaderByteRead = false;
 
 	RecordReaderImpl(InputStream in) {
-		if (!in.markSupported()) in = new BufferedInputStream(in, 1);
-		this.in = new DataInputStream(in);
+		this.in = in;
 	}
 
 	@Override
 	public Record readRecord() throws IOException {
-		in.readFully(header);
+		if (firstHeaderByteRead) {
+			readFully(header, 1, RECORD_HEADER_BYTES - 1);
+			firstHeaderByteRead = false;
+		} else {
+			readFully(header, 0, RECORD_HEADER_BYTES);
+		}
 		byte protocolVersion = header[0];
 		byte recordType = header[1];
 		int payloadLength = ByteUtils.readUint16(header, 2);
 		if (payloadLength < 0 || payloadLength > MAX_RECORD_PAYLOAD_BYTES)
 			throw new FormatException();
-		byte[] payload = new byte[payloadLength];
-		in.readFully(payload);
-		return new Record(protocolVersion, recordType, payload);
+		readFully(payload, 0, payloadLength);
+		return new Record(protocolVersion, recordType, payload, 0,
+				payloadLength);
 	}
 
 	@Nullable
@@ -61,9 +76,20 @@ class RecordReaderImpl implements RecordReader {
 	}
 
 	private boolean eof() throws IOException {
-		in.mark(1);
+		if (firstHeaderByteRead) return false;
 		int next = in.read();
-		in.reset();
-		return next == -1;
+		if (next == -1) return true;
+		header[0] = (byte) next;
+		firstHeaderByteRead = true;
+		return false;
+	}
+
+	private void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int read = in.read(b, off, len);
+			if (read == -1) throw new EOFException();
+			off += read;
+			len -= read;
+		}
 	}
 }
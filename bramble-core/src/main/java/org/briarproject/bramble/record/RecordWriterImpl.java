@@ -25,12 +25,12 @@ class RecordWriterImpl implements RecordWriter {
 
 	@Override
 	public void writeRecord(Record r) throws IOException {
-		byte[] payload = r.getPayload();
+		int payloadLength = r.getPayloadLength();
 		header[0] = r.getProtocolVersion();
 		header[1] = r.getRecordType();
-		ByteUtils.writeUint16(payload.length, header, 2);
+		ByteUtils.writeUint16(payloadLength, header, 2);
 		out.write(header);
-		out.write(payload);
+		out.write(r.getPayloadBuffer(), r.getPayloadOffset(), payloadLength);
 	}
 
 	@Override
@@ -32,9 +32,11 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -52,6 +54,13 @@ import static org.briarproject.bramble.util.LogUtils.logException;
  * offers messages before sending them, keeps its output stream open when there
  * are no records to send, and reacts to events that make records available to
  * send.
+ * <p/>
+ * The session keeps up to a given number of generated records of each type
+ * waiting to be written, so that records can be generated while earlier
+ * records are being written. Generation of a record type stops when that
+ * many records are waiting, and resumes when one of them has been written.
+ * If more than one record of each type may be waiting, batches and offers
+ * are generated in the same transaction when both are needed.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -60,6 +69,12 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			getLogger(DuplexOutgoingSession.class.getName());
 
+	/**
+	 * The maximum number of generated records of each type that may be
+	 * waiting to be written when pipelining is enabled.
+	 */
+	static final int MAX_RECORDS_IN_FLIGHT = 4;
+
 	private static final ThrowingRunnable<IOException> CLOSE = () -> {
 	};
 	private static final ThrowingRunnable<IOException>
@@ -71,7 +86,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final EventBus eventBus;
 	private final Clock clock;
 	private final ContactId contactId;
-	private final int maxLatency, maxIdleTime;
+	private final int maxLatency, maxIdleTime, maxRecordsInFlight;
 	private final StreamWriter streamWriter;
 	private final SyncRecordWriter recordWriter;
 	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
@@ -81,14 +96,27 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final AtomicBoolean generateOfferQueued = new AtomicBoolean(false);
 	private final AtomicBoolean generateRequestQueued =
 			new AtomicBoolean(false);
+	private final AtomicBoolean generateBatchAndOfferQueued =
+			new AtomicBoolean(false);
+	private final AtomicInteger acksInFlight = new AtomicInteger(0);
+	private final AtomicInteger batchesInFlight = new AtomicInteger(0);
+	private final AtomicInteger offersInFlight = new AtomicInteger(0);
+	private final AtomicInteger requestsInFlight = new AtomicInteger(0);
 	private final AtomicLong nextSendTime = new AtomicLong(Long.MAX_VALUE);
 
 	private volatile boolean interrupted = false;
 
+	/**
+	 * @param maxRecordsInFlight the maximum number of generated records of
+	 * each type that may be waiting to be written. If this is 1, each record
+	 * is generated after the previous record of the same type has been
+	 * written
+	 */
 	DuplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, Clock clock, ContactId contactId, int maxLatency,
-			int maxIdleTime, StreamWriter streamWriter,
+			int maxIdleTime, int maxRecordsInFlight, StreamWriter streamWriter,
 			SyncRecordWriter recordWriter) {
+		if (maxRecordsInFlight < 1) throw new IllegalArgumentException();
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
@@ -96,6 +124,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		this.contactId = contactId;
 		this.maxLatency = maxLatency;
 		this.maxIdleTime = maxIdleTime;
+		this.maxRecordsInFlight = maxRecordsInFlight;
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
 		writerTasks = new LinkedBlockingQueue<>();
@@ -110,8 +139,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
 			// Start a query for each type of record
 			generateAck();
-			generateBatch();
-			generateOffer();
+			generateBatchAndOffer();
 			generateRequest();
 			long now = clock.currentTimeMillis();
 			long nextKeepalive = now + maxIdleTime;
@@ -139,8 +167,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 							// Check for retransmittable messages
 							LOG.info("Checking for retransmittable messages");
 							setNextSendTime(Long.MAX_VALUE);
-							generateBatch();
-							generateOffer();
+							generateBatchAndOffer();
 						}
 						if (now >= nextKeepalive) {
 							// Flush the stream to keep it alive
@@ -169,22 +196,53 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		}
 	}
 
+	private boolean isPipelined() {
+		return maxRecordsInFlight > 1;
+	}
+
 	private void generateAck() {
+		if (acksInFlight.get() >= maxRecordsInFlight) return;
 		if (generateAckQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateAck());
 	}
 
 	private void generateBatch() {
-		if (generateBatchQueued.compareAndSet(false, true))
-			dbExecutor.execute(new GenerateBatch());
+		if (batchesInFlight.get() >= maxRecordsInFlight) return;
+		if (generateBatchQueued.compareAndSet(false, true)) {
+			if (isPipelined()) queueGenerateBatchAndOffer();
+			else dbExecutor.execute(new GenerateBatch());
+		}
 	}
 
 	private void generateOffer() {
-		if (generateOfferQueued.compareAndSet(false, true))
-			dbExecutor.execute(new GenerateOffer());
+		if (offersInFlight.get() >= maxRecordsInFlight) return;
+		if (generateOfferQueued.compareAndSet(false, true)) {
+			if (isPipelined()) queueGenerateBatchAndOffer();
+			else dbExecutor.execute(new GenerateOffer());
+		}
+	}
+
+	private void generateBatchAndOffer() {
+		if (isPipelined()) {
+			// Set both flags before queueing a task to generate both records
+			boolean batch = batchesInFlight.get() < maxRecordsInFlight
+					&& generateBatchQueued.compareAndSet(false, true);
+			boolean offer = offersInFlight.get() < maxRecordsInFlight
+					&& generateOfferQueued.compareAndSet(false, true);
+			if (batch || offer) queueGenerateBatchAndOffer();
+		} else {
+			generateBatch();
+			generateOffer();
+		}
+	}
+
+	private void queueGenerateBatchAndOffer() {
+		if (generateBatchAndOfferQueued.compareAndSet(false, true))
+			dbExecutor.execute(new GenerateBatchAndOffer());
 	}
 
 	private void generateRequest() {
+		if (requestsInFlight.get() >= maxRecordsInFlight) return;
 		if (generateRequestQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateRequest());
 	}
@@ -226,6 +284,20 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		}
 	}
 
+	private void addBatch(Collection<Message> batch) {
+		batchesInFlight.incrementAndGet();
+		writerTasks.add(new WriteBatch(batch));
+		// Generate the next batch while this one is written
+		generateBatch();
+	}
+
+	private void addOffer(Offer offer) {
+		offersInFlight.incrementAndGet();
+		writerTasks.add(new WriteOffer(offer));
+		// Generate the next offer while this one is written
+		generateOffer();
+	}
+
 	private class GenerateAck implements Runnable {
 
 		@DatabaseExecutor
@@ -238,7 +310,12 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						db.generateAck(txn, contactId, MAX_MESSAGE_IDS));
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated ack: " + (a != null));
-				if (a != null) writerTasks.add(new WriteAck(a));
+				if (a != null) {
+					acksInFlight.incrementAndGet();
+					writerTasks.add(new WriteAck(a));
+					// Generate the next ack while this one is written
+					generateAck();
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -260,6 +337,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (interrupted) return;
 			recordWriter.writeAck(ack);
 			LOG.info("Sent ack");
+			acksInFlight.decrementAndGet();
 			generateAck();
 		}
 	}
@@ -284,7 +362,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						});
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated batch: " + (b != null));
-				if (b != null) writerTasks.add(new WriteBatch(b));
+				if (b != null) addBatch(b);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -306,10 +384,68 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (interrupted) return;
 			for (Message m : batch) recordWriter.writeMessage(m);
 			LOG.info("Sent batch");
+			batchesInFlight.decrementAndGet();
 			generateBatch();
 		}
 	}
 
+	private class GenerateBatchAndOffer implements Runnable {
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			if (interrupted) return;
+			if (!generateBatchAndOfferQueued.getAndSet(false))
+				throw new AssertionError();
+			// Clear the flags after clearing the queued flag, so that any
+			// flag set after this point will queue another task
+			boolean batch = generateBatchQueued.getAndSet(false);
+			boolean offer = generateOfferQueued.getAndSet(false);
+			if (!batch && !offer) return;
+			try {
+				BatchAndOffer r = db.transactionWithResult(false, txn -> {
+					Collection<Message> b = null;
+					Offer o = null;
+					if (batch) {
+						b = db.generateRequestedBatch(txn, contactId,
+								MAX_RECORD_PAYLOAD_BYTES, maxLatency);
+					}
+					if (offer) {
+						o = db.generateOffer(txn, contactId, MAX_MESSAGE_IDS,
+								maxLatency);
+					}
+					setNextSendTime(db.getNextSendTime(txn, contactId));
+					return new BatchAndOffer(b, o);
+				});
+				if (LOG.isLoggable(INFO)) {
+					if (batch)
+						LOG.info("Generated batch: " + (r.batch != null));
+					if (offer)
+						LOG.info("Generated offer: " + (r.offer != null));
+				}
+				if (r.batch != null) addBatch(r.batch);
+				if (r.offer != null) addOffer(r.offer);
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
+
+	private static class BatchAndOffer {
+
+		@Nullable
+		private final Collection<Message> batch;
+		@Nullable
+		private final Offer offer;
+
+		private BatchAndOffer(@Nullable Collection<Message> batch,
+				@Nullable Offer offer) {
+			this.batch = batch;
+			this.offer = offer;
+		}
+	}
+
 	private class GenerateOffer implements Runnable {
 
 		@DatabaseExecutor
@@ -327,7 +463,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 				});
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated offer: " + (o != null));
-				if (o != null) writerTasks.add(new WriteOffer(o));
+				if (o != null) addOffer(o);
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -349,6 +485,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (interrupted) return;
 			recordWriter.writeOffer(offer);
 			LOG.info("Sent offer");
+			offersInFlight.decrementAndGet();
 			generateOffer();
 		}
 	}
@@ -366,7 +503,12 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						db.generateRequest(txn, contactId, MAX_MESSAGE_IDS));
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated request: " + (r != null));
-				if (r != null) writerTasks.add(new WriteRequest(r));
+				if (r != null) {
+					requestsInFlight.incrementAndGet();
+					writerTasks.add(new WriteRequest(r));
+					// Generate the next request while this one is written
+					generateRequest();
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -388,6 +530,7 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (interrupted) return;
 			recordWriter.writeRequest(request);
 			LOG.info("Sent request");
+			requestsInFlight.decrementAndGet();
 			generateRequest();
 		}
 	}
@@ -0,0 +1,254 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.system.Scheduler;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.util.LogUtils.logDuration;
+import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
+
+/**
+ * Merges records received by one or more {@link IncomingSession
+ * IncomingSessions} into shared write transactions. A batch is committed when
+ * it reaches {@link #MAX_BATCH_RECORDS} records or {@link #MAX_BATCH_BYTES}
+ * bytes, or when its oldest record has been waiting for
+ * {@link #MAX_BATCH_LATENCY_MS} milliseconds.
+ * <p/>
+ * Records are applied in the order they were submitted. If a batch can't be
+ * committed, each of its records is retried in its own transaction, so a
+ * failure only affects the session that submitted the failing record.
+ */
+@ThreadSafe
+@NotNullByDefault
+class GroupCommitter {
+
+	private static final Logger LOG =
+			getLogger(GroupCommitter.class.getName());
+
+	/**
+	 * The maximum number of records to apply in a single transaction.
+	 */
+	static final int MAX_BATCH_RECORDS = 256;
+
+	/**
+	 * The maximum total length in bytes of the records to apply in a single
+	 * transaction.
+	 */
+	static final int MAX_BATCH_BYTES = 1024 * 1024; // 1 MiB
+
+	/**
+	 * The maximum time in milliseconds a record may wait for other records
+	 * to join its batch.
+	 */
+	static final long MAX_BATCH_LATENCY_MS = 20;
+
+	private final DatabaseComponent db;
+	private final Executor dbExecutor;
+	private final ScheduledExecutorService scheduler;
+
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Queue<PendingRecord> pending = new LinkedList<>();
+	@GuardedBy("lock")
+	private long pendingBytes = 0;
+	@GuardedBy("lock")
+	private State state = State.IDLE;
+
+	@Inject
+	GroupCommitter(DatabaseComponent db,
+			@DatabaseExecutor Executor dbExecutor,
+			@Scheduler ScheduledExecutorService scheduler) {
+		this.db = db;
+		this.dbExecutor = dbExecutor;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Queues a task to be run in a write transaction shared with other
+	 * records.
+	 *
+	 * @param task the task that applies the record to the database
+	 * @param length the length of the record in bytes
+	 * @param onFailure run if the record can't be applied
+	 * @return a handle that can be passed to {@link #grow(PendingRecord, int)}
+	 */
+	PendingRecord submit(DbRunnable<DbException> task, int length,
+			Runnable onFailure) {
+		PendingRecord record = new PendingRecord(task, length, onFailure);
+		boolean commitNow, scheduleCommit;
+		synchronized (lock) {
+			pending.add(record);
+			pendingBytes += length;
+			commitNow = shouldCommitNow();
+			scheduleCommit = !commitNow && shouldScheduleCommit();
+		}
+		if (commitNow) {
+			dbExecutor.execute(this::commitBatch);
+		} else if (scheduleCommit) {
+			scheduler.schedule(this::onLatencyTimeout, MAX_BATCH_LATENCY_MS,
+					MILLISECONDS);
+		}
+		return record;
+	}
+
+	/**
+	 * Adds the given number of bytes to the length of a record that was
+	 * submitted earlier, if the record hasn't been taken for committing yet.
+	 * The caller may only add data to the record's task if this method
+	 * returns true.
+	 */
+	boolean grow(PendingRecord record, int length) {
+		boolean commitNow;
+		synchronized (lock) {
+			if (record.taken) return false;
+			record.length += length;
+			pendingBytes += length;
+			commitNow = shouldCommitNow();
+		}
+		if (commitNow) dbExecutor.execute(this::commitBatch);
+		return true;
+	}
+
+	@GuardedBy("lock")
+	private boolean shouldCommitNow() {
+		if (state == State.QUEUED || !isFull()) return false;
+		state = State.QUEUED;
+		return true;
+	}
+
+	@GuardedBy("lock")
+	private boolean shouldScheduleCommit() {
+		if (state != State.IDLE) return false;
+		state = State.SCHEDULED;
+		return true;
+	}
+
+	@GuardedBy("lock")
+	private boolean isFull() {
+		return pending.size() >= MAX_BATCH_RECORDS
+				|| pendingBytes >= MAX_BATCH_BYTES;
+	}
+
+	private void onLatencyTimeout() {
+		synchronized (lock) {
+			// The batch may already have been queued because it was full
+			if (state != State.SCHEDULED) return;
+			state = State.QUEUED;
+		}
+		dbExecutor.execute(this::commitBatch);
+	}
+
+	@DatabaseExecutor
+	private void commitBatch() {
+		List<PendingRecord> batch = new ArrayList<>();
+		synchronized (lock) {
+			int bytes = 0;
+			while (!pending.isEmpty() && batch.size() < MAX_BATCH_RECORDS) {
+				PendingRecord p = pending.peek();
+				// Always take at least one record
+				if (!batch.isEmpty() && bytes + p.length > MAX_BATCH_BYTES)
+					break;
+				batch.add(pending.remove());
+				p.taken = true;
+				bytes += p.length;
+			}
+			pendingBytes -= bytes;
+		}
+		if (!batch.isEmpty()) commit(batch);
+		boolean commitAgain;
+		synchronized (lock) {
+			// Records left over have already waited, so commit them next.
+			// Only one commit is queued at a time, which preserves ordering
+			commitAgain = !pending.isEmpty();
+			if (!commitAgain) state = State.IDLE;
+		}
+		if (commitAgain) dbExecutor.execute(this::commitBatch);
+	}
+
+	@DatabaseExecutor
+	private void commit(List<PendingRecord> batch) {
+		long start = now();
+		try {
+			db.transaction(false, txn -> {
+				for (PendingRecord p : batch) p.task.run(txn);
+			});
+			if (LOG.isLoggable(FINE))
+				LOG.fine("Committed " + batch.size() + " records");
+			logDuration(LOG, "Committing batch", start);
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			LOG.info("Retrying records individually");
+			for (PendingRecord p : batch) {
+				try {
+					db.transaction(false, p.task);
+				} catch (DbException e1) {
+					logException(LOG, WARNING, e1);
+					p.onFailure.run();
+				}
+			}
+		}
+	}
+
+	private enum State {
+
+		/**
+		 * No commit is pending.
+		 */
+		IDLE,
+
+		/**
+		 * A commit has been scheduled to bound the latency of the pending
+		 * records.
+		 */
+		SCHEDULED,
+
+		/**
+		 * A commit has been queued on the {@link DatabaseExecutor}.
+		 */
+		QUEUED
+	}
+
+	/**
+	 * A submitted record. The mutable fields are guarded by the lock of the
+	 * {@link GroupCommitter} the record was submitted to.
+	 */
+	@NotNullByDefault
+	static class PendingRecord {
+
+		private final DbRunnable<DbException> task;
+		private final Runnable onFailure;
+
+		@GuardedBy("lock")
+		private int length;
+		@GuardedBy("lock")
+		private boolean taken = false;
+
+		private PendingRecord(DbRunnable<DbException> task, int length,
+				Runnable onFailure) {
+			this.task = task;
+			this.length = length;
+			this.onFailure = onFailure;
+		}
+	}
+}
@@ -1,11 +1,12 @@
 package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
-import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -14,17 +15,23 @@ import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.sync.GroupCommitter.PendingRecord;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.logging.Level.WARNING;
@@ -33,7 +40,11 @@ import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleS
 import static org.briarproject.bramble.util.LogUtils.logException;
 
 /**
- * An incoming {@link SyncSession}.
+ * An incoming {@link SyncSession}. If a {@link GroupCommitter} is provided,
+ * received records are applied in write transactions shared with other
+ * records, otherwise each record is applied in its own transaction.
+ * Consecutive messages that arrive while the database is busy are applied
+ * together.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -42,22 +53,49 @@ class IncomingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			getLogger(IncomingSession.class.getName());
 
+	/**
+	 * The maximum number of consecutive messages to apply together.
+	 */
+	static final int MAX_MESSAGES_PER_BATCH = 64;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final SyncRecordReader recordReader;
+	@Nullable
+	private final GroupCommitter groupCommitter;
+
+	private final Object lock = new Object();
+
+	/**
+	 * Messages that have been received but not yet applied, or null if
+	 * there's no batch that can accept more messages.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private List<Message> messageBatch = null;
+
+	/**
+	 * The {@link GroupCommitter}'s handle for the current batch, or null if
+	 * there's no current batch or no group committer.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private PendingRecord messageBatchRecord = null;
 
 	private volatile boolean interrupted = false;
 
 	IncomingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, ContactId contactId,
-			SyncRecordReader recordReader) {
+			SyncRecordReader recordReader,
+			@Nullable GroupCommitter groupCommitter) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.recordReader = recordReader;
+		this.groupCommitter = groupCommitter;
 	}
 
 	@IoExecutor
@@ -71,21 +109,30 @@ class IncomingSession implements SyncSession, EventListener {
 					LOG.info("End of stream");
 					return;
 				}
+				if (recordReader.hasMessage()) {
+					receiveMessage(recordReader.readMessage());
+					continue;
+				}
+				// Messages received after this record must not be applied
+				// before it
+				endMessageBatch();
 				if (recordReader.hasAck()) {
 					Ack a = recordReader.readAck();
-					dbExecutor.execute(new ReceiveAck(a));
-				} else if (recordReader.hasMessage()) {
-					Message m = recordReader.readMessage();
-					dbExecutor.execute(new ReceiveMessage(m));
+					receive(txn -> db.receiveAck(txn, contactId, a),
+							getLength(a.getMessageIds()));
 				} else if (recordReader.hasOffer()) {
 					Offer o = recordReader.readOffer();
-					dbExecutor.execute(new ReceiveOffer(o));
+					receive(txn -> db.receiveOffer(txn, contactId, o),
+							getLength(o.getMessageIds()));
 				} else if (recordReader.hasRequest()) {
 					Request r = recordReader.readRequest();
-					dbExecutor.execute(new ReceiveRequest(r));
+					receive(txn -> db.receiveRequest(txn, contactId, r),
+							getLength(r.getMessageIds()));
 				} else if (recordReader.hasVersions()) {
 					Versions v = recordReader.readVersions();
-					dbExecutor.execute(new ReceiveVersions(v));
+					List<Byte> supported = v.getSupportedVersions();
+					receive(txn -> db.setSyncVersions(txn, contactId,
+							supported), supported.size());
 				} else {
 					// unknown records are ignored in RecordReader#eof()
 					throw new FormatException();
@@ -113,109 +160,82 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
-	private class ReceiveAck implements Runnable {
-
-		private final Ack ack;
-
-		private ReceiveAck(Ack ack) {
-			this.ack = ack;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveAck(txn, contactId, ack));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
+	private void receive(DbRunnable<DbException> task, int length) {
+		if (groupCommitter == null) {
+			dbExecutor.execute(() -> {
+				try {
+					db.transaction(false, task);
+				} catch (DbException e) {
+					logException(LOG, WARNING, e);
+					interrupt();
+				}
+			});
+		} else {
+			groupCommitter.submit(task, length, this::interrupt);
 		}
 	}
 
-	private class ReceiveMessage implements Runnable {
-
-		private final Message message;
-
-		private ReceiveMessage(Message message) {
-			this.message = message;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveMessage(txn, contactId, message));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+	/**
+	 * Adds a message to the current batch, or starts a new batch if there's
+	 * no current batch or the current batch is full. Messages are added to
+	 * the current batch until the batch is applied, so messages that arrive
+	 * while the database is busy are applied together.
+	 */
+	private void receiveMessage(Message m) {
+		List<Message> batch;
+		synchronized (lock) {
+			if (messageBatch != null
+					&& messageBatch.size() < MAX_MESSAGES_PER_BATCH) {
+				// The batch may be committed as soon as it's charged for
+				// the message, so add the message first
+				messageBatch.add(m);
+				if (chargeToBatch(m)) return;
+				messageBatch.remove(messageBatch.size() - 1);
 			}
+			batch = new ArrayList<>();
+			batch.add(m);
+			messageBatch = batch;
+			messageBatchRecord = null;
 		}
-	}
-
-	private class ReceiveOffer implements Runnable {
-
-		private final Offer offer;
-
-		private ReceiveOffer(Offer offer) {
-			this.offer = offer;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveOffer(txn, contactId, offer));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+		DbRunnable<DbException> task = txn -> {
+			synchronized (lock) {
+				// No more messages can be added to the batch
+				if (messageBatch == batch) endMessageBatch();
 			}
-		}
-	}
-
-	private class ReceiveRequest implements Runnable {
-
-		private final Request request;
-
-		private ReceiveRequest(Request request) {
-			this.request = request;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveRequest(txn, contactId, request));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
+			db.receiveMessages(txn, contactId, batch);
+		};
+		if (groupCommitter == null) {
+			receive(task, m.getRawLength());
+		} else {
+			PendingRecord record = groupCommitter.submit(task,
+					m.getRawLength(), this::interrupt);
+			synchronized (lock) {
+				if (messageBatch == batch) messageBatchRecord = record;
 			}
 		}
 	}
 
-	private class ReceiveVersions implements Runnable {
-
-		private final Versions versions;
+	/**
+	 * Charges the length of a message to the current batch's record in the
+	 * {@link GroupCommitter}, so the committer's byte limit covers every
+	 * message in the batch. Returns false if the batch has already been
+	 * taken for committing.
+	 */
+	@GuardedBy("lock")
+	private boolean chargeToBatch(Message m) {
+		if (groupCommitter == null) return true;
+		return messageBatchRecord != null
+				&& groupCommitter.grow(messageBatchRecord, m.getRawLength());
+	}
 
-		private ReceiveVersions(Versions versions) {
-			this.versions = versions;
+	private void endMessageBatch() {
+		synchronized (lock) {
+			messageBatch = null;
+			messageBatchRecord = null;
 		}
+	}
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				List<Byte> supported = versions.getSupportedVersions();
-				db.transaction(false,
-						txn -> db.setSyncVersions(txn, contactId, supported));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
-		}
+	private int getLength(Collection<MessageId> ids) {
+		return ids.size() * UniqueId.LENGTH;
 	}
 }
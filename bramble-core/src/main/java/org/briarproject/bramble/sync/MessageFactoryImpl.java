@@ -9,6 +9,8 @@ import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.util.ByteUtils;
 
+import java.nio.ByteBuffer;
+
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
@@ -39,13 +41,15 @@ class MessageFactoryImpl implements MessageFactory {
 		if (body.length == 0) throw new IllegalArgumentException();
 		if (body.length > MAX_MESSAGE_BODY_LENGTH)
 			throw new IllegalArgumentException();
-		MessageId id = getMessageId(g, timestamp, body);
+		MessageId id = getMessageId(g, timestamp, ByteBuffer.wrap(body));
 		return new Message(id, g, timestamp, body);
 	}
 
-	private MessageId getMessageId(GroupId g, long timestamp, byte[] body) {
+	private MessageId getMessageId(GroupId g, long timestamp,
+			ByteBuffer body) {
 		// There's only one block, so the root hash is the hash of the block
-		byte[] rootHash = crypto.hash(BLOCK_LABEL, FORMAT_VERSION_BYTES, body);
+		byte[] rootHash = crypto.hash(BLOCK_LABEL,
+				ByteBuffer.wrap(FORMAT_VERSION_BYTES), body);
 		byte[] timeBytes = new byte[INT_64_BYTES];
 		ByteUtils.writeUint64(timestamp, timeBytes, 0);
 		byte[] idHash = crypto.hash(ID_LABEL, FORMAT_VERSION_BYTES,
@@ -63,19 +67,15 @@ class MessageFactoryImpl implements MessageFactory {
 		System.arraycopy(raw, 0, groupId, 0, UniqueId.LENGTH);
 		GroupId g = new GroupId(groupId);
 		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
-		byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
-		System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
+		// Hash the body in place, and don't copy it out of the raw message
+		ByteBuffer body = ByteBuffer.wrap(raw, MESSAGE_HEADER_LENGTH,
+				raw.length - MESSAGE_HEADER_LENGTH);
 		MessageId id = getMessageId(g, timestamp, body);
-		return new Message(id, g, timestamp, body);
+		return new Message(id, raw);
 	}
 
 	@Override
 	public byte[] getRawMessage(Message m) {
-		byte[] body = m.getBody();
-		byte[] raw = new byte[MESSAGE_HEADER_LENGTH + body.length];
-		System.arraycopy(m.getGroupId().getBytes(), 0, raw, 0, UniqueId.LENGTH);
-		ByteUtils.writeUint64(m.getTimestamp(), raw, UniqueId.LENGTH);
-		System.arraycopy(body, 0, raw, MESSAGE_HEADER_LENGTH, body.length);
-		return raw;
+		return m.getRaw();
 	}
 }
@@ -9,7 +9,7 @@ import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
-import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.MessageIdList;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
@@ -96,17 +96,14 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 		return new Ack(readMessageIds());
 	}
 
-	private List<MessageId> readMessageIds() throws IOException {
+	private MessageIdList readMessageIds() throws IOException {
 		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
-		if (payload.length == 0) throw new FormatException();
-		if (payload.length % UniqueId.LENGTH != 0) throw new FormatException();
-		List<MessageId> ids = new ArrayList<>(payload.length / UniqueId.LENGTH);
-		for (int off = 0; off < payload.length; off += UniqueId.LENGTH) {
-			byte[] id = new byte[UniqueId.LENGTH];
-			System.arraycopy(payload, off, id, 0, UniqueId.LENGTH);
-			ids.add(new MessageId(id));
-		}
+		int length = nextRecord.getPayloadLength();
+		if (length == 0) throw new FormatException();
+		if (length % UniqueId.LENGTH != 0) throw new FormatException();
+		// Copy the IDs out of the record in one piece
+		MessageIdList ids = new MessageIdList(nextRecord.getPayloadBuffer(),
+				nextRecord.getPayloadOffset(), length);
 		nextRecord = null;
 		return ids;
 	}
@@ -120,12 +117,15 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 	public Message readMessage() throws IOException {
 		if (!hasMessage()) throw new FormatException();
 		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
-		if (payload.length <= MESSAGE_HEADER_LENGTH)
+		if (nextRecord.getPayloadLength() <= MESSAGE_HEADER_LENGTH)
 			throw new FormatException();
 		// Validate timestamp
-		long timestamp = ByteUtils.readUint64(payload, UniqueId.LENGTH);
+		long timestamp = ByteUtils.readUint64(nextRecord.getPayloadBuffer(),
+				nextRecord.getPayloadOffset() + UniqueId.LENGTH);
 		if (timestamp < 0) throw new FormatException();
+		// The message keeps the payload, so it must be copied out of the
+		// record, which may be a view of the reader's buffer
+		byte[] payload = nextRecord.getPayload();
 		nextRecord = null;
 		return messageFactory.createMessage(payload);
 	}
@@ -165,12 +165,13 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 
 	private List<Byte> readSupportedVersions() throws IOException {
 		if (nextRecord == null) throw new AssertionError();
-		byte[] payload = nextRecord.getPayload();
-		if (payload.length == 0) throw new FormatException();
-		if (payload.length > MAX_SUPPORTED_VERSIONS)
-			throw new FormatException();
-		List<Byte> supported = new ArrayList<>(payload.length);
-		for (byte b : payload) supported.add(b);
+		byte[] buffer = nextRecord.getPayloadBuffer();
+		int offset = nextRecord.getPayloadOffset();
+		int length = nextRecord.getPayloadLength();
+		if (length == 0) throw new FormatException();
+		if (length > MAX_SUPPORTED_VERSIONS) throw new FormatException();
+		List<Byte> supported = new ArrayList<>(length);
+		for (int i = 0; i < length; i++) supported.add(buffer[offset + i]);
 		nextRecord = null;
 		return supported;
 	}
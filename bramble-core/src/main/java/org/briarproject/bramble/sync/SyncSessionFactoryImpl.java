@@ -1,5 +1,7 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.KeyedExecutor;
+import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
@@ -18,38 +20,53 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.Executor;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
+import javax.inject.Provider;
+
+import static org.briarproject.bramble.sync.DuplexOutgoingSession.MAX_RECORDS_IN_FLIGHT;
 
 @Immutable
 @NotNullByDefault
 class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	private final DatabaseComponent db;
-	private final Executor dbExecutor;
+	private final KeyedExecutor dbExecutor;
 	private final EventBus eventBus;
 	private final Clock clock;
 	private final SyncRecordReaderFactory recordReaderFactory;
 	private final SyncRecordWriterFactory recordWriterFactory;
+	@Nullable
+	private final GroupCommitter groupCommitter;
+	private final int maxRecordsInFlight;
 
 	@Inject
 	SyncSessionFactoryImpl(DatabaseComponent db,
-			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
-			Clock clock, SyncRecordReaderFactory recordReaderFactory,
-			SyncRecordWriterFactory recordWriterFactory) {
+			@DatabaseExecutor KeyedExecutor dbExecutor,
+			EventBus eventBus, Clock clock,
+			SyncRecordReaderFactory recordReaderFactory,
+			SyncRecordWriterFactory recordWriterFactory,
+			FeatureFlags featureFlags, Provider<GroupCommitter> groupCommitter) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.recordReaderFactory = recordReaderFactory;
 		this.recordWriterFactory = recordWriterFactory;
+		// The group committer is shared by all incoming sessions
+		this.groupCommitter = featureFlags.shouldEnableGroupCommit() ?
+				groupCommitter.get() : null;
+		maxRecordsInFlight = featureFlags.shouldEnablePipelinedSync() ?
+				MAX_RECORDS_IN_FLIGHT : 1;
 	}
 
 	@Override
 	public SyncSession createIncomingSession(ContactId c, InputStream in) {
 		SyncRecordReader recordReader =
 				recordReaderFactory.createRecordReader(in);
-		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader);
+		return new IncomingSession(db, getContactExecutor(c), eventBus, c,
+				recordReader, groupCommitter);
 	}
 
 	@Override
@@ -58,8 +75,8 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
-		return new SimplexOutgoingSession(db, dbExecutor, eventBus, c,
-				maxLatency, streamWriter, recordWriter);
+		return new SimplexOutgoingSession(db, getContactExecutor(c), eventBus,
+				c, maxLatency, streamWriter, recordWriter);
 	}
 
 	@Override
@@ -68,7 +85,17 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
 				recordWriterFactory.createRecordWriter(out);
-		return new DuplexOutgoingSession(db, dbExecutor, eventBus, clock, c,
-				maxLatency, maxIdleTime, streamWriter, recordWriter);
+		return new DuplexOutgoingSession(db, getContactExecutor(c), eventBus,
+				clock, c, maxLatency, maxIdleTime, maxRecordsInFlight,
+				streamWriter, recordWriter);
+	}
+
+	/**
+	 * Returns an executor that runs database tasks for the given contact in
+	 * the order they are submitted. Tasks for different contacts may run
+	 * concurrently.
+	 */
+	private Executor getContactExecutor(ContactId c) {
+		return r -> dbExecutor.execute(c, r);
 	}
 }
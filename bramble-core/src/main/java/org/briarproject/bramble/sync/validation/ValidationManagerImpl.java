@@ -1,6 +1,9 @@
 package org.briarproject.bramble.sync.validation;
 
+import org.briarproject.bramble.KeyedExecutor;
 import org.briarproject.bramble.api.Pair;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
@@ -24,20 +27,27 @@ import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.sync.validation.MessageValidator;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.versioning.ClientMajorVersion;
+import org.briarproject.bramble.crypto.SignatureBatcher;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
@@ -53,21 +63,69 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	private static final Logger LOG =
 			Logger.getLogger(ValidationManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of messages for the same client that are validated
+	 * together, so that their signatures can be verified in a batch.
+	 */
+	private static final int MAX_BATCH_SIZE = 32;
+
+	/**
+	 * The maximum number of messages to load, store or deliver in a
+	 * transaction.
+	 */
+	private static final int MAX_MESSAGES_PER_TRANSACTION = 64;
+
+	/**
+	 * The maximum number of messages that can be waiting for validation or
+	 * storage. When this is reached, loading unvalidated messages pauses
+	 * until half of them have been stored.
+	 */
+	private static final int MAX_MESSAGES_IN_PIPELINE = 256;
+
 	private final DatabaseComponent db;
-	private final Executor dbExecutor, validationExecutor;
+	private final KeyedExecutor dbExecutor;
+	private final Executor validationExecutor;
+	private final CryptoComponent crypto;
+	private final SignatureBatcher signatureBatcher;
 	private final Map<ClientMajorVersion, MessageValidator> validators;
 	private final Map<ClientMajorVersion, IncomingMessageHook> hooks;
+	/**
+	 * Messages waiting to be validated, grouped by client.
+	 */
+	private final Map<ClientMajorVersion, Queue<Pair<Message, Group>>>
+			unvalidated;
+	/**
+	 * Validation results waiting to be stored, in the order they were
+	 * validated.
+	 */
+	private final Queue<ValidationResult> toStore;
 	private final AtomicBoolean used = new AtomicBoolean(false);
 
+	private final Object lock = new Object();
+	@GuardedBy("lock")
+	private int messagesInPipeline = 0;
+	/**
+	 * Unvalidated messages that will be loaded when there's room in the
+	 * pipeline.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private Queue<MessageId> waitingToLoad = null;
+
 	@Inject
 	ValidationManagerImpl(DatabaseComponent db,
-			@DatabaseExecutor Executor dbExecutor,
-			@ValidationExecutor Executor validationExecutor) {
+			@DatabaseExecutor KeyedExecutor dbExecutor,
+			@ValidationExecutor Executor validationExecutor,
+			CryptoComponent crypto, SignatureBatcher signatureBatcher) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.validationExecutor = validationExecutor;
+		this.crypto = crypto;
+		this.signatureBatcher = signatureBatcher;
 		validators = new ConcurrentHashMap<>();
 		hooks = new ConcurrentHashMap<>();
+		unvalidated = new ConcurrentHashMap<>();
+		toStore = new ConcurrentLinkedQueue<>();
 	}
 
 	@Override
@@ -85,7 +143,9 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	@Override
 	public void registerMessageValidator(ClientId c, int majorVersion,
 			MessageValidator v) {
-		validators.put(new ClientMajorVersion(c, majorVersion), v);
+		ClientMajorVersion cv = new ClientMajorVersion(c, majorVersion);
+		validators.put(cv, v);
+		unvalidated.put(cv, new ConcurrentLinkedQueue<>());
 	}
 
 	@Override
@@ -103,40 +163,66 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		try {
 			Queue<MessageId> unvalidated = new LinkedList<>(
 					db.transactionWithResult(true, db::getMessagesToValidate));
-			validateNextMessageAsync(unvalidated);
+			loadNextMessagesAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void validateNextMessageAsync(Queue<MessageId> unvalidated) {
+	private void loadNextMessagesAsync(Queue<MessageId> unvalidated) {
 		if (unvalidated.isEmpty()) return;
-		dbExecutor.execute(() -> validateNextMessage(unvalidated));
+		synchronized (lock) {
+			if (messagesInPipeline >= MAX_MESSAGES_IN_PIPELINE) {
+				waitingToLoad = unvalidated;
+				return;
+			}
+		}
+		dbExecutor.execute(() -> loadNextMessages(unvalidated));
 	}
 
 	@DatabaseExecutor
-	private void validateNextMessage(Queue<MessageId> unvalidated) {
+	private void loadNextMessages(Queue<MessageId> unvalidated) {
 		try {
-			Pair<Message, Group> mg = db.transactionWithResult(true, txn -> {
-				MessageId id = unvalidated.poll();
-				if (id == null) throw new AssertionError();
-				Message m = db.getMessage(txn, id);
-				Group g = db.getGroup(txn, m.getGroupId());
-				return new Pair<>(m, g);
-			});
-			validateMessageAsync(mg.getFirst(), mg.getSecond());
-			validateNextMessageAsync(unvalidated);
-		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed before validation");
-			validateNextMessageAsync(unvalidated);
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed before validation");
-			validateNextMessageAsync(unvalidated);
+			List<Pair<Message, Group>> loaded =
+					db.transactionWithResult(true, txn -> {
+						List<Pair<Message, Group>> mgs = new ArrayList<>();
+						while (mgs.size() < MAX_MESSAGES_PER_TRANSACTION) {
+							MessageId id = unvalidated.poll();
+							if (id == null) break;
+							try {
+								Message m = db.getMessage(txn, id);
+								Group g = db.getGroup(txn, m.getGroupId());
+								mgs.add(new Pair<>(m, g));
+							} catch (NoSuchMessageException e) {
+								LOG.info("Message removed before validation");
+							} catch (NoSuchGroupException e) {
+								LOG.info("Group removed before validation");
+							}
+						}
+						return mgs;
+					});
+			for (Pair<Message, Group> mg : loaded)
+				validateMessageAsync(mg.getFirst(), mg.getSecond());
+			loadNextMessagesAsync(unvalidated);
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
+	private void messagesLeftPipeline(int count) {
+		if (count == 0) return;
+		Queue<MessageId> resume = null;
+		synchronized (lock) {
+			messagesInPipeline -= count;
+			if (waitingToLoad != null
+					&& messagesInPipeline <= MAX_MESSAGES_IN_PIPELINE / 2) {
+				resume = waitingToLoad;
+				waitingToLoad = null;
+			}
+		}
+		if (resume != null) loadNextMessagesAsync(resume);
+	}
+
 	private void deliverOutstandingMessagesAsync() {
 		dbExecutor.execute(this::deliverOutstandingMessages);
 	}
@@ -154,152 +240,276 @@ class ValidationManagerImpl implements ValidationManager, Service,
 
 	private void deliverNextPendingMessageAsync(Queue<MessageId> pending) {
 		if (pending.isEmpty()) return;
-		dbExecutor.execute(() -> deliverNextPendingMessage(pending));
+		dbExecutor.execute(() -> deliverNextPendingMessages(pending));
 	}
 
 	@DatabaseExecutor
-	private void deliverNextPendingMessage(Queue<MessageId> pending) {
+	private void deliverNextPendingMessages(Queue<MessageId> pending) {
+		List<MessageId> batch = new ArrayList<>();
+		MessageId id;
+		while (batch.size() < MAX_MESSAGES_PER_TRANSACTION
+				&& (id = pending.poll()) != null) {
+			batch.add(id);
+		}
+		if (batch.isEmpty()) return;
+		if (!tryToDeliverPendingMessages(batch, pending) && batch.size() > 1) {
+			// Nothing from the batch was committed. Retry the messages one at
+			// a time, so a failure only affects the message that caused it
+			for (MessageId m : batch)
+				tryToDeliverPendingMessages(singletonList(m), pending);
+		}
+		deliverNextPendingMessageAsync(pending);
+	}
+
+	/**
+	 * Delivers the given pending messages in a single transaction, along
+	 * with any dependents that become deliverable if there's room. Any other
+	 * dependents that become deliverable are added to the pending queue.
+	 *
+	 * @return True if the transaction was committed.
+	 */
+	@DatabaseExecutor
+	private boolean tryToDeliverPendingMessages(List<MessageId> batch,
+			Queue<MessageId> pending) {
+		Queue<MessageId> toDeliver = new LinkedList<>(batch);
+		Queue<MessageId> toShare = new LinkedList<>();
+		Queue<MessageId> invalidate = new LinkedList<>();
 		try {
-			Queue<MessageId> toShare = new LinkedList<>();
-			Queue<MessageId> invalidate = new LinkedList<>();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				MessageId id = pending.poll();
-				if (id == null) throw new AssertionError();
-				// Check if message is still pending
-				if (db.getMessageState(txn, id) == PENDING) {
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-					if (anyInvalid) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					} else if (allDelivered) {
-						Message m = db.getMessage(txn, id);
-						Group g = db.getGroup(txn, m.getGroupId());
-						ClientId c = g.getClientId();
-						int majorVersion = g.getMajorVersion();
-						Metadata meta =
-								db.getMessageMetadataForValidator(txn, id);
-						DeliveryResult result =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (result.valid) {
-							addPendingDependents(txn, id, pending);
-							if (result.share) {
-								db.setMessageShared(txn, id);
-								toShare.addAll(states.keySet());
-							}
-						} else {
-							addDependentsToInvalidate(txn, id, invalidate);
-						}
-					}
+				// Dependents that become deliverable are added to the queue,
+				// so they may be delivered in the same transaction
+				for (int i = 0; i < MAX_MESSAGES_PER_TRANSACTION; i++) {
+					MessageId id = toDeliver.poll();
+					if (id == null) break;
+					deliverPendingMessage(txn, id, toDeliver, toShare,
+							invalidate);
 				}
 			});
-			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
-			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
-			deliverNextPendingMessageAsync(pending);
 		} catch (NoSuchMessageException e) {
 			LOG.info("Message removed before delivery");
-			deliverNextPendingMessageAsync(pending);
+			return false;
 		} catch (NoSuchGroupException e) {
 			LOG.info("Group removed before delivery");
-			deliverNextPendingMessageAsync(pending);
+			return false;
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
+			return false;
 		}
+		pending.addAll(toDeliver);
+		invalidateNextMessageAsync(invalidate);
+		shareNextMessageAsync(toShare);
+		return true;
 	}
 
-	private void validateMessageAsync(Message m, Group g) {
-		validationExecutor.execute(() -> validateMessage(m, g));
+	@DatabaseExecutor
+	private void deliverPendingMessage(Transaction txn, MessageId id,
+			Queue<MessageId> pending, Queue<MessageId> toShare,
+			Queue<MessageId> invalidate) throws DbException {
+		// Check if message is still pending
+		if (db.getMessageState(txn, id) != PENDING) return;
+		// Check if dependencies are valid and delivered
+		boolean anyInvalid = false, allDelivered = true;
+		Map<MessageId, MessageState> states =
+				db.getMessageDependencies(txn, id);
+		for (Entry<MessageId, MessageState> e : states.entrySet()) {
+			if (e.getValue() == INVALID) anyInvalid = true;
+			if (e.getValue() != DELIVERED) allDelivered = false;
+		}
+		if (anyInvalid) {
+			invalidateMessage(txn, id);
+			addDependentsToInvalidate(txn, id, invalidate);
+		} else if (allDelivered) {
+			Message m = db.getMessage(txn, id);
+			Group g = db.getGroup(txn, m.getGroupId());
+			ClientId c = g.getClientId();
+			int majorVersion = g.getMajorVersion();
+			Metadata meta = db.getMessageMetadataForValidator(txn, id);
+			DeliveryResult result =
+					deliverMessage(txn, m, c, majorVersion, meta);
+			if (result.valid) {
+				addPendingDependents(txn, id, pending);
+				if (result.share) {
+					db.setMessageShared(txn, id);
+					toShare.addAll(states.keySet());
+				}
+			} else {
+				addDependentsToInvalidate(txn, id, invalidate);
+			}
+		}
 	}
 
-	@ValidationExecutor
-	private void validateMessage(Message m, Group g) {
+	private void validateMessageAsync(Message m, Group g) {
 		ClientMajorVersion cv =
 				new ClientMajorVersion(g.getClientId(), g.getMajorVersion());
 		MessageValidator v = validators.get(cv);
-		if (v == null) {
+		Queue<Pair<Message, Group>> queue = unvalidated.get(cv);
+		if (v == null || queue == null) {
 			if (LOG.isLoggable(WARNING)) LOG.warning("No validator for " + cv);
-		} else {
-			try {
-				MessageContext context = v.validateMessage(m, g);
-				storeMessageContextAsync(m, g.getClientId(),
-						g.getMajorVersion(), context);
-			} catch (InvalidMessageException e) {
-				logException(LOG, INFO, e);
-				Queue<MessageId> invalidate = new LinkedList<>();
-				invalidate.add(m.getId());
-				invalidateNextMessageAsync(invalidate);
+			return;
+		}
+		synchronized (lock) {
+			messagesInPipeline++;
+		}
+		queue.add(new Pair<>(m, g));
+		// Each task validates as many queued messages as it can, so messages
+		// that arrive while the validation executor is busy are batched
+		validationExecutor.execute(() -> validateMessages(v, queue));
+	}
+
+	@ValidationExecutor
+	private void validateMessages(MessageValidator v,
+			Queue<Pair<Message, Group>> queue) {
+		List<ValidationResult> results = new ArrayList<>();
+		List<SignedData> signatures = new ArrayList<>();
+		Queue<MessageId> invalidate = new LinkedList<>();
+		// Messages that were taken from the queue but haven't been passed on
+		// for storage have left the pipeline, even if validation fails
+		int taken = 0, passedOn = 0;
+		try {
+			Pair<Message, Group> mg;
+			while (taken < MAX_BATCH_SIZE && (mg = queue.poll()) != null) {
+				taken++;
+				Message m = mg.getFirst();
+				Group g = mg.getSecond();
+				// Signature checks made by the validator are deferred
+				MessageContext context;
+				List<SignedData> deferred;
+				signatureBatcher.startBatch();
+				try {
+					context = v.validateMessage(m, g);
+				} catch (InvalidMessageException e) {
+					logException(LOG, INFO, e);
+					invalidate.add(m.getId());
+					continue;
+				} finally {
+					deferred = signatureBatcher.endBatch();
+				}
+				results.add(new ValidationResult(m, g, context,
+						signatures.size(), deferred.size()));
+				signatures.addAll(deferred);
 			}
+			boolean[] valid = signatures.isEmpty() ? new boolean[0]
+					: crypto.verifySignatures(signatures);
+			for (ValidationResult r : results) {
+				if (r.allValid(valid)) {
+					storeMessageContextAsync(r);
+					passedOn++;
+				} else {
+					LOG.info("Invalid signature");
+					invalidate.add(r.message.getId());
+				}
+			}
+			invalidateNextMessageAsync(invalidate);
+		} finally {
+			messagesLeftPipeline(taken - passedOn);
 		}
 	}
 
-	private void storeMessageContextAsync(Message m, ClientId c,
-			int majorVersion, MessageContext result) {
-		dbExecutor.execute(() ->
-				storeMessageContext(m, c, majorVersion, result));
+	private void storeMessageContextAsync(ValidationResult r) {
+		toStore.add(r);
+		// Results are stored in the order they're validated. Each task
+		// stores as many waiting results as it can
+		dbExecutor.execute(toStore, this::storeMessageContexts);
 	}
 
 	@DatabaseExecutor
-	private void storeMessageContext(Message m, ClientId c, int majorVersion,
-			MessageContext context) {
+	private void storeMessageContexts() {
+		List<ValidationResult> results = new ArrayList<>();
+		ValidationResult r;
+		while (results.size() < MAX_MESSAGES_PER_TRANSACTION
+				&& (r = toStore.poll()) != null) {
+			results.add(r);
+		}
+		if (results.isEmpty()) return;
+		try {
+			if (!tryToStoreMessageContexts(results) && results.size() > 1) {
+				// Nothing from the batch was committed. Retry the results one
+				// at a time, so a failure only affects the message that
+				// caused it
+				for (ValidationResult result : results)
+					tryToStoreMessageContexts(singletonList(result));
+			}
+		} finally {
+			messagesLeftPipeline(results.size());
+		}
+	}
+
+	/**
+	 * Stores the given validation results in a single transaction.
+	 *
+	 * @return True if the transaction was committed.
+	 */
+	@DatabaseExecutor
+	private boolean tryToStoreMessageContexts(List<ValidationResult> results) {
+		Queue<MessageId> invalidate = new LinkedList<>();
+		Queue<MessageId> pending = new LinkedList<>();
+		Queue<MessageId> toShare = new LinkedList<>();
 		try {
-			MessageId id = m.getId();
-			Queue<MessageId> invalidate = new LinkedList<>();
-			Queue<MessageId> pending = new LinkedList<>();
-			Queue<MessageId> toShare = new LinkedList<>();
 			db.transaction(false, txn -> {
-				boolean anyInvalid = false, allDelivered = true;
-				// Check if message has any dependencies
-				Collection<MessageId> dependencies = context.getDependencies();
-				if (!dependencies.isEmpty()) {
-					db.addMessageDependencies(txn, m, dependencies);
-					// Check if dependencies are valid and delivered
-					Map<MessageId, MessageState> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, MessageState> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-				}
-				if (anyInvalid) {
-					if (db.getMessageState(txn, id) != INVALID) {
-						invalidateMessage(txn, id);
-						addDependentsToInvalidate(txn, id, invalidate);
-					}
-				} else {
-					Metadata meta = context.getMetadata();
-					db.mergeMessageMetadata(txn, id, meta);
-					if (allDelivered) {
-						DeliveryResult result =
-								deliverMessage(txn, m, c, majorVersion, meta);
-						if (result.valid) {
-							addPendingDependents(txn, id, pending);
-							if (result.share) {
-								db.setMessageShared(txn, id);
-								toShare.addAll(dependencies);
-							}
-						} else {
-							addDependentsToInvalidate(txn, id, invalidate);
-						}
-					} else {
-						db.setMessageState(txn, id, PENDING);
-					}
+				for (ValidationResult r : results) {
+					storeMessageContext(txn, r.message,
+							r.group.getClientId(), r.group.getMajorVersion(),
+							r.context, invalidate, pending, toShare);
 				}
 			});
-			if (!invalidate.isEmpty()) invalidateNextMessageAsync(invalidate);
-			if (!pending.isEmpty()) deliverNextPendingMessageAsync(pending);
-			if (!toShare.isEmpty()) shareNextMessageAsync(toShare);
 		} catch (NoSuchMessageException e) {
 			LOG.info("Message removed during validation");
+			return false;
 		} catch (NoSuchGroupException e) {
 			LOG.info("Group removed during validation");
+			return false;
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
+			return false;
+		}
+		invalidateNextMessageAsync(invalidate);
+		deliverNextPendingMessageAsync(pending);
+		shareNextMessageAsync(toShare);
+		return true;
+	}
+
+	@DatabaseExecutor
+	private void storeMessageContext(Transaction txn, Message m, ClientId c,
+			int majorVersion, MessageContext context,
+			Queue<MessageId> invalidate, Queue<MessageId> pending,
+			Queue<MessageId> toShare) throws DbException {
+		MessageId id = m.getId();
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message has any dependencies
+		Collection<MessageId> dependencies = context.getDependencies();
+		if (!dependencies.isEmpty()) {
+			db.addMessageDependencies(txn, m, dependencies);
+			// Check if dependencies are valid and delivered
+			Map<MessageId, MessageState> states =
+					db.getMessageDependencies(txn, id);
+			for (Entry<MessageId, MessageState> e : states.entrySet()) {
+				if (e.getValue() == INVALID) anyInvalid = true;
+				if (e.getValue() != DELIVERED) allDelivered = false;
+			}
+		}
+		if (anyInvalid) {
+			if (db.getMessageState(txn, id) != INVALID) {
+				invalidateMessage(txn, id);
+				addDependentsToInvalidate(txn, id, invalidate);
+			}
+		} else {
+			Metadata meta = context.getMetadata();
+			db.mergeMessageMetadata(txn, id, meta);
+			if (allDelivered) {
+				DeliveryResult result =
+						deliverMessage(txn, m, c, majorVersion, meta);
+				if (result.valid) {
+					addPendingDependents(txn, id, pending);
+					if (result.share) {
+						db.setMessageShared(txn, id);
+						toShare.addAll(dependencies);
+					}
+				} else {
+					addDependentsToInvalidate(txn, id, invalidate);
+				}
+			} else {
+				db.setMessageState(txn, id, PENDING);
+			}
 		}
 	}
 
@@ -432,7 +642,7 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	}
 
 	private void loadGroupAndValidateAsync(Message m) {
-		dbExecutor.execute(() -> loadGroupAndValidate(m));
+		dbExecutor.execute(m.getGroupId(), () -> loadGroupAndValidate(m));
 	}
 
 	@DatabaseExecutor
@@ -448,6 +658,32 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		}
 	}
 
+	private static class ValidationResult {
+
+		private final Message message;
+		private final Group group;
+		private final MessageContext context;
+		/**
+		 * The position and number of the message's signatures in the batch.
+		 */
+		private final int firstSignature, signatures;
+
+		private ValidationResult(Message message, Group group,
+				MessageContext context, int firstSignature, int signatures) {
+			this.message = message;
+			this.group = group;
+			this.context = context;
+			this.firstSignature = firstSignature;
+			this.signatures = signatures;
+		}
+
+		private boolean allValid(boolean[] valid) {
+			for (int i = 0; i < signatures; i++)
+				if (!valid[firstSignature + i]) return false;
+			return true;
+		}
+	}
+
 	private static class DeliveryResult {
 
 		private final boolean valid, share;
@@ -40,6 +40,8 @@ import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
 import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static org.briarproject.bramble.util.LogUtils.logException;
 
 @ThreadSafe
 @NotNullByDefault
@@ -98,6 +100,17 @@ class KeyManagerImpl implements KeyManager, Service, EventListener {
 
 	@Override
 	public void stopService() {
+		// Write any changes to the reordering windows that are waiting to be
+		// written
+		if (managers.isEmpty()) return;
+		try {
+			db.transaction(false, txn -> {
+				for (TransportKeyManager m : managers.values())
+					m.writeUnsavedChanges(txn);
+			});
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+		}
 	}
 
 	@Override
@@ -192,9 +205,7 @@ class KeyManagerImpl implements KeyManager, Service, EventListener {
 	@Override
 	public StreamContext getStreamContext(TransportId t, byte[] tag)
 			throws DbException {
-		return withManager(t, m ->
-				db.transactionWithNullableResult(false, txn ->
-						m.getStreamContext(txn, tag)));
+		return withManager(t, m -> m.getStreamContext(tag));
 	}
 
 	@Override
@@ -13,7 +13,8 @@ class MutableOutgoingKeys {
 	private final SecretKey tagKey, headerKey;
 	private final long timePeriod;
 	private long streamCounter;
-	private boolean active;
+	// Read without holding the key manager's lock
+	private volatile boolean active;
 
 	MutableOutgoingKeys(OutgoingKeys out) {
 		tagKey = out.getTagKey();
@@ -2,31 +2,38 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 
+/**
+ * A window of stream numbers, each of which may have been seen or unseen.
+ * The window is stored as a bitset packed into 64-bit words, with the bit
+ * for each element at position {@code offset % 64} of word
+ * {@code offset / 64}.
+ */
 @NotThreadSafe
 @NotNullByDefault
 class ReorderingWindow {
 
+	private static final long[] NONE = new long[0];
+
+	private final int size;
+	private final long[] words;
 	private long base;
-	private boolean[] seen;
 
 	ReorderingWindow(long base, byte[] bitmap) {
 		if (base < 0) throw new IllegalArgumentException();
 		if (base > MAX_32_BIT_UNSIGNED + 1)
 			throw new IllegalArgumentException();
 		this.base = base;
-		seen = new boolean[bitmap.length * 8];
+		size = bitmap.length * 8;
+		words = new long[(size + 63) / 64];
 		for (int i = 0; i < bitmap.length; i++) {
-			for (int j = 0; j < 8; j++) {
-				if ((bitmap[i] & (128 >> j)) != 0) seen[i * 8 + j] = true;
-			}
+			// The bitmap stores the lowest element in the high bit of a byte
+			long b = Integer.reverse(bitmap[i] & 0xFF) >>> 24;
+			words[i / 8] |= b << (i % 8 * 8);
 		}
 	}
 
@@ -35,68 +42,136 @@ class ReorderingWindow {
 	}
 
 	byte[] getBitmap() {
-		byte[] bitmap = new byte[seen.length / 8];
+		byte[] bitmap = new byte[size / 8];
 		for (int i = 0; i < bitmap.length; i++) {
-			for (int j = 0; j < 8; j++) {
-				if (seen[i * 8 + j]) bitmap[i] |= 128 >> j;
-			}
+			int b = (int) (words[i / 8] >>> (i % 8 * 8)) & 0xFF;
+			bitmap[i] = (byte) (Integer.reverse(b) >>> 24);
 		}
 		return bitmap;
 	}
 
-	List<Long> getUnseen() {
-		List<Long> unseen = new ArrayList<>(seen.length);
-		for (int i = 0; i < seen.length; i++)
-			if (!seen[i]) unseen.add(base + i);
-		return unseen;
+	/**
+	 * Returns the lowest unseen element in the window that's greater than or
+	 * equal to the given element, or -1 if there is no such element. All the
+	 * unseen elements can be visited without allocating by starting from
+	 * {@link #getBase()}.
+	 */
+	long getNextUnseen(long index) {
+		if (index < base) index = base;
+		if (index >= base + size) return -1;
+		int offset = getNextUnseenOffset((int) (index - base));
+		return offset == size ? -1 : base + offset;
+	}
+
+	/**
+	 * Returns true if the given element is in the window and has not been
+	 * seen.
+	 */
+	boolean isUnseen(long index) {
+		if (index < base || index >= base + size) return false;
+		return !isSeen((int) (index - base));
 	}
 
 	Change setSeen(long index) {
 		if (index < base) throw new IllegalArgumentException();
-		if (index >= base + seen.length) throw new IllegalArgumentException();
+		if (index >= base + size) throw new IllegalArgumentException();
 		if (index > MAX_32_BIT_UNSIGNED) throw new IllegalArgumentException();
 		int offset = (int) (index - base);
-		if (seen[offset]) throw new IllegalArgumentException();
-		seen[offset] = true;
+		if (isSeen(offset)) throw new IllegalArgumentException();
+		words[offset >>> 6] |= 1L << offset;
 		// Rule 1: Slide until all elements above the midpoint are unseen
-		int slide = Math.max(0, offset + 1 - seen.length / 2);
+		int slide = Math.max(0, offset + 1 - size / 2);
 		// Rule 2: Slide until the lowest element is unseen
-		while (seen[slide]) slide++;
+		slide = getNextUnseenOffset(slide);
 		// If the window doesn't need to slide, return
-		if (slide == 0) {
-			List<Long> added = Collections.emptyList();
-			List<Long> removed = Collections.singletonList(index);
-			return new Change(added, removed);
-		}
+		if (slide == 0) return new Change(NONE, new long[] {index});
 		// Record the elements that will be added and removed
-		List<Long> added = new ArrayList<>(slide);
-		List<Long> removed = new ArrayList<>(slide);
-		for (int i = 0; i < slide; i++) {
-			if (!seen[i]) removed.add(base + i);
-			added.add(base + seen.length + i);
-		}
-		removed.add(index);
+		long[] added = new long[slide];
+		for (int i = 0; i < slide; i++) added[i] = base + size + i;
+		int unseen = slide - countSeen(slide);
+		long[] removed = new long[unseen + 1];
+		for (int i = 0, j = 0; j < unseen; i++)
+			if (!isSeen(i)) removed[j++] = base + i;
+		removed[unseen] = index;
 		// Update the window
 		base += slide;
-		for (int i = 0; i + slide < seen.length; i++) seen[i] = seen[i + slide];
-		for (int i = seen.length - slide; i < seen.length; i++) seen[i] = false;
+		shiftDown(slide);
 		return new Change(added, removed);
 	}
 
+	private boolean isSeen(int offset) {
+		return (words[offset >>> 6] & (1L << offset)) != 0;
+	}
+
+	/**
+	 * Returns the offset of the lowest unseen element at or above the given
+	 * offset, or the size of the window if there is no such element.
+	 */
+	private int getNextUnseenOffset(int offset) {
+		int word = offset >>> 6;
+		if (word == words.length) return size;
+		// Treat the elements below the offset as seen
+		long unseen = ~words[word] & (-1L << offset);
+		while (unseen == 0) {
+			if (++word == words.length) return size;
+			unseen = ~words[word];
+		}
+		return Math.min(size, word * 64 + Long.numberOfTrailingZeros(unseen));
+	}
+
+	/**
+	 * Returns the number of seen elements below the given offset.
+	 */
+	private int countSeen(int offset) {
+		int count = 0, word = 0;
+		for (; (word + 1) * 64 <= offset; word++)
+			count += Long.bitCount(words[word]);
+		if (word * 64 < offset)
+			count += Long.bitCount(words[word] & ((1L << offset) - 1));
+		return count;
+	}
+
+	/**
+	 * Shifts the window's elements down by the given number of positions,
+	 * filling the top of the window with unseen elements.
+	 */
+	private void shiftDown(int shift) {
+		int wordShift = shift >>> 6, bitShift = shift & 63;
+		for (int i = 0; i < words.length; i++) {
+			int src = i + wordShift;
+			long low = src < words.length ? words[src] : 0;
+			long high = src + 1 < words.length ? words[src + 1] : 0;
+			words[i] = bitShift == 0 ? low :
+					(low >>> bitShift) | (high << (64 - bitShift));
+		}
+		// Clear any bits beyond the end of the window
+		if (size % 64 != 0) words[words.length - 1] &= (1L << size) - 1;
+	}
+
+	@Immutable
+	@NotNullByDefault
 	static class Change {
 
-		private final List<Long> added, removed;
+		private final long[] added, removed;
 
-		Change(List<Long> added, List<Long> removed) {
+		private Change(long[] added, long[] removed) {
 			this.added = added;
 			this.removed = removed;
 		}
 
-		List<Long> getAdded() {
+		/**
+		 * Returns the elements added to the window, in ascending order. The
+		 * returned array must not be modified.
+		 */
+		long[] getAdded() {
 			return added;
 		}
 
-		List<Long> getRemoved() {
+		/**
+		 * Returns the elements removed from the window, including the element
+		 * that was seen. The returned array must not be modified.
+		 */
+		long[] getRemoved() {
 			return removed;
 		}
 	}
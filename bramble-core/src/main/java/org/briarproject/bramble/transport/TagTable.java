@@ -0,0 +1,252 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.readUint64;
+
+/**
+ * A hash table mapping tags to values, using open addressing with linear
+ * probing over the two 64-bit halves of the tag.
+ * <p/>
+ * {@link #get(byte[])} and {@link #remove(byte[])} don't take a lock or
+ * allocate any objects, so they can be called concurrently from the accept
+ * paths of all connections. A removal claims the tag atomically: if two
+ * threads remove the same tag concurrently, only one of them receives the
+ * value. Other modifications are serialised by the table's monitor.
+ */
+@ThreadSafe
+@NotNullByDefault
+class TagTable<V> {
+
+	private static final int MIN_CAPACITY = 64;
+
+	/**
+	 * Marks a slot that held an entry that has been removed. Lookups probe
+	 * past tombstones, and insertions reuse them.
+	 */
+	private static final Object TOMBSTONE = new Object();
+
+	/**
+	 * Marks a slot that has been copied to a larger table. Lookups and
+	 * removals that find a moved slot wait for the copy to finish and then
+	 * retry against the new table.
+	 */
+	private static final Object MOVED = new Object();
+
+	private volatile AtomicReferenceArray<Object> table =
+			new AtomicReferenceArray<>(MIN_CAPACITY);
+
+	/**
+	 * The number of non-empty slots in the current table, including
+	 * tombstones.
+	 */
+	@GuardedBy("this")
+	private int used = 0;
+
+	/**
+	 * Returns the value for the given tag, or null if the tag is not in the
+	 * table.
+	 */
+	@Nullable
+	V get(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		long hi = readUint64(tag, 0), lo = readUint64(tag, 8);
+		while (true) {
+			AtomicReferenceArray<Object> t = table;
+			int mask = t.length() - 1;
+			for (int i = hash(hi, lo) & mask; ; i = (i + 1) & mask) {
+				Object o = t.get(i);
+				if (o == null) return null;
+				if (o == MOVED) break;
+				if (o != TOMBSTONE) {
+					Entry<V> e = entry(o);
+					if (e.hi == hi && e.lo == lo) return e.value;
+				}
+			}
+			awaitResize(t);
+		}
+	}
+
+	/**
+	 * Removes the given tag from the table and returns its value, or returns
+	 * null if the tag is not in the table.
+	 */
+	@Nullable
+	V remove(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		long hi = readUint64(tag, 0), lo = readUint64(tag, 8);
+		while (true) {
+			AtomicReferenceArray<Object> t = table;
+			int mask = t.length() - 1;
+			for (int i = hash(hi, lo) & mask; ; i = (i + 1) & mask) {
+				Object o = t.get(i);
+				if (o == null) return null;
+				if (o == MOVED) break;
+				if (o != TOMBSTONE) {
+					Entry<V> e = entry(o);
+					if (e.hi == hi && e.lo == lo) {
+						// Claim the entry, unless it's concurrently removed
+						// or moved
+						if (t.compareAndSet(i, o, TOMBSTONE)) return e.value;
+						if (t.get(i) == MOVED) break;
+						return null;
+					}
+				}
+			}
+			awaitResize(t);
+		}
+	}
+
+	/**
+	 * Adds the given tag to the table, replacing any existing value.
+	 */
+	synchronized void put(byte[] tag, V value) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		long hi = readUint64(tag, 0), lo = readUint64(tag, 8);
+		Entry<V> added = new Entry<>(hi, lo, value);
+		if ((used + 1) * 2 > table.length()) resize();
+		AtomicReferenceArray<Object> t = table;
+		int mask = t.length() - 1;
+		int free = -1;
+		for (int i = hash(hi, lo) & mask; ; i = (i + 1) & mask) {
+			Object o = t.get(i);
+			if (o == null) {
+				if (free == -1) {
+					free = i;
+					used++;
+				}
+				break;
+			}
+			if (o == TOMBSTONE) {
+				if (free == -1) free = i;
+			} else {
+				Entry<V> e = entry(o);
+				if (e.hi == hi && e.lo == lo) {
+					// If the entry is concurrently removed, reuse the slot
+					if (!t.compareAndSet(i, o, added)) t.set(i, added);
+					return;
+				}
+			}
+		}
+		t.set(free, added);
+	}
+
+	/**
+	 * Removes all values accepted by the given filter.
+	 */
+	synchronized void removeAll(Filter<V> filter) {
+		AtomicReferenceArray<Object> t = table;
+		for (int i = 0; i < t.length(); i++) {
+			Object o = t.get(i);
+			if (o != null && o != TOMBSTONE && filter.accept(entry(o).value))
+				t.compareAndSet(i, o, TOMBSTONE);
+		}
+	}
+
+	/**
+	 * Passes each value in the table to the given visitor.
+	 */
+	synchronized void visitAll(Visitor<V> visitor) {
+		AtomicReferenceArray<Object> t = table;
+		for (int i = 0; i < t.length(); i++) {
+			Object o = t.get(i);
+			if (o != null && o != TOMBSTONE) visitor.visit(entry(o).value);
+		}
+	}
+
+	/**
+	 * Removes all values from the table.
+	 */
+	synchronized void clear() {
+		table = new AtomicReferenceArray<>(MIN_CAPACITY);
+		used = 0;
+	}
+
+	/**
+	 * Returns the number of values in the table. The result is only exact if
+	 * there are no concurrent removals.
+	 */
+	synchronized int size() {
+		AtomicReferenceArray<Object> t = table;
+		int size = 0;
+		for (int i = 0; i < t.length(); i++) {
+			Object o = t.get(i);
+			if (o != null && o != TOMBSTONE) size++;
+		}
+		return size;
+	}
+
+	@GuardedBy("this")
+	private void resize() {
+		AtomicReferenceArray<Object> old = table;
+		// Keep the table at most a quarter full after resizing, so that
+		// tombstones left by removals take a while to trigger another resize
+		int capacity = MIN_CAPACITY;
+		while (capacity < (size() + 1) * 4) capacity <<= 1;
+		AtomicReferenceArray<Object> t = new AtomicReferenceArray<>(capacity);
+		int mask = capacity - 1, live = 0;
+		for (int i = 0; i < old.length(); i++) {
+			// Freeze the slot so that a concurrent removal can't be lost
+			Object o = old.getAndSet(i, MOVED);
+			if (o == null || o == TOMBSTONE) continue;
+			Entry<V> e = entry(o);
+			int j = hash(e.hi, e.lo) & mask;
+			while (t.get(j) != null) j = (j + 1) & mask;
+			t.set(j, e);
+			live++;
+		}
+		used = live;
+		table = t;
+	}
+
+	private void awaitResize(AtomicReferenceArray<Object> old) {
+		// The resizing thread holds the monitor until the new table has been
+		// published
+		synchronized (this) {
+			if (table == old) throw new AssertionError();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Entry<V> entry(Object o) {
+		return (Entry<V>) o;
+	}
+
+	private static int hash(long hi, long lo) {
+		// Tags are pseudo-random, so any of their bits will do
+		long h = hi ^ lo;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	interface Filter<V> {
+
+		boolean accept(V value);
+	}
+
+	interface Visitor<V> {
+
+		void visit(V value);
+	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class Entry<V> {
+
+		private final long hi, lo;
+		private final V value;
+
+		private Entry(long hi, long lo, V value) {
+			this.hi = hi;
+			this.lo = lo;
+			this.value = value;
+		}
+	}
+}
@@ -28,6 +28,12 @@ interface TransportKeyManager {
 
 	void activateKeys(Transaction txn, KeySetId k) throws DbException;
 
+	/**
+	 * Writes any changes to the reordering windows and the activation of
+	 * outgoing keys that haven't yet been written to the DB.
+	 */
+	void writeUnsavedChanges(Transaction txn) throws DbException;
+
 	void removeContact(ContactId c);
 
 	void removePendingContact(PendingContactId p);
@@ -44,8 +50,11 @@ interface TransportKeyManager {
 	StreamContext getStreamContext(Transaction txn, PendingContactId p)
 			throws DbException;
 
+	/**
+	 * Looks up the incoming keys for the given tag without blocking. The
+	 * reordering window and the DB are updated asynchronously.
+	 */
 	@Nullable
-	StreamContext getStreamContext(Transaction txn, byte[] tag)
-			throws DbException;
+	StreamContext getStreamContext(byte[] tag);
 
 }
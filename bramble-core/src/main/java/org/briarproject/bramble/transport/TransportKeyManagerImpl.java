@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -19,13 +18,22 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.transport.ReorderingWindow.Change;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
@@ -34,6 +42,7 @@ import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.nullsafety.NullSafety.requireExactlyOneNull;
@@ -50,6 +59,26 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	private static final Logger LOG =
 			getLogger(TransportKeyManagerImpl.class.getName());
 
+	/**
+	 * How long to wait before writing changes to the reordering windows to
+	 * the DB, so that changes made in the meantime can be written together.
+	 * <p/>
+	 * If the process dies before the changes are written, a stream that was
+	 * recognised during the last interval can be recognised again after
+	 * restarting, so this is also the longest time for which a recorded
+	 * stream can be replayed. A replayed stream can only repeat records that
+	 * have already been received from the contact, which the sync layer
+	 * handles idempotently, and an attacker would need to make the process
+	 * die within this interval of the stream being received.
+	 */
+	static final long WRITE_INTERVAL_MS = SECONDS.toMillis(10);
+
+	/**
+	 * The states of a {@link TagContext}. A context is claimed when its tag
+	 * is recognised, and retired when the tags are rebuilt.
+	 */
+	private static final int UNCLAIMED = 0, CLAIMED = 1, RETIRED = 2;
+
 	private final DatabaseComponent db;
 	private final TransportCrypto transportCrypto;
 	private final Executor dbExecutor;
@@ -60,10 +89,36 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	private final AtomicBoolean used = new AtomicBoolean(false);
 	private final ReentrantLock lock = new ReentrantLock();
 
+	/**
+	 * Incoming tags, which are looked up and claimed without holding the
+	 * lock. Tags are only added while holding the lock.
+	 */
+	private final TagTable<TagContext> inContexts = new TagTable<>();
+	/**
+	 * Tags that have been recognised but whose reordering windows haven't
+	 * been updated yet.
+	 */
+	private final Queue<TagContext> recognised = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+
 	@GuardedBy("lock")
 	private final Map<KeySetId, MutableTransportKeySet> keys = new HashMap<>();
+	/**
+	 * Key sets whose outgoing keys have been activated by recognising a tag,
+	 * but not yet in the DB.
+	 */
+	@GuardedBy("lock")
+	private final Set<KeySetId> activated = new HashSet<>();
+	/**
+	 * Reordering windows that have changed since they were last written to
+	 * the DB. Windows and activated key sets are only removed when the
+	 * transaction that writes them has been committed.
+	 */
 	@GuardedBy("lock")
-	private final Map<Bytes, TagContext> inContexts = new HashMap<>();
+	private final Map<MutableIncomingKeys, KeySetId> unsavedWindows =
+			new LinkedHashMap<>();
+	@GuardedBy("lock")
+	private boolean writeScheduled = false;
 	@GuardedBy("lock")
 	private final Map<ContactId, MutableTransportKeySet>
 			contactOutContexts = new HashMap<>();
@@ -144,30 +199,31 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		MutableTransportKeySet ks = new MutableTransportKeySet(keySetId,
 				contactId, pendingContactId, keys);
 		this.keys.put(keySetId, ks);
-		boolean handshakeMode = keys.isHandshakeMode();
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getPreviousIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getCurrentIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getNextIncomingKeys(), handshakeMode);
+		encodeTags(ks, keys.getPreviousIncomingKeys());
+		encodeTags(ks, keys.getCurrentIncomingKeys());
+		encodeTags(ks, keys.getNextIncomingKeys());
 		considerReplacingOutgoingKeys(ks);
 	}
 
 	@GuardedBy("lock")
-	private void encodeTags(KeySetId keySetId, @Nullable ContactId contactId,
-			@Nullable PendingContactId pendingContactId,
-			MutableIncomingKeys inKeys, boolean handshakeMode) {
-		for (long streamNumber : inKeys.getWindow().getUnseen()) {
-			TagContext tagCtx = new TagContext(keySetId, contactId,
-					pendingContactId, inKeys, streamNumber, handshakeMode);
-			byte[] tag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
-					streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
+	private void encodeTags(MutableTransportKeySet ks,
+			MutableIncomingKeys inKeys) {
+		ReorderingWindow window = inKeys.getWindow();
+		for (long streamNumber = window.getNextUnseen(window.getBase());
+				streamNumber != -1;
+				streamNumber = window.getNextUnseen(streamNumber + 1)) {
+			TagContext tagCtx = new TagContext(ks, inKeys, streamNumber);
+			inContexts.put(encodeTag(inKeys, streamNumber), tagCtx);
 		}
 	}
 
+	private byte[] encodeTag(MutableIncomingKeys inKeys, long streamNumber) {
+		byte[] tag = new byte[TAG_LENGTH];
+		transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
+				streamNumber);
+		return tag;
+	}
+
 	@GuardedBy("lock")
 	private void considerReplacingOutgoingKeys(MutableTransportKeySet ks) {
 		// Use the active outgoing keys with the highest key set ID, preferring
@@ -293,13 +349,16 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (c.equals(it.next().contactId)) it.remove();
+			inContexts.removeAll(tagCtx -> c.equals(tagCtx.contactId));
 			contactOutContexts.remove(c);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (c.equals(it1.next().getContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext()) {
+				MutableTransportKeySet ks = it.next();
+				if (c.equals(ks.getContactId())) {
+					activated.remove(ks.getKeySetId());
+					it.remove();
+				}
+			}
 		} finally {
 			lock.unlock();
 		}
@@ -310,13 +369,16 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the pending contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (p.equals(it.next().pendingContactId)) it.remove();
+			inContexts.removeAll(tagCtx -> p.equals(tagCtx.pendingContactId));
 			pendingContactOutContexts.remove(p);
-			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
-			while (it1.hasNext())
-				if (p.equals(it1.next().getPendingContactId())) it1.remove();
+			Iterator<MutableTransportKeySet> it = keys.values().iterator();
+			while (it.hasNext()) {
+				MutableTransportKeySet ks = it.next();
+				if (p.equals(ks.getPendingContactId())) {
+					activated.remove(ks.getKeySetId());
+					it.remove();
+				}
+			}
 		} finally {
 			lock.unlock();
 		}
@@ -385,64 +447,214 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	}
 
 	@Override
-	public StreamContext getStreamContext(Transaction txn, byte[] tag)
-			throws DbException {
+	public StreamContext getStreamContext(byte[] tag) {
+		// Look up the incoming keys for the tag and claim the tag. This
+		// doesn't take the lock, so incoming connections aren't serialised
+		TagContext tagCtx = claim(tag);
+		if (tagCtx == null) return null;
+		MutableIncomingKeys inKeys = tagCtx.inKeys;
+		// Create a stream context
+		StreamContext ctx = new StreamContext(tagCtx.contactId,
+				tagCtx.pendingContactId, transportId,
+				inKeys.getTagKey(), inKeys.getHeaderKey(),
+				tagCtx.streamNumber, tagCtx.handshakeMode);
+		// If the outgoing keys are inactive, activate them
+		if (!tagCtx.outKeys.isActive()) activateOutgoingKeys(tagCtx.keySetId);
+		// Update the reordering window in the background. Tags recognised
+		// in the meantime are applied in the same batch
+		recognised.add(tagCtx);
+		// The tag can be removed now that the claim has been handed over
+		inContexts.remove(tag);
+		if (!updateScheduled.getAndSet(true))
+			dbExecutor.execute(this::updateWindows);
+		return ctx;
+	}
+
+	/**
+	 * Claims the given tag and returns its context, or returns null if the
+	 * tag isn't recognised or has already been claimed.
+	 * <p/>
+	 * A tag is claimed while its context is still in the table, and removed
+	 * from the table once the claim has been added to {@link #recognised}, so
+	 * {@link #retireTagContexts()} finds every claim that hasn't been handed
+	 * over yet.
+	 */
+	@Nullable
+	private TagContext claim(byte[] tag) {
+		while (true) {
+			TagContext tagCtx = inContexts.get(tag);
+			if (tagCtx == null) return null;
+			if (tagCtx.state.compareAndSet(UNCLAIMED, CLAIMED)) return tagCtx;
+			// Another thread claimed the tag
+			if (tagCtx.state.get() != RETIRED) return null;
+			// The tags are being rebuilt. Wait for the rebuild to finish,
+			// then look up the tag again
+			lock.lock();
+			lock.unlock();
+		}
+	}
+
+	private void activateOutgoingKeys(KeySetId keySetId) {
 		lock.lock();
 		try {
-			// Look up the incoming keys for the tag
-			TagContext tagCtx = inContexts.remove(new Bytes(tag));
-			if (tagCtx == null) return null;
-			MutableIncomingKeys inKeys = tagCtx.inKeys;
-			// Create a stream context
-			StreamContext ctx = new StreamContext(tagCtx.contactId,
-					tagCtx.pendingContactId, transportId,
-					inKeys.getTagKey(), inKeys.getHeaderKey(),
-					tagCtx.streamNumber, tagCtx.handshakeMode);
-			// Update the reordering window
-			ReorderingWindow window = inKeys.getWindow();
-			Change change = window.setSeen(tagCtx.streamNumber);
-			// Add tags for any stream numbers added to the window
-			for (long streamNumber : change.getAdded()) {
-				byte[] addTag = new byte[TAG_LENGTH];
-				transportCrypto.encodeTag(addTag, inKeys.getTagKey(),
-						PROTOCOL_VERSION, streamNumber);
-				TagContext tagCtx1 = new TagContext(tagCtx.keySetId,
-						tagCtx.contactId, tagCtx.pendingContactId, inKeys,
-						streamNumber, tagCtx.handshakeMode);
-				inContexts.put(new Bytes(addTag), tagCtx1);
-			}
-			// Remove tags for any stream numbers removed from the window
-			for (long streamNumber : change.getRemoved()) {
-				if (streamNumber == tagCtx.streamNumber) continue;
-				byte[] removeTag = new byte[TAG_LENGTH];
-				transportCrypto.encodeTag(removeTag, inKeys.getTagKey(),
-						PROTOCOL_VERSION, streamNumber);
-				inContexts.remove(new Bytes(removeTag));
-			}
-			// Write the window back to the DB
-			db.setReorderingWindow(txn, tagCtx.keySetId, transportId,
-					inKeys.getTimePeriod(), window.getBase(),
-					window.getBitmap());
-			// If the outgoing keys are inactive, activate them
-			MutableTransportKeySet ks = keys.get(tagCtx.keySetId);
+			MutableTransportKeySet ks = keys.get(keySetId);
+			if (ks == null) return;
 			MutableOutgoingKeys outKeys =
 					ks.getKeys().getCurrentOutgoingKeys();
 			if (!outKeys.isActive()) {
 				LOG.info("Activating outgoing keys");
 				outKeys.activate();
 				considerReplacingOutgoingKeys(ks);
-				db.setTransportKeysActive(txn, transportId, tagCtx.keySetId);
+				activated.add(keySetId);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void updateWindows() {
+		updateScheduled.set(false);
+		lock.lock();
+		try {
+			applyRecognisedTags();
+			// Write the changes to the DB after a delay, unless a write is
+			// already scheduled
+			if (!writeScheduled &&
+					(!unsavedWindows.isEmpty() || !activated.isEmpty())) {
+				writeScheduled = true;
+				scheduler.schedule((Runnable) this::writeUnsavedChanges,
+						WRITE_INTERVAL_MS, MILLISECONDS);
 			}
-			return ctx;
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	@GuardedBy("lock")
+	private void applyRecognisedTags() {
+		TagContext tagCtx;
+		while ((tagCtx = recognised.poll()) != null) {
+			MutableIncomingKeys inKeys = updateWindow(tagCtx);
+			if (inKeys != null) unsavedWindows.put(inKeys, tagCtx.keySetId);
+		}
+	}
+
+	private void writeUnsavedChanges() {
+		dbExecutor.execute(() -> {
+			try {
+				db.transaction(false, this::writeUnsavedChanges);
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+			}
+		});
+	}
+
+	@Override
+	public void writeUnsavedChanges(Transaction txn) throws DbException {
+		lock.lock();
+		try {
+			applyRecognisedTags();
+			if (unsavedWindows.isEmpty() && activated.isEmpty()) return;
+			// Write the changed windows back to the DB, unless the keys have
+			// been removed
+			List<SavedWindow> savedWindows =
+					new ArrayList<>(unsavedWindows.size());
+			for (Entry<MutableIncomingKeys, KeySetId> e :
+					unsavedWindows.entrySet()) {
+				MutableIncomingKeys inKeys = e.getKey();
+				ReorderingWindow window = inKeys.getWindow();
+				SavedWindow saved = new SavedWindow(inKeys, window.getBase(),
+						window.getBitmap());
+				savedWindows.add(saved);
+				if (!keys.containsKey(e.getValue())) continue;
+				db.setReorderingWindow(txn, e.getValue(), transportId,
+						inKeys.getTimePeriod(), saved.base, saved.bitmap);
+			}
+			// Write any activated keys back to the DB
+			List<KeySetId> savedActivated = new ArrayList<>(activated);
+			for (KeySetId keySetId : savedActivated)
+				db.setTransportKeysActive(txn, transportId, keySetId);
+			// Once the changes have been committed they're no longer unsaved.
+			// If the transaction fails they'll be written next time
+			txn.attach(() -> removeSavedChanges(savedWindows, savedActivated));
+		} finally {
+			writeScheduled = false;
+			lock.unlock();
+		}
+	}
+
+	private void removeSavedChanges(List<SavedWindow> savedWindows,
+			List<KeySetId> savedActivated) {
+		lock.lock();
+		try {
+			// Windows that have changed again since they were written are
+			// still unsaved
+			for (SavedWindow saved : savedWindows) {
+				ReorderingWindow window = saved.inKeys.getWindow();
+				if (window.getBase() == saved.base &&
+						Arrays.equals(window.getBitmap(), saved.bitmap)) {
+					unsavedWindows.remove(saved.inKeys);
+				}
+			}
+			activated.removeAll(savedActivated);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks the stream number of a recognised tag as seen and updates the
+	 * tags to match the reordering window. Returns the incoming keys whose
+	 * window was changed, or null if the window wasn't changed.
+	 */
+	@GuardedBy("lock")
+	@Nullable
+	private MutableIncomingKeys updateWindow(TagContext tagCtx) {
+		// The keys may have been updated or removed since the tag was
+		// recognised, so look them up by key set and time period
+		MutableTransportKeySet ks = keys.get(tagCtx.keySetId);
+		if (ks == null) return null;
+		MutableIncomingKeys inKeys = getIncomingKeys(ks.getKeys(),
+				tagCtx.inKeys.getTimePeriod());
+		if (inKeys == null) return null;
+		ReorderingWindow window = inKeys.getWindow();
+		if (!window.isUnseen(tagCtx.streamNumber)) return null;
+		Change change = window.setSeen(tagCtx.streamNumber);
+		// Add tags for any stream numbers added to the window
+		for (long streamNumber : change.getAdded()) {
+			TagContext tagCtx1 = new TagContext(ks, inKeys, streamNumber);
+			inContexts.put(encodeTag(inKeys, streamNumber), tagCtx1);
+		}
+		// Remove tags for any stream numbers removed from the window. If the
+		// keys were updated, the recognised tag may have been added again
+		boolean updated = inKeys != tagCtx.inKeys;
+		for (long streamNumber : change.getRemoved()) {
+			if (streamNumber == tagCtx.streamNumber && !updated) continue;
+			inContexts.remove(encodeTag(inKeys, streamNumber));
+		}
+		return inKeys;
+	}
+
+	@Nullable
+	private MutableIncomingKeys getIncomingKeys(MutableTransportKeys keys,
+			long timePeriod) {
+		if (keys.getPreviousIncomingKeys().getTimePeriod() == timePeriod)
+			return keys.getPreviousIncomingKeys();
+		if (keys.getCurrentIncomingKeys().getTimePeriod() == timePeriod)
+			return keys.getCurrentIncomingKeys();
+		if (keys.getNextIncomingKeys().getTimePeriod() == timePeriod)
+			return keys.getNextIncomingKeys();
+		return null;
+	}
+
 	private void updateKeys(Transaction txn) throws DbException {
 		long now = clock.currentTimeMillis();
 		lock.lock();
 		try {
+			// Stop tags from being claimed while the tags are rebuilt, and
+			// apply any claimed tags, before taking a snapshot
+			retireTagContexts();
+			writeUnsavedChanges(txn);
 			// Update the keys to the current time period
 			Collection<TransportKeySet> snapshot = new ArrayList<>(keys.size());
 			for (MutableTransportKeySet ks : keys.values()) {
@@ -467,6 +679,39 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		scheduleKeyUpdate(now);
 	}
 
+	/**
+	 * Marks all tag contexts in the table as retired, so they can't be
+	 * claimed, and applies all claimed tags, including any that haven't been
+	 * added to {@link #recognised} yet.
+	 */
+	@GuardedBy("lock")
+	private void retireTagContexts() {
+		// A claimed context stays in the table until its claimer removes it,
+		// which may be after this method returns, so only apply it once
+		Set<TagContext> applied = new HashSet<>();
+		List<TagContext> claimed = new ArrayList<>();
+		while (true) {
+			applyRecognisedTags();
+			inContexts.visitAll(tagCtx -> {
+				if (!tagCtx.state.compareAndSet(UNCLAIMED, RETIRED)
+						&& tagCtx.state.get() == CLAIMED
+						&& applied.add(tagCtx)) {
+					claimed.add(tagCtx);
+				}
+			});
+			// Applying a tag may add contexts for new stream numbers, and
+			// a claim may have been handed over since the queue was drained,
+			// so repeat until every context in the table has been retired
+			if (claimed.isEmpty() && recognised.isEmpty()) return;
+			for (TagContext tagCtx : claimed) {
+				MutableIncomingKeys inKeys = updateWindow(tagCtx);
+				if (inKeys != null)
+					unsavedWindows.put(inKeys, tagCtx.keySetId);
+			}
+			claimed.clear();
+		}
+	}
+
 	private static class TagContext {
 
 		private final KeySetId keySetId;
@@ -475,20 +720,34 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		@Nullable
 		private final PendingContactId pendingContactId;
 		private final MutableIncomingKeys inKeys;
+		private final MutableOutgoingKeys outKeys;
 		private final long streamNumber;
 		private final boolean handshakeMode;
+		private final AtomicInteger state = new AtomicInteger(UNCLAIMED);
 
-		private TagContext(KeySetId keySetId, @Nullable ContactId contactId,
-				@Nullable PendingContactId pendingContactId,
-				MutableIncomingKeys inKeys, long streamNumber,
-				boolean handshakeMode) {
-			requireExactlyOneNull(contactId, pendingContactId);
-			this.keySetId = keySetId;
-			this.contactId = contactId;
-			this.pendingContactId = pendingContactId;
+		private TagContext(MutableTransportKeySet ks,
+				MutableIncomingKeys inKeys, long streamNumber) {
+			keySetId = ks.getKeySetId();
+			contactId = ks.getContactId();
+			pendingContactId = ks.getPendingContactId();
 			this.inKeys = inKeys;
+			outKeys = ks.getKeys().getCurrentOutgoingKeys();
 			this.streamNumber = streamNumber;
-			this.handshakeMode = handshakeMode;
+			handshakeMode = ks.getKeys().isHandshakeMode();
+		}
+	}
+
+	private static class SavedWindow {
+
+		private final MutableIncomingKeys inKeys;
+		private final long base;
+		private final byte[] bitmap;
+
+		private SavedWindow(MutableIncomingKeys inKeys, long base,
+				byte[] bitmap) {
+			this.inKeys = inKeys;
+			this.base = base;
+			this.bitmap = bitmap;
 		}
 	}
 
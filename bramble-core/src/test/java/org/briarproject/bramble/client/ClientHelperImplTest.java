@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.crypto.KeyParser;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
@@ -24,6 +25,7 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.crypto.SignatureBatcher;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.util.StringUtils;
@@ -36,6 +38,7 @@ import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -51,6 +54,7 @@ import static org.briarproject.bramble.test.TestUtils.getSignaturePublicKey;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 public class ClientHelperImplTest extends BrambleTestCase {
@@ -72,6 +76,7 @@ public class ClientHelperImplTest extends BrambleTestCase {
 	private final AuthorFactory authorFactory =
 			context.mock(AuthorFactory.class);
 	private final KeyParser keyParser = context.mock(KeyParser.class);
+	private final SignatureBatcher signatureBatcher = new SignatureBatcher();
 
 	private final GroupId groupId = new GroupId(getRandomId());
 	private final BdfDictionary dictionary = new BdfDictionary();
@@ -85,7 +90,7 @@ public class ClientHelperImplTest extends BrambleTestCase {
 
 	private final ClientHelper clientHelper = new ClientHelperImpl(db,
 			messageFactory, bdfReaderFactory, bdfWriterFactory, metadataParser,
-			metadataEncoder, cryptoComponent, authorFactory);
+			metadataEncoder, cryptoComponent, authorFactory, signatureBatcher);
 
 	@Test
 	public void testAddLocalMessage() throws Exception {
@@ -319,6 +324,24 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		}
 	}
 
+	@Test
+	public void testVerifySignatureIsDeferredWhileBatchIsOpen()
+			throws Exception {
+		byte[] signature = getRandomBytes(MAX_SIGNATURE_LENGTH);
+		byte[] signed = expectToByteArray(list);
+		PublicKey publicKey = getSignaturePublicKey();
+
+		signatureBatcher.startBatch();
+		clientHelper.verifySignature(signature, label, list, publicKey);
+		List<SignedData> deferred = signatureBatcher.endBatch();
+		assertEquals(1, deferred.size());
+		SignedData s = deferred.get(0);
+		assertArrayEquals(signature, s.getSignature());
+		assertEquals(label, s.getLabel());
+		assertArrayEquals(signed, s.getSigned());
+		assertEquals(publicKey, s.getPublicKey());
+	}
+
 	@Test
 	public void testParsesAndEncodesAuthor() throws Exception {
 		context.checking(new Expectations() {{
@@ -356,6 +379,52 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		assertEquals(author, clientHelper.parseAndValidateAuthor(authorList));
 	}
 
+	@Test
+	public void testReusesParsedAuthor() throws Exception {
+		BdfList authorList = clientHelper.toList(author);
+
+		context.checking(new Expectations() {{
+			// The author is only parsed once
+			oneOf(cryptoComponent).getSignatureKeyParser();
+			will(returnValue(keyParser));
+			oneOf(keyParser).parsePublicKey(author.getPublicKey().getEncoded());
+			will(returnValue(author.getPublicKey()));
+			oneOf(authorFactory).createAuthor(author.getFormatVersion(),
+					author.getName(), author.getPublicKey());
+			will(returnValue(author));
+		}});
+
+		assertEquals(author, clientHelper.parseAndValidateAuthor(authorList));
+		assertSame(author, clientHelper.parseAndValidateAuthor(authorList));
+	}
+
+	@Test
+	public void testDoesNotReuseAuthorWithDifferentName() throws Exception {
+		BdfList authorList = clientHelper.toList(author);
+		String otherName = getRandomString(MAX_AUTHOR_NAME_LENGTH);
+		Author otherAuthor = new Author(author.getId(),
+				author.getFormatVersion(), otherName, author.getPublicKey());
+		BdfList otherAuthorList = clientHelper.toList(otherAuthor);
+
+		context.checking(new Expectations() {{
+			exactly(2).of(cryptoComponent).getSignatureKeyParser();
+			will(returnValue(keyParser));
+			exactly(2).of(keyParser)
+					.parsePublicKey(author.getPublicKey().getEncoded());
+			will(returnValue(author.getPublicKey()));
+			oneOf(authorFactory).createAuthor(author.getFormatVersion(),
+					author.getName(), author.getPublicKey());
+			will(returnValue(author));
+			oneOf(authorFactory).createAuthor(author.getFormatVersion(),
+					otherName, author.getPublicKey());
+			will(returnValue(otherAuthor));
+		}});
+
+		assertEquals(author, clientHelper.parseAndValidateAuthor(authorList));
+		assertEquals(otherAuthor,
+				clientHelper.parseAndValidateAuthor(otherAuthorList));
+	}
+
 	@Test(expected = FormatException.class)
 	public void testRejectsTooShortAuthor() throws Exception {
 		BdfList invalidAuthor = BdfList.of(
@@ -1,15 +1,22 @@
 package org.briarproject.bramble.crypto;
 
+import org.briarproject.bramble.api.crypto.AgreementPublicKey;
 import org.briarproject.bramble.api.crypto.KeyPair;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SignaturePrivateKey;
 import org.briarproject.bramble.api.crypto.SignaturePublicKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.junit.Test;
 
 import java.security.GeneralSecurityException;
+import java.util.List;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.util.StringUtils.fromHexString;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -170,4 +177,48 @@ public class EdSignatureTest extends SignatureTest {
 			assertTrue(signature.verify(signatureBytes));
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testBatchVerification() throws Exception {
+		KeyPair k1 = generateKeyPair(), k2 = generateKeyPair();
+		String label = getRandomString(42);
+		byte[] input1 = getRandomBytes(123), input2 = getRandomBytes(123);
+		byte[] sig1 = sign(label, input1, k1.getPrivate());
+		byte[] sig2 = sign(label, input2, k2.getPrivate());
+		List<SignedData> batch = asList(
+				// Valid signatures with two keys
+				new SignedData(sig1, label, input1, k1.getPublic()),
+				new SignedData(sig2, label, input2, k2.getPublic()),
+				// The first key again, with the wrong input
+				new SignedData(sig1, label, input2, k1.getPublic()),
+				// A malformed signature
+				new SignedData(new byte[1], label, input1, k1.getPublic()),
+				// The first signature again
+				new SignedData(sig1, label, input1, k1.getPublic()));
+		boolean[] expected = {true, true, false, false, true};
+		assertArrayEquals(expected, crypto.verifySignatures(batch));
+		assertArrayEquals(new boolean[0],
+				crypto.verifySignatures(emptyList()));
+	}
+
+	@Test
+	public void testBatchVerificationWithInvalidKeys() throws Exception {
+		KeyPair k = generateKeyPair();
+		String label = getRandomString(42);
+		byte[] input = getRandomBytes(123);
+		byte[] sig = sign(label, input, k.getPrivate());
+		// An encoded key that isn't a valid point on the curve
+		byte[] notAPoint = new byte[32];
+		notAPoint[0] = 2;
+		List<SignedData> batch = asList(
+				new SignedData(sig, label, input, k.getPublic()),
+				new SignedData(sig, label, input,
+						new SignaturePublicKey(notAPoint)),
+				// A key of the wrong type
+				new SignedData(sig, label, input,
+						new AgreementPublicKey(k.getPublic().getEncoded())),
+				new SignedData(sig, label, input, k.getPublic()));
+		boolean[] expected = {true, false, false, true};
+		assertArrayEquals(expected, crypto.verifySignatures(batch));
+	}
+}
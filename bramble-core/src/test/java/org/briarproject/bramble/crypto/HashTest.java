@@ -4,13 +4,20 @@ import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestSecureRandomProvider;
 import org.briarproject.bramble.test.TestUtils;
+import org.briarproject.bramble.util.ByteUtils;
 import org.briarproject.bramble.util.StringUtils;
 import org.junit.Test;
+import org.spongycastle.crypto.Digest;
+import org.spongycastle.crypto.digests.Blake2bDigest;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
 public class HashTest extends BrambleTestCase {
 
@@ -48,4 +55,67 @@ public class HashTest extends BrambleTestCase {
 		assertFalse(Arrays.equals(hash1, hash2));
 	}
 
+	@Test
+	public void testBuffersProduceSameHashesAsArrays() {
+		// Wrap the second input in a larger array with an offset
+		byte[] padded = new byte[inputBytes1.length + 20];
+		System.arraycopy(inputBytes1, 0, padded, 10, inputBytes1.length);
+		ByteBuffer wrapped = ByteBuffer.wrap(padded, 10, inputBytes1.length);
+		// Use a direct buffer for the first input
+		ByteBuffer direct = ByteBuffer.allocateDirect(inputBytes.length);
+		direct.put(inputBytes);
+		direct.flip();
+		byte[] hash1 = crypto.hash(label, inputBytes, inputBytes1, inputBytes2);
+		byte[] hash2 = crypto.hash(label, direct, wrapped,
+				ByteBuffer.wrap(inputBytes2));
+		assertArrayEquals(hash1, hash2);
+		// The buffers' positions should not have been changed
+		assertEquals(0, direct.position());
+		assertEquals(10, wrapped.position());
+	}
+
+	@Test
+	public void testReusedDigestsProduceSameHashesAsNewDigest() {
+		byte[] labelBytes = StringUtils.toUtf8(label);
+		Digest digest = new Blake2bDigest(256);
+		for (byte[] b : new byte[][] {labelBytes, inputBytes, inputBytes1}) {
+			byte[] length = new byte[INT_32_BYTES];
+			ByteUtils.writeUint32(b.length, length, 0);
+			digest.update(length, 0, length.length);
+			digest.update(b, 0, b.length);
+		}
+		byte[] expected = new byte[digest.getDigestSize()];
+		digest.doFinal(expected, 0);
+		// Hash with other labels and inputs on this thread in between
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(expected,
+					crypto.hash(label, inputBytes, inputBytes1));
+			crypto.hash(StringUtils.getRandomString(42), inputBytes2);
+		}
+	}
+
+	@Test
+	public void testFailedHashDoesNotAffectNextHash() {
+		byte[] expected = crypto.hash(label, inputBytes, inputBytes1);
+		try {
+			crypto.hash(label, inputBytes, null);
+			fail();
+		} catch (NullPointerException expectedException) {
+			// Expected
+		}
+		assertArrayEquals(expected,
+				crypto.hash(label, inputBytes, inputBytes1));
+	}
+
+	@Test
+	public void testLongDirectBufferProducesSameHashAsArray() {
+		byte[] input = TestUtils.getRandomBytes(10_000);
+		ByteBuffer direct = ByteBuffer.allocateDirect(input.length);
+		direct.put(input);
+		direct.flip();
+		assertArrayEquals(crypto.hash(label, input),
+				crypto.hash(label, direct));
+		assertEquals(0, direct.position());
+	}
+
 }
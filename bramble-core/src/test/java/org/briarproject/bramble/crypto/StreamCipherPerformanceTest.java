@@ -0,0 +1,169 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.spongycastle.crypto.engines.XSalsa20Engine;
+import org.spongycastle.crypto.generators.Poly1305KeyGenerator;
+import org.spongycastle.crypto.macs.Poly1305;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the throughput of {@link StreamEncrypterImpl} and
+ * {@link StreamDecrypterImpl} on a single thread, in megabytes of payload
+ * per second, with {@link XSalsa20Poly1305AuthenticatedCipher} and with a
+ * cipher that uses the Spongy Castle XSalsa20 engine directly.
+ */
+@Ignore
+public class StreamCipherPerformanceTest extends BrambleTestCase {
+
+	private static final int FRAMES_PER_STREAM = 1000;
+	private static final int WARMUP_ITERATIONS = 10;
+	private static final int ITERATIONS = 50;
+	private static final int BYTES_PER_MB = 1024 * 1024;
+
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey streamHeaderKey = getSecretKey();
+	private final SecretKey frameKey = getSecretKey();
+	private final byte[] streamHeaderNonce =
+			getRandomBytes(STREAM_HEADER_NONCE_LENGTH);
+	private final byte[] payload = getRandomBytes(MAX_PAYLOAD_LENGTH);
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(
+			FRAMES_PER_STREAM * MAX_FRAME_LENGTH + 1024);
+
+	@Test
+	public void testXSalsa20Poly1305AuthenticatedCipher() throws Exception {
+		measure("XSalsa20Poly1305AuthenticatedCipher",
+				new XSalsa20Poly1305AuthenticatedCipher());
+	}
+
+	@Test
+	public void testSpongyCastleEngine() throws Exception {
+		measure("XSalsa20Engine", new SpongyCastleCipher());
+	}
+
+	private void measure(String name, AuthenticatedCipher cipher)
+			throws IOException {
+		List<Double> encrypt = new ArrayList<>(ITERATIONS);
+		List<Double> decrypt = new ArrayList<>(ITERATIONS);
+		byte[] buffer = new byte[MAX_PAYLOAD_LENGTH];
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			out.reset();
+			long start = System.nanoTime();
+			StreamEncrypterImpl encrypter = new StreamEncrypterImpl(out,
+					cipher, 0, null, streamHeaderNonce, streamHeaderKey,
+					frameKey);
+			for (int j = 0; j < FRAMES_PER_STREAM; j++) {
+				encrypter.writeFrame(payload, MAX_PAYLOAD_LENGTH, 0,
+						j == FRAMES_PER_STREAM - 1);
+			}
+			long encrypted = System.nanoTime();
+			StreamDecrypterImpl decrypter = new StreamDecrypterImpl(
+					new ByteArrayInputStream(out.toByteArray()), cipher, 0,
+					streamHeaderKey);
+			for (int j = 0; j < FRAMES_PER_STREAM; j++)
+				assertEquals(MAX_PAYLOAD_LENGTH, decrypter.readFrame(buffer));
+			long decrypted = System.nanoTime();
+			if (i >= WARMUP_ITERATIONS) {
+				encrypt.add(getMegabytesPerSecond(encrypted - start));
+				decrypt.add(getMegabytesPerSecond(decrypted - encrypted));
+			}
+		}
+		writeResult(name + "\tencrypt", encrypt);
+		writeResult(name + "\tdecrypt", decrypt);
+	}
+
+	private double getMegabytesPerSecond(long nanos) {
+		double megabytes =
+				(double) FRAMES_PER_STREAM * MAX_PAYLOAD_LENGTH / BYTES_PER_MB;
+		return megabytes * 1_000_000_000 / nanos;
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> results)
+			throws IOException {
+		String result = String.format("%s\t%.1f\t%.1f", name,
+				getMean(results), getMedian(results));
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	/**
+	 * The same construction as {@link XSalsa20Poly1305AuthenticatedCipher},
+	 * using the Spongy Castle engine and allocating per call.
+	 */
+	private static class SpongyCastleCipher implements AuthenticatedCipher {
+
+		private final XSalsa20Engine xSalsa20Engine = new XSalsa20Engine();
+		private final Poly1305 poly1305 = new Poly1305();
+
+		private boolean encrypting;
+
+		@Override
+		public void init(boolean encrypt, SecretKey key, byte[] iv) {
+			encrypting = encrypt;
+			xSalsa20Engine.init(encrypt, new ParametersWithIV(
+					new KeyParameter(key.getBytes()), iv));
+		}
+
+		@Override
+		public int process(byte[] input, int inputOff, int len,
+				byte[] output, int outputOff)
+				throws GeneralSecurityException {
+			byte[] subKey = new byte[32];
+			xSalsa20Engine.processBytes(new byte[32], 0, 32, subKey, 0);
+			Poly1305KeyGenerator.clamp(subKey);
+			poly1305.init(new KeyParameter(subKey));
+			if (encrypting) {
+				xSalsa20Engine.processBytes(input, inputOff, len, output,
+						outputOff + MAC_LENGTH);
+				poly1305.update(output, outputOff + MAC_LENGTH, len);
+				poly1305.doFinal(output, outputOff);
+				return len + MAC_LENGTH;
+			}
+			byte[] mac = new byte[MAC_LENGTH];
+			poly1305.update(input, inputOff + MAC_LENGTH, len - MAC_LENGTH);
+			poly1305.doFinal(mac, 0);
+			int cmp = 0;
+			for (int i = 0; i < MAC_LENGTH; i++)
+				cmp |= mac[i] ^ input[inputOff + i];
+			if (cmp != 0) throw new GeneralSecurityException();
+			return xSalsa20Engine.processBytes(input, inputOff + MAC_LENGTH,
+					len - MAC_LENGTH, output, outputOff);
+		}
+
+		@Override
+		public int getMacBytes() {
+			return MAC_LENGTH;
+		}
+	}
+}
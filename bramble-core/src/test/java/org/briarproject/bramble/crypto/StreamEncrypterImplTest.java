@@ -16,6 +16,7 @@ import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.crypto.StreamEncrypterImpl.FRAMES_PER_WRITE;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -82,6 +83,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 
 		byte[] bigPayload = new byte[MAX_PAYLOAD_LENGTH];
 		s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH - 1, 1, false);
+		s.flush();
 		assertEquals(TAG_LENGTH + STREAM_HEADER_LENGTH + MAX_FRAME_LENGTH,
 				out.size());
 	}
@@ -95,6 +97,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 
 		byte[] bigPayload = new byte[MAX_PAYLOAD_LENGTH];
 		s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH, 0, false);
+		s.flush();
 		assertEquals(TAG_LENGTH + STREAM_HEADER_LENGTH + MAX_FRAME_LENGTH,
 				out.size());
 	}
@@ -107,6 +110,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 				frameKey);
 
 		s.writeFrame(payload, payloadLength, 0, false);
+		s.flush();
 
 		// Expect the tag, stream header, frame header, payload and MAC
 		ByteArrayOutputStream expected = new ByteArrayOutputStream();
@@ -159,6 +163,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 				frameKey);
 
 		s.writeFrame(payload, payloadLength, 0, false);
+		s.flush();
 
 		// Expect the stream header, frame header, payload and MAC
 		ByteArrayOutputStream expected = new ByteArrayOutputStream();
@@ -209,6 +214,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 				frameKey);
 
 		s.writeFrame(payload, payloadLength, paddingLength, false);
+		s.flush();
 
 		// Expect the tag, stream header, frame header, payload, padding and MAC
 		ByteArrayOutputStream expected = new ByteArrayOutputStream();
@@ -265,6 +271,7 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 				frameKey);
 
 		s.writeFrame(payload, payloadLength, paddingLength, false);
+		s.flush();
 
 		// Expect the stream header, frame header, payload, padding and MAC
 		ByteArrayOutputStream expected = new ByteArrayOutputStream();
@@ -350,6 +357,35 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 		assertArrayEquals(expected.toByteArray(), out.toByteArray());
 	}
 
+	@Test
+	public void testNonFinalFramesAreBufferedUntilFlushed() throws Exception {
+		CountingOutputStream out = new CountingOutputStream();
+		StreamEncrypterImpl s = new StreamEncrypterImpl(out, cipher,
+				streamNumber, tag, streamHeaderNonce, streamHeaderKey,
+				frameKey);
+
+		// Write enough frames to fill the output buffer, and one more
+		byte[] bigPayload = new byte[MAX_PAYLOAD_LENGTH];
+		for (int i = 0; i < FRAMES_PER_WRITE; i++)
+			s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH, 0, false);
+		assertEquals(0, out.writes);
+		s.writeFrame(bigPayload, MAX_PAYLOAD_LENGTH, 0, false);
+		// The full buffer should have been written in a single write
+		assertEquals(1, out.writes);
+		assertEquals(TAG_LENGTH + STREAM_HEADER_LENGTH
+				+ FRAMES_PER_WRITE * MAX_FRAME_LENGTH, out.size());
+
+		// Flushing should write the remaining frame
+		s.flush();
+		assertEquals(2, out.writes);
+		assertEquals(TAG_LENGTH + STREAM_HEADER_LENGTH
+				+ (FRAMES_PER_WRITE + 1) * MAX_FRAME_LENGTH, out.size());
+
+		// Writing the final frame should write it immediately
+		s.writeFrame(payload, payloadLength, 0, true);
+		assertEquals(3, out.writes);
+	}
+
 	@Test
 	public void testFlushWritesTagAndStreamHeaderIfNotAlreadyWritten()
 			throws Exception {
@@ -417,4 +453,15 @@ public class StreamEncrypterImplTest extends BrambleTestCase {
 
 		assertArrayEquals(expected.toByteArray(), out.toByteArray());
 	}
+
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+
+		private int writes = 0;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			super.write(b, off, len);
+			writes++;
+		}
+	}
 }
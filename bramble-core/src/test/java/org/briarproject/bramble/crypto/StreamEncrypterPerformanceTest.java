@@ -0,0 +1,158 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_NONCE_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of {@link StreamEncrypterImpl} when a large batch
+ * of messages is written to a file, in megabytes of payload per second, and
+ * counts the writes made to the file.
+ */
+@Ignore
+public class StreamEncrypterPerformanceTest extends BrambleTestCase {
+
+	private static final int MESSAGES_PER_BATCH = 1000;
+	private static final int MESSAGE_LENGTH = 32 * 1024;
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int ITERATIONS = 20;
+	private static final int BYTES_PER_MB = 1024 * 1024;
+
+	private final File testDir = getTestDirectory();
+	private final File testFile = new File(testDir, "stream");
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey streamHeaderKey = getSecretKey();
+	private final SecretKey frameKey = getSecretKey();
+	private final byte[] tag = getRandomBytes(TAG_LENGTH);
+	private final byte[] streamHeaderNonce =
+			getRandomBytes(STREAM_HEADER_NONCE_LENGTH);
+	private final byte[] message = getRandomBytes(MESSAGE_LENGTH);
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testWriteBatchToFile() throws Exception {
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		byte[] payload = new byte[MAX_PAYLOAD_LENGTH];
+		List<Double> throughput = new ArrayList<>(ITERATIONS);
+		long writes = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			CountingOutputStream out = new CountingOutputStream(
+					new FileOutputStream(testFile));
+			long start = System.nanoTime();
+			StreamEncrypterImpl encrypter = new StreamEncrypterImpl(out,
+					cipher, 0, tag, streamHeaderNonce, streamHeaderKey,
+					frameKey);
+			// Pack the messages into frames, as the stream writer does
+			int length = 0;
+			for (int j = 0; j < MESSAGES_PER_BATCH; j++) {
+				int off = 0;
+				while (off < MESSAGE_LENGTH) {
+					int n = Math.min(MESSAGE_LENGTH - off,
+							MAX_PAYLOAD_LENGTH - length);
+					System.arraycopy(message, off, payload, length, n);
+					off += n;
+					length += n;
+					if (length == MAX_PAYLOAD_LENGTH) {
+						encrypter.writeFrame(payload, length, 0, false);
+						length = 0;
+					}
+				}
+			}
+			encrypter.writeFrame(payload, length, 0, true);
+			encrypter.flush();
+			out.close();
+			long duration = System.nanoTime() - start;
+			if (i >= WARMUP_ITERATIONS) {
+				throughput.add(getMegabytesPerSecond(duration));
+				writes = out.writes;
+			}
+		}
+		writeResult("MB/s\t" + writes + " writes", throughput);
+	}
+
+	private double getMegabytesPerSecond(long nanos) {
+		double megabytes =
+				(double) MESSAGES_PER_BATCH * MESSAGE_LENGTH / BYTES_PER_MB;
+		return megabytes * 1_000_000_000 / nanos;
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> results)
+			throws IOException {
+		String result = String.format("%s\t%.1f\t%.1f", name,
+				getMean(results), getMedian(results));
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		private long writes = 0;
+
+		private CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			writes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			writes++;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -4,10 +4,18 @@ import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.util.StringUtils;
 import org.junit.Test;
+import org.spongycastle.crypto.engines.XSalsa20Engine;
+import org.spongycastle.crypto.generators.Poly1305KeyGenerator;
+import org.spongycastle.crypto.macs.Poly1305;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
 
 import java.security.GeneralSecurityException;
 import java.util.Random;
 
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
@@ -90,4 +98,48 @@ public class XSalsa20Poly1305AuthenticatedCipherTest extends BrambleTestCase {
 		byte[] output = new byte[TEST_PLAINTEXT.length];
 		cipher.process(input, 0, input.length, output, 0);
 	}
+
+	@Test
+	public void testReusedCipherMatchesReferenceImplementation()
+			throws Exception {
+		Random random = new Random();
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		SecretKey k = getSecretKey();
+		for (int i = 0; i < 100; i++) {
+			// Change the key occasionally
+			if (i % 10 == 0) k = getSecretKey();
+			byte[] iv = getRandomBytes(24);
+			// Cover lengths that end within, at and across block boundaries
+			byte[] plaintext = getRandomBytes(random.nextInt(1000));
+			byte[] expected = referenceEncrypt(k, iv, plaintext);
+			byte[] ciphertext = new byte[plaintext.length + MAC_LENGTH];
+			cipher.init(true, k, iv);
+			assertEquals(ciphertext.length, cipher.process(plaintext, 0,
+					plaintext.length, ciphertext, 0));
+			assertArrayEquals(expected, ciphertext);
+			byte[] decrypted = new byte[plaintext.length];
+			cipher.init(false, k, iv);
+			assertEquals(plaintext.length, cipher.process(ciphertext, 0,
+					ciphertext.length, decrypted, 0));
+			assertArrayEquals(plaintext, decrypted);
+		}
+	}
+
+	// The construction used by the previous implementation of the cipher
+	private byte[] referenceEncrypt(SecretKey k, byte[] iv, byte[] plaintext) {
+		XSalsa20Engine xSalsa20 = new XSalsa20Engine();
+		xSalsa20.init(true, new ParametersWithIV(
+				new KeyParameter(k.getBytes()), iv));
+		byte[] subKey = new byte[32];
+		xSalsa20.processBytes(new byte[32], 0, 32, subKey, 0);
+		Poly1305KeyGenerator.clamp(subKey);
+		Poly1305 poly1305 = new Poly1305();
+		poly1305.init(new KeyParameter(subKey));
+		byte[] output = new byte[plaintext.length + MAC_LENGTH];
+		xSalsa20.processBytes(plaintext, 0, plaintext.length, output,
+				MAC_LENGTH);
+		poly1305.update(output, MAC_LENGTH, plaintext.length);
+		poly1305.doFinal(output, 0);
+		return output;
+	}
 }
@@ -4,12 +4,15 @@ import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.contact.event.ContactAliasChangedEvent;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.ContactExistsException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
@@ -17,6 +20,7 @@ import org.briarproject.bramble.api.db.NoSuchIdentityException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.NoSuchPendingContactException;
 import org.briarproject.bramble.api.db.NoSuchTransportException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.identity.Author;
@@ -56,19 +60,27 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.jmock.Expectations;
+import org.jmock.Mockery;
 import org.jmock.Sequence;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
@@ -88,9 +100,11 @@ import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -152,8 +166,20 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 	private DatabaseComponent createDatabaseComponent(Database<Object> database,
 			EventBus eventBus, Executor eventExecutor,
 			ShutdownManager shutdownManager) {
+		return createDatabaseComponent(database, eventBus, eventExecutor,
+				shutdownManager, false);
+	}
+
+	private DatabaseComponent createDatabaseComponent(Database<Object> database,
+			EventBus eventBus, Executor eventExecutor,
+			ShutdownManager shutdownManager, boolean concurrentReads) {
 		return new DatabaseComponentImpl<>(database, Object.class, eventBus,
-				eventExecutor, shutdownManager);
+				eventExecutor, shutdownManager, concurrentReads, false);
+	}
+
+	private DatabaseComponentImpl<Object> createCachingDatabaseComponent() {
+		return new DatabaseComponentImpl<>(database, Object.class, eventBus,
+				eventExecutor, shutdownManager, false, true);
 	}
 
 	@Test
@@ -295,11 +321,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the contact is in the DB (which it's not)
-			exactly(18).of(database).startTransaction();
+			exactly(19).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(18).of(database).containsContact(txn, contactId);
+			exactly(19).of(database).containsContact(txn, contactId);
 			will(returnValue(false));
-			exactly(18).of(database).abortTransaction(txn);
+			exactly(19).of(database).abortTransaction(txn);
 		}});
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
 				eventExecutor, shutdownManager);
@@ -402,6 +428,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(false, transaction ->
+					db.receiveMessages(transaction, contactId,
+							singletonList(message)));
+			fail();
+		} catch (NoSuchContactException expected) {
+			// Expected
+		}
+
 		try {
 			Offer o = new Offer(singletonList(messageId));
 			db.transaction(false, transaction ->
@@ -510,11 +545,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the group is in the DB (which it's not)
-			exactly(8).of(database).startTransaction();
+			exactly(11).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(8).of(database).containsGroup(txn, groupId);
+			exactly(11).of(database).containsGroup(txn, groupId);
 			will(returnValue(false));
-			exactly(8).of(database).abortTransaction(txn);
+			exactly(11).of(database).abortTransaction(txn);
 			// Allow other checks to pass
 			allowing(database).containsContact(txn, contactId);
 			will(returnValue(true));
@@ -555,6 +590,14 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(false, transaction ->
+					db.getThreadedMessages(transaction, groupId, null, 10));
+			fail();
+		} catch (NoSuchGroupException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(false, transaction ->
 					db.getMessageStatus(transaction, contactId, groupId));
@@ -563,6 +606,14 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(false, transaction ->
+					db.incrementMessageCounts(transaction, groupId, 1, 1, 0));
+			fail();
+		} catch (NoSuchGroupException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(false, transaction ->
 					db.mergeGroupMetadata(transaction, groupId, metadata));
@@ -587,6 +638,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 		} catch (NoSuchGroupException expected) {
 			// Expected
 		}
+
+		try {
+			db.transaction(false, transaction ->
+					db.setMessageCounts(transaction, groupId,
+							new MessageCounts(0, 0, 0)));
+			fail();
+		} catch (NoSuchGroupException expected) {
+			// Expected
+		}
 	}
 
 	@Test
@@ -594,11 +654,11 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			throws Exception {
 		context.checking(new Expectations() {{
 			// Check whether the message is in the DB (which it's not)
-			exactly(12).of(database).startTransaction();
+			exactly(13).of(database).startTransaction();
 			will(returnValue(txn));
-			exactly(12).of(database).containsMessage(txn, messageId);
+			exactly(13).of(database).containsMessage(txn, messageId);
 			will(returnValue(false));
-			exactly(12).of(database).abortTransaction(txn);
+			exactly(13).of(database).abortTransaction(txn);
 			// Allow other checks to pass
 			allowing(database).containsContact(txn, contactId);
 			will(returnValue(true));
@@ -662,6 +722,15 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			// Expected
 		}
 
+		try {
+			db.transaction(false, transaction ->
+					db.addMessageToThread(transaction, messageId, null,
+							"key"));
+			fail();
+		} catch (NoSuchMessageException expected) {
+			// Expected
+		}
+
 		try {
 			db.transaction(false, transaction ->
 					db.setMessagePermanent(transaction, message.getId()));
@@ -1076,6 +1145,64 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 				db.receiveMessage(transaction, contactId, message));
 	}
 
+	@Test
+	public void testReceiveMessages() throws Exception {
+		Group invisibleGroup = getGroup(clientId, majorVersion);
+		Message invisible = getMessage(invisibleGroup.getId());
+		AtomicReference<Collection> added = new AtomicReference<>();
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			// The visibility of each group is only checked once
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(VISIBLE));
+			oneOf(database).getGroupVisibility(txn, contactId,
+					invisibleGroup.getId());
+			will(returnValue(INVISIBLE));
+			// The second message is a duplicate
+			oneOf(database).getContainedMessageIds(txn,
+					new HashSet<>(asList(messageId, messageId1)));
+			will(returnValue(singletonList(messageId1)));
+			oneOf(database).raiseSeenFlag(txn, contactId, messageId1);
+			oneOf(database).raiseAckFlag(txn, contactId, messageId1);
+			// The first message is added
+			oneOf(database).addMessages(with(txn), with(any(Collection.class)),
+					with(UNKNOWN), with(false), with(false), with(contactId));
+			will(new CaptureArgumentAction<>(added, Collection.class, 1));
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(any(MessageAddedEvent.class)));
+			oneOf(eventBus).broadcast(with(any(MessageToAckEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveMessages(transaction, contactId,
+						asList(message, invisible, message1, message)));
+		assertEquals(singletonList(message), new ArrayList<>(added.get()));
+	}
+
+	@Test
+	public void testReceiveMessagesWithoutVisibleGroup() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(INVISIBLE));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction ->
+				db.receiveMessages(transaction, contactId,
+						asList(message, message1)));
+	}
+
 	@Test
 	public void testReceiveOffer() throws Exception {
 		MessageId messageId1 = new MessageId(getRandomId());
@@ -1264,8 +1391,9 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testGetMessageStatusByGroupId() throws Exception {
+		long timestamp = message.getTimestamp();
 		MessageStatus status =
-				new MessageStatus(messageId, contactId, true, true);
+				new MessageStatus(messageId, contactId, timestamp, true, true);
 
 		context.checking(new Expectations() {{
 			// startTransaction()
@@ -1287,8 +1415,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(true));
 			oneOf(database).getGroupVisibility(txn, contactId, groupId);
 			will(returnValue(INVISIBLE));
-			oneOf(database).getMessageIds(txn, groupId);
-			will(returnValue(singletonList(messageId)));
+			oneOf(database).getMessageTimestamps(txn, groupId);
+			will(returnValue(singletonMap(messageId, timestamp)));
 			// endTransaction()
 			oneOf(database).commitTransaction(txn);
 		}});
@@ -1303,6 +1431,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			MessageStatus s = statuses.iterator().next();
 			assertEquals(messageId, s.getMessageId());
 			assertEquals(contactId, s.getContactId());
+			assertEquals(timestamp, s.getTimestamp());
 			assertTrue(s.isSent());
 			assertTrue(s.isSeen());
 			// With invisible group - return default status
@@ -1311,6 +1440,7 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			s = statuses.iterator().next();
 			assertEquals(messageId, s.getMessageId());
 			assertEquals(contactId, s.getContactId());
+			assertEquals(timestamp, s.getTimestamp());
 			assertFalse(s.isSent());
 			assertFalse(s.isSeen());
 		});
@@ -1318,8 +1448,9 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testGetMessageStatusByMessageId() throws Exception {
+		long timestamp = message.getTimestamp();
 		MessageStatus status =
-				new MessageStatus(messageId, contactId, true, true);
+				new MessageStatus(messageId, contactId, timestamp, true, true);
 
 		context.checking(new Expectations() {{
 			// startTransaction()
@@ -1339,6 +1470,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			will(returnValue(true));
 			oneOf(database).getMessageStatus(txn, contactId, messageId);
 			will(returnValue(null));
+			oneOf(database).getMessageTimestamp(txn, messageId);
+			will(returnValue(timestamp));
 			// endTransaction()
 			oneOf(database).commitTransaction(txn);
 		}});
@@ -1351,12 +1484,14 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 					db.getMessageStatus(transaction, contactId, messageId);
 			assertEquals(messageId, s.getMessageId());
 			assertEquals(contactId, s.getContactId());
+			assertEquals(timestamp, s.getTimestamp());
 			assertTrue(s.isSent());
 			assertTrue(s.isSeen());
 			// With invisible group - return default status
 			s = db.getMessageStatus(transaction, contactId, messageId);
 			assertEquals(messageId, s.getMessageId());
 			assertEquals(contactId, s.getContactId());
+			assertEquals(timestamp, s.getTimestamp());
 			assertFalse(s.isSent());
 			assertFalse(s.isSeen());
 		});
@@ -1464,22 +1599,90 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 		testCannotStartTransactionDuringTransaction(false, false);
 	}
 
+	@Test(expected = IllegalStateException.class)
+	public void testCannotStartReadTransactionDuringConcurrentReadTransaction()
+			throws Exception {
+		testCannotStartTransactionDuringTransaction(true, true, true);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCannotStartWriteTransactionDuringConcurrentReadTransaction()
+			throws Exception {
+		testCannotStartTransactionDuringTransaction(true, false, true);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCannotStartConcurrentReadTransactionDuringWriteTransaction()
+			throws Exception {
+		testCannotStartTransactionDuringTransaction(false, true, true);
+	}
+
 	private void testCannotStartTransactionDuringTransaction(
 			boolean firstTxnReadOnly, boolean secondTxnReadOnly)
 			throws Exception {
+		testCannotStartTransactionDuringTransaction(firstTxnReadOnly,
+				secondTxnReadOnly, false);
+	}
+
+	private void testCannotStartTransactionDuringTransaction(
+			boolean firstTxnReadOnly, boolean secondTxnReadOnly,
+			boolean concurrentReads) throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(database).startTransaction();
 			will(returnValue(txn));
 		}});
 
 		DatabaseComponent db = createDatabaseComponent(database, eventBus,
-				eventExecutor, shutdownManager);
+				eventExecutor, shutdownManager, concurrentReads);
 
 		assertNotNull(db.startTransaction(firstTxnReadOnly));
 		db.startTransaction(secondTxnReadOnly);
 		fail();
 	}
 
+	@Test
+	public void testConcurrentReadTransactionDoesNotWaitForWriter()
+			throws Exception {
+		Mockery context = new Mockery() {{
+			setThreadingPolicy(new Synchroniser());
+		}};
+		@SuppressWarnings("unchecked")
+		Database<Object> database = context.mock(Database.class, "database1");
+		Object writeTxn = new Object(), readTxn = new Object();
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(writeTxn));
+			oneOf(database).startTransaction();
+			will(returnValue(readTxn));
+			oneOf(database).commitTransaction(readTxn);
+			oneOf(database).commitTransaction(writeTxn);
+		}});
+
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager, true);
+
+		Transaction write = db.startTransaction(false);
+		// Start and finish a read-only transaction on another thread while
+		// this thread holds the write lock
+		CountDownLatch readFinished = new CountDownLatch(1);
+		AtomicBoolean success = new AtomicBoolean(false);
+		new Thread(() -> {
+			try {
+				db.transaction(true, txn -> assertSame(readTxn, txn.unbox()));
+				success.set(true);
+			} catch (DbException e) {
+				fail();
+			}
+			readFinished.countDown();
+		}).start();
+		assertTrue(readFinished.await(10, SECONDS));
+		assertTrue(success.get());
+		db.commitTransaction(write);
+		db.endTransaction(write);
+
+		context.assertIsSatisfied();
+	}
+
 	@Test
 	public void testCannotAddLocalIdentityAsContact() throws Exception {
 		context.checking(new Expectations() {{
@@ -1640,6 +1843,137 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 		});
 	}
 
+	@Test
+	public void testCacheAnswersRepeatedLookups() throws Exception {
+		context.checking(new Expectations() {{
+			exactly(2).of(database).startTransaction();
+			will(returnValue(txn));
+			// The contact and the visibility are only loaded once
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(SHARED));
+			exactly(2).of(database).commitTransaction(txn);
+		}});
+		DatabaseComponentImpl<Object> db = createCachingDatabaseComponent();
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals(SHARED, db.transactionWithResult(true, transaction ->
+					db.getGroupVisibility(transaction, contactId, groupId)));
+		}
+		assertEquals(2, db.getCacheHits());
+		assertEquals(2, db.getCacheMisses());
+	}
+
+	@Test
+	public void testCacheIsInvalidatedWhenVisibilityIsUpdated()
+			throws Exception {
+		context.checking(new Expectations() {{
+			exactly(3).of(database).startTransaction();
+			will(returnValue(txn));
+			// getGroupVisibility() loads the contact and the visibility
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(INVISIBLE));
+			// setGroupVisibility() loads the group
+			oneOf(database).containsGroup(txn, groupId);
+			will(returnValue(true));
+			oneOf(database).addGroupVisibility(txn, contactId, groupId, true);
+			oneOf(eventBus).broadcast(with(any(
+					GroupVisibilityUpdatedEvent.class)));
+			// getGroupVisibility() loads the visibility again
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(SHARED));
+			exactly(3).of(database).commitTransaction(txn);
+		}});
+		DatabaseComponentImpl<Object> db = createCachingDatabaseComponent();
+
+		assertEquals(INVISIBLE, db.transactionWithResult(true, transaction ->
+				db.getGroupVisibility(transaction, contactId, groupId)));
+		db.transaction(false, transaction ->
+				db.setGroupVisibility(transaction, contactId, groupId,
+						SHARED));
+		assertEquals(SHARED, db.transactionWithResult(true, transaction ->
+				db.getGroupVisibility(transaction, contactId, groupId)));
+	}
+
+	@Test
+	public void testCacheIsClearedWhenUpdateIsAborted() throws Exception {
+		context.checking(new Expectations() {{
+			exactly(3).of(database).startTransaction();
+			will(returnValue(txn));
+			// containsGroup() loads the group
+			oneOf(database).containsGroup(txn, groupId);
+			will(returnValue(true));
+			oneOf(database).commitTransaction(txn);
+			// removeGroup() finds the group in the cache
+			oneOf(database).getGroupVisibility(txn, groupId);
+			will(returnValue(emptyMap()));
+			oneOf(database).removeGroup(txn, groupId);
+			oneOf(database).abortTransaction(txn);
+			// containsGroup() loads the group again
+			oneOf(database).containsGroup(txn, groupId);
+			will(returnValue(true));
+			oneOf(database).commitTransaction(txn);
+		}});
+		DatabaseComponentImpl<Object> db = createCachingDatabaseComponent();
+
+		assertTrue(db.transactionWithResult(true, transaction ->
+				db.containsGroup(transaction, groupId)));
+		try {
+			db.transaction(false, transaction -> {
+				db.removeGroup(transaction, group);
+				throw new DbException();
+			});
+			fail();
+		} catch (DbException expected) {
+			// Expected
+		}
+		assertTrue(db.transactionWithResult(true, transaction ->
+				db.containsGroup(transaction, groupId)));
+	}
+
+	@Test
+	public void testCacheIsInvalidatedWhenContactAliasIsChanged()
+			throws Exception {
+		String newAlias = getRandomString(MAX_AUTHOR_NAME_LENGTH);
+		Collection<Contact> before = singletonList(contact);
+		Contact aliased = new Contact(contactId, author, localAuthor.getId(),
+				newAlias, null, true);
+		Collection<Contact> after = singletonList(aliased);
+		context.checking(new Expectations() {{
+			exactly(4).of(database).startTransaction();
+			will(returnValue(txn));
+			// The contacts are only loaded once before the alias is changed
+			oneOf(database).getContactsByAuthorId(txn, author.getId());
+			will(returnValue(before));
+			// setContactAlias() loads the contact
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).setContactAlias(txn, contactId, newAlias);
+			oneOf(eventBus).broadcast(with(any(
+					ContactAliasChangedEvent.class)));
+			// The contacts are loaded again after the alias is changed
+			oneOf(database).getContactsByAuthorId(txn, author.getId());
+			will(returnValue(after));
+			exactly(4).of(database).commitTransaction(txn);
+		}});
+		DatabaseComponentImpl<Object> db = createCachingDatabaseComponent();
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals(before, db.transactionWithResult(true, transaction ->
+					db.getContactsByAuthorId(transaction, author.getId())));
+		}
+		db.transaction(false, transaction ->
+				db.setContactAlias(transaction, contactId, newAlias));
+		Collection<Contact> contacts = db.transactionWithResult(true,
+				transaction ->
+						db.getContactsByAuthorId(transaction, author.getId()));
+		assertEquals(1, contacts.size());
+		assertEquals(newAlias, contacts.iterator().next().getAlias());
+	}
+
 	private static class TestEvent extends Event {
 	}
 }
@@ -29,6 +29,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -367,6 +368,56 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testGetMessageIdsWithPartiallyMatchingQuery()
+			throws Exception {
+		String name = "getMessageIds(T, GroupId, Metadata) [partial match]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(groups).getId();
+			Metadata query = getQuery(pickRandom(messageMeta.get(g)), 2);
+			db.getMessageIds(txn, g, query);
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataWithMatchingQuery() throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [match]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(groups).getId();
+			db.getMessageMetadata(txn, g, pickRandom(messageMeta.get(g)));
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataWithPartiallyMatchingQuery()
+			throws Exception {
+		String name =
+				"getMessageMetadata(T, GroupId, Metadata) [partial match]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			GroupId g = pickRandom(groups).getId();
+			Metadata query = getQuery(pickRandom(messageMeta.get(g)), 2);
+			db.getMessageMetadata(txn, g, query);
+			db.commitTransaction(txn);
+		});
+	}
+
+	@Test
+	public void testGetMessageMetadataWithNonMatchingQuery()
+			throws Exception {
+		String name = "getMessageMetadata(T, GroupId, Metadata) [no match]";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			Metadata query = getMetadata(METADATA_KEYS_PER_MESSAGE);
+			db.getMessageMetadata(txn, pickRandom(groups).getId(), query);
+			db.commitTransaction(txn);
+		});
+	}
+
 	@Test
 	public void testGetMessageMetadataByGroupId() throws Exception {
 		String name = "getMessageMetadata(T, GroupId)";
@@ -628,6 +679,15 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		return meta;
 	}
 
+	private Metadata getQuery(Metadata meta, int terms) {
+		Metadata query = new Metadata();
+		for (Entry<String, byte[]> e : meta.entrySet()) {
+			if (query.size() == terms) break;
+			query.put(e.getKey(), e.getValue());
+		}
+		return query;
+	}
+
 	long measureOne(Database<Connection> db,
 			BenchmarkTask<Database<Connection>> task) throws Exception {
 		long start = System.nanoTime();
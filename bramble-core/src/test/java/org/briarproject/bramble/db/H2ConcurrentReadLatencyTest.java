@@ -0,0 +1,222 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getIdentity;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of read-only transactions while a sync session is
+ * writing, with and without concurrent reads. Each read-only transaction
+ * loads the metadata and status of a conversation's messages, which is what
+ * the messaging client does when listing the conversation's headers.
+ */
+@Ignore
+public class H2ConcurrentReadLatencyTest extends BrambleTestCase {
+
+	/**
+	 * How many messages the conversation being read contains.
+	 */
+	private static final int CONVERSATION_MESSAGES = 1000;
+
+	/**
+	 * How many messages the sync session writes in each transaction.
+	 */
+	private static final int MESSAGES_PER_WRITE = 500;
+
+	private static final int MESSAGE_BODY_LENGTH = 1024;
+	private static final int METADATA_VALUE_LENGTH = 100;
+	private static final int READS = 1000;
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey databaseKey = getSecretKey();
+
+	public H2ConcurrentReadLatencyTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testReadLatencyWithReadLock() throws Exception {
+		measureReadLatency("read lock", false);
+	}
+
+	@Test
+	public void testReadLatencyWithConcurrentReads() throws Exception {
+		measureReadLatency("concurrent reads", true);
+	}
+
+	private void measureReadLatency(String name, boolean concurrentReads)
+			throws Exception {
+		Database<Connection> database = new H2Database(
+				new TestDatabaseConfig(testDir), new TestMessageFactory(),
+				new SystemClock());
+		database.open(databaseKey, null);
+		DatabaseComponent db = new DatabaseComponentImpl<>(database,
+				Connection.class, new NoOpEventBus(), new NoOpExecutor(),
+				new NoOpShutdownManager(), concurrentReads, false);
+		// Create a contact with a conversation to read and a group to sync
+		Identity identity = getIdentity();
+		Group conversation = getGroup(getClientId(), 123);
+		Group synced = getGroup(getClientId(), 123);
+		ContactId c = db.transactionWithResult(false, txn -> {
+			db.addIdentity(txn, identity);
+			ContactId contactId = db.addContact(txn, getAuthor(),
+					identity.getId(), null, true);
+			db.addGroup(txn, conversation);
+			db.setGroupVisibility(txn, contactId, conversation.getId(),
+					SHARED);
+			db.addGroup(txn, synced);
+			db.setGroupVisibility(txn, contactId, synced.getId(), SHARED);
+			for (int i = 0; i < CONVERSATION_MESSAGES; i++) {
+				Metadata meta = new Metadata();
+				meta.put("key", getRandomBytes(METADATA_VALUE_LENGTH));
+				db.addLocalMessage(txn, getMessage(conversation.getId(),
+						MESSAGE_BODY_LENGTH), meta, true, false);
+			}
+			return contactId;
+		});
+		// Start the sync session
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		GroupId g = synced.getId();
+		Thread writer = new Thread(() -> {
+			try {
+				while (!stopped.get()) {
+					db.transaction(false, txn -> {
+						for (int i = 0; i < MESSAGES_PER_WRITE; i++) {
+							db.receiveMessage(txn, c,
+									getMessage(g, MESSAGE_BODY_LENGTH));
+						}
+					});
+				}
+			} catch (Exception e) {
+				throw new AssertionError(e);
+			}
+		});
+		writer.start();
+		// Measure the read-only transactions
+		List<Double> durations = new ArrayList<>(READS);
+		GroupId conversationId = conversation.getId();
+		for (int i = 0; i < READS; i++) {
+			long start = System.nanoTime();
+			db.transaction(true, txn -> {
+				db.getMessageMetadata(txn, conversationId);
+				db.getMessageStatus(txn, c, conversationId);
+			});
+			durations.add((double) (System.nanoTime() - start));
+		}
+		stopped.set(true);
+		writer.join();
+		db.close();
+		writeResult(name, durations);
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> durations)
+			throws IOException {
+		List<Double> sorted = new ArrayList<>(durations);
+		Collections.sort(sorted);
+		double p99 = sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1);
+		double max = sorted.get(sorted.size() - 1);
+		String result = String.format("%s\t%,d\t%,d\t%,d\t%,d", name,
+				(long) getMean(durations), (long) getMedian(durations),
+				(long) p99, (long) max);
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	private static class NoOpEventBus implements EventBus {
+
+		@Override
+		public void addListener(EventListener l) {
+		}
+
+		@Override
+		public void removeListener(EventListener l) {
+		}
+
+		@Override
+		public void broadcast(Event e) {
+		}
+	}
+
+	private static class NoOpExecutor implements Executor {
+
+		@Override
+		public void execute(Runnable r) {
+		}
+	}
+
+	private static class NoOpShutdownManager implements ShutdownManager {
+
+		@Override
+		public int addShutdownHook(Runnable hook) {
+			return 0;
+		}
+
+		@Override
+		public boolean removeShutdownHook(int handle) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getIdentity;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the queries that find messages to send to a contact with a large
+ * number of statuses, with and without the index that supports them. Most
+ * of the contact's messages have already been seen by the contact, which is
+ * the usual situation for a long-lived contact.
+ */
+@Ignore
+public class H2MessagesToSendPerformanceTest extends BrambleTestCase {
+
+	/**
+	 * How many statuses the contact has.
+	 */
+	private static final int STATUSES = 100_000;
+
+	/**
+	 * One in this many messages has not been seen by the contact.
+	 */
+	private static final int UNSEEN_RATIO = 100;
+
+	private static final int MESSAGES_PER_TRANSACTION = 1000;
+	private static final int MESSAGE_BODY_LENGTH = 100;
+	private static final int MAX_LATENCY = 30 * 1000;
+	private static final int ITERATIONS = 100;
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey databaseKey = getSecretKey();
+
+	private Database<Connection> db;
+	private ContactId contactId;
+
+	public H2MessagesToSendPerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		db = new H2Database(new TestDatabaseConfig(testDir),
+				new TestMessageFactory(), new SystemClock());
+		db.open(databaseKey, null);
+		populateDatabase();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		db.close();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testWithIndex() throws Exception {
+		measureQueries("with index");
+	}
+
+	@Test
+	public void testWithoutIndex() throws Exception {
+		Connection txn = db.startTransaction();
+		Statement s = txn.createStatement();
+		s.executeUpdate("DROP INDEX statusesByContactIdSendable");
+		s.close();
+		db.commitTransaction(txn);
+		measureQueries("without index");
+	}
+
+	private void populateDatabase() throws Exception {
+		Identity identity = getIdentity();
+		Group group = getGroup(getClientId(), 123);
+		GroupId g = group.getId();
+		Connection txn = db.startTransaction();
+		db.addIdentity(txn, identity);
+		contactId = db.addContact(txn, getAuthor(), identity.getId(), null,
+				true);
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, g, true);
+		db.commitTransaction(txn);
+		for (int i = 0; i < STATUSES; i += MESSAGES_PER_TRANSACTION) {
+			List<Message> seen = new ArrayList<>(MESSAGES_PER_TRANSACTION);
+			List<Message> unseen = new ArrayList<>();
+			for (int j = 0; j < MESSAGES_PER_TRANSACTION; j++) {
+				Message m = getMessage(g, MESSAGE_BODY_LENGTH);
+				if ((i + j) % UNSEEN_RATIO == 0) unseen.add(m);
+				else seen.add(m);
+			}
+			txn = db.startTransaction();
+			// Messages received from the contact have been seen by it
+			db.addMessages(txn, seen, DELIVERED, true, false, contactId);
+			db.addMessages(txn, unseen, DELIVERED, true, false, null);
+			db.commitTransaction(txn);
+		}
+	}
+
+	private void measureQueries(String name) throws Exception {
+		measure(name, "getMessagesToSend", txn ->
+				db.getMessagesToSend(txn, contactId, MAX_RECORD_PAYLOAD_BYTES,
+						MAX_LATENCY));
+		measure(name, "getMessagesToOffer", txn ->
+				db.getMessagesToOffer(txn, contactId, MAX_MESSAGE_IDS,
+						MAX_LATENCY));
+		measure(name, "getRequestedMessagesToSend", txn ->
+				db.getRequestedMessagesToSend(txn, contactId,
+						MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY));
+		measure(name, "getNextSendTime", txn ->
+				db.getNextSendTime(txn, contactId));
+	}
+
+	private void measure(String name, String query,
+			BenchmarkTask<Connection> task) throws Exception {
+		List<Double> durations = new ArrayList<>(ITERATIONS);
+		for (int i = 0; i < ITERATIONS; i++) {
+			Connection txn = db.startTransaction();
+			long start = System.nanoTime();
+			task.run(txn);
+			durations.add((double) (System.nanoTime() - start));
+			db.commitTransaction(txn);
+		}
+		writeResult(name + "\t" + query, durations);
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> durations)
+			throws IOException {
+		String result = String.format("%s\t%,d\t%,d", name,
+				(long) getMean(durations), (long) getMedian(durations));
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
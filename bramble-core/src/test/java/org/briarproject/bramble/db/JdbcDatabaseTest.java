@@ -8,6 +8,7 @@ import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.identity.Author;
@@ -43,6 +44,7 @@ import java.io.File;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -51,9 +53,11 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static java.lang.Long.MAX_VALUE;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -78,6 +82,7 @@ import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getIdentity;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getPendingContact;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
@@ -1216,6 +1221,176 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testAddMessages() throws Exception {
+		Message message1 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		MessageId unknown = new MessageId(getRandomId());
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact who can see a group
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+
+		// The contact has offered the second message
+		db.addOfferedMessage(txn, contactId, messageId1);
+
+		// Add both messages
+		assertEquals(emptyList(), db.getContainedMessageIds(txn,
+				asList(messageId, messageId1)));
+		db.addMessages(txn, asList(message, message1), DELIVERED, true,
+				false, null);
+		assertEquals(new HashSet<>(asList(messageId, messageId1)),
+				new HashSet<>(db.getContainedMessageIds(txn,
+						asList(messageId, unknown, messageId1))));
+
+		// The offered message should have been seen, the other should not
+		assertEquals(0, db.countOfferedMessages(txn, contactId));
+		assertFalse(db.getMessageStatus(txn, contactId, messageId).isSeen());
+		assertTrue(db.getMessageStatus(txn, contactId, messageId1).isSeen());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGetMessageStatusAndTimestampsNewestFirst() throws Exception {
+		// Five messages: two share a timestamp, one is deleted
+		Message m1 = new Message(new MessageId(getRandomId()), groupId,
+				1000, getRandomBytes(123));
+		Message m2 = new Message(new MessageId(getRandomId()), groupId,
+				2000, getRandomBytes(123));
+		Message m3 = new Message(new MessageId(getRandomId()), groupId,
+				2000, getRandomBytes(123));
+		Message m4 = new Message(new MessageId(getRandomId()), groupId,
+				3000, getRandomBytes(123));
+		Message deleted = new Message(new MessageId(getRandomId()), groupId,
+				4000, getRandomBytes(123));
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact who can see a group containing the messages
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		for (Message m : asList(m1, m2, m3, m4, deleted))
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+		db.deleteMessage(txn, deleted.getId());
+
+		// The first page should contain the newest message
+		List<MessageStatus> statuses =
+				db.getMessageStatus(txn, contactId, groupId, MAX_VALUE, 1);
+		assertEquals(singletonList(m4.getId()), getIds(statuses));
+		assertEquals(3000, statuses.get(0).getTimestamp());
+		assertEquals(singletonMap(m4.getId(), 3000L),
+				db.getMessageTimestamps(txn, groupId, MAX_VALUE, 1));
+
+		// The second page should contain both messages with the same
+		// timestamp, even though only one was requested
+		assertEquals(new HashSet<>(asList(m2.getId(), m3.getId())),
+				new HashSet<>(getIds(db.getMessageStatus(txn, contactId,
+						groupId, 3000, 1))));
+		Map<MessageId, Long> timestamps =
+				db.getMessageTimestamps(txn, groupId, 3000, 1);
+		assertEquals(new HashSet<>(asList(m2.getId(), m3.getId())),
+				timestamps.keySet());
+		assertEquals(singleton(2000L), new HashSet<>(timestamps.values()));
+
+		// The last page should contain the oldest message
+		assertEquals(singletonList(m1.getId()), getIds(
+				db.getMessageStatus(txn, contactId, groupId, 2000, 10)));
+		assertEquals(singletonMap(m1.getId(), 1000L),
+				db.getMessageTimestamps(txn, groupId, 2000, 10));
+		assertEquals(emptyList(),
+				db.getMessageStatus(txn, contactId, groupId, 1000, 10));
+		assertEquals(emptyMap(),
+				db.getMessageTimestamps(txn, groupId, 1000, 10));
+
+		// All the timestamps can also be loaded without paging
+		timestamps = db.getMessageTimestamps(txn, groupId);
+		assertEquals(5, timestamps.size());
+		assertEquals(Long.valueOf(1000), timestamps.get(m1.getId()));
+		assertEquals(Long.valueOf(4000), timestamps.get(deleted.getId()));
+		assertEquals(3000, db.getMessageTimestamp(txn, m4.getId()));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	private List<MessageId> getIds(List<MessageStatus> statuses) {
+		List<MessageId> ids = new ArrayList<>();
+		for (MessageStatus s : statuses) ids.add(s.getMessageId());
+		return ids;
+	}
+
+	@Test
+	public void testGetContainedMessageIdsWithManyIds() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add more messages than can be looked up with a single query
+		db.addGroup(txn, group);
+		List<Message> messages = new ArrayList<>();
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			Message m = getMessage(groupId);
+			messages.add(m);
+			ids.add(m.getId());
+		}
+		db.addMessages(txn, messages, DELIVERED, true, false, null);
+
+		// Look up the IDs along with some unknown IDs
+		List<MessageId> query = new ArrayList<>(ids);
+		for (int i = 0; i < 10; i++) query.add(new MessageId(getRandomId()));
+		assertEquals(new HashSet<>(ids),
+				new HashSet<>(db.getContainedMessageIds(txn, query)));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGetMessageMetadataWithManyIds() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add more messages than can be looked up with a single query
+		db.addGroup(txn, group);
+		List<Message> messages = new ArrayList<>();
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			Message m = getMessage(groupId);
+			messages.add(m);
+			ids.add(m.getId());
+		}
+		db.addMessages(txn, messages, DELIVERED, true, false, null);
+
+		// Attach some metadata to every message except the first
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		for (MessageId m : ids.subList(1, ids.size()))
+			db.mergeMessageMetadata(txn, m, metadata);
+
+		// Look up the metadata along with some unknown IDs
+		List<MessageId> query = new ArrayList<>(ids);
+		for (int i = 0; i < 10; i++) query.add(new MessageId(getRandomId()));
+		Map<MessageId, Metadata> map = db.getMessageMetadata(txn, query);
+		assertEquals(new HashSet<>(ids.subList(1, ids.size())), map.keySet());
+		for (Metadata m : map.values())
+			assertArrayEquals(metadata.get("foo"), m.get("foo"));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testGroupMetadata() throws Exception {
 		Database<Connection> db = open(false);
@@ -1353,6 +1528,9 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertArrayEquals(metadata.get("foo"), map.get(messageId).get("foo"));
 		assertTrue(map.get(messageId).containsKey("baz"));
 		assertArrayEquals(metadata.get("baz"), map.get(messageId).get("baz"));
+		map = db.getMessageMetadata(txn, singletonList(messageId));
+		assertEquals(1, map.size());
+		assertEquals(2, map.get(messageId).size());
 
 		// No metadata for unknown messages
 		db.setMessageState(txn, messageId, UNKNOWN);
@@ -1360,6 +1538,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(retrieved.isEmpty());
 		map = db.getMessageMetadata(txn, groupId);
 		assertTrue(map.isEmpty());
+		map = db.getMessageMetadata(txn, singletonList(messageId));
+		assertTrue(map.isEmpty());
 
 		// No metadata for invalid messages
 		db.setMessageState(txn, messageId, INVALID);
@@ -1367,6 +1547,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(retrieved.isEmpty());
 		map = db.getMessageMetadata(txn, groupId);
 		assertTrue(map.isEmpty());
+		map = db.getMessageMetadata(txn, singletonList(messageId));
+		assertTrue(map.isEmpty());
 
 		// No metadata for pending messages
 		db.setMessageState(txn, messageId, PENDING);
@@ -1374,6 +1556,8 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertTrue(retrieved.isEmpty());
 		map = db.getMessageMetadata(txn, groupId);
 		assertTrue(map.isEmpty());
+		map = db.getMessageMetadata(txn, singletonList(messageId));
+		assertTrue(map.isEmpty());
 
 		// Validator can get metadata for pending messages
 		retrieved = db.getMessageMetadataForValidator(txn, messageId);
@@ -1789,6 +1973,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertNotNull(status);
 		assertEquals(messageId, status.getMessageId());
 		assertEquals(contactId, status.getContactId());
+		assertEquals(message.getTimestamp(), status.getTimestamp());
 		assertFalse(status.isSent());
 		assertFalse(status.isSeen());
 
@@ -1799,6 +1984,7 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		status = statuses.iterator().next();
 		assertEquals(messageId, status.getMessageId());
 		assertEquals(contactId, status.getContactId());
+		assertEquals(message.getTimestamp(), status.getTimestamp());
 		assertFalse(status.isSent());
 		assertFalse(status.isSeen());
 
@@ -2324,6 +2510,173 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testThreadedMessages() throws Exception {
+		Message message1 = getMessage(groupId);
+		Message message2 = getMessage(groupId);
+		Message message3 = getMessage(groupId);
+		Message message4 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		MessageId messageId2 = message2.getId();
+		MessageId messageId3 = message3.getId();
+		MessageId messageId4 = message4.getId();
+		Group group1 = getGroup(clientId, majorVersion);
+		Message message5 = getMessage(group1.getId());
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add two groups and some messages
+		db.addGroup(txn, group);
+		db.addGroup(txn, group1);
+		db.addMessage(txn, message, DELIVERED, false, false, null);
+		db.addMessage(txn, message1, DELIVERED, false, false, null);
+		db.addMessage(txn, message2, DELIVERED, false, false, null);
+		db.addMessage(txn, message3, DELIVERED, false, false, null);
+		db.addMessage(txn, message4, DELIVERED, false, false, null);
+		db.addMessage(txn, message5, DELIVERED, false, false, null);
+
+		// No messages have been added to threads
+		assertTrue(db.getThreadedMessages(txn, groupId, null, 10).isEmpty());
+
+		// A reply can't be added before its parent
+		assertFalse(db.addMessageToThread(txn, messageId2, messageId, "5"));
+
+		// Start two threads, which should be sorted by sort key
+		assertTrue(db.addMessageToThread(txn, messageId, null, "2"));
+		assertTrue(db.addMessageToThread(txn, messageId1, null, "1"));
+		assertThreadedMessages(db, txn, null, 10,
+				messageId1, 0, messageId, 0);
+
+		// Replies should be sorted by sort key, whatever order they're added
+		assertTrue(db.addMessageToThread(txn, messageId2, messageId, "5"));
+		assertTrue(db.addMessageToThread(txn, messageId3, messageId, "3"));
+		assertThreadedMessages(db, txn, null, 10,
+				messageId1, 0, messageId, 0, messageId3, 1, messageId2, 1);
+
+		// A reply to a reply should go at the end of its parent's subtree
+		assertTrue(db.addMessageToThread(txn, messageId4, messageId3, "9"));
+		assertThreadedMessages(db, txn, null, 10, messageId1, 0,
+				messageId, 0, messageId3, 1, messageId4, 2, messageId2, 1);
+
+		// Adding a message again should have no effect
+		assertTrue(db.addMessageToThread(txn, messageId4, null, "0"));
+		assertThreadedMessages(db, txn, null, 10, messageId1, 0,
+				messageId, 0, messageId3, 1, messageId4, 2, messageId2, 1);
+
+		// A reply can't be added to a parent in another group
+		assertFalse(db.addMessageToThread(txn, message5.getId(), messageId,
+				"0"));
+		assertTrue(db.getThreadedMessages(txn, group1.getId(), null, 10)
+				.isEmpty());
+
+		// Get the messages a page at a time
+		assertThreadedMessages(db, txn, null, 2, messageId1, 0, messageId, 0);
+		assertThreadedMessages(db, txn, messageId, 2,
+				messageId3, 1, messageId4, 2);
+		assertThreadedMessages(db, txn, messageId4, 2, messageId2, 1);
+		assertTrue(db.getThreadedMessages(txn, groupId, messageId2, 2)
+				.isEmpty());
+
+		// Removing a message should remove it from its thread
+		db.removeMessage(txn, messageId3);
+		assertThreadedMessages(db, txn, null, 10, messageId1, 0,
+				messageId, 0, messageId4, 2, messageId2, 1);
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	private void assertThreadedMessages(Database<Connection> db,
+			Connection txn, MessageId after, int maxMessages,
+			Object... idsAndDepths) throws Exception {
+		Map<MessageId, Integer> depths =
+				db.getThreadedMessages(txn, groupId, after, maxMessages);
+		assertEquals(idsAndDepths.length / 2, depths.size());
+		int i = 0;
+		for (Entry<MessageId, Integer> e : depths.entrySet()) {
+			assertEquals(idsAndDepths[i++], e.getKey());
+			assertEquals(idsAndDepths[i++], e.getValue());
+		}
+	}
+
+	@Test
+	public void testMessageCounts() throws Exception {
+		// Add enough groups to need more than one bulk query
+		List<Group> groups = new ArrayList<>();
+		List<GroupId> groupIds = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			Group g = getGroup(clientId, majorVersion);
+			groups.add(g);
+			groupIds.add(g.getId());
+		}
+		GroupId groupId1 = groupIds.get(1);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		for (Group g : groups) db.addGroup(txn, g);
+
+		// No counts have been set, so the counts can't be incremented
+		assertTrue(db.getMessageCounts(txn, groupIds).isEmpty());
+		assertFalse(db.incrementMessageCounts(txn, groupId1, 1, 1, 123));
+
+		// Set the counts for every other group
+		for (int i = 0; i < groupIds.size(); i += 2) {
+			db.setMessageCounts(txn, groupIds.get(i),
+					new MessageCounts(i, 0, i));
+		}
+		Map<GroupId, MessageCounts> counts =
+				db.getMessageCounts(txn, groupIds);
+		assertEquals(groupIds.size() / 2, counts.size());
+		for (int i = 0; i < groupIds.size(); i += 2) {
+			MessageCounts c = counts.get(groupIds.get(i));
+			assertEquals(i, c.getMsgCount());
+			assertEquals(0, c.getUnreadCount());
+			assertEquals(i, c.getLatestMsgTime());
+		}
+
+		// Set the counts for a group that didn't have any
+		db.setMessageCounts(txn, groupId1, new MessageCounts(1, 1, 100));
+		assertCounts(1, 1, 100, db, txn, groupId1);
+
+		// Increment the counts - the latest message time should only
+		// move forward
+		assertTrue(db.incrementMessageCounts(txn, groupId1, 1, 1, 200));
+		assertCounts(2, 2, 200, db, txn, groupId1);
+		assertTrue(db.incrementMessageCounts(txn, groupId1, 1, 0, 150));
+		assertCounts(3, 2, 200, db, txn, groupId1);
+		assertTrue(db.incrementMessageCounts(txn, groupId1, 0, -2, 0));
+		assertCounts(3, 0, 200, db, txn, groupId1);
+
+		// The unread count can't become negative
+		assertFalse(db.incrementMessageCounts(txn, groupId1, 0, -1, 0));
+		assertCounts(3, 0, 200, db, txn, groupId1);
+
+		// Overwrite the counts
+		db.setMessageCounts(txn, groupId1, new MessageCounts(0, 0, 300));
+		assertCounts(0, 0, 300, db, txn, groupId1);
+
+		// Removing the group should remove its counts
+		db.removeGroup(txn, groupId1);
+		assertFalse(db.getMessageCounts(txn, singletonList(groupId1))
+				.containsKey(groupId1));
+		assertFalse(db.incrementMessageCounts(txn, groupId1, 1, 1, 123));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	private void assertCounts(int msgCount, int unreadCount,
+			long latestMsgTime, Database<Connection> db, Connection txn,
+			GroupId g) throws Exception {
+		MessageCounts c = db.getMessageCounts(txn, singletonList(g)).get(g);
+		assertNotNull(c);
+		assertEquals(msgCount, c.getMsgCount());
+		assertEquals(unreadCount, c.getUnreadCount());
+		assertEquals(latestMsgTime, c.getLatestMsgTime());
+	}
+
 	@Test
 	public void testSyncVersions() throws Exception {
 		Database<Connection> db = open(false);
@@ -2347,6 +2700,30 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testPreparedStatementsAreReused() throws Exception {
+		JdbcDatabase db = (JdbcDatabase) open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.commitTransaction(txn);
+
+		// The first query prepares a statement, the second reuses it
+		long hits = db.getStatementCacheHits();
+		long misses = db.getStatementCacheMisses();
+		txn = db.startTransaction();
+		assertTrue(db.containsGroup(txn, groupId));
+		db.commitTransaction(txn);
+		assertEquals(misses + 1, db.getStatementCacheMisses());
+		txn = db.startTransaction();
+		assertTrue(db.containsGroup(txn, groupId));
+		assertFalse(db.containsGroup(txn, new GroupId(getRandomId())));
+		db.commitTransaction(txn);
+		assertEquals(hits + 2, db.getStatementCacheHits());
+		assertEquals(misses + 1, db.getStatementCacheMisses());
+
+		db.close();
+	}
+
 	private Database<Connection> open(boolean resume) throws Exception {
 		return open(resume, new TestMessageFactory(), new SystemClock());
 	}
@@ -0,0 +1,273 @@
+package org.briarproject.bramble.lifecycle;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.briarproject.bramble.lifecycle.LifecycleModule.createIoExecutor;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a large number of simulated duplex sessions concurrently on the IO
+ * executor, with and without virtual threads, and reports the number of
+ * platform threads, the heap used while all the sessions are blocked, and
+ * the throughput.
+ * <p/>
+ * Each session connects two peers with a pair of in-memory pipes. Each peer
+ * writes records to one pipe and reads the other peer's records from the
+ * other pipe on separate tasks, as the incoming and outgoing sessions of a
+ * real connection do.
+ */
+@Ignore
+public class IoExecutorStressTest extends BrambleTestCase {
+
+	private static final int SESSIONS = 5000;
+	private static final int RECORDS_PER_PEER = 20;
+	private static final int RECORD_LENGTH = 1024;
+	private static final int PIPE_CAPACITY = 4096;
+	private static final int TASKS_PER_SESSION = 4;
+	private static final int BYTES_PER_MB = 1024 * 1024;
+
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final byte[] record = getRandomBytes(RECORD_LENGTH);
+
+	@Test
+	public void testPlatformThreads() throws Exception {
+		measure("platform threads", createIoExecutor(false));
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		measure("virtual threads", createIoExecutor(true));
+	}
+
+	private void measure(String name, ExecutorService ioExecutor)
+			throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+		int tasks = SESSIONS * TASKS_PER_SESSION;
+		// Each task waits until all the tasks are running
+		CountDownLatch running = new CountDownLatch(tasks);
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(tasks);
+		AtomicInteger errors = new AtomicInteger(0);
+		for (int i = 0; i < SESSIONS; i++) {
+			Pipe aToB = new Pipe(), bToA = new Pipe();
+			ioExecutor.execute(new Writer(aToB.out, running, start, finished,
+					errors));
+			ioExecutor.execute(new Reader(aToB.in, running, start, finished,
+					errors));
+			ioExecutor.execute(new Writer(bToA.out, running, start, finished,
+					errors));
+			ioExecutor.execute(new Reader(bToA.in, running, start, finished,
+					errors));
+		}
+		assertTrue(running.await(5, MINUTES));
+		long heap = getUsedHeap();
+		int peakThreads = threads.getPeakThreadCount();
+		long begin = System.nanoTime();
+		start.countDown();
+		assertTrue(finished.await(5, MINUTES));
+		long duration = System.nanoTime() - begin;
+		// Let the threads exit before the next measurement
+		ioExecutor.shutdown();
+		assertTrue(ioExecutor.awaitTermination(1, MINUTES));
+		assertEquals(0, errors.get());
+		double megabytes = (double) SESSIONS * 2 * RECORDS_PER_PEER
+				* RECORD_LENGTH / BYTES_PER_MB;
+		double throughput = megabytes * 1_000_000_000 / duration;
+		writeResult(String.format("%s\t%s\t%,d sessions\t%,d threads"
+						+ "\t%,d MB heap\t%.1f MB/s", name,
+				System.getProperty("java.version"), SESSIONS, peakThreads,
+				heap / BYTES_PER_MB, throughput));
+	}
+
+	private long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	private abstract static class Task implements Runnable {
+
+		private final CountDownLatch running, start, finished;
+		private final AtomicInteger errors;
+
+		private Task(CountDownLatch running, CountDownLatch start,
+				CountDownLatch finished, AtomicInteger errors) {
+			this.running = running;
+			this.start = start;
+			this.finished = finished;
+			this.errors = errors;
+		}
+
+		abstract void runSession() throws IOException;
+
+		@Override
+		public void run() {
+			try {
+				running.countDown();
+				start.await();
+				runSession();
+			} catch (IOException | InterruptedException e) {
+				errors.incrementAndGet();
+			} finally {
+				finished.countDown();
+			}
+		}
+	}
+
+	private class Writer extends Task {
+
+		private final OutputStream out;
+
+		private Writer(OutputStream out, CountDownLatch running,
+				CountDownLatch start, CountDownLatch finished,
+				AtomicInteger errors) {
+			super(running, start, finished, errors);
+			this.out = out;
+		}
+
+		@Override
+		void runSession() throws IOException {
+			for (int i = 0; i < RECORDS_PER_PEER; i++) out.write(record);
+			out.close();
+		}
+	}
+
+	private static class Reader extends Task {
+
+		private final InputStream in;
+
+		private Reader(InputStream in, CountDownLatch running,
+				CountDownLatch start, CountDownLatch finished,
+				AtomicInteger errors) {
+			super(running, start, finished, errors);
+			this.in = in;
+		}
+
+		@Override
+		void runSession() throws IOException {
+			byte[] buf = new byte[RECORD_LENGTH];
+			long total = 0;
+			int read;
+			while ((read = in.read(buf)) != -1) total += read;
+			if (total != RECORDS_PER_PEER * RECORD_LENGTH)
+				throw new IOException();
+		}
+	}
+
+	/**
+	 * A bounded in-memory pipe. Blocked readers and writers wait on a
+	 * condition rather than a monitor, so virtual threads can unmount while
+	 * they wait.
+	 */
+	private static class Pipe {
+
+		private final Lock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+		private final byte[] buf = new byte[PIPE_CAPACITY];
+
+		private int head = 0, size = 0;
+		private boolean closed = false;
+
+		private final InputStream in = new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				lock.lock();
+				try {
+					while (size == 0) {
+						if (closed) return -1;
+						changed.awaitUninterruptibly();
+					}
+					int n = Math.min(len, Math.min(size, buf.length - head));
+					System.arraycopy(buf, head, b, off, n);
+					head = (head + n) % buf.length;
+					size -= n;
+					changed.signalAll();
+					return n;
+				} finally {
+					lock.unlock();
+				}
+			}
+		};
+
+		private final OutputStream out = new OutputStream() {
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				lock.lock();
+				try {
+					while (len > 0) {
+						while (size == buf.length)
+							changed.awaitUninterruptibly();
+						int tail = (head + size) % buf.length;
+						int n = Math.min(len, Math.min(buf.length - size,
+								buf.length - tail));
+						System.arraycopy(b, off, buf, tail, n);
+						size += n;
+						off += n;
+						len -= n;
+						changed.signalAll();
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+
+			@Override
+			public void close() {
+				lock.lock();
+				try {
+					closed = true;
+					changed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,49 @@
+package org.briarproject.bramble.lifecycle;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.lifecycle.LifecycleModule.createIoExecutor;
+import static org.junit.Assert.assertTrue;
+
+public class LifecycleModuleTest extends BrambleTestCase {
+
+	@Test
+	public void testIoExecutorWithPlatformThreads() throws Exception {
+		testIoExecutor(createIoExecutor(false));
+	}
+
+	@Test
+	public void testIoExecutorWithVirtualThreadsIfSupported()
+			throws Exception {
+		// Falls back to platform threads if virtual threads aren't supported
+		testIoExecutor(createIoExecutor(true));
+	}
+
+	private void testIoExecutor(ExecutorService ioExecutor) throws Exception {
+		// Tasks should run concurrently, however many are blocked
+		int tasks = 100;
+		CountDownLatch running = new CountDownLatch(tasks);
+		CountDownLatch finished = new CountDownLatch(tasks);
+		for (int i = 0; i < tasks; i++) {
+			ioExecutor.execute(() -> {
+				running.countDown();
+				try {
+					running.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				finished.countDown();
+			});
+		}
+		assertTrue(finished.await(10, SECONDS));
+		// Tasks submitted during shutdown should be discarded
+		ioExecutor.shutdownNow();
+		ioExecutor.execute(() -> {
+		});
+	}
+}
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.plugin.tcp;
 
+import org.briarproject.bramble.api.Pair;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.keyagreement.KeyAgreementListener;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -15,6 +16,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -24,10 +27,14 @@ import java.net.Socket;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.net.NetworkInterface.getNetworkInterfaces;
 import static java.util.Collections.list;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.briarproject.bramble.api.keyagreement.KeyAgreementConstants.COMMIT_LENGTH;
 import static org.briarproject.bramble.api.keyagreement.KeyAgreementConstants.TRANSPORT_ID_LAN;
@@ -49,7 +56,12 @@ public class LanTcpPluginTest extends BrambleTestCase {
 	@Before
 	public void setUp() {
 		callback = new Callback();
-		plugin = new LanTcpPlugin(ioExecutor, backoff, callback, 0, 0, 1000) {
+		plugin = createPlugin(false);
+	}
+
+	private LanTcpPlugin createPlugin(boolean useSelector) {
+		return new LanTcpPlugin(ioExecutor, backoff, callback, 0, 0, 1000,
+				useSelector) {
 			@Override
 			protected boolean canConnectToOwnAddress() {
 				return true;
@@ -194,6 +206,120 @@ public class LanTcpPluginTest extends BrambleTestCase {
 		plugin.stop();
 	}
 
+	@Test
+	public void testIncomingConnectionWithSelector() throws Exception {
+		assumeTrue(systemHasLocalIpv4Address());
+		plugin = createPlugin(true);
+		plugin.start();
+		// The plugin should have bound a socket and stored the port number
+		assertTrue(callback.propertiesLatch.await(5, SECONDS));
+		String ipPorts = callback.local.get("ipPorts");
+		assertNotNull(ipPorts);
+		String[] split = ipPorts.split(":");
+		assertEquals(2, split.length);
+		InetSocketAddress socketAddr = new InetSocketAddress(split[0],
+				Integer.parseInt(split[1]));
+		// The plugin should be listening on the port
+		Socket s = new Socket();
+		s.connect(socketAddr, 100);
+		// The connection should not be handled until it sends data
+		assertFalse(callback.connectionsLatch.await(500, MILLISECONDS));
+		s.getOutputStream().write(123);
+		assertTrue(callback.connectionsLatch.await(5, SECONDS));
+		s.close();
+		// Stop the plugin
+		plugin.stop();
+	}
+
+	@Test
+	public void testOutgoingConnectionWithSelector() throws Exception {
+		assumeTrue(systemHasLocalIpv4Address());
+		plugin = createPlugin(true);
+		plugin.start();
+		// The plugin should have bound a socket and stored the port number
+		assertTrue(callback.propertiesLatch.await(5, SECONDS));
+		String ipPorts = callback.local.get("ipPorts");
+		assertNotNull(ipPorts);
+		String addrString = ipPorts.split(":")[0];
+		// Listen on the same interface as the plugin
+		ServerSocket ss = new ServerSocket();
+		ss.bind(new InetSocketAddress(addrString, 0), 10);
+		int port = ss.getLocalPort();
+		// Poll a contact with an unreachable address and the listening
+		// address, which should be tried in turn
+		TransportProperties p = new TransportProperties();
+		p.put("ipPorts", addrString + ":1," + addrString + ":" + port);
+		Callback handler = new Callback();
+		plugin.poll(singletonList(new Pair<>(p, handler)));
+		// Check that the connection was accepted and handled
+		Socket s = ss.accept();
+		assertTrue(handler.connectionsLatch.await(5, SECONDS));
+		// Clean up
+		s.close();
+		ss.close();
+		plugin.stop();
+	}
+
+	@Test
+	public void testWritingWhileReadIsPendingWithSelector() throws Exception {
+		assumeTrue(systemHasLocalIpv4Address());
+		plugin = createPlugin(true);
+		plugin.start();
+		// The plugin should have bound a socket and stored the port number
+		assertTrue(callback.propertiesLatch.await(5, SECONDS));
+		String ipPorts = callback.local.get("ipPorts");
+		assertNotNull(ipPorts);
+		String[] split = ipPorts.split(":");
+		assertEquals(2, split.length);
+		InetSocketAddress socketAddr = new InetSocketAddress(split[0],
+				Integer.parseInt(split[1]));
+		// Connect to the plugin and send some data
+		Socket s = new Socket();
+		s.connect(socketAddr, 100);
+		s.getOutputStream().write(123);
+		assertTrue(callback.connectionsLatch.await(5, SECONDS));
+		DuplexTransportConnection d = callback.connection.get();
+		assertNotNull(d);
+		InputStream in = d.getReader().getInputStream();
+		assertEquals(123, in.read());
+		// Start a read that waits for more data
+		AtomicInteger read = new AtomicInteger(-2);
+		Thread reader = new Thread(() -> {
+			try {
+				read.set(in.read());
+			} catch (IOException e) {
+				read.set(-3);
+			}
+		});
+		reader.start();
+		Thread.sleep(100);
+		// Writing should not wait for the read to finish
+		OutputStream out = d.getWriter().getOutputStream();
+		CountDownLatch written = new CountDownLatch(1);
+		new Thread(() -> {
+			try {
+				out.write(45);
+				out.flush();
+				written.countDown();
+			} catch (IOException e) {
+				// The latch won't be counted down
+			}
+		}).start();
+		assertTrue(written.await(5, SECONDS));
+		s.setSoTimeout(5000);
+		assertEquals(45, s.getInputStream().read());
+		// The read should still be pending until more data is sent
+		assertEquals(-2, read.get());
+		s.getOutputStream().write(67);
+		reader.join(5000);
+		assertEquals(67, read.get());
+		// Clean up
+		d.getReader().dispose(false, true);
+		d.getWriter().dispose(false);
+		s.close();
+		plugin.stop();
+	}
+
 	@Test
 	public void testIncomingKeyAgreementConnection() throws Exception {
 		assumeTrue(systemHasLocalIpv4Address());
@@ -302,6 +428,8 @@ public class LanTcpPluginTest extends BrambleTestCase {
 		private final CountDownLatch propertiesLatch = new CountDownLatch(2);
 		private final CountDownLatch connectionsLatch = new CountDownLatch(1);
 		private final TransportProperties local = new TransportProperties();
+		private final AtomicReference<DuplexTransportConnection> connection =
+				new AtomicReference<>();
 
 		@Override
 		public Settings getSettings() {
@@ -333,6 +461,7 @@ public class LanTcpPluginTest extends BrambleTestCase {
 
 		@Override
 		public void handleConnection(DuplexTransportConnection d) {
+			connection.set(d);
 			connectionsLatch.countDown();
 		}
 
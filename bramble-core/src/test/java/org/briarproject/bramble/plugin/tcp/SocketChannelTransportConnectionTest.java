@@ -0,0 +1,166 @@
+package org.briarproject.bramble.plugin.tcp;
+
+import org.briarproject.bramble.api.plugin.Plugin;
+import org.briarproject.bramble.api.plugin.duplex.DuplexTransportConnection;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SocketChannelTransportConnectionTest extends BrambleMockTestCase {
+
+	private final Plugin plugin = context.mock(Plugin.class);
+	private final ExecutorService ioExecutor = newCachedThreadPool();
+	private final TcpSelector selector = new TcpSelector(ioExecutor);
+
+	private ServerSocket server;
+	private SocketChannel channel;
+	private Socket remote;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		channel = SocketChannel.open(server.getLocalSocketAddress());
+		remote = server.accept();
+		selector.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		selector.stop();
+		ioExecutor.shutdownNow();
+		channel.close();
+		remote.close();
+		server.close();
+	}
+
+	@Test
+	public void testWritingWhileReadIsPending() throws Exception {
+		DuplexTransportConnection d =
+				new SocketChannelTransportConnection(plugin, channel, 0);
+		InputStream in = d.getReader().getInputStream();
+		OutputStream out = d.getWriter().getOutputStream();
+		// Start a read that waits for data
+		CountDownLatch reading = new CountDownLatch(1);
+		AtomicInteger read = new AtomicInteger(-2);
+		Thread reader = new Thread(() -> {
+			reading.countDown();
+			try {
+				read.set(in.read());
+			} catch (Exception e) {
+				read.set(-3);
+			}
+		});
+		reader.start();
+		assertTrue(reading.await(5, SECONDS));
+		Thread.sleep(100);
+		// Writing should not wait for the read to finish
+		byte[] data = new byte[256 * 1024];
+		Thread writer = new Thread(() -> {
+			try {
+				out.write(data);
+				out.flush();
+			} catch (Exception e) {
+				fail();
+			}
+		});
+		writer.start();
+		InputStream remoteIn = remote.getInputStream();
+		int received = 0;
+		while (received < data.length) {
+			int n = remoteIn.read(new byte[4096]);
+			assertTrue(n > 0);
+			received += n;
+		}
+		writer.join(5000);
+		// The read should still be pending until the remote end writes
+		assertEquals(-2, read.get());
+		remote.getOutputStream().write(123);
+		reader.join(5000);
+		assertEquals(123, read.get());
+		d.getReader().dispose(false, true);
+		d.getWriter().dispose(false);
+		// The remote end should see the connection being closed
+		remote.setSoTimeout(5000);
+		assertEquals(-1, remoteIn.read());
+	}
+
+	@Test
+	public void testReadTimesOut() throws Exception {
+		SocketChannelTransportConnection d =
+				new SocketChannelTransportConnection(plugin, channel, 100);
+		selector.watch(d);
+		InputStream in = d.getReader().getInputStream();
+		try {
+			in.read();
+			fail();
+		} catch (SocketTimeoutException expected) {
+			// Expected
+		}
+		assertFalse(channel.isOpen());
+		d.getReader().dispose(true, true);
+	}
+
+	@Test
+	public void testConnectionIsNotClosedWhileNotReading() throws Exception {
+		SocketChannelTransportConnection d =
+				new SocketChannelTransportConnection(plugin, channel, 100);
+		selector.watch(d);
+		// The timeout should only apply while a read is waiting for data
+		Thread.sleep(500);
+		assertTrue(channel.isOpen());
+		remote.getOutputStream().write(123);
+		assertEquals(123, d.getReader().getInputStream().read());
+		d.getReader().dispose(false, true);
+		d.getWriter().dispose(false);
+	}
+
+	@Test
+	public void testWatchedConnectionIsClosedWhenSelectorStops()
+			throws Exception {
+		SocketChannelTransportConnection d =
+				new SocketChannelTransportConnection(plugin, channel, 100);
+		selector.watch(d);
+		selector.stop();
+		// The remote end should see the connection being closed
+		remote.setSoTimeout(5000);
+		assertEquals(-1, remote.getInputStream().read());
+		assertFalse(channel.isOpen());
+	}
+
+	@Test
+	public void testEndOfStreamIsReturned() throws Exception {
+		DuplexTransportConnection d =
+				new SocketChannelTransportConnection(plugin, channel, 0);
+		InputStream in = d.getReader().getInputStream();
+		remote.getOutputStream().write(new byte[] {1, 2, 3});
+		remote.shutdownOutput();
+		byte[] b = new byte[10];
+		int read = 0, n;
+		while ((n = in.read(b, read, b.length - read)) != -1) read += n;
+		assertEquals(3, read);
+		assertEquals(3, b[2]);
+		d.getReader().dispose(false, true);
+		d.getWriter().dispose(false);
+	}
+}
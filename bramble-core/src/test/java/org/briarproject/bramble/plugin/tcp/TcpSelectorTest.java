@@ -0,0 +1,141 @@
+package org.briarproject.bramble.plugin.tcp;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TcpSelectorTest extends BrambleTestCase {
+
+	private final ExecutorService ioExecutor = newCachedThreadPool();
+	private final TcpSelector selector = new TcpSelector(ioExecutor);
+	private final Callback callback = new Callback();
+
+	private ServerSocketChannel server;
+	private InetSocketAddress serverAddress;
+
+	@Before
+	public void setUp() throws Exception {
+		selector.start();
+		server = ServerSocketChannel.open();
+		server.socket().bind(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		serverAddress = (InetSocketAddress) server.socket()
+				.getLocalSocketAddress();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		selector.stop();
+		server.close();
+		ioExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testIncomingConnectionIsPassedOnWhenReadable()
+			throws Exception {
+		selector.listen(server, 0, callback);
+		Socket s = new Socket();
+		s.connect(serverAddress, 1000);
+		// The connection should not be passed on until it has data to read
+		assertFalse(callback.connected.await(500, MILLISECONDS));
+		s.getOutputStream().write(123);
+		assertTrue(callback.connected.await(5, SECONDS));
+		SocketChannel channel = callback.channel.get();
+		assertNotNull(channel);
+		assertTrue(channel.isBlocking());
+		// The data should not have been consumed
+		ByteBuffer buf = ByteBuffer.allocate(2);
+		assertEquals(1, channel.read(buf));
+		assertEquals(123, buf.get(0));
+		channel.close();
+		s.close();
+	}
+
+	@Test
+	public void testIncomingConnectionIsClosedIfNotReadable()
+			throws Exception {
+		selector.listen(server, 100, callback);
+		Socket s = new Socket();
+		s.connect(serverAddress, 1000);
+		assertTrue(callback.failed.await(5, SECONDS));
+		assertEquals(1, callback.connected.getCount());
+		// The connection should have been closed
+		s.setSoTimeout(5000);
+		assertEquals(-1, s.getInputStream().read());
+		s.close();
+	}
+
+	@Test
+	public void testOutgoingConnection() throws Exception {
+		ServerSocket ss = server.socket();
+		selector.connect(SocketChannel.open(), serverAddress, 1000, callback);
+		assertTrue(callback.connected.await(5, SECONDS));
+		SocketChannel channel = callback.channel.get();
+		assertNotNull(channel);
+		assertTrue(channel.isBlocking());
+		assertTrue(channel.isConnected());
+		Socket s = ss.accept();
+		assertEquals(1, channel.write(ByteBuffer.wrap(new byte[] {123})));
+		assertEquals(123, s.getInputStream().read());
+		channel.close();
+		s.close();
+	}
+
+	@Test
+	public void testOutgoingConnectionFailsIfNotAccepted() throws Exception {
+		// Nothing is listening on the port after the socket is closed
+		server.close();
+		selector.connect(SocketChannel.open(), serverAddress, 1000, callback);
+		assertTrue(callback.failed.await(5, SECONDS));
+		assertEquals(1, callback.connected.getCount());
+	}
+
+	@Test
+	public void testConnectionFailsIfSelectorIsStopped() throws Exception {
+		selector.stop();
+		selector.connect(SocketChannel.open(), serverAddress, 1000, callback);
+		assertTrue(callback.failed.await(5, SECONDS));
+		assertEquals(1, callback.connected.getCount());
+	}
+
+	@NotNullByDefault
+	private static class Callback implements TcpSelector.Callback {
+
+		private final CountDownLatch connected = new CountDownLatch(1);
+		private final CountDownLatch failed = new CountDownLatch(1);
+		private final AtomicReference<SocketChannel> channel =
+				new AtomicReference<>();
+
+		@Override
+		public void connected(SocketChannel c) {
+			channel.set(c);
+			connected.countDown();
+		}
+
+		@Override
+		public void failed() {
+			failed.countDown();
+		}
+	}
+}
@@ -11,6 +11,7 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.InputStream;
 
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.record.Record.RECORD_HEADER_BYTES;
@@ -18,7 +19,9 @@ import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 public class RecordReaderImplTest extends BrambleTestCase {
@@ -210,4 +213,52 @@ public class RecordReaderImplTest extends BrambleTestCase {
 		// The reader should have reached the end of the stream
 		assertNull(reader.readRecord(accept, ignore));
 	}
+
+	@Test
+	public void testRecordsAreViewsOfReusedBuffer() throws Exception {
+		byte[] payload1 = getRandomBytes(123);
+		byte[] payload2 = getRandomBytes(123);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {0, 0, 0, 123});
+		out.write(payload1);
+		out.write(new byte[] {0, 1, 0, 123});
+		out.write(payload2);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		RecordReader reader = new RecordReaderImpl(in);
+
+		Record r1 = reader.readRecord();
+		assertEquals(123, r1.getPayloadLength());
+		byte[] copy = r1.getPayload();
+		assertArrayEquals(payload1, copy);
+		// The payload should be copied out of the buffer
+		assertNotSame(r1.getPayloadBuffer(), copy);
+
+		// The second record should reuse the buffer
+		Record r2 = reader.readRecord();
+		assertSame(r1.getPayloadBuffer(), r2.getPayloadBuffer());
+		assertArrayEquals(payload2, r2.getPayload());
+		// The copy of the first payload should not have been affected
+		assertArrayEquals(payload1, copy);
+	}
+
+	@Test
+	public void testReadsRecordsFromStreamThatReturnsOneByteAtATime()
+			throws Exception {
+		byte[] payload = getRandomBytes(123);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {0, 0, 0, 123});
+		out.write(payload);
+		InputStream in = new ByteArrayInputStream(out.toByteArray()) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+		RecordReader reader = new RecordReaderImpl(in);
+
+		Record r = reader.readRecord(rec -> true, rec -> false);
+		assertNotNull(r);
+		assertArrayEquals(payload, r.getPayload());
+		assertNull(reader.readRecord(rec -> true, rec -> false));
+	}
 }
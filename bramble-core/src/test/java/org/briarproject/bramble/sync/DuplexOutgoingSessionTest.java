@@ -0,0 +1,200 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.bramble.test.SettableClock;
+import org.hamcrest.Description;
+import org.jmock.Sequence;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+
+public class DuplexOutgoingSessionTest extends BrambleMockTestCase {
+
+	private static final int MAX_LATENCY = Integer.MAX_VALUE;
+	private static final int MAX_IDLE_TIME = 30_000;
+	private static final int MAX_RECORDS_IN_FLIGHT = 2;
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
+	private final SyncRecordWriter recordWriter =
+			context.mock(SyncRecordWriter.class);
+
+	private final Executor dbExecutor = new ImmediateExecutor();
+	private final Clock clock = new SettableClock(new AtomicLong(1000));
+	private final ContactId contactId = getContactId();
+	private final Message message = getMessage(new GroupId(getRandomId()));
+	private final MessageId messageId = message.getId();
+
+	private final DuplexOutgoingSession session = new DuplexOutgoingSession(
+			db, dbExecutor, eventBus, clock, contactId, MAX_LATENCY,
+			MAX_IDLE_TIME, MAX_RECORDS_IN_FLIGHT, streamWriter, recordWriter);
+
+	@Test
+	public void testAckIsGeneratedBeforePreviousAckIsWritten()
+			throws Exception {
+		Ack ack = new Ack(singletonList(messageId));
+		Ack ack1 = new Ack(singletonList(new MessageId(getRandomId())));
+		Transaction ackTxn = new Transaction(null, false);
+		Transaction ackTxn1 = new Transaction(null, false);
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction noRequestTxn = new Transaction(null, false);
+		Transaction noMsgTxn = new Transaction(null, false);
+		Sequence sequence = context.sequence("sequence");
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			// Two acks are generated before either is written
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(ackTxn));
+			oneOf(db).generateAck(ackTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(ack));
+			inSequence(sequence);
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(ackTxn1));
+			oneOf(db).generateAck(ackTxn1, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(ack1));
+			inSequence(sequence);
+			// No messages or offers to send
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(noMsgTxn));
+			oneOf(db).generateRequestedBatch(with(noMsgTxn), with(contactId),
+					with(any(int.class)), with(MAX_LATENCY));
+			will(returnValue(null));
+			oneOf(db).generateOffer(noMsgTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY);
+			will(returnValue(null));
+			oneOf(db).getNextSendTime(noMsgTxn, contactId);
+			will(returnValue(Long.MAX_VALUE));
+			// No requests to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noRequestTxn));
+			oneOf(db).generateRequest(noRequestTxn, contactId,
+					MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// Write the acks, checking for another ack after each one
+			oneOf(recordWriter).writeAck(ack);
+			inSequence(sequence);
+			oneOf(recordWriter).writeAck(ack1);
+			inSequence(sequence);
+			exactly(2).of(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			exactly(2).of(db).generateAck(noAckTxn, contactId,
+					MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// Flush the stream when there's nothing more to write
+			oneOf(recordWriter).flush();
+			will(new InterruptAction());
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+	}
+
+	@Test
+	public void testBatchAndOfferAreGeneratedInOneTransaction()
+			throws Exception {
+		Offer offer = new Offer(singletonList(new MessageId(getRandomId())));
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction msgTxn = new Transaction(null, false);
+		Transaction noMsgTxn = new Transaction(null, false);
+		Transaction noRequestTxn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			// No acks to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// Generate a batch and an offer in one transaction
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(msgTxn));
+			oneOf(db).generateRequestedBatch(with(msgTxn), with(contactId),
+					with(any(int.class)), with(MAX_LATENCY));
+			will(returnValue(singletonList(message)));
+			oneOf(db).generateOffer(msgTxn, contactId, MAX_MESSAGE_IDS,
+					MAX_LATENCY);
+			will(returnValue(offer));
+			oneOf(db).getNextSendTime(msgTxn, contactId);
+			will(returnValue(Long.MAX_VALUE));
+			// Check for another batch and another offer before and after
+			// writing each record
+			exactly(4).of(db).transactionWithResult(with(false),
+					withDbCallable(noMsgTxn));
+			exactly(2).of(db).generateRequestedBatch(with(noMsgTxn),
+					with(contactId), with(any(int.class)), with(MAX_LATENCY));
+			will(returnValue(null));
+			exactly(2).of(db).generateOffer(noMsgTxn, contactId,
+					MAX_MESSAGE_IDS, MAX_LATENCY);
+			will(returnValue(null));
+			exactly(4).of(db).getNextSendTime(noMsgTxn, contactId);
+			will(returnValue(Long.MAX_VALUE));
+			// No requests to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noRequestTxn));
+			oneOf(db).generateRequest(noRequestTxn, contactId,
+					MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// Write the batch and the offer
+			oneOf(recordWriter).writeMessage(message);
+			oneOf(recordWriter).writeOffer(offer);
+			// Flush the stream when there's nothing more to write
+			oneOf(recordWriter).flush();
+			will(new InterruptAction());
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+	}
+
+	private class InterruptAction implements Action {
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			session.interrupt();
+			return null;
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendText("interrupts the session");
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.sync.GroupCommitter.PendingRecord;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.sync.GroupCommitter.MAX_BATCH_BYTES;
+import static org.briarproject.bramble.sync.GroupCommitter.MAX_BATCH_LATENCY_MS;
+import static org.briarproject.bramble.sync.GroupCommitter.MAX_BATCH_RECORDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final ScheduledExecutorService scheduler =
+			context.mock(ScheduledExecutorService.class);
+
+	private final Executor dbExecutor = new ImmediateExecutor();
+	private final GroupCommitter groupCommitter =
+			new GroupCommitter(db, dbExecutor, scheduler);
+	private final List<Integer> applied = new ArrayList<>();
+
+	@Test
+	public void testRecordsAreCommittedTogetherAfterTimeout()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		AtomicReference<Runnable> timeout = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(MAX_BATCH_LATENCY_MS), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(timeout, Runnable.class, 0));
+		}});
+
+		groupCommitter.submit(record(1), 1, noFailure());
+		groupCommitter.submit(record(2), 1, noFailure());
+		groupCommitter.submit(record(3), 1, noFailure());
+		assertTrue(applied.isEmpty());
+		context.assertIsSatisfied();
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+		}});
+
+		timeout.get().run();
+		assertEquals(asList(1, 2, 3), applied);
+	}
+
+	@Test
+	public void testFullBatchIsCommittedWithoutWaiting() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		AtomicReference<Runnable> timeout = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(MAX_BATCH_LATENCY_MS), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(timeout, Runnable.class, 0));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+		}});
+
+		for (int i = 0; i < MAX_BATCH_RECORDS; i++)
+			groupCommitter.submit(record(i), 1, noFailure());
+		assertEquals(MAX_BATCH_RECORDS, applied.size());
+
+		// The timeout should not commit anything
+		timeout.get().run();
+		assertEquals(MAX_BATCH_RECORDS, applied.size());
+	}
+
+	@Test
+	public void testBatchIsBoundedByLength() throws Exception {
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(MAX_BATCH_LATENCY_MS), with(MILLISECONDS));
+			// The first record is committed on its own, the second record
+			// starts a new batch that is full as soon as it's submitted
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+		}});
+
+		groupCommitter.submit(record(1), 1, noFailure());
+		groupCommitter.submit(record(2), MAX_BATCH_BYTES, noFailure());
+		assertEquals(asList(1, 2), applied);
+	}
+
+	@Test
+	public void testGrownRecordCountsTowardsLength() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		AtomicReference<Runnable> timeout = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(MAX_BATCH_LATENCY_MS), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(timeout, Runnable.class, 0));
+		}});
+
+		PendingRecord record =
+				groupCommitter.submit(record(1), 1, noFailure());
+		assertTrue(groupCommitter.grow(record, MAX_BATCH_BYTES / 2));
+		assertTrue(applied.isEmpty());
+		context.assertIsSatisfied();
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+		}});
+
+		// Growing the record fills the batch, so it's committed at once
+		assertTrue(groupCommitter.grow(record, MAX_BATCH_BYTES / 2));
+		assertEquals(asList(1), applied);
+
+		// The record has been taken for committing, so it can't grow
+		assertFalse(groupCommitter.grow(record, 1));
+
+		// The timeout should not commit anything
+		timeout.get().run();
+		assertEquals(asList(1), applied);
+	}
+
+	@Test
+	public void testFailedBatchIsRetriedOneRecordAtATime() throws Exception {
+		Transaction batchTxn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+		Transaction txn3 = new Transaction(null, false);
+		AtomicReference<Runnable> timeout = new AtomicReference<>();
+		AtomicBoolean failed = new AtomicBoolean(false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(MAX_BATCH_LATENCY_MS), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(timeout, Runnable.class, 0));
+		}});
+
+		groupCommitter.submit(record(1), 1, noFailure());
+		groupCommitter.submit(txn -> {
+			throw new DbException();
+		}, 1, () -> failed.set(true));
+		groupCommitter.submit(record(3), 1, noFailure());
+		context.assertIsSatisfied();
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(batchTxn));
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).transaction(with(false), withDbRunnable(txn3));
+		}});
+
+		timeout.get().run();
+		// The first record was applied by the aborted batch and again by
+		// its own transaction
+		assertEquals(asList(1, 1, 3), applied);
+		assertTrue(failed.get());
+	}
+
+	@Test
+	public void testNewBatchIsStartedAfterCommit() throws Exception {
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+		AtomicReference<Runnable> timeout = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			exactly(2).of(scheduler).schedule(with(any(Runnable.class)),
+					with(MAX_BATCH_LATENCY_MS), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(timeout, Runnable.class, 0));
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+		}});
+
+		groupCommitter.submit(record(1), 1, noFailure());
+		timeout.get().run();
+		assertEquals(asList(1), applied);
+
+		groupCommitter.submit(record(2), 1, noFailure());
+		timeout.get().run();
+		assertEquals(asList(1, 2), applied);
+	}
+
+	private DbRunnable<DbException> record(int i) {
+		return txn -> applied.add(i);
+	}
+
+	private Runnable noFailure() {
+		return () -> fail();
+	}
+}
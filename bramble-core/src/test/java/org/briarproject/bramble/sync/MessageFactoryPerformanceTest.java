@@ -0,0 +1,97 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.BrambleCoreEagerSingletons;
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the throughput of {@link MessageFactoryImpl#createMessage(byte[])}
+ * on a single thread, in messages per second, for a range of body lengths.
+ */
+@Ignore
+public class MessageFactoryPerformanceTest extends BrambleTestCase {
+
+	private static final int MESSAGES_PER_ITERATION = 10_000;
+	private static final int WARMUP_ITERATIONS = 10;
+	private static final int ITERATIONS = 50;
+
+	@Inject
+	MessageFactory messageFactory;
+
+	public MessageFactoryPerformanceTest() {
+		SyncIntegrationTestComponent component =
+				DaggerSyncIntegrationTestComponent.builder().build();
+		BrambleCoreEagerSingletons.Helper.injectEagerSingletons(component);
+		component.inject(this);
+	}
+
+	@Test
+	public void testShortMessages() throws Exception {
+		measure(100);
+	}
+
+	@Test
+	public void testMediumMessages() throws Exception {
+		measure(1000);
+	}
+
+	@Test
+	public void testLongMessages() throws Exception {
+		measure(10_000);
+	}
+
+	private void measure(int bodyLength) throws IOException {
+		byte[] raw = getRandomBytes(MESSAGE_HEADER_LENGTH + bodyLength);
+		writeUint64(System.currentTimeMillis(), raw, UniqueId.LENGTH);
+		List<Double> results = new ArrayList<>(ITERATIONS);
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < MESSAGES_PER_ITERATION; j++) {
+				Message m = messageFactory.createMessage(raw);
+				assertEquals(MESSAGE_HEADER_LENGTH + bodyLength,
+						m.getRawLength());
+			}
+			long duration = System.nanoTime() - start;
+			if (i >= WARMUP_ITERATIONS) {
+				results.add((double) MESSAGES_PER_ITERATION * 1_000_000_000
+						/ duration);
+			}
+		}
+		writeResult(bodyLength + " bytes", results);
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> results)
+			throws IOException {
+		String result = String.format("%s\t%.0f\t%.0f", name,
+				getMean(results), getMedian(results));
+		System.out.println(result);
+		PrintWriter out = new PrintWriter(new FileOutputStream(
+				getTestName() + ".tsv", true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
@@ -16,4 +16,8 @@ import dagger.Component;
 interface SyncIntegrationTestComponent extends BrambleCoreEagerSingletons {
 
 	void inject(SyncIntegrationTest testCase);
+
+	void inject(MessageFactoryPerformanceTest testCase);
+
+	void inject(SyncRecordReaderPerformanceTest testCase);
 }
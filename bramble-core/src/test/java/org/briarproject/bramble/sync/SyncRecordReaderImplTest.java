@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
@@ -17,10 +18,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
@@ -119,6 +122,25 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		reader.readVersions();
 	}
 
+	@Test
+	public void testAckIsReadFromRecordThatIsViewOfBuffer() throws Exception {
+		MessageId id1 = new MessageId(getRandomId());
+		MessageId id2 = new MessageId(getRandomId());
+		// The IDs are in the middle of a larger buffer
+		byte[] buffer = new byte[UniqueId.LENGTH * 4];
+		System.arraycopy(id1.getBytes(), 0, buffer, UniqueId.LENGTH,
+				UniqueId.LENGTH);
+		System.arraycopy(id2.getBytes(), 0, buffer, UniqueId.LENGTH * 2,
+				UniqueId.LENGTH);
+		expectReadRecord(new Record(PROTOCOL_VERSION, ACK, buffer,
+				UniqueId.LENGTH, UniqueId.LENGTH * 2));
+
+		Ack ack = reader.readAck();
+		// Reusing the buffer should not affect the ack
+		Arrays.fill(buffer, (byte) 0);
+		assertEquals(asList(id1, id2), ack.getMessageIds());
+	}
+
 	@Test
 	public void testEofReturnsTrueWhenAtEndOfStream() throws Exception {
 		expectReadRecord(createAck());
@@ -0,0 +1,141 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.BrambleCoreEagerSingletons;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Offer;
+import org.briarproject.bramble.api.sync.SyncRecordReader;
+import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the number of bytes allocated per record, and the number of
+ * records read per second, when reading a stream of acks and offers with
+ * {@link SyncRecordReaderImpl} on a single thread.
+ */
+@Ignore
+public class SyncRecordReaderPerformanceTest extends BrambleTestCase {
+
+	private static final int RECORDS_PER_STREAM = 10_000;
+	private static final int WARMUP_ITERATIONS = 10;
+	private static final int ITERATIONS = 50;
+
+	@Inject
+	SyncRecordReaderFactory recordReaderFactory;
+	@Inject
+	SyncRecordWriterFactory recordWriterFactory;
+
+	private final com.sun.management.ThreadMXBean threadBean =
+			(com.sun.management.ThreadMXBean)
+					ManagementFactory.getThreadMXBean();
+
+	public SyncRecordReaderPerformanceTest() {
+		SyncIntegrationTestComponent component =
+				DaggerSyncIntegrationTestComponent.builder().build();
+		BrambleCoreEagerSingletons.Helper.injectEagerSingletons(component);
+		component.inject(this);
+	}
+
+	@Test
+	public void testSmallAcksAndOffers() throws Exception {
+		measure(1);
+	}
+
+	@Test
+	public void testMediumAcksAndOffers() throws Exception {
+		measure(10);
+	}
+
+	@Test
+	public void testLargeAcksAndOffers() throws Exception {
+		measure(100);
+	}
+
+	private void measure(int idsPerRecord) throws IOException {
+		byte[] stream = createStream(idsPerRecord);
+		long threadId = Thread.currentThread().getId();
+		List<Double> allocated = new ArrayList<>(ITERATIONS);
+		List<Double> rate = new ArrayList<>(ITERATIONS);
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			SyncRecordReader reader = recordReaderFactory.createRecordReader(
+					new ByteArrayInputStream(stream));
+			int ids = 0;
+			while (!reader.eof()) {
+				Collection<MessageId> read;
+				if (reader.hasAck()) {
+					read = reader.readAck().getMessageIds();
+				} else {
+					assertTrue(reader.hasOffer());
+					read = reader.readOffer().getMessageIds();
+				}
+				// Visit each ID, as the database does
+				for (MessageId m : read) if (m.getBytes().length > 0) ids++;
+			}
+			long duration = System.nanoTime() - start;
+			long bytes = threadBean.getThreadAllocatedBytes(threadId)
+					- startBytes;
+			assertEquals(RECORDS_PER_STREAM * idsPerRecord, ids);
+			if (i >= WARMUP_ITERATIONS) {
+				allocated.add((double) bytes / RECORDS_PER_STREAM);
+				rate.add((double) RECORDS_PER_STREAM * 1_000_000_000
+						/ duration);
+			}
+		}
+		writeResult(idsPerRecord + " IDs\tbytes per record", allocated);
+		writeResult(idsPerRecord + " IDs\trecords per second", rate);
+	}
+
+	private byte[] createStream(int idsPerRecord) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SyncRecordWriter writer = recordWriterFactory.createRecordWriter(out);
+		for (int i = 0; i < RECORDS_PER_STREAM; i++) {
+			List<MessageId> ids = new ArrayList<>(idsPerRecord);
+			for (int j = 0; j < idsPerRecord; j++)
+				ids.add(new MessageId(getRandomId()));
+			if (i % 2 == 0) writer.writeAck(new Ack(ids));
+			else writer.writeOffer(new Offer(ids));
+		}
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> results)
+			throws IOException {
+		String result = String.format("%s\t%.0f\t%.0f", name,
+				getMean(results), getMedian(results));
+		System.out.println(result);
+		PrintWriter out = new PrintWriter(new FileOutputStream(
+				getTestName() + ".tsv", true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
@@ -1,9 +1,13 @@
 package org.briarproject.bramble.sync.validation;
 
+import org.briarproject.bramble.KeyedExecutor;
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
+import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.sync.ClientId;
@@ -17,6 +21,7 @@ import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
 import org.briarproject.bramble.api.sync.validation.IncomingMessageHook;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.sync.validation.MessageValidator;
+import org.briarproject.bramble.crypto.SignatureBatcher;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.ImmediateExecutor;
@@ -24,7 +29,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 
 import static java.util.Arrays.asList;
@@ -39,18 +46,26 @@ import static org.briarproject.bramble.test.TestUtils.getClientId;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
 import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getSignaturePublicKey;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class ValidationManagerImplTest extends BrambleMockTestCase {
 
 	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final CryptoComponent crypto = context.mock(CryptoComponent.class);
 	private final MessageValidator validator =
 			context.mock(MessageValidator.class);
 	private final IncomingMessageHook hook =
 			context.mock(IncomingMessageHook.class);
 
-	private final Executor dbExecutor = new ImmediateExecutor();
+	private final KeyedExecutor dbExecutor =
+			new KeyedExecutor("Test", new ImmediateExecutor(), true);
 	private final Executor validationExecutor = new ImmediateExecutor();
+	private final SignatureBatcher signatureBatcher = new SignatureBatcher();
 	private final ClientId clientId = getClientId();
 	private final int majorVersion = 123;
 	private final Group group = getGroup(clientId, majorVersion);
@@ -72,7 +87,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 
 	@Before
 	public void setUp() {
-		vm = new ValidationManagerImpl(db, dbExecutor, validationExecutor);
+		vm = new ValidationManagerImpl(db, dbExecutor, validationExecutor,
+				crypto, signatureBatcher);
 		vm.registerMessageValidator(clientId, majorVersion, validator);
 		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
 	}
@@ -91,18 +107,21 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	public void testMessagesAreValidatedAtStartup() throws Exception {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, false);
-		Transaction txn2 = new Transaction(null, true);
-		Transaction txn3 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
 
 		context.checking(new DbExpectations() {{
-			// Load the first raw message and group
+			// Load the raw messages and groups
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
 			oneOf(db).getMessage(txn, messageId);
 			will(returnValue(message));
 			oneOf(db).getGroup(txn, groupId);
 			will(returnValue(group));
+			oneOf(db).getMessage(txn, messageId1);
+			will(returnValue(message1));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
 			// Validate the first message: valid
 			oneOf(validator).validateMessage(message, group);
 			will(returnValue(validResult));
@@ -116,24 +135,18 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Get any pending dependents
 			oneOf(db).getMessageDependents(txn1, messageId);
 			will(returnValue(emptyMap()));
-			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn2));
-			oneOf(db).getMessage(txn2, messageId1);
-			will(returnValue(message1));
-			oneOf(db).getGroup(txn2, groupId);
-			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
 			will(throwException(new InvalidMessageException()));
 			// Store the validation result for the second message
-			oneOf(db).transaction(with(false), withDbRunnable(txn3));
-			oneOf(db).getMessageState(txn3, messageId1);
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).getMessageState(txn2, messageId1);
 			will(returnValue(UNKNOWN));
-			oneOf(db).setMessageState(txn3, messageId1, INVALID);
-			oneOf(db).deleteMessage(txn3, messageId1);
-			oneOf(db).deleteMessageMetadata(txn3, messageId1);
+			oneOf(db).setMessageState(txn2, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn2, messageId1);
+			oneOf(db).deleteMessageMetadata(txn2, messageId1);
 			// Recursively invalidate any dependents
-			oneOf(db).getMessageDependents(txn3, messageId1);
+			oneOf(db).getMessageDependents(txn2, messageId1);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -146,7 +159,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	@Test
 	public void testPendingMessagesAreDeliveredAtStartup() throws Exception {
 		Transaction txn = new Transaction(null, false);
-		Transaction txn1 = new Transaction(null, false);
 
 		expectGetMessagesToValidate();
 		expectGetPendingMessages(messageId);
@@ -172,25 +184,25 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Get any pending dependents
 			oneOf(db).getMessageDependents(txn, messageId);
 			will(returnValue(singletonMap(messageId2, PENDING)));
-			// Check whether the dependent is ready to deliver
-			oneOf(db).transaction(with(false), withDbRunnable(txn1));
-			oneOf(db).getMessageState(txn1, messageId2);
+			// Check whether the dependent is ready to deliver, in the same
+			// transaction
+			oneOf(db).getMessageState(txn, messageId2);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn1, messageId2);
+			oneOf(db).getMessageDependencies(txn, messageId2);
 			will(returnValue(singletonMap(messageId1, DELIVERED)));
 			// Get the dependent and its metadata to deliver
-			oneOf(db).getMessage(txn1, messageId2);
+			oneOf(db).getMessage(txn, messageId2);
 			will(returnValue(message2));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn1, messageId2);
+			oneOf(db).getMessageMetadataForValidator(txn, messageId2);
 			will(returnValue(metadata));
 			// Deliver the dependent
-			oneOf(hook).incomingMessage(txn1, message2, metadata);
+			oneOf(hook).incomingMessage(txn, message2, metadata);
 			will(returnValue(false));
-			oneOf(db).setMessageState(txn1, messageId2, DELIVERED);
+			oneOf(db).setMessageState(txn, messageId2, DELIVERED);
 			// Get any pending dependents
-			oneOf(db).getMessageDependents(txn1, messageId2);
+			oneOf(db).getMessageDependents(txn, messageId2);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -268,7 +280,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	public void testValidationContinuesAfterNoSuchMessageException()
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
-		Transaction txn1 = new Transaction(null, true);
 		Transaction txn2 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
@@ -278,11 +289,10 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
 			oneOf(db).getMessage(txn, messageId);
 			will(throwException(new NoSuchMessageException()));
-			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
-			oneOf(db).getMessage(txn1, messageId1);
+			// Load the second raw message and group in the same transaction
+			oneOf(db).getMessage(txn, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn, groupId);
 			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
@@ -309,7 +319,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	public void testValidationContinuesAfterNoSuchGroupException()
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
-		Transaction txn1 = new Transaction(null, true);
 		Transaction txn2 = new Transaction(null, false);
 
 		expectGetMessagesToValidate(messageId, messageId1);
@@ -322,11 +331,10 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Load the group - *gasp* it's gone!
 			oneOf(db).getGroup(txn, groupId);
 			will(throwException(new NoSuchGroupException()));
-			// Load the second raw message and group
-			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
-			oneOf(db).getMessage(txn1, messageId1);
+			// Load the second raw message and group in the same transaction
+			oneOf(db).getMessage(txn, messageId1);
 			will(returnValue(message1));
-			oneOf(db).getGroup(txn1, groupId);
+			oneOf(db).getGroup(txn, groupId);
 			will(returnValue(group));
 			// Validate the second message: invalid
 			oneOf(validator).validateMessage(message1, group);
@@ -584,10 +592,6 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		Transaction txn = new Transaction(null, true);
 		Transaction txn1 = new Transaction(null, false);
 		Transaction txn2 = new Transaction(null, false);
-		Transaction txn3 = new Transaction(null, false);
-		Transaction txn4 = new Transaction(null, false);
-		Transaction txn5 = new Transaction(null, false);
-		Transaction txn6 = new Transaction(null, false);
 
 		context.checking(new DbExpectations() {{
 			// Load the group
@@ -607,6 +611,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// The message has two pending dependents: 1 and 2
 			oneOf(db).getMessageDependents(txn1, messageId);
 			will(returnValue(twoDependents));
+			// Check whether the dependents are ready to be delivered, in a
+			// single transaction
 			// Check whether message 1 is ready to be delivered
 			oneOf(db).transaction(with(false), withDbRunnable(txn2));
 			oneOf(db).getMessageState(txn2, messageId1);
@@ -628,67 +634,63 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).getMessageDependents(txn2, messageId1);
 			will(returnValue(singletonMap(messageId3, PENDING)));
 			// Check whether message 2 is ready to be delivered
-			oneOf(db).transaction(with(false), withDbRunnable(txn3));
-			oneOf(db).getMessageState(txn3, messageId2);
+			oneOf(db).getMessageState(txn2, messageId2);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn3, messageId2);
+			oneOf(db).getMessageDependencies(txn2, messageId2);
 			will(returnValue(singletonMap(messageId, DELIVERED)));
 			// Get message 2 and its metadata
-			oneOf(db).getMessage(txn3, messageId2);
+			oneOf(db).getMessage(txn2, messageId2);
 			will(returnValue(message2));
-			oneOf(db).getGroup(txn3, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn3, messageId2);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId2);
 			will(returnValue(metadata));
 			// Deliver message 2
-			oneOf(hook).incomingMessage(txn3, message2, metadata);
+			oneOf(hook).incomingMessage(txn2, message2, metadata);
 			will(returnValue(false));
-			oneOf(db).setMessageState(txn3, messageId2, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId2, DELIVERED);
 			// Message 2 has one pending dependent: 3 (same dependent as 1)
-			oneOf(db).getMessageDependents(txn3, messageId2);
+			oneOf(db).getMessageDependents(txn2, messageId2);
 			will(returnValue(singletonMap(messageId3, PENDING)));
 			// Check whether message 3 is ready to be delivered (via 1)
-			oneOf(db).transaction(with(false), withDbRunnable(txn4));
-			oneOf(db).getMessageState(txn4, messageId3);
+			oneOf(db).getMessageState(txn2, messageId3);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn4, messageId3);
+			oneOf(db).getMessageDependencies(txn2, messageId3);
 			will(returnValue(twoDependencies));
 			// Get message 3 and its metadata
-			oneOf(db).getMessage(txn4, messageId3);
+			oneOf(db).getMessage(txn2, messageId3);
 			will(returnValue(message3));
-			oneOf(db).getGroup(txn4, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn4, messageId3);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId3);
 			will(returnValue(metadata));
 			// Deliver message 3
-			oneOf(hook).incomingMessage(txn4, message3, metadata);
-			oneOf(db).setMessageState(txn4, messageId3, DELIVERED);
+			oneOf(hook).incomingMessage(txn2, message3, metadata);
+			oneOf(db).setMessageState(txn2, messageId3, DELIVERED);
 			// Message 3 has one pending dependent: 4
-			oneOf(db).getMessageDependents(txn4, messageId3);
+			oneOf(db).getMessageDependents(txn2, messageId3);
 			will(returnValue(singletonMap(messageId4, PENDING)));
 			// Check whether message 3 is ready to be delivered (again, via 2)
-			oneOf(db).transaction(with(false), withDbRunnable(txn5));
-			oneOf(db).getMessageState(txn5, messageId3);
+			oneOf(db).getMessageState(txn2, messageId3);
 			will(returnValue(DELIVERED)); // Already delivered
 			// Check whether message 4 is ready to be delivered (via 1 and 3)
-			oneOf(db).transaction(with(false), withDbRunnable(txn6));
-			oneOf(db).getMessageState(txn6, messageId4);
+			oneOf(db).getMessageState(txn2, messageId4);
 			will(returnValue(PENDING));
-			oneOf(db).getMessageDependencies(txn6, messageId4);
+			oneOf(db).getMessageDependencies(txn2, messageId4);
 			will(returnValue(singletonMap(messageId3, DELIVERED)));
 			// Get message 4 and its metadata
-			oneOf(db).getMessage(txn6, messageId4);
+			oneOf(db).getMessage(txn2, messageId4);
 			will(returnValue(message4));
-			oneOf(db).getGroup(txn6, groupId);
+			oneOf(db).getGroup(txn2, groupId);
 			will(returnValue(group));
-			oneOf(db).getMessageMetadataForValidator(txn6, messageId4);
+			oneOf(db).getMessageMetadataForValidator(txn2, messageId4);
 			will(returnValue(metadata));
 			// Deliver message 4
-			oneOf(hook).incomingMessage(txn6, message4, metadata);
+			oneOf(hook).incomingMessage(txn2, message4, metadata);
 			will(returnValue(false));
-			oneOf(db).setMessageState(txn6, messageId4, DELIVERED);
+			oneOf(db).setMessageState(txn2, messageId4, DELIVERED);
 			// Message 4 has no pending dependents
-			oneOf(db).getMessageDependents(txn6, messageId4);
+			oneOf(db).getMessageDependents(txn2, messageId4);
 			will(returnValue(emptyMap()));
 		}});
 
@@ -733,6 +735,285 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		vm.eventOccurred(new MessageAddedEvent(message, contactId));
 	}
 
+	@Test
+	public void testSignaturesAreVerifiedInBatches() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+		Transaction txn3 = new Transaction(null, false);
+		SignedData signed = getSignedData();
+		SignedData signed1 = getSignedData();
+		// Queue the validation tasks until both messages have been added
+		Queue<Runnable> tasks = new LinkedList<>();
+		vm = new ValidationManagerImpl(db, dbExecutor, tasks::add, crypto,
+				signatureBatcher);
+		vm.registerMessageValidator(clientId, majorVersion, (m, g) -> {
+			// Each message has a signature to check
+			signatureBatcher.defer(m == message ? signed : signed1);
+			return validResult;
+		});
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+
+		context.checking(new DbExpectations() {{
+			// Load the groups
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			// Verify the signatures in a batch: the second is invalid
+			oneOf(crypto).verifySignatures(asList(signed, signed1));
+			will(returnValue(new boolean[] {true, false}));
+			// Store the validation result for the first message
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			// Deliver the first message
+			oneOf(hook).incomingMessage(txn2, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn2, messageId, DELIVERED);
+			// Get any pending dependents
+			oneOf(db).getMessageDependents(txn2, messageId);
+			will(returnValue(emptyMap()));
+			// Invalidate the second message
+			oneOf(db).transaction(with(false), withDbRunnable(txn3));
+			oneOf(db).getMessageState(txn3, messageId1);
+			will(returnValue(UNKNOWN));
+			oneOf(db).setMessageState(txn3, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn3, messageId1);
+			oneOf(db).deleteMessageMetadata(txn3, messageId1);
+			// Recursively invalidate any dependents
+			oneOf(db).getMessageDependents(txn3, messageId1);
+			will(returnValue(emptyMap()));
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		// The first task should validate both messages, the second nothing
+		assertEquals(2, tasks.size());
+		runTasks(tasks);
+	}
+
+	@Test
+	public void testSignaturesAreNotDeferredAfterValidatorThrows()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, false);
+
+		vm = new ValidationManagerImpl(db, dbExecutor, validationExecutor,
+				crypto, signatureBatcher);
+		vm.registerMessageValidator(clientId, majorVersion, (m, g) -> {
+			signatureBatcher.defer(getSignedData());
+			throw new InvalidMessageException();
+		});
+
+		context.checking(new DbExpectations() {{
+			// Load the group
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			// Invalidate the message without verifying its signature
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
+			oneOf(db).setMessageState(txn1, messageId, INVALID);
+			oneOf(db).deleteMessage(txn1, messageId);
+			oneOf(db).deleteMessageMetadata(txn1, messageId);
+			oneOf(db).getMessageDependents(txn1, messageId);
+			will(returnValue(emptyMap()));
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		// The batch should have been closed
+		assertFalse(signatureBatcher.defer(getSignedData()));
+	}
+
+	@Test
+	public void testValidationResultsAreStoredInOneTransaction()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+		// Queue the database and validation tasks so results can build up
+		Queue<Runnable> dbTasks = new LinkedList<>();
+		Queue<Runnable> validationTasks = new LinkedList<>();
+		KeyedExecutor dbExecutor =
+				new KeyedExecutor("Test", dbTasks::add, true);
+		vm = new ValidationManagerImpl(db, dbExecutor, validationTasks::add,
+				crypto, signatureBatcher);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+
+		context.checking(new DbExpectations() {{
+			// Load the groups
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			// Validate the messages: both valid
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group);
+			will(returnValue(validResult));
+			// Store the validation results in one transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			oneOf(hook).incomingMessage(txn2, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn2, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn2, messageId);
+			will(returnValue(emptyMap()));
+			oneOf(db).mergeMessageMetadata(txn2, messageId1, metadata);
+			oneOf(hook).incomingMessage(txn2, message1, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn2, messageId1, DELIVERED);
+			oneOf(db).getMessageDependents(txn2, messageId1);
+			will(returnValue(emptyMap()));
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		// Load the groups, validate the messages, then store the results
+		runTasks(dbTasks);
+		runTasks(validationTasks);
+		runTasks(dbTasks);
+	}
+
+	@Test
+	public void testValidationResultsAreStoredOneAtATimeIfBatchFails()
+			throws Exception {
+		Transaction txn = new Transaction(null, true);
+		Transaction txn1 = new Transaction(null, true);
+		Transaction txn2 = new Transaction(null, false);
+		Transaction txn3 = new Transaction(null, false);
+		Transaction txn4 = new Transaction(null, false);
+		// Queue the database and validation tasks so results can build up
+		Queue<Runnable> dbTasks = new LinkedList<>();
+		Queue<Runnable> validationTasks = new LinkedList<>();
+		KeyedExecutor dbExecutor =
+				new KeyedExecutor("Test", dbTasks::add, true);
+		vm = new ValidationManagerImpl(db, dbExecutor, validationTasks::add,
+				crypto, signatureBatcher);
+		vm.registerMessageValidator(clientId, majorVersion, validator);
+		vm.registerIncomingMessageHook(clientId, majorVersion, hook);
+
+		context.checking(new DbExpectations() {{
+			// Load the groups
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn1));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			// Validate the messages: both valid
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group);
+			will(returnValue(validResult));
+			// Try to store the validation results in one transaction. The
+			// second message has been removed, so the transaction fails
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			oneOf(hook).incomingMessage(txn2, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn2, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn2, messageId);
+			will(returnValue(emptyMap()));
+			oneOf(db).mergeMessageMetadata(txn2, messageId1, metadata);
+			will(throwException(new NoSuchMessageException()));
+			// Store the first result again in its own transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn3));
+			oneOf(db).mergeMessageMetadata(txn3, messageId, metadata);
+			oneOf(hook).incomingMessage(txn3, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn3, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn3, messageId);
+			will(returnValue(emptyMap()));
+			// Try to store the second result in its own transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn4));
+			oneOf(db).mergeMessageMetadata(txn4, messageId1, metadata);
+			will(throwException(new NoSuchMessageException()));
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+		// Load the groups, validate the messages, then store the results
+		runTasks(dbTasks);
+		runTasks(validationTasks);
+		runTasks(dbTasks);
+	}
+
+	@Test
+	public void testPendingMessagesAreDeliveredOneAtATimeIfBatchFails()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+
+		expectGetMessagesToValidate();
+		expectGetPendingMessages(messageId, messageId2);
+
+		context.checking(new DbExpectations() {{
+			// Try to deliver the messages in one transaction. The first
+			// message is delivered, then the transaction fails
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).getMessageState(txn, messageId);
+			will(returnValue(PENDING));
+			oneOf(db).getMessageDependencies(txn, messageId);
+			will(returnValue(singletonMap(messageId1, DELIVERED)));
+			oneOf(db).getMessage(txn, messageId);
+			will(returnValue(message));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).getMessageMetadataForValidator(txn, messageId);
+			will(returnValue(metadata));
+			oneOf(hook).incomingMessage(txn, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn, messageId);
+			will(returnValue(emptyMap()));
+			oneOf(db).getMessageState(txn, messageId2);
+			will(throwException(new DbException()));
+			// Deliver the first message again in its own transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(PENDING));
+			oneOf(db).getMessageDependencies(txn1, messageId);
+			will(returnValue(singletonMap(messageId1, DELIVERED)));
+			oneOf(db).getMessage(txn1, messageId);
+			will(returnValue(message));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			oneOf(db).getMessageMetadataForValidator(txn1, messageId);
+			will(returnValue(metadata));
+			oneOf(hook).incomingMessage(txn1, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn1, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn1, messageId);
+			will(returnValue(emptyMap()));
+			// Try to deliver the second message in its own transaction
+			oneOf(db).transaction(with(false), withDbRunnable(txn2));
+			oneOf(db).getMessageState(txn2, messageId2);
+			will(throwException(new DbException()));
+		}});
+
+		expectGetMessagesToShare();
+
+		vm.startService();
+	}
+
+	private void runTasks(Queue<Runnable> tasks) {
+		Runnable task;
+		while ((task = tasks.poll()) != null) task.run();
+	}
+
+	private SignedData getSignedData() {
+		return new SignedData(getRandomBytes(64), getRandomString(10),
+				getRandomBytes(123), getSignaturePublicKey());
+	}
+
 	private void expectGetMessagesToValidate(MessageId... ids)
 			throws Exception {
 		Transaction txn = new Transaction(null, true);
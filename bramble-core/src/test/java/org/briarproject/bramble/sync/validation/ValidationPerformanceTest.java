@@ -0,0 +1,237 @@
+package org.briarproject.bramble.sync.validation;
+
+import org.briarproject.bramble.BrambleCoreEagerSingletons;
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.InvalidMessageException;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageContext;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.MessageStateChangedEvent;
+import org.briarproject.bramble.api.sync.validation.MessageValidator;
+import org.briarproject.bramble.api.sync.validation.ValidationManager;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long it takes to validate and deliver a backlog of received
+ * messages when the app starts. The messages are signed by a number of
+ * authors, as forum posts are, and each message depends on the previous
+ * message by the same author.
+ */
+@Ignore
+public class ValidationPerformanceTest extends BrambleTestCase {
+
+	private static final int MESSAGES = 50_000;
+	private static final int AUTHORS = 100;
+	private static final int MESSAGES_PER_TRANSACTION = 1000;
+	private static final int TEXT_LENGTH = 200;
+	private static final String SIGNING_LABEL =
+			"org.briarproject.bramble.test/ValidationPerformanceTest";
+
+	private final File testDir = getTestDirectory();
+	private final File resultsFile = new File(getTestName() + ".tsv");
+	private final SecretKey databaseKey = getSecretKey();
+	private final ClientId clientId = getClientId();
+	private final int majorVersion = 0;
+	private final Group group = getGroup(clientId, majorVersion);
+	private final List<PublicKey> authorKeys = new ArrayList<>(AUTHORS);
+
+	public ValidationPerformanceTest() {
+		// Disable logging
+		Logger.getLogger("").setLevel(OFF);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		// Receive the messages without a validator, so they're left
+		// unvalidated in the database
+		ValidationPerformanceTestComponent device = createDevice();
+		IdentityManager identityManager = device.getIdentityManager();
+		Identity identity = identityManager.createIdentity("Alice");
+		identityManager.registerIdentity(identity);
+		LifecycleManager lifecycleManager = device.getLifecycleManager();
+		lifecycleManager.startServices(databaseKey);
+		lifecycleManager.waitForStartup();
+		DatabaseComponent db = device.getDatabaseComponent();
+		ContactId contactId = db.transactionWithResult(false, txn -> {
+			ContactId c = db.addContact(txn, getAuthor(),
+					identity.getId(), null, true);
+			db.addGroup(txn, group);
+			db.setGroupVisibility(txn, c, group.getId(), SHARED);
+			return c;
+		});
+		List<Message> messages = createMessages(device);
+		for (int i = 0; i < MESSAGES; i += MESSAGES_PER_TRANSACTION) {
+			List<Message> batch = messages.subList(i,
+					Math.min(MESSAGES, i + MESSAGES_PER_TRANSACTION));
+			db.transaction(false, txn ->
+					db.receiveMessages(txn, contactId, batch));
+		}
+		lifecycleManager.stopServices();
+		lifecycleManager.waitForShutdown();
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testValidateMessagesAtStartup() throws Exception {
+		ValidationPerformanceTestComponent device = createDevice();
+		ValidationManager validationManager = device.getValidationManager();
+		validationManager.registerMessageValidator(clientId, majorVersion,
+				new TestValidator(device.getClientHelper()));
+		validationManager.registerIncomingMessageHook(clientId, majorVersion,
+				(txn, m, meta) -> false);
+		CountDownLatch delivered = new CountDownLatch(MESSAGES);
+		device.getEventBus().addListener(e -> {
+			if (e instanceof MessageStateChangedEvent &&
+					((MessageStateChangedEvent) e).getState() == DELIVERED) {
+				delivered.countDown();
+			}
+		});
+		LifecycleManager lifecycleManager = device.getLifecycleManager();
+		long start = System.nanoTime();
+		lifecycleManager.startServices(databaseKey);
+		assertTrue(delivered.await(30, MINUTES));
+		long duration = System.nanoTime() - start;
+		lifecycleManager.stopServices();
+		lifecycleManager.waitForShutdown();
+		double seconds = duration / 1_000_000_000.0;
+		writeResult(String.format("%,d messages\t%.1f s\t%.0f messages/s",
+				MESSAGES, seconds, MESSAGES / seconds));
+	}
+
+	private ValidationPerformanceTestComponent createDevice() {
+		ValidationPerformanceTestComponent device =
+				DaggerValidationPerformanceTestComponent.builder()
+						.testDatabaseConfigModule(
+								new TestDatabaseConfigModule(testDir))
+						.build();
+		BrambleCoreEagerSingletons.Helper.injectEagerSingletons(device);
+		return device;
+	}
+
+	private List<Message> createMessages(
+			ValidationPerformanceTestComponent device) throws Exception {
+		ClientHelper clientHelper = device.getClientHelper();
+		CryptoComponent crypto = device.getCryptoComponent();
+		List<KeyPair> authors = new ArrayList<>(AUTHORS);
+		for (int i = 0; i < AUTHORS; i++) {
+			KeyPair keyPair = crypto.generateSignatureKeyPair();
+			authors.add(keyPair);
+			authorKeys.add(keyPair.getPublic());
+		}
+		byte[][] previous = new byte[AUTHORS][];
+		List<Message> messages = new ArrayList<>(MESSAGES);
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < MESSAGES; i++) {
+			int author = i % AUTHORS;
+			String text = getRandomString(TEXT_LENGTH);
+			BdfList signed = BdfList.of(group.getId(), timestamp, author,
+					previous[author], text);
+			byte[] signature = clientHelper.sign(SIGNING_LABEL, signed,
+					authors.get(author).getPrivate());
+			BdfList body = BdfList.of(author, previous[author], text,
+					signature);
+			Message m =
+					clientHelper.createMessage(group.getId(), timestamp, body);
+			previous[author] = m.getId().getBytes();
+			messages.add(m);
+		}
+		return messages;
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String result) throws IOException {
+		System.out.println(result);
+		PrintWriter out =
+				new PrintWriter(new FileOutputStream(resultsFile, true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+
+	@NotNullByDefault
+	private class TestValidator implements MessageValidator {
+
+		private final ClientHelper clientHelper;
+
+		private TestValidator(ClientHelper clientHelper) {
+			this.clientHelper = clientHelper;
+		}
+
+		@Override
+		public MessageContext validateMessage(Message m, Group g)
+				throws InvalidMessageException {
+			try {
+				BdfList body = clientHelper.toList(m);
+				int author = body.getLong(0).intValue();
+				@Nullable byte[] parent = body.getOptionalRaw(1);
+				String text = body.getString(2);
+				byte[] signature = body.getRaw(3);
+				BdfList signed = BdfList.of(g.getId(), m.getTimestamp(),
+						author, parent, text);
+				clientHelper.verifySignature(signature, SIGNING_LABEL, signed,
+						authorKeys.get(author));
+				Collection<MessageId> dependencies = parent == null ?
+						emptyList() : singletonList(new MessageId(parent));
+				return new MessageContext(new Metadata(), dependencies);
+			} catch (FormatException | GeneralSecurityException e) {
+				throw new InvalidMessageException(e);
+			}
+		}
+	}
+}
@@ -18,6 +18,46 @@ public class BrambleCoreIntegrationTestModule {
 
 	@Provides
 	FeatureFlags provideFeatureFlags() {
-		return () -> true;
+		return new FeatureFlags() {
+			@Override
+			public boolean shouldEnableImageAttachments() {
+				return true;
+			}
+
+			@Override
+			public boolean shouldEnableGroupCommit() {
+				return true;
+			}
+
+			@Override
+			public boolean shouldEnableConcurrentReads() {
+				return true;
+			}
+
+			@Override
+			public boolean shouldEnableParallelDatabaseExecutor() {
+				return true;
+			}
+
+			@Override
+			public boolean shouldEnableDatabaseCache() {
+				return true;
+			}
+
+			@Override
+			public boolean shouldEnablePipelinedSync() {
+				return true;
+			}
+
+			@Override
+			public boolean shouldEnableTcpSelector() {
+				return true;
+			}
+
+			@Override
+			public boolean shouldEnableVirtualThreads() {
+				return true;
+			}
+		};
 	}
 }
@@ -213,10 +213,8 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 
 	@Test
 	public void testGetStreamContextForTag() throws Exception {
-		context.checking(new DbExpectations() {{
-			oneOf(db).transactionWithNullableResult(with(false),
-					withNullableDbCallable(txn));
-			oneOf(transportKeyManager).getStreamContext(txn, tag);
+		context.checking(new Expectations() {{
+			oneOf(transportKeyManager).getStreamContext(tag);
 			will(returnValue(contactStreamContext));
 		}});
 
@@ -224,6 +222,19 @@ public class KeyManagerImplTest extends BrambleMockTestCase {
 				keyManager.getStreamContext(transportId, tag));
 	}
 
+	@Test
+	public void testUnsavedChangesAreWrittenWhenServiceStops()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(transportKeyManager).writeUnsavedChanges(txn);
+		}});
+
+		keyManager.stopService();
+	}
+
 	@Test
 	public void testContactRemovedEvent() {
 		ContactRemovedEvent event = new ContactRemovedEvent(contactId);
@@ -5,12 +5,14 @@ import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.bramble.transport.ReorderingWindow.Change;
 import org.junit.Test;
 
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class ReorderingWindowTest extends BrambleTestCase {
 
@@ -33,9 +35,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(0L);
 		// The window should slide by one element
 		assertEquals(1L, window.getBase());
-		assertEquals(Collections.singletonList((long) REORDERING_WINDOW_SIZE),
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE},
 				change.getAdded());
-		assertEquals(Collections.singletonList(0L), change.getRemoved());
+		assertArrayEquals(new long[] {0}, change.getRemoved());
 		// All elements in the window should be unseen
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
@@ -48,8 +50,8 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(1L);
 		// The window should not slide
 		assertEquals(0L, window.getBase());
-		assertEquals(Collections.emptyList(), change.getAdded());
-		assertEquals(Collections.singletonList(1L), change.getRemoved());
+		assertArrayEquals(new long[0], change.getAdded());
+		assertArrayEquals(new long[] {1}, change.getRemoved());
 		// The second element in the window should be seen
 		bitmap[0] = 0x40; // 0100 0000
 		assertArrayEquals(bitmap, window.getBitmap());
@@ -64,9 +66,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(aboveMidpoint);
 		// The window should slide by one element
 		assertEquals(1L, window.getBase());
-		assertEquals(Collections.singletonList((long) REORDERING_WINDOW_SIZE),
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE},
 				change.getAdded());
-		assertEquals(Arrays.asList(0L, aboveMidpoint), change.getRemoved());
+		assertArrayEquals(new long[] {0, aboveMidpoint}, change.getRemoved());
 		// The highest element below the midpoint should be seen
 		bitmap[bitmap.length / 2 - 1] = (byte) 0x01; // 0000 0001
 		assertArrayEquals(bitmap, window.getBitmap());
@@ -81,9 +83,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(0L);
 		// The window should slide by two elements
 		assertEquals(2L, window.getBase());
-		assertEquals(Arrays.asList((long) REORDERING_WINDOW_SIZE,
-				(long) (REORDERING_WINDOW_SIZE + 1)), change.getAdded());
-		assertEquals(Collections.singletonList(0L), change.getRemoved());
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE,
+				REORDERING_WINDOW_SIZE + 1}, change.getAdded());
+		assertArrayEquals(new long[] {0}, change.getRemoved());
 		// All elements in the window should be unseen
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
@@ -98,11 +100,49 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(aboveMidpoint);
 		// The window should slide by two elements
 		assertEquals(2L, window.getBase());
-		assertEquals(Arrays.asList((long) REORDERING_WINDOW_SIZE,
-				(long) (REORDERING_WINDOW_SIZE + 1)), change.getAdded());
-		assertEquals(Arrays.asList(0L, aboveMidpoint), change.getRemoved());
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE,
+				REORDERING_WINDOW_SIZE + 1}, change.getAdded());
+		assertArrayEquals(new long[] {0, aboveMidpoint}, change.getRemoved());
 		// The second-highest element below the midpoint should be seen
 		bitmap[bitmap.length / 2 - 1] = (byte) 0x02; // 0000 0010
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
+
+	@Test
+	public void testUnseenElementsAreVisitedInOrder() {
+		byte[] bitmap = new byte[BITMAP_BYTES];
+		bitmap[0] = (byte) 0xA0; // 1010 0000
+		ReorderingWindow window = new ReorderingWindow(100L, bitmap);
+		// Elements 100 and 102 have been seen
+		assertFalse(window.isUnseen(100L));
+		assertTrue(window.isUnseen(101L));
+		assertFalse(window.isUnseen(102L));
+		assertFalse(window.isUnseen(99L));
+		assertFalse(window.isUnseen(100L + REORDERING_WINDOW_SIZE));
+		List<Long> unseen = new ArrayList<>();
+		for (long i = window.getNextUnseen(window.getBase()); i != -1;
+				i = window.getNextUnseen(i + 1)) {
+			unseen.add(i);
+		}
+		assertEquals(REORDERING_WINDOW_SIZE - 2, unseen.size());
+		assertEquals(Long.valueOf(101L), unseen.get(0));
+		assertEquals(Long.valueOf(103L), unseen.get(1));
+		assertEquals(Long.valueOf(100L + REORDERING_WINDOW_SIZE - 1),
+				unseen.get(unseen.size() - 1));
+	}
+
+	@Test
+	public void testWindowSlidesPastAllSeenElements() {
+		// All elements except the first have been seen
+		byte[] bitmap = new byte[BITMAP_BYTES];
+		for (int i = 0; i < BITMAP_BYTES; i++) bitmap[i] = (byte) 0xFF;
+		bitmap[0] = 0x7F; // 0111 1111
+		ReorderingWindow window = new ReorderingWindow(0L, bitmap);
+		Change change = window.setSeen(0L);
+		// The window should slide past all the elements
+		assertEquals(REORDERING_WINDOW_SIZE, window.getBase());
+		assertEquals(REORDERING_WINDOW_SIZE, change.getAdded().length);
+		assertArrayEquals(new long[] {0}, change.getRemoved());
+		assertArrayEquals(new byte[BITMAP_BYTES], window.getBitmap());
+	}
 }
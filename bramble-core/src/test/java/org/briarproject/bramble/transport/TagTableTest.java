@@ -0,0 +1,103 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TagTableTest extends BrambleTestCase {
+
+	private final TagTable<Integer> table = new TagTable<>();
+
+	@Test
+	public void testTagIsRemovedOnce() {
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		assertNull(table.get(tag));
+		assertNull(table.remove(tag));
+		table.put(tag, 123);
+		assertEquals(Integer.valueOf(123), table.get(tag));
+		assertEquals(Integer.valueOf(123), table.remove(tag));
+		assertNull(table.get(tag));
+		assertNull(table.remove(tag));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testValuesSurviveResizing() {
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+			// Remove every other tag to leave tombstones behind
+			if (i % 2 == 1) assertEquals(Integer.valueOf(i - 1),
+					table.remove(tags.get(i - 1)));
+		}
+		assertEquals(5_000, table.size());
+		for (int i = 0; i < tags.size(); i++) {
+			if (i % 2 == 0) assertNull(table.get(tags.get(i)));
+			else assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+		}
+	}
+
+	@Test
+	public void testRemoveAll() {
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		table.removeAll(i -> i % 2 == 0);
+		assertEquals(50, table.size());
+		for (int i = 0; i < tags.size(); i++) {
+			if (i % 2 == 0) assertNull(table.get(tags.get(i)));
+			else assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+		}
+		table.clear();
+		assertEquals(0, table.size());
+		assertNull(table.get(tags.get(1)));
+	}
+
+	@Test
+	public void testConcurrentRemovalsClaimEachTagOnce() throws Exception {
+		int threads = 4, tagsPerRound = 1000;
+		AtomicInteger claimed = new AtomicInteger(0);
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < tagsPerRound; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(() -> {
+				try {
+					start.await();
+					for (byte[] tag : tags)
+						if (table.remove(tag) != null) claimed.incrementAndGet();
+				} catch (InterruptedException e) {
+					throw new AssertionError(e);
+				} finally {
+					finished.countDown();
+				}
+			}).start();
+		}
+		start.countDown();
+		// Add more tags while the tags are being removed, forcing resizes
+		for (int i = 0; i < 10 * tagsPerRound; i++)
+			table.put(getRandomBytes(TAG_LENGTH), -1);
+		finished.await();
+		assertEquals(tagsPerRound, claimed.get());
+		assertEquals(10 * tagsPerRound, table.size());
+	}
+}
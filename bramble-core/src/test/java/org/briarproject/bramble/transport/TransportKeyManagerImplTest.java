@@ -4,7 +4,10 @@ import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.TransportCrypto;
+import org.briarproject.bramble.api.db.CommitAction;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.TaskAction;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.system.Clock;
@@ -15,12 +18,16 @@ import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.RunAction;
 import org.hamcrest.Description;
 import org.jmock.Expectations;
+import org.jmock.Mockery;
 import org.jmock.api.Action;
 import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -28,26 +35,36 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static java.lang.System.arraycopy;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.transport.TransportKeyManagerImpl.WRITE_INTERVAL_MS;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 
@@ -328,8 +345,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(active,
 				transportKeyManager.canSendOutgoingStreams(contactId));
 		// The tag should not be recognised
-		assertNull(transportKeyManager.getStreamContext(txn,
-				new byte[TAG_LENGTH]));
+		assertNull(transportKeyManager.getStreamContext(new byte[TAG_LENGTH]));
 	}
 
 	@Test
@@ -337,11 +353,12 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		boolean alice = random.nextBoolean();
 		TransportKeys transportKeys = createTransportKeys(1000, 0, true);
 		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
 
 		// Keep a copy of the tags
 		List<byte[]> tags = new ArrayList<>();
 
-		context.checking(new Expectations() {{
+		context.checking(new DbExpectations() {{
 			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
 					1000, alice, true);
 			will(returnValue(transportKeys));
@@ -361,13 +378,21 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 			// Save the keys
 			oneOf(db).addTransportKeys(txn, contactId, transportKeys);
 			will(returnValue(keySetId));
+			// Update the reordering window in the background, then write
+			// it to the DB after a delay
+			exactly(2).of(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(WRITE_INTERVAL_MS), with(MILLISECONDS));
+			will(new RunAction());
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
 			// Encode a new tag after sliding the window
 			oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
 					with(tagKey), with(PROTOCOL_VERSION),
 					with((long) REORDERING_WINDOW_SIZE));
 			will(new EncodeTagAction(tags));
 			// Save the reordering window (previous time period, base 1)
-			oneOf(db).setReorderingWindow(txn, keySetId, transportId, 999,
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 999,
 					1, new byte[REORDERING_WINDOW_SIZE / 8]);
 		}});
 
@@ -380,7 +405,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
 		byte[] tag = tags.get(0);
 		// The first request should return a stream context
-		StreamContext ctx = transportKeyManager.getStreamContext(txn, tag);
+		StreamContext ctx = transportKeyManager.getStreamContext(tag);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
@@ -390,7 +415,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		// Another tag should have been encoded
 		assertEquals(REORDERING_WINDOW_SIZE * 3 + 1, tags.size());
 		// The second request should return null, the tag has already been used
-		assertNull(transportKeyManager.getStreamContext(txn, tag));
+		assertNull(transportKeyManager.getStreamContext(tag));
 	}
 
 	@Test
@@ -493,11 +518,12 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		boolean alice = random.nextBoolean();
 		TransportKeys transportKeys = createTransportKeys(1000, 0, false);
 		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
 
 		// Keep a copy of the tags
 		List<byte[]> tags = new ArrayList<>();
 
-		context.checking(new Expectations() {{
+		context.checking(new DbExpectations() {{
 			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
 					1000, alice, false);
 			will(returnValue(transportKeys));
@@ -517,16 +543,24 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 			// Save the keys
 			oneOf(db).addTransportKeys(txn, contactId, transportKeys);
 			will(returnValue(keySetId));
+			// Update the reordering window in the background, then write
+			// it to the DB after a delay
+			exactly(2).of(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(WRITE_INTERVAL_MS), with(MILLISECONDS));
+			will(new RunAction());
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
 			// Encode a new tag after sliding the window
 			oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
 					with(tagKey), with(PROTOCOL_VERSION),
 					with((long) REORDERING_WINDOW_SIZE));
 			will(new EncodeTagAction(tags));
 			// Save the reordering window (previous time period, base 1)
-			oneOf(db).setReorderingWindow(txn, keySetId, transportId, 999,
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 999,
 					1, new byte[REORDERING_WINDOW_SIZE / 8]);
 			// Activate the keys
-			oneOf(db).setTransportKeysActive(txn, transportId, keySetId);
+			oneOf(db).setTransportKeysActive(txn1, transportId, keySetId);
 			// Increment the stream counter
 			oneOf(db).incrementStreamCounter(txn, transportId, keySetId);
 		}});
@@ -541,7 +575,7 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		// Recognising an incoming tag should activate the outgoing keys
 		assertEquals(REORDERING_WINDOW_SIZE * 3, tags.size());
 		byte[] tag = tags.get(0);
-		StreamContext ctx = transportKeyManager.getStreamContext(txn, tag);
+		StreamContext ctx = transportKeyManager.getStreamContext(tag);
 		assertNotNull(ctx);
 		assertEquals(contactId, ctx.getContactId());
 		assertEquals(transportId, ctx.getTransportId());
@@ -559,6 +593,220 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 		assertEquals(0L, ctx.getStreamNumber());
 	}
 
+	@Test
+	public void testUnsavedChangesAreKeptUntilCommitted() throws Exception {
+		boolean alice = random.nextBoolean();
+		TransportKeys transportKeys = createTransportKeys(1000, 0, false);
+		Transaction txn = new Transaction(null, false);
+		Transaction txn1 = new Transaction(null, false);
+		Transaction txn2 = new Transaction(null, false);
+		Transaction txn3 = new Transaction(null, false);
+
+		// Keep a copy of the tags
+		List<byte[]> tags = new ArrayList<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(transportCrypto).deriveRotationKeys(transportId, rootKey,
+					1000, alice, false);
+			will(returnValue(transportKeys));
+			// Get the current time (the start of time period 1000)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1000));
+			// Encode the tags (3 sets)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				exactly(3).of(transportCrypto).encodeTag(
+						with(any(byte[].class)), with(tagKey),
+						with(PROTOCOL_VERSION), with(i));
+				will(new EncodeTagAction(tags));
+			}
+			// Update the transport keys (the keys are unaffected)
+			oneOf(transportCrypto).updateTransportKeys(transportKeys, 1000);
+			will(returnValue(transportKeys));
+			// Save the keys
+			oneOf(db).addTransportKeys(txn, contactId, transportKeys);
+			will(returnValue(keySetId));
+			// Update the reordering window in the background for each tag
+			exactly(2).of(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			// Encode new tags after sliding the window
+			oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+					with(tagKey), with(PROTOCOL_VERSION),
+					with((long) REORDERING_WINDOW_SIZE));
+			will(new EncodeTagAction(tags));
+			oneOf(transportCrypto).encodeTag(with(any(byte[].class)),
+					with(tagKey), with(PROTOCOL_VERSION),
+					with((long) REORDERING_WINDOW_SIZE + 1));
+			will(new EncodeTagAction(tags));
+			// Schedule a write for each tag, as the first write fails
+			exactly(2).of(scheduler).schedule(with(any(Runnable.class)),
+					with(WRITE_INTERVAL_MS), with(MILLISECONDS));
+			// The first write fails (previous time period, base 1)
+			oneOf(db).setReorderingWindow(txn1, keySetId, transportId, 999,
+					1, new byte[REORDERING_WINDOW_SIZE / 8]);
+			will(throwException(new DbException()));
+			// The second write isn't committed (previous time period, base 2)
+			oneOf(db).setReorderingWindow(txn2, keySetId, transportId, 999,
+					2, new byte[REORDERING_WINDOW_SIZE / 8]);
+			oneOf(db).setTransportKeysActive(txn2, transportId, keySetId);
+			// The third write is committed
+			oneOf(db).setReorderingWindow(txn3, keySetId, transportId, 999,
+					2, new byte[REORDERING_WINDOW_SIZE / 8]);
+			oneOf(db).setTransportKeysActive(txn3, transportId, keySetId);
+		}});
+
+		// The timestamp is at the start of time period 1000
+		long timestamp = timePeriodLength * 1000;
+		assertEquals(keySetId, transportKeyManager.addRotationKeys(
+				txn, contactId, rootKey, timestamp, alice, false));
+		// Recognise the first tag (previous time period, stream number 0)
+		assertNotNull(transportKeyManager.getStreamContext(tags.get(0)));
+		// The first write fails
+		try {
+			transportKeyManager.writeUnsavedChanges(txn1);
+			fail();
+		} catch (DbException expected) {
+			// Expected
+		}
+		// Recognise the second tag (previous time period, stream number 1).
+		// Another write should be scheduled
+		assertNotNull(transportKeyManager.getStreamContext(tags.get(1)));
+		// The second write isn't committed, so the changes are still unsaved
+		transportKeyManager.writeUnsavedChanges(txn2);
+		// The third write is committed, so there are no more unsaved changes
+		transportKeyManager.writeUnsavedChanges(txn3);
+		runCommitActions(txn3);
+		transportKeyManager.writeUnsavedChanges(new Transaction(null, false));
+	}
+
+	@Test
+	public void testTagRecognisedWhileKeysAreUpdatedIsNotReplayed()
+			throws Exception {
+		Mockery context = new Mockery() {{
+			setThreadingPolicy(new Synchroniser());
+		}};
+		// The DB runs the key update while holding its mockery's lock, so
+		// use a separate mockery for the DB to avoid a deadlock with the
+		// thread that calls the other mocks while holding the manager's lock
+		Mockery dbContext = new Mockery() {{
+			setThreadingPolicy(new Synchroniser());
+		}};
+		DatabaseComponent db = dbContext.mock(DatabaseComponent.class, "db1");
+		TransportCrypto transportCrypto =
+				context.mock(TransportCrypto.class, "transportCrypto1");
+		ScheduledExecutorService scheduler = context.mock(
+				ScheduledExecutorService.class, "scheduler1");
+		Clock clock = context.mock(Clock.class, "clock1");
+		// Use a different tag key for each time period, so the same tag is
+		// encoded for a stream number each time the tags are rebuilt. The
+		// outgoing keys are inactive, so recognising a tag takes the lock
+		SecretKey currentTagKey = getSecretKey();
+		TransportKeys transportKeys = new TransportKeys(transportId,
+				new IncomingKeys(getSecretKey(), headerKey, 999),
+				new IncomingKeys(currentTagKey, headerKey, 1000),
+				new IncomingKeys(getSecretKey(), headerKey, 1001),
+				new OutgoingKeys(tagKey, headerKey, 1000, 0, false));
+		Collection<TransportKeySet> loaded = singletonList(
+				new TransportKeySet(keySetId, contactId, null, transportKeys));
+		Transaction txn = new Transaction(null, false);
+		AtomicReference<Runnable> keyUpdate = new AtomicReference<>();
+		AtomicBoolean updating = new AtomicBoolean(false);
+		CountDownLatch rebuilding = new CountDownLatch(1);
+		CountDownLatch recognising = new CountDownLatch(1);
+
+		dbContext.checking(new DbExpectations() {{
+			allowing(db).getTransportKeys(txn, transportId);
+			will(returnValue(loaded));
+			allowing(db).transaction(with(false), withDbRunnable(txn));
+			allowing(db).setReorderingWindow(with(txn), with(keySetId),
+					with(transportId), with(any(long.class)),
+					with(any(long.class)), with(any(byte[].class)));
+			allowing(db).setTransportKeysActive(txn, transportId, keySetId);
+		}});
+		context.checking(new Expectations() {{
+			allowing(clock).currentTimeMillis();
+			will(returnValue(timePeriodLength * 1000));
+			// The keys are never updated to a new time period. During the
+			// key update, wait here while the tag is recognised
+			allowing(transportCrypto).updateTransportKeys(
+					with(any(TransportKeys.class)), with(1000L));
+			will(new CustomAction("returns the keys") {
+				@Override
+				public Object invoke(Invocation invocation) throws Exception {
+					if (updating.get()) {
+						rebuilding.countDown();
+						assertTrue(recognising.await(10, SECONDS));
+						// Give the tag time to be claimed
+						Thread.sleep(100);
+					}
+					return invocation.getParameter(0);
+				}
+			});
+			allowing(transportCrypto).encodeTag(with(any(byte[].class)),
+					with(any(SecretKey.class)), with(PROTOCOL_VERSION),
+					with(any(long.class)));
+			will(new DeterministicEncodeTagAction());
+			// Capture the key update so it can be run on demand
+			allowing(scheduler).schedule(with(any(Runnable.class)),
+					with(timePeriodLength), with(MILLISECONDS));
+			will(new CaptureArgumentAction<>(keyUpdate, Runnable.class, 0));
+			// Don't write the windows in the background
+			allowing(scheduler).schedule(with(any(Runnable.class)),
+					with(WRITE_INTERVAL_MS), with(MILLISECONDS));
+		}});
+
+		// Queue tasks for the DB executor, so the window isn't updated until
+		// after the tag has been looked up again
+		BlockingQueue<Runnable> dbTasks = new LinkedBlockingQueue<>();
+		TransportKeyManager transportKeyManager = new TransportKeyManagerImpl(
+				db, transportCrypto, dbTasks::add, scheduler, clock,
+				transportId, maxLatency);
+		transportKeyManager.start(txn);
+
+		// Update the keys on another thread
+		updating.set(true);
+		Thread updater = new Thread(() -> {
+			keyUpdate.get().run();
+			dbTasks.remove().run();
+		});
+		updater.start();
+		assertTrue(rebuilding.await(10, SECONDS));
+
+		// Recognise a tag while the keys are being updated. Use a stream
+		// number that isn't at the base of the window, so recognising it
+		// doesn't slide the window
+		byte[] tag = encodeTag(currentTagKey, 5);
+		AtomicReference<StreamContext> ctx = new AtomicReference<>();
+		Thread recogniser = new Thread(() -> {
+			recognising.countDown();
+			ctx.set(transportKeyManager.getStreamContext(tag));
+		});
+		recogniser.start();
+		updater.join();
+		recogniser.join();
+		assertNotNull(ctx.get());
+		assertEquals(5, ctx.get().getStreamNumber());
+
+		// The tag should not be recognised again
+		assertNull(transportKeyManager.getStreamContext(tag));
+
+		context.assertIsSatisfied();
+		dbContext.assertIsSatisfied();
+	}
+
+	private void runCommitActions(Transaction txn) {
+		for (CommitAction action : txn.getActions()) {
+			if (action instanceof TaskAction)
+				((TaskAction) action).getTask().run();
+		}
+	}
+
+	private byte[] encodeTag(SecretKey tagKey, long streamNumber) {
+		byte[] tag = new byte[TAG_LENGTH];
+		arraycopy(tagKey.getBytes(), 0, tag, 0, TAG_LENGTH - 8);
+		writeUint64(streamNumber, tag, TAG_LENGTH - 8);
+		return tag;
+	}
+
 	private void expectAddContactKeysNotUpdated(boolean alice, boolean active,
 			TransportKeys transportKeys, Transaction txn) throws Exception {
 		context.checking(new Expectations() {{
@@ -612,6 +860,23 @@ public class TransportKeyManagerImplTest extends BrambleMockTestCase {
 				rootKey, alice);
 	}
 
+	private class DeterministicEncodeTagAction implements Action {
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			byte[] tag = (byte[]) invocation.getParameter(0);
+			SecretKey tagKey = (SecretKey) invocation.getParameter(1);
+			long streamNumber = (Long) invocation.getParameter(3);
+			arraycopy(encodeTag(tagKey, streamNumber), 0, tag, 0, TAG_LENGTH);
+			return null;
+		}
+
+		@Override
+		public void describeTo(Description description) {
+			description.appendText("encodes a tag deterministically");
+		}
+	}
+
 	private class EncodeTagAction implements Action {
 
 		private final Collection<byte[]> tags;
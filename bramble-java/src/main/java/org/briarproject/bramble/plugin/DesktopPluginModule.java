@@ -1,5 +1,6 @@
 package org.briarproject.bramble.plugin;
 
+import org.briarproject.bramble.api.FeatureFlags;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.io.TimeoutMonitor;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
@@ -33,15 +34,16 @@ public class DesktopPluginModule extends PluginModule {
 			SecureRandom random, BackoffFactory backoffFactory,
 			ReliabilityLayerFactory reliabilityFactory,
 			ShutdownManager shutdownManager, EventBus eventBus,
-			TimeoutMonitor timeoutMonitor) {
+			TimeoutMonitor timeoutMonitor, FeatureFlags featureFlags) {
 		DuplexPluginFactory bluetooth = new JavaBluetoothPluginFactory(
 				ioExecutor, random, eventBus, timeoutMonitor, backoffFactory);
 		DuplexPluginFactory modem = new ModemPluginFactory(ioExecutor,
 				reliabilityFactory);
+		boolean useSelector = featureFlags.shouldEnableTcpSelector();
 		DuplexPluginFactory lan = new LanTcpPluginFactory(ioExecutor,
-				backoffFactory);
+				backoffFactory, useSelector);
 		DuplexPluginFactory wan = new WanTcpPluginFactory(ioExecutor,
-				backoffFactory, shutdownManager);
+				backoffFactory, shutdownManager, useSelector);
 		Collection<DuplexPluginFactory> duplex =
 				asList(bluetooth, modem, lan, wan);
 		@NotNullByDefault
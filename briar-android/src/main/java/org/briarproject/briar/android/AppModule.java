@@ -246,6 +246,46 @@ public class AppModule {
 
 	@Provides
 	FeatureFlags provideFeatureFlags() {
-		return () -> IS_DEBUG_BUILD;
+		return new FeatureFlags() {
+			@Override
+			public boolean shouldEnableImageAttachments() {
+				return IS_DEBUG_BUILD;
+			}
+
+			@Override
+			public boolean shouldEnableGroupCommit() {
+				return IS_DEBUG_BUILD;
+			}
+
+			@Override
+			public boolean shouldEnableConcurrentReads() {
+				return IS_DEBUG_BUILD;
+			}
+
+			@Override
+			public boolean shouldEnableParallelDatabaseExecutor() {
+				return IS_DEBUG_BUILD;
+			}
+
+			@Override
+			public boolean shouldEnableDatabaseCache() {
+				return IS_DEBUG_BUILD;
+			}
+
+			@Override
+			public boolean shouldEnablePipelinedSync() {
+				return IS_DEBUG_BUILD;
+			}
+
+			@Override
+			public boolean shouldEnableTcpSelector() {
+				return false;
+			}
+
+			@Override
+			public boolean shouldEnableVirtualThreads() {
+				return false;
+			}
+		};
 	}
 }
@@ -18,7 +18,6 @@ import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.contact.event.PendingContactAddedEvent;
 import org.briarproject.bramble.api.contact.event.PendingContactRemovedEvent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -44,7 +43,9 @@ import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 import org.briarproject.briar.api.conversation.event.ConversationMessageReceivedEvent;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -226,18 +227,19 @@ public class ContactListFragment extends BaseFragment implements EventListener,
 		listener.runOnDbThread(() -> {
 			try {
 				long start = now();
+				Collection<Contact> all = contactManager.getContacts();
+				List<ContactId> ids = new ArrayList<>(all.size());
+				for (Contact c : all) ids.add(c.getId());
+				Map<ContactId, GroupCount> counts =
+						conversationManager.getGroupCounts(ids);
 				List<ContactListItem> contacts = new ArrayList<>();
-				for (Contact c : contactManager.getContacts()) {
-					try {
-						ContactId id = c.getId();
-						GroupCount count =
-								conversationManager.getGroupCount(id);
-						boolean connected =
-								connectionRegistry.isConnected(c.getId());
-						contacts.add(new ContactListItem(c, connected, count));
-					} catch (NoSuchContactException e) {
-						// Continue
-					}
+				for (Contact c : all) {
+					// Skip contacts that have been removed in the meantime
+					GroupCount count = counts.get(c.getId());
+					if (count == null) continue;
+					boolean connected =
+							connectionRegistry.isConnected(c.getId());
+					contacts.add(new ContactListItem(c, connected, count));
 				}
 				logDuration(LOG, "Full load", start);
 				displayContacts(revision, contacts);
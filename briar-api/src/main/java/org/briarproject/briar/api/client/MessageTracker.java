@@ -7,6 +7,9 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 
+import java.util.Collection;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
 @NotNullByDefault
@@ -30,6 +33,13 @@ public interface MessageTracker {
 	 **/
 	GroupCount getGroupCount(Transaction txn, GroupId g) throws DbException;
 
+	/**
+	 * Gets the group counts of the given groups in bulk, as described in
+	 * {@link #getGroupCount(Transaction, GroupId)}.
+	 */
+	Map<GroupId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<GroupId> g) throws DbException;
+
 	/**
 	 * Updates the group count for the given incoming message.
 	 */
@@ -0,0 +1,86 @@
+package org.briarproject.briar.api.client;
+
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Maintains a persistent index of the threads in a group, such as a forum
+ * or private group, so that the messages in the group can be listed in
+ * depth-first order a page at a time without loading the whole group.
+ * Replies are sorted by timestamp, like {@link MessageTree} does by default.
+ */
+@NotNullByDefault
+public interface ThreadIndex {
+
+	/**
+	 * Marks the given group, which must not contain any messages yet, as
+	 * indexed. This should be called when the group is added.
+	 */
+	void initializeIndex(Transaction txn, GroupId g) throws DbException;
+
+	/**
+	 * Returns true if the given group has been indexed.
+	 */
+	boolean isIndexed(Transaction txn, GroupId g) throws DbException;
+
+	/**
+	 * Indexes all the messages in the given group and marks the group as
+	 * indexed. This is used for groups that were added before the index
+	 * existed.
+	 *
+	 * @param headers The headers of all the messages in the group
+	 */
+	void buildIndex(Transaction txn, GroupId g,
+			Collection<? extends PostHeader> headers) throws DbException;
+
+	/**
+	 * Adds the given message to the index. If the message's parent has not
+	 * been indexed, the message is not added and the group is marked as not
+	 * indexed, so the index can be rebuilt.
+	 */
+	void addMessage(Transaction txn, GroupId g, MessageId m,
+			@Nullable MessageId parent, long timestamp) throws DbException;
+
+	/**
+	 * Returns the positions of up to the given number of messages in the
+	 * given group, which must be indexed, in depth-first order, starting
+	 * after the given message, or with the first message if the given
+	 * message is null.
+	 */
+	List<ThreadPosition> getMessages(Transaction txn, GroupId g,
+			@Nullable MessageId after, int maxMessages) throws DbException;
+
+	@Immutable
+	@NotNullByDefault
+	class ThreadPosition {
+
+		private final MessageId messageId;
+		private final int depth;
+
+		public ThreadPosition(MessageId messageId, int depth) {
+			this.messageId = messageId;
+			this.depth = depth;
+		}
+
+		public MessageId getMessageId() {
+			return messageId;
+		}
+
+		/**
+		 * Returns the depth of the message in its thread, where the first
+		 * message of a thread has depth zero.
+		 */
+		public int getDepth() {
+			return depth;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package org.briarproject.briar.api.client;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+@Immutable
+@NotNullByDefault
+public class ThreadedHeader<H extends PostHeader> {
+
+	private final H header;
+	private final int depth;
+
+	public ThreadedHeader(H header, int depth) {
+		this.header = header;
+		this.depth = depth;
+	}
+
+	public H getHeader() {
+		return header;
+	}
+
+	/**
+	 * Returns the depth of the message in its thread, where the first
+	 * message of a thread has depth zero.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+}
@@ -12,6 +12,8 @@ import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.MessagingManager;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @NotNullByDefault
@@ -38,11 +40,32 @@ public interface ConversationManager {
 	Collection<ConversationMessageHeader> getMessageHeaders(ContactId c)
 			throws DbException;
 
+	/**
+	 * Returns the headers of messages in the given private conversation,
+	 * newest first, starting with the newest message with a timestamp
+	 * earlier than the given timestamp.
+	 * <p>
+	 * Up to the given number of headers are returned, followed by the
+	 * headers of any other messages with the same timestamp as the last
+	 * header returned, so the next page can be requested by passing that
+	 * timestamp.
+	 */
+	List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long before, int limit) throws DbException;
+
 	/**
 	 * Returns the unified group count for all private conversation messages.
 	 */
 	GroupCount getGroupCount(ContactId c) throws DbException;
 
+	/**
+	 * Returns the unified group counts for the given contacts, as described
+	 * in {@link #getGroupCount(ContactId)}. Contacts that no longer exist
+	 * are not included in the returned map.
+	 */
+	Map<ContactId, GroupCount> getGroupCounts(Collection<ContactId> c)
+			throws DbException;
+
 	/**
 	 * Deletes all messages exchanged with the given contact.
 	 */
@@ -62,6 +85,15 @@ public interface ConversationManager {
 		Collection<ConversationMessageHeader> getMessageHeaders(Transaction txn,
 				ContactId contactId) throws DbException;
 
+		/**
+		 * Returns the headers of messages in the conversation with the given
+		 * contact, newest first, as described in
+		 * {@link ConversationManager#getMessageHeaders(ContactId, long, int)}.
+		 */
+		List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+				ContactId contactId, long before, int limit)
+				throws DbException;
+
 		/**
 		 * Returns all conversation {@link MessageId}s for the given contact
 		 * this client is responsible for.
@@ -9,8 +9,10 @@ import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.client.ThreadedHeader;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -84,6 +86,15 @@ public interface ForumManager {
 	 */
 	Collection<ForumPostHeader> getPostHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts in the given
+	 * forum in depth-first order, starting after the post with the given ID,
+	 * or with the first post if the ID is null. Each header is returned with
+	 * the depth of the post in its thread.
+	 */
+	List<ThreadedHeader<ForumPostHeader>> getPostHeaders(GroupId g,
+			@Nullable MessageId after, int maxPosts) throws DbException;
+
 	/**
 	 * Registers a hook to be called whenever a forum is removed.
 	 */
@@ -11,6 +11,8 @@ import org.briarproject.briar.api.conversation.ConversationManager.ConversationC
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -67,6 +69,14 @@ public interface MessagingManager extends ConversationClient {
 	@Nullable
 	String getMessageText(MessageId m) throws DbException;
 
+	/**
+	 * Returns the texts of the private messages with the given IDs, loaded
+	 * in a single transaction. Private messages that have no text, or that
+	 * have been removed or deleted, are not included in the returned map.
+	 */
+	Map<MessageId, String> getMessageTexts(Collection<MessageId> m)
+			throws DbException;
+
 	/**
 	 * Returns the attachment with the given message ID and content type.
 	 *
@@ -10,8 +10,12 @@ import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.client.ThreadedHeader;
 
 import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 @NotNullByDefault
 public interface PrivateGroupManager {
@@ -101,6 +105,15 @@ public interface PrivateGroupManager {
 	 */
 	Collection<GroupMessageHeader> getHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of messages in the given
+	 * private group in depth-first order, starting after the message with
+	 * the given ID, or with the first message if the ID is null. Each header
+	 * is returned with the depth of the message in its thread.
+	 */
+	List<ThreadedHeader<GroupMessageHeader>> getHeaders(GroupId g,
+			@Nullable MessageId after, int maxMessages) throws DbException;
+
 	/**
 	 * Returns all members of the given private group.
 	 */
@@ -1,6 +1,7 @@
 package org.briarproject.briar.client;
 
 import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.ThreadIndex;
 
 import dagger.Module;
 import dagger.Provides;
@@ -12,4 +13,9 @@ public class BriarClientModule {
 	MessageTracker provideMessageTracker(MessageTrackerImpl messageTracker) {
 		return messageTracker;
 	}
+
+	@Provides
+	ThreadIndex provideThreadIndex(ThreadIndexImpl threadIndex) {
+		return threadIndex;
+	}
 }
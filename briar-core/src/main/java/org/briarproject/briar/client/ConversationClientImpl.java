@@ -14,9 +14,16 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.conversation.ConversationManager.ConversationClient;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.annotation.concurrent.Immutable;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.sort;
+
 @Immutable
 @NotNullByDefault
 public abstract class ConversationClientImpl extends BdfIncomingMessageHook
@@ -31,6 +38,35 @@ public abstract class ConversationClientImpl extends BdfIncomingMessageHook
 		this.messageTracker = messageTracker;
 	}
 
+	/**
+	 * Loads all the conversation's headers and returns the requested page.
+	 * Clients that may have many messages in a conversation should override
+	 * this method to select the page in the database.
+	 */
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, long before, int limit) throws DbException {
+		List<ConversationMessageHeader> headers = new ArrayList<>();
+		for (ConversationMessageHeader h : getMessageHeaders(txn, c)) {
+			if (h.getTimestamp() < before) headers.add(h);
+		}
+		sort(headers, (a, b) -> {
+			if (a.getTimestamp() > b.getTimestamp()) return -1;
+			if (a.getTimestamp() < b.getTimestamp()) return 1;
+			return 0;
+		});
+		// Return the first page, and any other messages with the same
+		// timestamp as the last message on the page
+		int size = Math.min(limit, headers.size());
+		if (size == 0) return emptyList();
+		long last = headers.get(size - 1).getTimestamp();
+		while (size < headers.size() &&
+				headers.get(size).getTimestamp() == last) {
+			size++;
+		}
+		return headers.subList(0, size);
+	}
+
 	@Override
 	public GroupCount getGroupCount(Transaction txn, ContactId contactId)
 			throws DbException {
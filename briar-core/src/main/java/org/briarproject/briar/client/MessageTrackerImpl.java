@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -14,10 +15,15 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.client.MessageTracker;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
+import static java.util.Collections.singletonList;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
@@ -63,9 +69,12 @@ class MessageTrackerImpl implements MessageTracker {
 	@Override
 	public void trackMessage(Transaction txn, GroupId g, long time,
 			boolean read) throws DbException {
+		int unreadDelta = read ? 0 : 1;
+		if (db.incrementMessageCounts(txn, g, 1, unreadDelta, time)) return;
+		// The counts haven't been moved out of the group metadata yet
 		GroupCount c = getGroupCount(txn, g);
 		int msgCount = c.getMsgCount() + 1;
-		int unreadCount = c.getUnreadCount() + (read ? 0 : 1);
+		int unreadCount = c.getUnreadCount() + unreadDelta;
 		long latestMsgTime = Math.max(c.getLatestMsgTime(), time);
 		storeGroupCount(txn, g, new GroupCount(msgCount, unreadCount,
 				latestMsgTime));
@@ -111,6 +120,33 @@ class MessageTrackerImpl implements MessageTracker {
 	@Override
 	public GroupCount getGroupCount(Transaction txn, GroupId g)
 			throws DbException {
+		return getGroupCounts(txn, singletonList(g)).get(g);
+	}
+
+	@Override
+	public Map<GroupId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<GroupId> groupIds) throws DbException {
+		Map<GroupId, MessageCounts> counts =
+				db.getMessageCounts(txn, groupIds);
+		Map<GroupId, GroupCount> groupCounts = new HashMap<>();
+		for (GroupId g : groupIds) {
+			MessageCounts c = counts.get(g);
+			if (c == null) {
+				groupCounts.put(g, getLegacyGroupCount(txn, g));
+			} else {
+				groupCounts.put(g, new GroupCount(c.getMsgCount(),
+						c.getUnreadCount(), c.getLatestMsgTime()));
+			}
+		}
+		return groupCounts;
+	}
+
+	/**
+	 * Returns the group count stored in the group metadata, where it was
+	 * kept before the database had a table for it.
+	 */
+	private GroupCount getLegacyGroupCount(Transaction txn, GroupId g)
+			throws DbException {
 		try {
 			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
 			return new GroupCount(
@@ -125,16 +161,8 @@ class MessageTrackerImpl implements MessageTracker {
 
 	private void storeGroupCount(Transaction txn, GroupId g, GroupCount c)
 			throws DbException {
-		try {
-			BdfDictionary d = BdfDictionary.of(
-					new BdfEntry(GROUP_KEY_MSG_COUNT, c.getMsgCount()),
-					new BdfEntry(GROUP_KEY_UNREAD_COUNT, c.getUnreadCount()),
-					new BdfEntry(GROUP_KEY_LATEST_MSG, c.getLatestMsgTime())
-			);
-			clientHelper.mergeGroupMetadata(txn, g, d);
-		} catch (FormatException e) {
-			throw new DbException(e);
-		}
+		db.setMessageCounts(txn, g, new MessageCounts(c.getMsgCount(),
+				c.getUnreadCount(), c.getLatestMsgTime()));
 	}
 
 	@Override
@@ -154,12 +182,17 @@ class MessageTrackerImpl implements MessageTracker {
 				meta.put(MSG_KEY_READ, read);
 				clientHelper.mergeMessageMetadata(txn, m, meta);
 
-				// update unread counter in group metadata
-				GroupCount c = getGroupCount(txn, g);
-				int unreadCount = c.getUnreadCount() + (read ? -1 : 1);
-				if (unreadCount < 0) throw new DbException();
-				storeGroupCount(txn, g, new GroupCount(c.getMsgCount(),
-						unreadCount, c.getLatestMsgTime()));
+				// update unread counter
+				int unreadDelta = read ? -1 : 1;
+				if (!db.incrementMessageCounts(txn, g, 0, unreadDelta, 0)) {
+					// Either the counts haven't been moved out of the group
+					// metadata yet, or the unread count would be negative
+					GroupCount c = getGroupCount(txn, g);
+					int unreadCount = c.getUnreadCount() + unreadDelta;
+					if (unreadCount < 0) throw new DbException();
+					storeGroupCount(txn, g, new GroupCount(c.getMsgCount(),
+							unreadCount, c.getLatestMsgTime()));
+				}
 			}
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
@@ -9,8 +9,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
@@ -26,8 +28,10 @@ public class MessageTreeImpl<T extends MessageTree.MessageNode>
 	@GuardedBy("this")
 	private final List<T> roots = new ArrayList<>();
 
+	// Lists are compared by identity, as their contents may be equal
 	@GuardedBy("this")
-	private final List<List<T>> unsortedLists = new ArrayList<>();
+	private final Set<List<T>> unsortedLists =
+			Collections.newSetFromMap(new IdentityHashMap<>());
 
 	@SuppressWarnings("UseCompareMethod")
 	private Comparator<T> comparator = (o1, o2) ->
@@ -54,13 +58,31 @@ public class MessageTreeImpl<T extends MessageTree.MessageNode>
 
 	@Override
 	public synchronized void add(T node) {
-		add(Collections.singletonList(node));
+		nodeMap.put(node.getId(), new ArrayList<>());
+		// insert the node into its sorted position instead of re-sorting
+		if (node.getParentId() == null) {
+			insertSorted(roots, node);
+		} else {
+			insertSorted(nodeMap.get(node.getParentId()), node);
+		}
+	}
+
+	@GuardedBy("this")
+	private void insertSorted(List<T> list, T node) {
+		// find the first element that sorts after the node, so that nodes
+		// that compare equal stay in the order they were added
+		int low = 0, high = list.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (comparator.compare(list.get(mid), node) <= 0) low = mid + 1;
+			else high = mid;
+		}
+		list.add(low, node);
 	}
 
 	@GuardedBy("this")
 	private void markAsUnsorted(List<T> list) {
-		if (!unsortedLists.contains(list))
-			unsortedLists.add(list);
+		unsortedLists.add(list);
 	}
 
 	@GuardedBy("this")
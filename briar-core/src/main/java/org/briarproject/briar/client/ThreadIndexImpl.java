@@ -0,0 +1,168 @@
+package org.briarproject.briar.client;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.briar.api.client.PostHeader;
+import org.briarproject.briar.api.client.ThreadIndex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+
+import static java.util.Collections.sort;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint64;
+import static org.briarproject.bramble.util.StringUtils.toHexString;
+
+/**
+ * Stores the position of each message in its thread in the database. Each
+ * message is given a sort key containing its timestamp and ID in hex, so
+ * threads are sorted by the timestamps of their first messages and replies
+ * are sorted by timestamp. The database keeps the depth of each message and
+ * its position in its thread in depth-first order, so the size of the index
+ * doesn't depend on the depth of the threads.
+ */
+@Immutable
+@NotNullByDefault
+class ThreadIndexImpl implements ThreadIndex {
+
+	private static final String GROUP_KEY_THREAD_INDEXED = "threadIndexed";
+
+	private final DatabaseComponent db;
+	private final ClientHelper clientHelper;
+
+	@Inject
+	ThreadIndexImpl(DatabaseComponent db, ClientHelper clientHelper) {
+		this.db = db;
+		this.clientHelper = clientHelper;
+	}
+
+	@Override
+	public void initializeIndex(Transaction txn, GroupId g)
+			throws DbException {
+		setIndexed(txn, g, true);
+	}
+
+	@Override
+	public boolean isIndexed(Transaction txn, GroupId g) throws DbException {
+		try {
+			BdfDictionary meta =
+					clientHelper.getGroupMetadataAsDictionary(txn, g);
+			return meta.getBoolean(GROUP_KEY_THREAD_INDEXED, false);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void buildIndex(Transaction txn, GroupId g,
+			Collection<? extends PostHeader> headers) throws DbException {
+		Map<MessageId, String> sortKeys = new HashMap<>();
+		for (PostHeader h : headers)
+			sortKeys.put(h.getId(), getSortKey(h.getId(), h.getTimestamp()));
+		// Messages whose parents are missing are indexed as new threads
+		Map<MessageId, List<PostHeader>> replies = new HashMap<>();
+		List<PostHeader> roots = new ArrayList<>();
+		for (PostHeader h : headers) {
+			MessageId parent = h.getParentId();
+			if (parent == null || !sortKeys.containsKey(parent)) {
+				roots.add(h);
+			} else {
+				List<PostHeader> siblings = replies.get(parent);
+				if (siblings == null) {
+					siblings = new ArrayList<>();
+					replies.put(parent, siblings);
+				}
+				siblings.add(h);
+			}
+		}
+		// Add the messages in depth-first order, so each message is added
+		// at the end of its thread. The database skips any messages that
+		// were indexed before the index became incomplete
+		Comparator<PostHeader> bySortKey = (a, b) ->
+				sortKeys.get(a.getId()).compareTo(sortKeys.get(b.getId()));
+		Deque<PostHeader> stack = new ArrayDeque<>();
+		pushInReverseOrder(stack, roots, bySortKey);
+		while (!stack.isEmpty()) {
+			PostHeader h = stack.pop();
+			MessageId parent = h.getParentId();
+			if (parent != null && !sortKeys.containsKey(parent)) parent = null;
+			if (!db.addMessageToThread(txn, h.getId(), parent,
+					sortKeys.get(h.getId()))) {
+				throw new DbException();
+			}
+			List<PostHeader> children = replies.get(h.getId());
+			if (children != null)
+				pushInReverseOrder(stack, children, bySortKey);
+		}
+		setIndexed(txn, g, true);
+	}
+
+	@Override
+	public void addMessage(Transaction txn, GroupId g, MessageId m,
+			@Nullable MessageId parent, long timestamp) throws DbException {
+		// Messages are added even if the group hasn't been indexed yet, as
+		// building the index skips messages that have already been added
+		if (!db.addMessageToThread(txn, m, parent, getSortKey(m, timestamp))
+				&& isIndexed(txn, g)) {
+			// The parent hasn't been indexed - a local message may be added
+			// before its parent. Rebuild the index when it's next used
+			setIndexed(txn, g, false);
+		}
+	}
+
+	@Override
+	public List<ThreadPosition> getMessages(Transaction txn, GroupId g,
+			@Nullable MessageId after, int maxMessages) throws DbException {
+		Map<MessageId, Integer> depths =
+				db.getThreadedMessages(txn, g, after, maxMessages);
+		List<ThreadPosition> positions = new ArrayList<>(depths.size());
+		for (Entry<MessageId, Integer> e : depths.entrySet())
+			positions.add(new ThreadPosition(e.getKey(), e.getValue()));
+		return positions;
+	}
+
+	private void setIndexed(Transaction txn, GroupId g, boolean indexed)
+			throws DbException {
+		BdfDictionary meta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_THREAD_INDEXED, indexed));
+		try {
+			clientHelper.mergeGroupMetadata(txn, g, meta);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	private void pushInReverseOrder(Deque<PostHeader> stack,
+			List<PostHeader> headers, Comparator<PostHeader> comparator) {
+		sort(headers, comparator);
+		for (int i = headers.size() - 1; i >= 0; i--) stack.push(headers.get(i));
+	}
+
+	private String getSortKey(MessageId m, long timestamp) {
+		byte[] sortKey = new byte[INT_64_BYTES + UniqueId.LENGTH];
+		writeUint64(timestamp, sortKey, 0);
+		System.arraycopy(m.getBytes(), 0, sortKey, INT_64_BYTES,
+				UniqueId.LENGTH);
+		return toHexString(sortKey);
+	}
+}
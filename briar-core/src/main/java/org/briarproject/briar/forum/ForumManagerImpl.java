@@ -21,6 +21,9 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.client.ThreadIndex;
+import org.briarproject.briar.api.client.ThreadIndex.ThreadPosition;
+import org.briarproject.briar.api.client.ThreadedHeader;
 import org.briarproject.briar.api.forum.Forum;
 import org.briarproject.briar.api.forum.ForumFactory;
 import org.briarproject.briar.api.forum.ForumManager;
@@ -60,18 +63,20 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 	private final ForumFactory forumFactory;
 	private final ForumPostFactory forumPostFactory;
 	private final MessageTracker messageTracker;
+	private final ThreadIndex threadIndex;
 	private final List<RemoveForumHook> removeHooks;
 
 	@Inject
 	ForumManagerImpl(DatabaseComponent db, ContactManager contactManager,
 			ClientHelper clientHelper, MetadataParser metadataParser,
 			ForumFactory forumFactory, ForumPostFactory forumPostFactory,
-			MessageTracker messageTracker) {
+			MessageTracker messageTracker, ThreadIndex threadIndex) {
 		super(db, clientHelper, metadataParser);
 		this.contactManager = contactManager;
 		this.forumFactory = forumFactory;
 		this.forumPostFactory = forumPostFactory;
 		this.messageTracker = messageTracker;
+		this.threadIndex = threadIndex;
 		removeHooks = new CopyOnWriteArrayList<>();
 	}
 
@@ -82,6 +87,8 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 		messageTracker.trackIncomingMessage(txn, m);
 
 		ForumPostHeader header = getForumPostHeader(txn, m.getId(), meta);
+		threadIndex.addMessage(txn, m.getGroupId(), m.getId(),
+				header.getParentId(), header.getTimestamp());
 		String text = getPostText(body);
 		ForumPostReceivedEvent event =
 				new ForumPostReceivedEvent(m.getGroupId(), header, text);
@@ -94,13 +101,14 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 	@Override
 	public Forum addForum(String name) throws DbException {
 		Forum f = forumFactory.createForum(name);
-		db.transaction(false, txn -> db.addGroup(txn, f.getGroup()));
+		db.transaction(false, txn -> addForum(txn, f));
 		return f;
 	}
 
 	@Override
 	public void addForum(Transaction txn, Forum f) throws DbException {
 		db.addGroup(txn, f.getGroup());
+		threadIndex.initializeIndex(txn, f.getId());
 	}
 
 	@Override
@@ -139,6 +147,9 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 				clientHelper.addLocalMessage(txn, p.getMessage(), meta, true,
 						false);
 				messageTracker.trackOutgoingMessage(txn, p.getMessage());
+				threadIndex.addMessage(txn, p.getMessage().getGroupId(),
+						p.getMessage().getId(), p.getParent(),
+						p.getMessage().getTimestamp());
 			} catch (FormatException e) {
 				throw new AssertionError(e);
 			}
@@ -193,38 +204,82 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 	@Override
 	public Collection<ForumPostHeader> getPostHeaders(GroupId g)
 			throws DbException {
+		return db.transactionWithResult(true, txn -> getPostHeaders(txn, g));
+	}
+
+	private Collection<ForumPostHeader> getPostHeaders(Transaction txn,
+			GroupId g) throws DbException {
+		try {
+			Map<MessageId, BdfDictionary> metadata =
+					clientHelper.getMessageMetadataAsDictionary(txn, g);
+			return getForumPostHeaders(txn, metadata);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<ThreadedHeader<ForumPostHeader>> getPostHeaders(GroupId g,
+			@Nullable MessageId after, int maxPosts) throws DbException {
+		// Index forums that were added before the index existed
+		if (!db.transactionWithResult(true, txn ->
+				threadIndex.isIndexed(txn, g))) {
+			db.transaction(false, txn -> {
+				if (!threadIndex.isIndexed(txn, g))
+					threadIndex.buildIndex(txn, g, getPostHeaders(txn, g));
+			});
+		}
 		try {
 			return db.transactionWithResult(true, txn -> {
-				Collection<ForumPostHeader> headers = new ArrayList<>();
-				Map<MessageId, BdfDictionary> metadata =
-						clientHelper.getMessageMetadataAsDictionary(txn, g);
-				// get all authors we need to get the info for
-				Set<AuthorId> authors = new HashSet<>();
-				for (Entry<MessageId, BdfDictionary> entry :
-						metadata.entrySet()) {
-					BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
-					Author a = clientHelper.parseAndValidateAuthor(authorList);
-					authors.add(a.getId());
-				}
-				// get information for all authors
-				Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-				for (AuthorId id : authors) {
-					authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
+				List<ThreadPosition> positions =
+						threadIndex.getMessages(txn, g, after, maxPosts);
+				Map<MessageId, BdfDictionary> metadata = new HashMap<>();
+				for (ThreadPosition p : positions) {
+					MessageId m = p.getMessageId();
+					metadata.put(m,
+							clientHelper.getMessageMetadataAsDictionary(txn, m));
 				}
-				// Parse the metadata
-				for (Entry<MessageId, BdfDictionary> entry :
-						metadata.entrySet()) {
-					BdfDictionary meta = entry.getValue();
-					headers.add(getForumPostHeader(txn, entry.getKey(), meta,
-							authorInfos));
+				Map<MessageId, ForumPostHeader> headers = new HashMap<>();
+				for (ForumPostHeader h : getForumPostHeaders(txn, metadata))
+					headers.put(h.getId(), h);
+				List<ThreadedHeader<ForumPostHeader>> threaded =
+						new ArrayList<>(positions.size());
+				for (ThreadPosition p : positions) {
+					threaded.add(new ThreadedHeader<>(
+							headers.get(p.getMessageId()), p.getDepth()));
 				}
-				return headers;
+				return threaded;
 			});
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	private Collection<ForumPostHeader> getForumPostHeaders(Transaction txn,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		Collection<ForumPostHeader> headers = new ArrayList<>();
+		// get all authors we need to get the info for
+		Set<AuthorId> authors = new HashSet<>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfList authorList = entry.getValue().getList(KEY_AUTHOR);
+			Author a = clientHelper.parseAndValidateAuthor(authorList);
+			authors.add(a.getId());
+		}
+		// get information for all authors
+		Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+		for (AuthorId id : authors) {
+			authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
+		}
+		// Parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			headers.add(getForumPostHeader(txn, entry.getKey(), meta,
+					authorInfos));
+		}
+		return headers;
+	}
+
 	@Override
 	public void registerRemoveForumHook(RemoveForumHook hook) {
 		removeHooks.add(hook);
@@ -1,11 +1,15 @@
 package org.briarproject.briar.messaging;
 
+import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.conversation.ConversationManager;
 import org.briarproject.briar.api.conversation.ConversationMessageHeader;
@@ -13,7 +17,11 @@ import org.briarproject.briar.api.conversation.DeletionResult;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -25,11 +33,14 @@ import javax.inject.Inject;
 class ConversationManagerImpl implements ConversationManager {
 
 	private final DatabaseComponent db;
+	private final MessageTracker messageTracker;
 	private final Set<ConversationClient> clients;
 
 	@Inject
-	ConversationManagerImpl(DatabaseComponent db) {
+	ConversationManagerImpl(DatabaseComponent db,
+			MessageTracker messageTracker) {
 		this.db = db;
+		this.messageTracker = messageTracker;
 		clients = new CopyOnWriteArraySet<>();
 	}
 
@@ -55,6 +66,35 @@ class ConversationManagerImpl implements ConversationManager {
 		return messages;
 	}
 
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(ContactId c,
+			long before, int limit) throws DbException {
+		if (limit <= 0) throw new IllegalArgumentException();
+		return db.transactionWithResult(true, txn -> {
+			// Each client returns its messages newest first, so merge the
+			// lists by taking the newest remaining message each time
+			PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+			for (ConversationClient client : clients) {
+				List<ConversationMessageHeader> headers =
+						client.getMessageHeaders(txn, c, before, limit);
+				if (!headers.isEmpty()) cursors.add(new Cursor(headers));
+			}
+			List<ConversationMessageHeader> page = new ArrayList<>();
+			long last = before;
+			while (!cursors.isEmpty()) {
+				Cursor cursor = cursors.poll();
+				ConversationMessageHeader h = cursor.next();
+				// Once the page is full, only add messages with the same
+				// timestamp as the last message
+				if (page.size() >= limit && h.getTimestamp() < last) break;
+				page.add(h);
+				last = h.getTimestamp();
+				if (cursor.hasNext()) cursors.add(cursor);
+			}
+			return page;
+		});
+	}
+
 	@Override
 	public GroupCount getGroupCount(ContactId contactId) throws DbException {
 		int msgCount = 0, unreadCount = 0;
@@ -75,6 +115,47 @@ class ConversationManagerImpl implements ConversationManager {
 		return new GroupCount(msgCount, unreadCount, latestTime);
 	}
 
+	@Override
+	public Map<ContactId, GroupCount> getGroupCounts(
+			Collection<ContactId> contactIds) throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			// Every client tracks its messages in its contact group, so
+			// collect the contact groups and load all their counts at once
+			Map<ContactId, List<GroupId>> contactGroups = new HashMap<>();
+			List<GroupId> groupIds = new ArrayList<>();
+			for (ContactId c : contactIds) {
+				Contact contact;
+				try {
+					contact = db.getContact(txn, c);
+				} catch (NoSuchContactException e) {
+					continue;
+				}
+				List<GroupId> ids = new ArrayList<>(clients.size());
+				for (ConversationClient client : clients)
+					ids.add(client.getContactGroup(contact).getId());
+				contactGroups.put(c, ids);
+				groupIds.addAll(ids);
+			}
+			Map<GroupId, GroupCount> counts =
+					messageTracker.getGroupCounts(txn, groupIds);
+			Map<ContactId, GroupCount> result = new HashMap<>();
+			for (Entry<ContactId, List<GroupId>> e : contactGroups.entrySet()) {
+				int msgCount = 0, unreadCount = 0;
+				long latestTime = 0;
+				for (GroupId g : e.getValue()) {
+					GroupCount count = counts.get(g);
+					msgCount += count.getMsgCount();
+					unreadCount += count.getUnreadCount();
+					if (count.getLatestMsgTime() > latestTime)
+						latestTime = count.getLatestMsgTime();
+				}
+				result.put(e.getKey(),
+						new GroupCount(msgCount, unreadCount, latestTime));
+			}
+			return result;
+		});
+	}
+
 	@Override
 	public DeletionResult deleteAllMessages(ContactId c) throws DbException {
 		return db.transactionWithResult(false, txn -> {
@@ -100,4 +181,34 @@ class ConversationManagerImpl implements ConversationManager {
 		});
 	}
 
+	/**
+	 * A position in a list of headers sorted newest first. Cursors are
+	 * ordered by the timestamp of their next header, newest first.
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+
+		private final List<ConversationMessageHeader> headers;
+		private int index = 0;
+
+		private Cursor(List<ConversationMessageHeader> headers) {
+			this.headers = headers;
+		}
+
+		private boolean hasNext() {
+			return index < headers.size();
+		}
+
+		private ConversationMessageHeader next() {
+			return headers.get(index++);
+		}
+
+		@Override
+		public int compareTo(Cursor c) {
+			long timestamp = headers.get(index).getTimestamp();
+			long otherTimestamp = c.headers.get(c.index).getTimestamp();
+			if (timestamp > otherTimestamp) return -1;
+			if (timestamp < otherTimestamp) return 1;
+			return 0;
+		}
+	}
 }
@@ -9,10 +9,13 @@ import org.briarproject.bramble.api.contact.ContactManager.ContactHook;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.api.data.BdfReaderFactory;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
@@ -48,11 +51,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
@@ -84,14 +89,17 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 	private final MessageTracker messageTracker;
 	private final ClientVersioningManager clientVersioningManager;
 	private final ContactGroupFactory contactGroupFactory;
+	private final BdfReaderFactory bdfReaderFactory;
 
 	@Inject
 	MessagingManagerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			ClientVersioningManager clientVersioningManager,
 			MetadataParser metadataParser, MessageTracker messageTracker,
-			ContactGroupFactory contactGroupFactory) {
+			ContactGroupFactory contactGroupFactory,
+			BdfReaderFactory bdfReaderFactory) {
 		this.db = db;
 		this.clientHelper = clientHelper;
+		this.bdfReaderFactory = bdfReaderFactory;
 		this.metadataParser = metadataParser;
 		this.messageTracker = messageTracker;
 		this.clientVersioningManager = clientVersioningManager;
@@ -341,27 +349,11 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		}
 		Collection<ConversationMessageHeader> headers = new ArrayList<>();
 		for (MessageStatus s : statuses) {
-			MessageId id = s.getMessageId();
-			BdfDictionary meta = metadata.get(id);
+			BdfDictionary meta = metadata.get(s.getMessageId());
 			if (meta == null) continue;
 			try {
-				// Message type is null for version 0.0 private messages
-				Long messageType = meta.getOptionalLong(MSG_KEY_MSG_TYPE);
-				if (messageType != null && messageType != PRIVATE_MESSAGE)
-					continue;
-				long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
-				boolean local = meta.getBoolean(MSG_KEY_LOCAL);
-				boolean read = meta.getBoolean(MSG_KEY_READ);
-				if (messageType == null) {
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), true,
-							emptyList()));
-				} else {
-					boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
-					headers.add(new PrivateMessageHeader(id, g, timestamp,
-							local, read, s.isSent(), s.isSeen(), hasText,
-							parseAttachmentHeaders(meta)));
-				}
+				PrivateMessageHeader header = getMessageHeader(g, s, meta);
+				if (header != null) headers.add(header);
 			} catch (FormatException e) {
 				throw new DbException(e);
 			}
@@ -369,6 +361,70 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		return headers;
 	}
 
+	@Override
+	public List<ConversationMessageHeader> getMessageHeaders(Transaction txn,
+			ContactId c, long before, int limit) throws DbException {
+		GroupId g = getContactGroup(db.getContact(txn, c)).getId();
+		List<ConversationMessageHeader> headers = new ArrayList<>();
+		long last = before;
+		try {
+			while (true) {
+				// Statuses are returned newest first, but the page may
+				// include attachments, so we may need more than one page
+				List<MessageStatus> statuses =
+						db.getMessageStatus(txn, c, g, before, limit);
+				if (statuses.isEmpty()) return headers;
+				List<MessageId> ids = new ArrayList<>(statuses.size());
+				for (MessageStatus s : statuses) ids.add(s.getMessageId());
+				Map<MessageId, BdfDictionary> metadata =
+						clientHelper.getMessageMetadataAsDictionary(txn, ids);
+				for (MessageStatus s : statuses) {
+					// Once the page is full, only add messages with the same
+					// timestamp as the last message
+					if (headers.size() >= limit && s.getTimestamp() < last)
+						return headers;
+					BdfDictionary meta = metadata.get(s.getMessageId());
+					if (meta == null) continue;
+					PrivateMessageHeader header = getMessageHeader(g, s, meta);
+					if (header != null) {
+						headers.add(header);
+						last = s.getTimestamp();
+					}
+				}
+				// Stop if there are no more messages. Otherwise the last
+				// status is the oldest, so continue from there
+				if (statuses.size() < limit) return headers;
+				before = statuses.get(statuses.size() - 1).getTimestamp();
+			}
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns a header for the given message, or null if the message isn't
+	 * a private message.
+	 */
+	@Nullable
+	private PrivateMessageHeader getMessageHeader(GroupId g, MessageStatus s,
+			BdfDictionary meta) throws FormatException {
+		// Message type is null for version 0.0 private messages
+		Long messageType = meta.getOptionalLong(MSG_KEY_MSG_TYPE);
+		if (messageType != null && messageType != PRIVATE_MESSAGE)
+			return null;
+		MessageId id = s.getMessageId();
+		long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
+		boolean local = meta.getBoolean(MSG_KEY_LOCAL);
+		boolean read = meta.getBoolean(MSG_KEY_READ);
+		if (messageType == null) {
+			return new PrivateMessageHeader(id, g, timestamp, local, read,
+					s.isSent(), s.isSeen(), true, emptyList());
+		}
+		boolean hasText = meta.getBoolean(MSG_KEY_HAS_TEXT);
+		return new PrivateMessageHeader(id, g, timestamp, local, read,
+				s.isSent(), s.isSeen(), hasText, parseAttachmentHeaders(meta));
+	}
+
 	@Override
 	public Set<MessageId> getMessageIds(Transaction txn, ContactId c)
 			throws DbException {
@@ -391,12 +447,49 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 
 	@Override
 	public String getMessageText(MessageId m) throws DbException {
+		return db.transactionWithResult(true, txn ->
+				getMessageText(db.getMessage(txn, m)));
+	}
+
+	@Override
+	public Map<MessageId, String> getMessageTexts(Collection<MessageId> ids)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> {
+			Map<MessageId, String> texts = new HashMap<>();
+			for (MessageId m : ids) {
+				Message message;
+				try {
+					message = db.getMessage(txn, m);
+				} catch (NoSuchMessageException | MessageDeletedException e) {
+					// The message may have been removed since the ID was
+					// loaded, so leave it out rather than failing the rest
+					continue;
+				}
+				String text = getMessageText(message);
+				if (text != null) texts.put(m, text);
+			}
+			return texts;
+		});
+	}
+
+	/**
+	 * Reads the text of a private message straight out of the message body,
+	 * without parsing the attachment headers that follow it.
+	 */
+	@Nullable
+	private String getMessageText(Message m) throws DbException {
+		BdfReader reader =
+				bdfReaderFactory.createReader(m.getBodyInputStream());
 		try {
-			BdfList body = clientHelper.getMessageAsList(m);
-			if (body.size() == 1) return body.getString(0); // Legacy format
-			else return body.getOptionalString(1);
+			reader.readListStart();
+			if (reader.hasString()) return reader.readString(); // Legacy format
+			reader.skipLong(); // Message type
+			if (reader.hasNull()) return null;
+			return reader.readString();
 		} catch (FormatException e) {
 			throw new DbException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -17,9 +17,7 @@ import org.briarproject.bramble.api.sync.MessageContext;
 import org.briarproject.bramble.api.sync.validation.MessageValidator;
 import org.briarproject.bramble.api.system.Clock;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import javax.annotation.concurrent.Immutable;
 
@@ -67,9 +65,8 @@ class PrivateMessageValidator implements MessageValidator {
 		}
 		try {
 			// TODO: Support large messages
-			InputStream in = new ByteArrayInputStream(m.getBody());
-			CountingInputStream countIn =
-					new CountingInputStream(in, MAX_MESSAGE_BODY_LENGTH);
+			CountingInputStream countIn = new CountingInputStream(
+					m.getBodyInputStream(), MAX_MESSAGE_BODY_LENGTH);
 			BdfReader reader = bdfReaderFactory.createReader(countIn);
 			BdfList list = reader.readList();
 			long bytesRead = countIn.getBytesRead();
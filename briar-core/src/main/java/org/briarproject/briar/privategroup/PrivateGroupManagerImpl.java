@@ -27,6 +27,9 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.client.ProtocolStateException;
+import org.briarproject.briar.api.client.ThreadIndex;
+import org.briarproject.briar.api.client.ThreadIndex.ThreadPosition;
+import org.briarproject.briar.api.client.ThreadedHeader;
 import org.briarproject.briar.api.privategroup.GroupMember;
 import org.briarproject.briar.api.privategroup.GroupMessage;
 import org.briarproject.briar.api.privategroup.GroupMessageHeader;
@@ -51,6 +54,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
@@ -85,6 +89,7 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	private final ContactManager contactManager;
 	private final IdentityManager identityManager;
 	private final MessageTracker messageTracker;
+	private final ThreadIndex threadIndex;
 	private final List<PrivateGroupHook> hooks;
 
 	@Inject
@@ -92,12 +97,13 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			MetadataParser metadataParser, DatabaseComponent db,
 			PrivateGroupFactory privateGroupFactory,
 			ContactManager contactManager, IdentityManager identityManager,
-			MessageTracker messageTracker) {
+			MessageTracker messageTracker, ThreadIndex threadIndex) {
 		super(db, clientHelper, metadataParser);
 		this.privateGroupFactory = privateGroupFactory;
 		this.contactManager = contactManager;
 		this.identityManager = identityManager;
 		this.messageTracker = messageTracker;
+		this.threadIndex = threadIndex;
 		hooks = new CopyOnWriteArrayList<>();
 	}
 
@@ -126,6 +132,7 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 					new BdfEntry(GROUP_KEY_DISSOLVED, false)
 			);
 			clientHelper.mergeGroupMetadata(txn, group.getId(), meta);
+			threadIndex.initializeIndex(txn, group.getId());
 			joinPrivateGroup(txn, joinMsg, creator);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -140,6 +147,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		addMessageMetadata(meta, m);
 		clientHelper.addLocalMessage(txn, m.getMessage(), meta, true, false);
 		messageTracker.trackOutgoingMessage(txn, m.getMessage());
+		threadIndex.addMessage(txn, m.getMessage().getGroupId(),
+				m.getMessage().getId(), null, m.getMessage().getTimestamp());
 		addMember(txn, m.getMessage().getGroupId(), m.getMember(), VISIBLE);
 		setPreviousMsgId(txn, m.getMessage().getGroupId(),
 				m.getMessage().getId());
@@ -223,6 +232,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			// track message
 			setPreviousMsgId(txn, g, m.getMessage().getId());
 			messageTracker.trackOutgoingMessage(txn, m.getMessage());
+			threadIndex.addMessage(txn, g, m.getMessage().getId(),
+					m.getParent(), m.getMessage().getTimestamp());
 
 			// broadcast event
 			attachGroupMessageAddedEvent(txn, m.getMessage(), meta, true);
@@ -319,38 +330,59 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public Collection<GroupMessageHeader> getHeaders(GroupId g)
 			throws DbException {
-		Collection<GroupMessageHeader> headers = new ArrayList<>();
 		Transaction txn = db.startTransaction(true);
+		try {
+			Collection<GroupMessageHeader> headers = getHeaders(txn, g);
+			db.commitTransaction(txn);
+			return headers;
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private Collection<GroupMessageHeader> getHeaders(Transaction txn,
+			GroupId g) throws DbException {
 		try {
 			Map<MessageId, BdfDictionary> metadata =
 					clientHelper.getMessageMetadataAsDictionary(txn, g);
-			// get all authors we need to get the information for
-			Set<AuthorId> authors = new HashSet<>();
-			for (BdfDictionary meta : metadata.values()) {
-				authors.add(getAuthor(meta).getId());
-			}
-			// get information for all authors
-			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
-			for (AuthorId id : authors) {
-				authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
+			return getHeaders(txn, g, metadata);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public List<ThreadedHeader<GroupMessageHeader>> getHeaders(GroupId g,
+			@Nullable MessageId after, int maxMessages) throws DbException {
+		// Index groups that were added before the index existed
+		if (!db.transactionWithResult(true, txn ->
+				threadIndex.isIndexed(txn, g))) {
+			db.transaction(false, txn -> {
+				if (!threadIndex.isIndexed(txn, g))
+					threadIndex.buildIndex(txn, g, getHeaders(txn, g));
+			});
+		}
+		Transaction txn = db.startTransaction(true);
+		try {
+			List<ThreadPosition> positions =
+					threadIndex.getMessages(txn, g, after, maxMessages);
+			Map<MessageId, BdfDictionary> metadata = new HashMap<>();
+			for (ThreadPosition p : positions) {
+				MessageId m = p.getMessageId();
+				metadata.put(m,
+						clientHelper.getMessageMetadataAsDictionary(txn, m));
 			}
-			// get current visibilities for join messages
-			Map<Author, Visibility> visibilities = getMembers(txn, g);
-			// parse the metadata
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				if (meta.getLong(KEY_TYPE) == JOIN.getInt()) {
-					Author member = getAuthor(meta);
-					Visibility v = visibilities.get(member);
-					headers.add(getJoinMessageHeader(txn, g, entry.getKey(),
-							meta, authorInfos, v));
-				} else {
-					headers.add(getGroupMessageHeader(txn, g, entry.getKey(),
-							meta, authorInfos));
-				}
+			Map<MessageId, GroupMessageHeader> headers = new HashMap<>();
+			for (GroupMessageHeader h : getHeaders(txn, g, metadata))
+				headers.put(h.getId(), h);
+			List<ThreadedHeader<GroupMessageHeader>> threaded =
+					new ArrayList<>(positions.size());
+			for (ThreadPosition p : positions) {
+				threaded.add(new ThreadedHeader<>(
+						headers.get(p.getMessageId()), p.getDepth()));
 			}
 			db.commitTransaction(txn);
-			return headers;
+			return threaded;
 		} catch (FormatException e) {
 			throw new DbException(e);
 		} finally {
@@ -358,6 +390,38 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		}
 	}
 
+	private Collection<GroupMessageHeader> getHeaders(Transaction txn,
+			GroupId g, Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		Collection<GroupMessageHeader> headers = new ArrayList<>();
+		// get all authors we need to get the information for
+		Set<AuthorId> authors = new HashSet<>();
+		for (BdfDictionary meta : metadata.values()) {
+			authors.add(getAuthor(meta).getId());
+		}
+		// get information for all authors
+		Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+		for (AuthorId id : authors) {
+			authorInfos.put(id, contactManager.getAuthorInfo(txn, id));
+		}
+		// get current visibilities for join messages
+		Map<Author, Visibility> visibilities = getMembers(txn, g);
+		// parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			if (meta.getLong(KEY_TYPE) == JOIN.getInt()) {
+				Author member = getAuthor(meta);
+				Visibility v = visibilities.get(member);
+				headers.add(getJoinMessageHeader(txn, g, entry.getKey(),
+						meta, authorInfos, v));
+			} else {
+				headers.add(getGroupMessageHeader(txn, g, entry.getKey(),
+						meta, authorInfos));
+			}
+		}
+		return headers;
+	}
+
 	private GroupMessageHeader getGroupMessageHeader(Transaction txn, GroupId g,
 			MessageId id, BdfDictionary meta,
 			Map<AuthorId, AuthorInfo> authorInfos)
@@ -532,6 +596,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		addMember(txn, m.getGroupId(), member, v);
 		// track message and broadcast event
 		messageTracker.trackIncomingMessage(txn, m);
+		threadIndex.addMessage(txn, m.getGroupId(), m.getId(), null,
+				m.getTimestamp());
 		attachJoinMessageAddedEvent(txn, m, meta, false, v);
 	}
 
@@ -568,6 +634,10 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			throw new FormatException();
 		// track message and broadcast event
 		messageTracker.trackIncomingMessage(txn, m);
+		MessageId parentId =
+				parentIdBytes == null ? null : new MessageId(parentIdBytes);
+		threadIndex.addMessage(txn, m.getGroupId(), m.getId(), parentId,
+				timestamp);
 		attachGroupMessageAddedEvent(txn, m, meta, false);
 	}
 
@@ -4,20 +4,33 @@ import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.MessageCounts;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.jmock.Expectations;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_UNREAD_COUNT;
+import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
@@ -39,17 +52,127 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 	public void testInitializeGroupCount() throws Exception {
 		Transaction txn = new Transaction(null, false);
 		long now = 42L;
-		BdfDictionary dictionary = BdfDictionary.of(
-				new BdfEntry(GROUP_KEY_MSG_COUNT, 0),
-				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 0),
-				new BdfEntry(GROUP_KEY_LATEST_MSG, now)
-		);
+		AtomicReference<MessageCounts> counts = new AtomicReference<>();
 		context.checking(new Expectations() {{
 			oneOf(clock).currentTimeMillis();
 			will(returnValue(now));
-			oneOf(clientHelper).mergeGroupMetadata(txn, groupId, dictionary);
+			oneOf(db).setMessageCounts(with(txn), with(groupId),
+					with(any(MessageCounts.class)));
+			will(new CaptureArgumentAction<>(counts, MessageCounts.class, 2));
 		}});
 		messageTracker.initializeGroupCount(txn, groupId);
+		assertCounts(0, 0, now, counts.get());
+	}
+
+	@Test
+	public void testTrackMessageIncrementsCounts() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		context.checking(new Expectations() {{
+			oneOf(db).incrementMessageCounts(txn, groupId, 1, 1, 123L);
+			will(returnValue(true));
+		}});
+		messageTracker.trackMessage(txn, groupId, 123L, false);
+	}
+
+	@Test
+	public void testTrackMessageMovesLegacyCounts() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		BdfDictionary legacy = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 5),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 2),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, 456L)
+		);
+		AtomicReference<MessageCounts> counts = new AtomicReference<>();
+		context.checking(new Expectations() {{
+			// The counts haven't been moved out of the group metadata yet
+			oneOf(db).incrementMessageCounts(txn, groupId, 1, 0, 123L);
+			will(returnValue(false));
+			oneOf(db).getMessageCounts(txn, singletonList(groupId));
+			will(returnValue(emptyMap()));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(legacy));
+			oneOf(db).setMessageCounts(with(txn), with(groupId),
+					with(any(MessageCounts.class)));
+			will(new CaptureArgumentAction<>(counts, MessageCounts.class, 2));
+		}});
+		messageTracker.trackMessage(txn, groupId, 123L, true);
+		assertCounts(6, 2, 456L, counts.get());
+	}
+
+	@Test
+	public void testSetReadFlagDecrementsUnreadCount() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		BdfDictionary unread = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_READ, false));
+		BdfDictionary read = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_READ, true));
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, messageId);
+			will(returnValue(unread));
+			oneOf(clientHelper).mergeMessageMetadata(txn, messageId, read);
+			oneOf(db).incrementMessageCounts(txn, groupId, 0, -1, 0);
+			will(returnValue(true));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+		messageTracker.setReadFlag(groupId, messageId, true);
+	}
+
+	@Test(expected = DbException.class)
+	public void testSetReadFlagThrowsExceptionIfUnreadCountIsZero()
+			throws Exception {
+		Transaction txn = new Transaction(null, false);
+		BdfDictionary unread = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_READ, false));
+		BdfDictionary read = BdfDictionary.of(
+				new BdfEntry(MSG_KEY_READ, true));
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, messageId);
+			will(returnValue(unread));
+			oneOf(clientHelper).mergeMessageMetadata(txn, messageId, read);
+			oneOf(db).incrementMessageCounts(txn, groupId, 0, -1, 0);
+			will(returnValue(false));
+			oneOf(db).getMessageCounts(txn, singletonList(groupId));
+			will(returnValue(singletonMap(groupId,
+					new MessageCounts(1, 0, 123L))));
+			oneOf(db).endTransaction(txn);
+		}});
+		messageTracker.setReadFlag(groupId, messageId, true);
+	}
+
+	@Test
+	public void testGetGroupCounts() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		GroupId legacyGroupId = new GroupId(TestUtils.getRandomId());
+		List<GroupId> groupIds = asList(groupId, legacyGroupId);
+		BdfDictionary legacy = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_MSG_COUNT, 5),
+				new BdfEntry(GROUP_KEY_UNREAD_COUNT, 2),
+				new BdfEntry(GROUP_KEY_LATEST_MSG, 456L)
+		);
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageCounts(txn, groupIds);
+			will(returnValue(singletonMap(groupId,
+					new MessageCounts(3, 1, 123L))));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+					legacyGroupId);
+			will(returnValue(legacy));
+		}});
+		Map<GroupId, GroupCount> counts =
+				messageTracker.getGroupCounts(txn, groupIds);
+		assertEquals(2, counts.size());
+		GroupCount count = counts.get(groupId);
+		assertEquals(3, count.getMsgCount());
+		assertEquals(1, count.getUnreadCount());
+		assertEquals(123L, count.getLatestMsgTime());
+		GroupCount legacyCount = counts.get(legacyGroupId);
+		assertEquals(5, legacyCount.getMsgCount());
+		assertEquals(2, legacyCount.getUnreadCount());
+		assertEquals(456L, legacyCount.getLatestMsgTime());
 	}
 
 	@Test
@@ -71,4 +194,11 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 		assertEquals(messageId, loadedId);
 	}
 
+	private void assertCounts(int msgCount, int unreadCount,
+			long latestMsgTime, MessageCounts counts) {
+		assertEquals(msgCount, counts.getMsgCount());
+		assertEquals(unreadCount, counts.getUnreadCount());
+		assertEquals(latestMsgTime, counts.getLatestMsgTime());
+	}
+
 }
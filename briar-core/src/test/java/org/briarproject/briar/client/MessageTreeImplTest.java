@@ -25,6 +25,44 @@ public class MessageTreeImplTest {
 		testSimpleTree();
 	}
 
+	@Test
+	public void testAddingSingleNodes() {
+		tree = new MessageTreeImpl<>();
+		TestNode[] nodes = new TestNode[5];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new TestNode();
+		}
+		/*
+		Construct the following tree, adding one node at a time:
+		0 ->
+		   2
+		   3
+		1
+		4
+		 */
+		nodes[2].setParentId(nodes[0].getId());
+		nodes[3].setParentId(nodes[0].getId());
+		long timestamp = System.currentTimeMillis();
+		nodes[0].setTimestamp(timestamp - 5);
+		nodes[1].setTimestamp(timestamp - 4);
+		nodes[2].setTimestamp(timestamp - 3);
+		nodes[3].setTimestamp(timestamp - 2);
+		// nodes with equal timestamps stay in the order they were added
+		nodes[4].setTimestamp(timestamp - 4);
+		tree.add(nodes[1]);
+		tree.add(nodes[0]);
+		tree.add(nodes[3]);
+		tree.add(nodes[2]);
+		tree.add(nodes[4]);
+		TestNode[] sortedNodes =
+				tree.depthFirstOrder().toArray(new TestNode[5]);
+		assertEquals(nodes[0], sortedNodes[0]);
+		assertEquals(nodes[2], sortedNodes[1]);
+		assertEquals(nodes[3], sortedNodes[2]);
+		assertEquals(nodes[1], sortedNodes[3]);
+		assertEquals(nodes[4], sortedNodes[4]);
+	}
+
 	private void testSimpleTree() {
 		TestNode[] nodes = new TestNode[5];
 		for (int i = 0; i < nodes.length; i++) {
@@ -0,0 +1,135 @@
+package org.briarproject.briar.forum;
+
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.briarproject.briar.api.client.ThreadedHeader;
+import org.briarproject.briar.api.forum.Forum;
+import org.briarproject.briar.api.forum.ForumManager;
+import org.briarproject.briar.api.forum.ForumPost;
+import org.briarproject.briar.api.forum.ForumPostHeader;
+import org.briarproject.briar.test.BriarIntegrationTest;
+import org.briarproject.briar.test.BriarIntegrationTestComponent;
+import org.briarproject.briar.test.DaggerBriarIntegrationTestComponent;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.briarproject.briar.test.BriarTestUtils.getRealLocalAuthor;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how long it takes to load the post headers of a large forum
+ * with a few hundred authors, either all at once or a page at a time.
+ */
+@Ignore
+public class ForumManagerPerformanceTest
+		extends BriarIntegrationTest<BriarIntegrationTestComponent> {
+
+	private static final int POSTS = 20_000;
+	private static final int AUTHORS = 300;
+	private static final int PAGE_SIZE = 50;
+	private static final int WARMUP_ITERATIONS = 2;
+	private static final int ITERATIONS = 10;
+
+	@Override
+	protected void createComponents() {
+		BriarIntegrationTestComponent component =
+				DaggerBriarIntegrationTestComponent.builder().build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(component);
+		component.inject(this);
+
+		c0 = DaggerBriarIntegrationTestComponent.builder()
+				.testDatabaseConfigModule(new TestDatabaseConfigModule(t0Dir))
+				.build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(c0);
+
+		c1 = DaggerBriarIntegrationTestComponent.builder()
+				.testDatabaseConfigModule(new TestDatabaseConfigModule(t1Dir))
+				.build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(c1);
+
+		c2 = DaggerBriarIntegrationTestComponent.builder()
+				.testDatabaseConfigModule(new TestDatabaseConfigModule(t2Dir))
+				.build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(c2);
+	}
+
+	@Test
+	public void testGetPostHeaders() throws Exception {
+		ForumManager forumManager = c0.getForumManager();
+		GroupId g = addForumWithPosts(forumManager);
+
+		List<Double> results = new ArrayList<>(ITERATIONS);
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			long start = System.nanoTime();
+			Collection<ForumPostHeader> headers = forumManager.getPostHeaders(g);
+			long duration = System.nanoTime() - start;
+			assertEquals(POSTS, headers.size());
+			if (i >= WARMUP_ITERATIONS) results.add(duration / 1_000_000.0);
+		}
+		writeResult("Get post headers (ms)", results);
+	}
+
+	@Test
+	public void testGetPageOfPostHeaders() throws Exception {
+		ForumManager forumManager = c0.getForumManager();
+		GroupId g = addForumWithPosts(forumManager);
+		// Start in the middle of the forum
+		MessageId after = forumManager.getPostHeaders(g, null, POSTS / 2)
+				.get(POSTS / 2 - 1).getHeader().getId();
+
+		List<Double> results = new ArrayList<>(ITERATIONS);
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			long start = System.nanoTime();
+			List<ThreadedHeader<ForumPostHeader>> headers =
+					forumManager.getPostHeaders(g, after, PAGE_SIZE);
+			long duration = System.nanoTime() - start;
+			assertEquals(PAGE_SIZE, headers.size());
+			if (i >= WARMUP_ITERATIONS) results.add(duration / 1_000_000.0);
+		}
+		writeResult("Get page of post headers (ms)", results);
+	}
+
+	private GroupId addForumWithPosts(ForumManager forumManager)
+			throws Exception {
+		Forum forum = forumManager.addForum("Test Forum");
+		GroupId g = forum.getId();
+		List<LocalAuthor> authors = new ArrayList<>(AUTHORS);
+		for (int i = 0; i < AUTHORS; i++)
+			authors.add(getRealLocalAuthor(c0.getAuthorFactory()));
+		long timestamp = clock.currentTimeMillis() - POSTS;
+		for (int i = 0; i < POSTS; i++) {
+			ForumPost post = forumPostFactory.createPost(g, timestamp + i,
+					null, authors.get(i % AUTHORS), getRandomString(100));
+			forumManager.addLocalPost(post);
+		}
+		return g;
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> results)
+			throws IOException {
+		String result = String.format("%s\t%.1f\t%.1f", name,
+				getMean(results), getMedian(results));
+		System.out.println(result);
+		PrintWriter out = new PrintWriter(new FileOutputStream(
+				getTestName() + ".tsv", true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
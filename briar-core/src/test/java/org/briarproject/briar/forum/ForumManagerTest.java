@@ -1,6 +1,8 @@
 package org.briarproject.briar.forum;
 
 import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.briar.api.client.ThreadedHeader;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
 import org.briarproject.briar.api.forum.Forum;
 import org.briarproject.briar.api.forum.ForumManager;
@@ -14,6 +16,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -189,6 +192,67 @@ public class ForumManagerTest
 		assertEquals(2, forumManager1.getPostHeaders(groupId0).size());
 	}
 
+	@Test
+	public void testGetPostHeadersInThreadOrder() throws Exception {
+		// add two threads, the first with a reply to a reply
+		long time = clock.currentTimeMillis();
+		ForumPost post1 = createForumPost(groupId0, null, "a", time - 3000);
+		ForumPost post2 = createForumPost(groupId0, null, "b", time - 2000);
+		ForumPost post3 = createForumPost(groupId0, post1, "c", time - 1000);
+		ForumPost post4 = createForumPost(groupId0, post3, "d", time);
+		forumManager0.addLocalPost(post1);
+		forumManager0.addLocalPost(post2);
+		forumManager0.addLocalPost(post3);
+		forumManager0.addLocalPost(post4);
+		assertThreadOrder(forumManager0, post1, 0, post3, 1, post4, 2,
+				post2, 0);
+
+		// send the posts to 1, which should index them on delivery
+		sync0To1(4, true);
+		assertThreadOrder(forumManager1, post1, 0, post3, 1, post4, 2,
+				post2, 0);
+
+		// get the posts a page at a time
+		List<ThreadedHeader<ForumPostHeader>> page =
+				forumManager1.getPostHeaders(groupId0, null, 3);
+		assertEquals(3, page.size());
+		MessageId last = page.get(2).getHeader().getId();
+		assertEquals(post4.getMessage().getId(), last);
+		page = forumManager1.getPostHeaders(groupId0, last, 3);
+		assertEquals(1, page.size());
+		last = page.get(0).getHeader().getId();
+		assertEquals(post2.getMessage().getId(), last);
+		assertTrue(forumManager1.getPostHeaders(groupId0, last, 3).isEmpty());
+	}
+
+	@Test
+	public void testGetPostHeadersAfterAddingReplyBeforeParent()
+			throws Exception {
+		// add a reply before its parent, which invalidates the index
+		long time = clock.currentTimeMillis();
+		ForumPost post1 = createForumPost(groupId0, null, "a", time - 1000);
+		ForumPost post2 = createForumPost(groupId0, post1, "b", time);
+		forumManager0.addLocalPost(post2);
+		forumManager0.addLocalPost(post1);
+
+		// the index should be rebuilt
+		assertThreadOrder(forumManager0, post1, 0, post2, 1);
+	}
+
+	private void assertThreadOrder(ForumManager forumManager,
+			Object... postsAndDepths) throws Exception {
+		List<ThreadedHeader<ForumPostHeader>> headers =
+				forumManager.getPostHeaders(groupId0, null, 100);
+		assertEquals(postsAndDepths.length / 2, headers.size());
+		for (int i = 0; i < headers.size(); i++) {
+			ForumPost post = (ForumPost) postsAndDepths[i * 2];
+			int depth = (Integer) postsAndDepths[i * 2 + 1];
+			assertEquals(post.getMessage().getId(),
+					headers.get(i).getHeader().getId());
+			assertEquals(depth, headers.get(i).getDepth());
+		}
+	}
+
 	@Test
 	public void testForumPostWithParentInOtherGroup() throws Exception {
 		// share a second forum
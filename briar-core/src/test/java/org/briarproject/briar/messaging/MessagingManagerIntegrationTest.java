@@ -6,6 +6,8 @@ import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.conversation.ConversationManager;
 import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 import org.briarproject.briar.api.conversation.DeletionResult;
 import org.briarproject.briar.api.messaging.AttachmentHeader;
@@ -21,24 +23,31 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -330,6 +339,84 @@ public class MessagingManagerIntegrationTest
 				.allDeleted());
 	}
 
+	@Test
+	public void testConversationIsListedInPages() throws Exception {
+		GroupId g = messagingManager0.getConversationId(contactId);
+		// Add messages with timestamps 1 to 5, two of them with timestamp 2,
+		// and an attachment that's not listed as a message
+		AttachmentHeader attachment = c0.getMessagingManager()
+				.addLocalAttachment(g, 4, "image/jpeg",
+						new ByteArrayInputStream(getRandomBytes(42)));
+		List<MessageId> ids = new ArrayList<>();
+		for (long timestamp : new long[] {1, 2, 2, 3, 4, 5}) {
+			List<AttachmentHeader> attachments = timestamp == 4 ?
+					singletonList(attachment) : emptyList();
+			PrivateMessage m = messageFactory.createPrivateMessage(g,
+					timestamp, getRandomString(42), attachments);
+			messagingManager0.addLocalMessage(m);
+			ids.add(m.getMessage().getId());
+		}
+		ConversationManager conversationManager0 =
+				c0.getConversationManager();
+
+		// The first page should contain the two newest messages
+		List<ConversationMessageHeader> page =
+				conversationManager0.getMessageHeaders(contactId,
+						Long.MAX_VALUE, 2);
+		assertEquals(asList(ids.get(5), ids.get(4)), getIds(page));
+
+		// The second page should include both messages with timestamp 2
+		page = conversationManager0.getMessageHeaders(contactId, 4, 2);
+		assertEquals(3, page.size());
+		assertEquals(ids.get(3), page.get(0).getId());
+		assertEquals(new HashSet<>(asList(ids.get(1), ids.get(2))),
+				new HashSet<>(getIds(page.subList(1, 3))));
+
+		// The last page should contain the oldest message
+		page = conversationManager0.getMessageHeaders(contactId, 2, 2);
+		assertEquals(singletonList(ids.get(0)), getIds(page));
+		assertEquals(emptyList(),
+				conversationManager0.getMessageHeaders(contactId, 1, 2));
+	}
+
+	@Test
+	public void testGetMessageTexts() throws Exception {
+		GroupId g = messagingManager0.getConversationId(contactId);
+		String text = getRandomString(42), legacyText = getRandomString(42);
+		PrivateMessage m0 = sendMessage(c0, c1, text,
+				singletonList(addAttachment(c0)));
+		PrivateMessage m1 = sendMessage(c0, c1, null,
+				singletonList(addAttachment(c0)));
+		PrivateMessage m2 = messageFactory.createLegacyPrivateMessage(g,
+				clock.currentTimeMillis(), legacyText);
+		messagingManager0.addLocalMessage(m2);
+		MessageId id0 = m0.getMessage().getId();
+		MessageId id1 = m1.getMessage().getId();
+		MessageId id2 = m2.getMessage().getId();
+
+		// Messages without text should be left out of the map
+		Map<MessageId, String> texts =
+				messagingManager0.getMessageTexts(asList(id0, id1, id2));
+		assertEquals(2, texts.size());
+		assertEquals(text, texts.get(id0));
+		assertEquals(legacyText, texts.get(id2));
+		assertEquals(text, messagingManager0.getMessageText(id0));
+		assertNull(messagingManager0.getMessageText(id1));
+		assertEquals(legacyText, messagingManager0.getMessageText(id2));
+		assertEquals(emptyMap(), messagingManager0.getMessageTexts(emptyList()));
+
+		// Messages that don't exist should be left out of the map
+		texts = messagingManager0.getMessageTexts(
+				asList(new MessageId(getRandomId()), id0));
+		assertEquals(singletonMap(id0, text), texts);
+	}
+
+	private List<MessageId> getIds(List<ConversationMessageHeader> headers) {
+		List<MessageId> ids = new ArrayList<>();
+		for (ConversationMessageHeader h : headers) ids.add(h.getId());
+		return ids;
+	}
+
 	private PrivateMessage sendMessage(BriarIntegrationTestComponent from,
 			BriarIntegrationTestComponent to, String text)
 			throws Exception {
@@ -378,6 +465,13 @@ public class MessagingManagerIntegrationTest
 			long msgCount, long unreadCount) throws Exception {
 		GroupId g = c.getMessagingManager().getConversationId(contactId);
 		assertGroupCount(c.getMessageTracker(), g, msgCount, unreadCount);
+		// The conversation's counts should also be returned in bulk
+		Map<ContactId, GroupCount> counts = c.getConversationManager()
+				.getGroupCounts(singletonList(contactId));
+		assertEquals(1, counts.size());
+		GroupCount count = counts.get(contactId);
+		assertEquals(msgCount, count.getMsgCount());
+		assertEquals(unreadCount, count.getUnreadCount());
 	}
 
 
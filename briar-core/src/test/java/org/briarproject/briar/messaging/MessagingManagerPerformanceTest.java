@@ -0,0 +1,127 @@
+package org.briarproject.briar.messaging;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.briarproject.briar.api.conversation.ConversationManager;
+import org.briarproject.briar.api.conversation.ConversationMessageHeader;
+import org.briarproject.briar.api.messaging.MessagingManager;
+import org.briarproject.briar.api.messaging.PrivateMessage;
+import org.briarproject.briar.api.messaging.PrivateMessageFactory;
+import org.briarproject.briar.test.BriarIntegrationTest;
+import org.briarproject.briar.test.BriarIntegrationTestComponent;
+import org.briarproject.briar.test.DaggerBriarIntegrationTestComponent;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptyList;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how long it takes to load the texts of a long conversation after
+ * loading its headers, as the headless GET /v1/messages/{contactId} endpoint
+ * does, loading the texts one at a time or in bulk.
+ */
+@Ignore
+public class MessagingManagerPerformanceTest
+		extends BriarIntegrationTest<BriarIntegrationTestComponent> {
+
+	private static final int MESSAGES = 10_000;
+	private static final int WARMUP_ITERATIONS = 2;
+	private static final int ITERATIONS = 10;
+
+	@Override
+	protected void createComponents() {
+		BriarIntegrationTestComponent component =
+				DaggerBriarIntegrationTestComponent.builder().build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(component);
+		component.inject(this);
+
+		c0 = DaggerBriarIntegrationTestComponent.builder()
+				.testDatabaseConfigModule(new TestDatabaseConfigModule(t0Dir))
+				.build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(c0);
+
+		c1 = DaggerBriarIntegrationTestComponent.builder()
+				.testDatabaseConfigModule(new TestDatabaseConfigModule(t1Dir))
+				.build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(c1);
+
+		c2 = DaggerBriarIntegrationTestComponent.builder()
+				.testDatabaseConfigModule(new TestDatabaseConfigModule(t2Dir))
+				.build();
+		BriarIntegrationTestComponent.Helper.injectEagerSingletons(c2);
+	}
+
+	@Test
+	public void testListConversation() throws Exception {
+		ContactId contactId = contactId1From0;
+		MessagingManager messagingManager = c0.getMessagingManager();
+		ConversationManager conversationManager = c0.getConversationManager();
+		PrivateMessageFactory messageFactory = c0.getPrivateMessageFactory();
+		GroupId g = messagingManager.getConversationId(contactId);
+		long timestamp = clock.currentTimeMillis();
+		for (int i = 0; i < MESSAGES; i++) {
+			PrivateMessage m = messageFactory.createPrivateMessage(g,
+					timestamp + i, getRandomString(100), emptyList());
+			messagingManager.addLocalMessage(m);
+		}
+
+		Collection<ConversationMessageHeader> headers =
+				conversationManager.getMessageHeaders(contactId);
+		List<MessageId> ids = new ArrayList<>(headers.size());
+		for (ConversationMessageHeader h : headers) ids.add(h.getId());
+
+		List<Double> oneByOne = new ArrayList<>(ITERATIONS);
+		List<Double> bulk = new ArrayList<>(ITERATIONS);
+		for (int i = 0; i < WARMUP_ITERATIONS + ITERATIONS; i++) {
+			// Load the texts one at a time
+			long start = System.nanoTime();
+			int texts = 0;
+			for (MessageId m : ids) {
+				if (messagingManager.getMessageText(m) != null) texts++;
+			}
+			long duration = System.nanoTime() - start;
+			assertEquals(MESSAGES, texts);
+			if (i >= WARMUP_ITERATIONS) oneByOne.add(duration / 1_000_000.0);
+
+			// Load the texts in bulk
+			start = System.nanoTime();
+			Map<MessageId, String> textMap =
+					messagingManager.getMessageTexts(ids);
+			duration = System.nanoTime() - start;
+			assertEquals(MESSAGES, textMap.size());
+			if (i >= WARMUP_ITERATIONS) bulk.add(duration / 1_000_000.0);
+		}
+		writeResult("One by one (ms)", oneByOne);
+		writeResult("Bulk (ms)", bulk);
+	}
+
+	private String getTestName() {
+		return getClass().getSimpleName();
+	}
+
+	private void writeResult(String name, List<Double> results)
+			throws IOException {
+		String result = String.format("%s\t%.1f\t%.1f", name,
+				getMean(results), getMedian(results));
+		System.out.println(result);
+		PrintWriter out = new PrintWriter(new FileOutputStream(
+				getTestName() + ".tsv", true), true);
+		out.println(new Date() + "\t" + result);
+		out.close();
+	}
+}
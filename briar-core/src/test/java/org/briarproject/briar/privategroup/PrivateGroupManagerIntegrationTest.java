@@ -6,6 +6,7 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
+import org.briarproject.briar.api.client.ThreadedHeader;
 import org.briarproject.briar.api.privategroup.GroupMember;
 import org.briarproject.briar.api.privategroup.GroupMessage;
 import org.briarproject.briar.api.privategroup.GroupMessageHeader;
@@ -19,7 +20,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.List;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.bramble.api.identity.AuthorInfo.Status.VERIFIED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
@@ -119,6 +122,53 @@ public class PrivateGroupManagerIntegrationTest
 		assertEquals(3, count.getMsgCount());
 	}
 
+	@Test
+	public void testGetHeadersInThreadOrder() throws Exception {
+		addGroup();
+
+		// create and add a message and a reply
+		long time = clock.currentTimeMillis();
+		MessageId previousMsgId = groupManager0.getPreviousMsgId(groupId0);
+		GroupMessage msg1 = groupMessageFactory
+				.createGroupMessage(groupId0, time + 1, null, author0, "a",
+						previousMsgId);
+		groupManager0.addLocalMessage(msg1);
+		GroupMessage msg2 = groupMessageFactory
+				.createGroupMessage(groupId0, time + 2,
+						msg1.getMessage().getId(), author0, "b",
+						msg1.getMessage().getId());
+		groupManager0.addLocalMessage(msg2);
+
+		// sync test messages
+		sync0To1(2, true);
+
+		// the join messages come first, followed by the thread
+		for (PrivateGroupManager groupManager :
+				asList(groupManager0, groupManager1)) {
+			List<ThreadedHeader<GroupMessageHeader>> headers =
+					groupManager.getHeaders(groupId0, null, 10);
+			assertEquals(4, headers.size());
+			for (int i = 0; i < 2; i++) {
+				assertTrue(headers.get(i).getHeader()
+						instanceof JoinMessageHeader);
+				assertEquals(0, headers.get(i).getDepth());
+			}
+			assertEquals(msg1.getMessage().getId(),
+					headers.get(2).getHeader().getId());
+			assertEquals(0, headers.get(2).getDepth());
+			assertEquals(msg2.getMessage().getId(),
+					headers.get(3).getHeader().getId());
+			assertEquals(1, headers.get(3).getDepth());
+
+			// get the rest of the messages after the first message
+			MessageId first = headers.get(2).getHeader().getId();
+			headers = groupManager.getHeaders(groupId0, first, 10);
+			assertEquals(1, headers.size());
+			assertEquals(msg2.getMessage().getId(),
+					headers.get(0).getHeader().getId());
+		}
+	}
+
 	@Test
 	public void testMessageWithWrongPreviousMsgId() throws Exception {
 		addGroup();
@@ -62,11 +62,12 @@ constructor(
     }
 
     override fun list(ctx: Context): Context {
-        val contacts = contactManager.contacts.map { contact ->
-            val latestMsgTime = conversationManager.getGroupCount(contact.id).latestMsgTime
-            contact.output(latestMsgTime)
+        val contacts = contactManager.contacts
+        val counts = conversationManager.getGroupCounts(contacts.map { it.id })
+        val output = contacts.mapNotNull { contact ->
+            counts[contact.id]?.let { contact.output(it.latestMsgTime) }
         }
-        return ctx.json(contacts)
+        return ctx.json(output)
     }
 
     override fun getLink(ctx: Context): Context {
@@ -11,6 +11,7 @@ import org.briarproject.bramble.api.db.DatabaseExecutor
 import org.briarproject.bramble.api.db.NoSuchContactException
 import org.briarproject.bramble.api.event.Event
 import org.briarproject.bramble.api.event.EventListener
+import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.system.Clock
 import org.briarproject.bramble.util.StringUtils.utf8IsTooLong
 import org.briarproject.briar.api.blog.BlogInvitationRequest
@@ -33,14 +34,17 @@ import org.briarproject.briar.headless.event.output
 import org.briarproject.briar.headless.getContactIdFromPathParam
 import org.briarproject.briar.headless.getFromJson
 import org.briarproject.briar.headless.json.JsonDict
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.Executor
-import javax.annotation.concurrent.Immutable
+import javax.annotation.concurrent.ThreadSafe
 import javax.inject.Inject
 import javax.inject.Singleton
 
 internal const val EVENT_CONVERSATION_MESSAGE = "ConversationMessageReceivedEvent"
 
-@Immutable
+internal const val DEFAULT_PAGE_SIZE = 50
+
+@ThreadSafe
 @Singleton
 internal class MessagingControllerImpl
 @Inject
@@ -55,10 +59,31 @@ constructor(
     private val clock: Clock
 ) : MessagingController, EventListener {
 
+    /**
+     * Received private messages waiting for their texts to be loaded, so the
+     * texts of messages that arrive in a burst can be loaded together.
+     */
+    private val pendingMessages = ConcurrentLinkedQueue<ConversationMessageReceivedEvent<*>>()
+
     override fun list(ctx: Context): Context {
         val contact = getContact(ctx)
-        val jsonVisitor = JsonVisitor(contact.id, messagingManager)
-        val messages = conversationManager.getMessageHeaders(contact.id)
+        val beforeString = ctx.queryParam("before")
+        val limitString = ctx.queryParam("limit")
+        val headers = if (beforeString == null && limitString == null) {
+            conversationManager.getMessageHeaders(contact.id)
+        } else {
+            val before = if (beforeString == null) Long.MAX_VALUE
+            else beforeString.toLongOrNull() ?: throw BadRequestResponse("Invalid 'before'")
+            val limit = if (limitString == null) DEFAULT_PAGE_SIZE
+            else limitString.toIntOrNull() ?: throw BadRequestResponse("Invalid 'limit'")
+            if (limit <= 0) throw BadRequestResponse("Invalid 'limit'")
+            conversationManager.getMessageHeaders(contact.id, before, limit)
+        }
+        val ids = headers.filterIsInstance<PrivateMessageHeader>().map { it.id }
+        val texts =
+            if (ids.isEmpty()) emptyMap<MessageId, String>() else messagingManager.getMessageTexts(ids)
+        val jsonVisitor = JsonVisitor(contact.id, texts)
+        val messages = headers
             .sortedBy { it.timestamp }
             .map { header -> header.accept(jsonVisitor) }
         return ctx.json(messages)
@@ -82,10 +107,9 @@ constructor(
     override fun eventOccurred(e: Event) {
         when (e) {
             is ConversationMessageReceivedEvent<*> -> {
-                val h = e.messageHeader
-                if (h is PrivateMessageHeader) dbExecutor.execute {
-                    val text = messagingManager.getMessageText(h.id)
-                    webSocketController.sendEvent(EVENT_CONVERSATION_MESSAGE, e.output(text))
+                if (e.messageHeader is PrivateMessageHeader) {
+                    pendingMessages.add(e)
+                    dbExecutor.execute { sendPendingMessages() }
                 } else {
                     webSocketController.sendEvent(EVENT_CONVERSATION_MESSAGE, e.output())
                 }
@@ -93,6 +117,19 @@ constructor(
         }
     }
 
+    @DatabaseExecutor
+    private fun sendPendingMessages() {
+        val events = ArrayList<ConversationMessageReceivedEvent<*>>()
+        while (true) events.add(pendingMessages.poll() ?: break)
+        // An earlier task may already have sent these messages
+        if (events.isEmpty()) return
+        val texts = messagingManager.getMessageTexts(events.map { it.messageHeader.id })
+        for (e in events) {
+            val text = texts[e.messageHeader.id]
+            webSocketController.sendEvent(EVENT_CONVERSATION_MESSAGE, e.output(text))
+        }
+    }
+
     private fun getContact(ctx: Context): Contact {
         val contactId = ctx.getContactIdFromPathParam()
         return try {
@@ -105,11 +142,11 @@ constructor(
 
 private class JsonVisitor(
     private val contactId: ContactId,
-    private val messagingManager: MessagingManager
+    private val texts: Map<MessageId, String>
 ) : ConversationMessageVisitor<JsonDict> {
 
     override fun visitPrivateMessageHeader(h: PrivateMessageHeader) =
-        h.output(contactId, messagingManager.getMessageText(h.id))
+        h.output(contactId, texts[h.id])
 
     override fun visitBlogInvitationRequest(r: BlogInvitationRequest) = r.output(contactId)
 
@@ -63,5 +63,14 @@ internal class HeadlessTestModule(private val appDir: File) {
     internal fun provideObjectMapper() = ObjectMapper()
 
     @Provides
-    internal fun provideFeatureFlags() = FeatureFlags { false }
+    internal fun provideFeatureFlags(): FeatureFlags = object : FeatureFlags {
+        override fun shouldEnableImageAttachments() = false
+        override fun shouldEnableGroupCommit() = true
+        override fun shouldEnableConcurrentReads() = true
+        override fun shouldEnableParallelDatabaseExecutor() = true
+        override fun shouldEnableDatabaseCache() = true
+        override fun shouldEnablePipelinedSync() = true
+        override fun shouldEnableTcpSelector() = true
+        override fun shouldEnableVirtualThreads() = true
+    }
 }
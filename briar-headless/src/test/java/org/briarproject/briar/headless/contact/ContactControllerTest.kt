@@ -24,6 +24,7 @@ import org.briarproject.bramble.identity.output
 import org.briarproject.bramble.test.TestUtils.getPendingContact
 import org.briarproject.bramble.test.TestUtils.getRandomBytes
 import org.briarproject.bramble.util.StringUtils.getRandomString
+import org.briarproject.briar.api.client.MessageTracker.GroupCount
 import org.briarproject.briar.headless.ControllerTest
 import org.briarproject.briar.headless.json.JsonDict
 import org.junit.jupiter.api.Assertions.assertNotNull
@@ -44,6 +45,7 @@ internal class ContactControllerTest : ControllerTest() {
     @Test
     fun testEmptyContactList() {
         every { contactManager.contacts } returns emptyList<Contact>()
+        every { conversationManager.getGroupCounts(emptyList()) } returns emptyMap()
         every { ctx.json(emptyList<Any>()) } returns ctx
         controller.list(ctx)
     }
@@ -51,7 +53,9 @@ internal class ContactControllerTest : ControllerTest() {
     @Test
     fun testList() {
         every { contactManager.contacts } returns listOf(contact)
-        every { conversationManager.getGroupCount(contact.id).latestMsgTime } returns timestamp
+        every {
+            conversationManager.getGroupCounts(listOf(contact.id))
+        } returns mapOf(contact.id to GroupCount(1, 0, timestamp))
         every { ctx.json(listOf(contact.output(timestamp))) } returns ctx
         controller.list(ctx)
     }
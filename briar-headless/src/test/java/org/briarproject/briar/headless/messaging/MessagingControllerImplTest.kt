@@ -64,8 +64,11 @@ internal class MessagingControllerImplTest : ControllerTest() {
     @Test
     fun list() {
         expectGetContact()
+        expectNoPaging()
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(header)
-        every { messagingManager.getMessageText(message.id) } returns text
+        every {
+            messagingManager.getMessageTexts(listOf(message.id))
+        } returns mapOf(message.id to text)
         every { ctx.json(listOf(header.output(contact.id, text))) } returns ctx
 
         controller.list(ctx)
@@ -79,6 +82,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
         )
 
         expectGetContact()
+        expectNoPaging()
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(request)
         every { ctx.json(listOf(request.output(contact.id))) } returns ctx
 
@@ -89,12 +93,65 @@ internal class MessagingControllerImplTest : ControllerTest() {
     fun testEmptyList() {
         every { ctx.pathParam("contactId") } returns contact.id.int.toString()
         every { contactManager.getContact(contact.id) } returns contact
+        expectNoPaging()
         every { conversationManager.getMessageHeaders(contact.id) } returns emptyList()
         every { ctx.json(emptyList<Any>()) } returns ctx
 
         controller.list(ctx)
     }
 
+    @Test
+    fun listPage() {
+        val older = PrivateMessageHeader(
+            message.id, group.id, timestamp - 1, true, true, true, true, true, emptyList()
+        )
+        expectGetContact()
+        every { ctx.queryParam("before") } returns timestamp.toString()
+        every { ctx.queryParam("limit") } returns "2"
+        every {
+            conversationManager.getMessageHeaders(contact.id, timestamp, 2)
+        } returns listOf(header, older)
+        every {
+            messagingManager.getMessageTexts(listOf(message.id, message.id))
+        } returns mapOf(message.id to text)
+        every {
+            ctx.json(listOf(older.output(contact.id, text), header.output(contact.id, text)))
+        } returns ctx
+
+        controller.list(ctx)
+    }
+
+    @Test
+    fun listPageWithDefaults() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns null
+        every { ctx.queryParam("limit") } returns "10"
+        every {
+            conversationManager.getMessageHeaders(contact.id, Long.MAX_VALUE, 10)
+        } returns emptyList()
+        every { ctx.json(emptyList<Any>()) } returns ctx
+
+        controller.list(ctx)
+    }
+
+    @Test
+    fun listPageWithInvalidLimit() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns null
+        every { ctx.queryParam("limit") } returns "0"
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
+    @Test
+    fun listPageWithInvalidBefore() {
+        expectGetContact()
+        every { ctx.queryParam("before") } returns "yesterday"
+        every { ctx.queryParam("limit") } returns null
+
+        assertThrows(BadRequestResponse::class.java) { controller.list(ctx) }
+    }
+
     @Test
     fun listInvalidContactId() {
         testInvalidContactId { controller.list(ctx) }
@@ -166,7 +223,9 @@ internal class MessagingControllerImplTest : ControllerTest() {
     fun privateMessageEvent() {
         val event = PrivateMessageReceivedEvent(header, contact.id)
 
-        every { messagingManager.getMessageText(message.id) } returns text
+        every {
+            messagingManager.getMessageTexts(listOf(message.id))
+        } returns mapOf(message.id to text)
         every {
             webSocketController.sendEvent(
                 EVENT_CONVERSATION_MESSAGE,
@@ -242,6 +301,11 @@ internal class MessagingControllerImplTest : ControllerTest() {
         assertJsonEquals(json, request.output(contact.id))
     }
 
+    private fun expectNoPaging() {
+        every { ctx.queryParam("before") } returns null
+        every { ctx.queryParam("limit") } returns null
+    }
+
     private fun expectGetContact() {
         every { ctx.pathParam("contactId") } returns contact.id.int.toString()
         every { contactManager.getContact(contact.id) } returns contact